@@ -49,6 +49,7 @@ import com.google.gson.JsonParseException;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -57,10 +58,18 @@ import io.github.trulyfree.easyaspi.lib.callback.StagedCallback;
 import io.github.trulyfree.easyaspi.lib.disp.EAPDisplay;
 import io.github.trulyfree.easyaspi.lib.disp.EAPDisplayableModule;
 import io.github.trulyfree.easyaspi.lib.dl.DownloadHandler;
+import io.github.trulyfree.easyaspi.lib.event.Event;
+import io.github.trulyfree.easyaspi.lib.event.EventBus;
+import io.github.trulyfree.easyaspi.lib.event.EventSubscriber;
+import io.github.trulyfree.easyaspi.lib.event.Subscription;
 import io.github.trulyfree.easyaspi.lib.io.FileHandler;
+import io.github.trulyfree.easyaspi.lib.metrics.MetricsRegistry;
 import io.github.trulyfree.easyaspi.lib.module.ModuleHandler;
+import io.github.trulyfree.easyaspi.lib.module.UpdateChecker;
 import io.github.trulyfree.easyaspi.lib.module.conf.Config;
 import io.github.trulyfree.easyaspi.lib.module.conf.ModuleConfig;
+import io.github.trulyfree.easyaspi.lib.ssh.SSHHandler;
+import io.github.trulyfree.easyaspi.lib.telemetry.TelemetryService;
 
 import static android.widget.LinearLayout.LayoutParams;
 
@@ -93,11 +102,26 @@ public final class MainActivity extends AppCompatActivity implements EAPActivity
      */
     private ModuleHandler moduleHandler;
 
+    /**
+     * SSHHandler of this EAPActivity implementation.
+     */
+    private SSHHandler sshHandler;
+
     /**
      * ExecutorService of this EAPActivity implementation.
      */
     private ExecutorService executorService;
 
+    /**
+     * Checks for module updates in the background, applying them while this activity is idle.
+     */
+    private UpdateChecker updateChecker;
+
+    /**
+     * Subscription to applied module updates.
+     */
+    private Subscription<Void> updatedSubscription;
+
     /**
      * Current ID of the navigation bar.
      */
@@ -109,11 +133,36 @@ public final class MainActivity extends AppCompatActivity implements EAPActivity
         setup();
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // Nothing is displayed over the module list, so updates may be applied now.
+        updateChecker.setIdle(true);
+    }
+
+    @Override
+    protected void onPause() {
+        updateChecker.setIdle(false);
+        super.onPause();
+    }
+
+    @Override
+    protected void onDestroy() {
+        updatedSubscription.cancel();
+        updateChecker.stop();
+        // Installs already running finish; the handler releases its generation after the last.
+        executorService.shutdown();
+        moduleHandler.destroy();
+        sshHandler.destroy();
+        super.onDestroy();
+    }
+
     @Override
     public boolean setup() {
         downloadHandler = new DownloadHandler(this);
         fileHandler = new FileHandler(this);
         moduleHandler = new ModuleHandler(this);
+        sshHandler = new SSHHandler(this);
         executorService = Executors.newCachedThreadPool();
 
         setContentView(R.layout.activity_main);
@@ -346,7 +395,27 @@ public final class MainActivity extends AppCompatActivity implements EAPActivity
         });
 
         moduleHandler.setup();
+        sshHandler.setup();
         refreshFilling();
+
+        updatedSubscription = EventBus.SHARED.getTopic(UpdateChecker.UPDATED_TOPIC, Void.class).subscribe(
+                new EventSubscriber<Void>() {
+                    @Override
+                    public void onEvent(Event<Void> event, boolean endOfBatch) {
+                        Toast.makeText(MainActivity.this, "Updated " + event.getLong() + " module(s).", Toast.LENGTH_SHORT).show();
+                        if (endOfBatch) {
+                            refreshFilling();
+                        }
+                    }
+                },
+                new Executor() {
+                    @Override
+                    public void execute(@NonNull Runnable runnable) {
+                        runOnUiThread(runnable);
+                    }
+                });
+        updateChecker = new UpdateChecker(moduleHandler);
+        updateChecker.start();
         return true;
     }
 
@@ -570,6 +639,26 @@ public final class MainActivity extends AppCompatActivity implements EAPActivity
         return moduleHandler;
     }
 
+    @Override
+    public SSHHandler getSSHHandler() {
+        return sshHandler;
+    }
+
+    @Override
+    public TelemetryService getTelemetryService() {
+        return TelemetryService.SHARED;
+    }
+
+    @Override
+    public EventBus getEventBus() {
+        return EventBus.SHARED;
+    }
+
+    @Override
+    public MetricsRegistry getMetricsRegistry() {
+        return MetricsRegistry.SHARED;
+    }
+
     @Override
     public ExecutorService getExecutorService() {
         return executorService;
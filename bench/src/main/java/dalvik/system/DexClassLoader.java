@@ -0,0 +1,56 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package dalvik.system;
+
+/**
+ * Stand-in for the platform's DexClassLoader when the lib runs on the JVM. The android jar only
+ * has stubs which throw when constructed; this class comes first on the bench classpath, so
+ * ModuleHandler can build and cache its loader as it does on a device. Dex files cannot be loaded
+ * here, so every class is looked up in the parent.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class DexClassLoader extends ClassLoader {
+
+    /**
+     * The dex this loader was created for.
+     */
+    private final String dexPath;
+
+    /**
+     * Standard constructor for DexClassLoader, matching the platform's.
+     *
+     * @param dexPath The dex to load classes from.
+     * @param optimizedDirectory The directory to place the optimized dex in. Unused.
+     * @param librarySearchPath The native library path. Unused.
+     * @param parent The parent class loader.
+     */
+    public DexClassLoader(String dexPath, String optimizedDirectory, String librarySearchPath, ClassLoader parent) {
+        super(parent);
+        this.dexPath = dexPath;
+    }
+
+    @Override
+    public String toString() {
+        return "DexClassLoader[" + dexPath + "]";
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.github.trulyfree.easyaspi.lib.EAPActivity;
+import io.github.trulyfree.easyaspi.lib.disp.EAPDisplayableModule;
+import io.github.trulyfree.easyaspi.lib.dl.DownloadHandler;
+import io.github.trulyfree.easyaspi.lib.event.EventBus;
+import io.github.trulyfree.easyaspi.lib.io.FileHandler;
+import io.github.trulyfree.easyaspi.lib.metrics.MetricsRegistry;
+import io.github.trulyfree.easyaspi.lib.module.ModuleHandler;
+import io.github.trulyfree.easyaspi.lib.ssh.SSHHandler;
+import io.github.trulyfree.easyaspi.lib.telemetry.TelemetryService;
+
+/**
+ * Implementation of EAPActivity for running the lib on the JVM. App directories are created
+ * beneath a temporary root, named as Android names them, and UI calls run inline. Nothing is
+ * created until it is asked for, so a benchmark only pays for the handlers it uses.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class BenchActivity implements EAPActivity {
+
+    /**
+     * The directory app directories are created in.
+     */
+    private final File root;
+
+    /**
+     * DownloadHandler of this EAPActivity implementation.
+     */
+    private DownloadHandler downloadHandler;
+
+    /**
+     * FileHandler of this EAPActivity implementation.
+     */
+    private FileHandler fileHandler;
+
+    /**
+     * ModuleHandler of this EAPActivity implementation.
+     */
+    private ModuleHandler moduleHandler;
+
+    /**
+     * SSHHandler of this EAPActivity implementation.
+     */
+    private SSHHandler sshHandler;
+
+    /**
+     * ExecutorService of this EAPActivity implementation.
+     */
+    private ExecutorService executorService;
+
+    /**
+     * Current module held by this EAPActivity implementation.
+     */
+    private EAPDisplayableModule currentModule;
+
+    /**
+     * Standard constructor for BenchActivity. Creates a new temporary root.
+     *
+     * @throws IOException If the root could not be created.
+     */
+    public BenchActivity() throws IOException {
+        File file = File.createTempFile("eap-bench", "");
+        if (!file.delete() || !file.mkdirs()) {
+            throw new IOException("Could not create " + file);
+        }
+        this.root = file;
+    }
+
+    /**
+     * Returns the directory app directories are created in.
+     *
+     * @return root The directory app directories are created in.
+     */
+    public File getRoot() {
+        return root;
+    }
+
+    @Override
+    public synchronized DownloadHandler getDownloadHandler() {
+        if (downloadHandler == null) {
+            downloadHandler = new DownloadHandler(this);
+        }
+        return downloadHandler;
+    }
+
+    @Override
+    public synchronized FileHandler getFileHandler() {
+        if (fileHandler == null) {
+            fileHandler = new FileHandler(this);
+        }
+        return fileHandler;
+    }
+
+    @Override
+    public synchronized ModuleHandler getModuleHandler() {
+        if (moduleHandler == null) {
+            moduleHandler = new ModuleHandler(this);
+        }
+        return moduleHandler;
+    }
+
+    @Override
+    public synchronized SSHHandler getSSHHandler() {
+        if (sshHandler == null) {
+            sshHandler = new SSHHandler(this);
+        }
+        return sshHandler;
+    }
+
+    @Override
+    public TelemetryService getTelemetryService() {
+        return TelemetryService.SHARED;
+    }
+
+    @Override
+    public EventBus getEventBus() {
+        return EventBus.SHARED;
+    }
+
+    @Override
+    public MetricsRegistry getMetricsRegistry() {
+        return MetricsRegistry.SHARED;
+    }
+
+    @Override
+    public synchronized ExecutorService getExecutorService() {
+        if (executorService == null) {
+            executorService = Executors.newCachedThreadPool();
+        }
+        return executorService;
+    }
+
+    @Override
+    public EAPDisplayableModule getDisplayableModule() {
+        return currentModule;
+    }
+
+    @Override
+    public boolean setDisplayableModule(EAPDisplayableModule displayableModule) {
+        this.currentModule = displayableModule;
+        return true;
+    }
+
+    @Override
+    public File getDir(String appdir, int modePrivate) {
+        File dir = new File(root, "app_" + appdir);
+        dir.mkdirs();
+        return dir;
+    }
+
+    @Override
+    public ClassLoader getClassLoader() {
+        return BenchActivity.class.getClassLoader();
+    }
+
+    @Override
+    public void runOnUiThread(Runnable runnable) {
+        runnable.run();
+    }
+
+    @Override
+    public void displayToUser(String text, int time) {
+        System.out.println(text);
+    }
+
+    @Override
+    public boolean setup() {
+        return true;
+    }
+
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    @Override
+    public synchronized boolean destroy() {
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+        if (moduleHandler != null) {
+            moduleHandler.destroy();
+        }
+        try {
+            getFileHandler().deleteFile(root);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.bench;
+
+import com.google.gson.Gson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import io.github.trulyfree.easyaspi.lib.module.conf.ModuleConfig;
+
+/**
+ * Benchmarks of reading and writing module configs through Gson, as ModuleHandler does.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigBenchmark {
+
+    /**
+     * The number of dependencies of the config.
+     */
+    @Param({"0", "16"})
+    public int dependencies;
+
+    /**
+     * The Gson instance, shared as ModuleHandler shares its own.
+     */
+    private Gson gson;
+
+    /**
+     * The config, as JSON.
+     */
+    private String json;
+
+    /**
+     * The config.
+     */
+    private ModuleConfig config;
+
+    /**
+     * Creates the config.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        gson = new Gson();
+        json = Fixtures.configJson(dependencies);
+        config = gson.fromJson(json, ModuleConfig.class);
+    }
+
+    /**
+     * Parses a config.
+     *
+     * @return config The parsed config.
+     */
+    @Benchmark
+    public ModuleConfig parse() {
+        return gson.fromJson(json, ModuleConfig.class);
+    }
+
+    /**
+     * Serializes a config.
+     *
+     * @return json The serialized config.
+     */
+    @Benchmark
+    public String serialize() {
+        return gson.toJson(config);
+    }
+}
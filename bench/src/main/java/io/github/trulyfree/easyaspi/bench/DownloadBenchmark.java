@@ -0,0 +1,144 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import io.github.trulyfree.easyaspi.lib.dl.DownloadHandler;
+
+/**
+ * Benchmarks of DownloadHandler against an in-process HTTP server. The loopback interface removes
+ * the network, so these measure the handler's own overhead: connection setup, buffering and
+ * copying.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DownloadBenchmark {
+
+    /**
+     * The size of the download, in bytes.
+     */
+    @Param({"4096", "1048576"})
+    public int size;
+
+    /**
+     * The activity the handler belongs to.
+     */
+    private BenchActivity activity;
+
+    /**
+     * The server downloaded from.
+     */
+    private LocalHttpServer server;
+
+    /**
+     * The handler being measured.
+     */
+    private DownloadHandler downloadHandler;
+
+    /**
+     * The URL of the download.
+     */
+    private String url;
+
+    /**
+     * The buffer downloads are drained into.
+     */
+    private byte[] buffer;
+
+    /**
+     * Starts the server.
+     *
+     * @throws IOException If the server could not be started.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        activity = new BenchActivity();
+        server = new LocalHttpServer();
+        downloadHandler = activity.getDownloadHandler();
+        url = server.serve("/bench.jar", Fixtures.bytes(size, size));
+        buffer = new byte[8192];
+    }
+
+    /**
+     * Stops the server.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop();
+        activity.destroy();
+    }
+
+    /**
+     * Downloads into a String, as configs are downloaded.
+     *
+     * @return content The content downloaded.
+     * @throws IOException If the download fails.
+     */
+    @Benchmark
+    public String download() throws IOException {
+        return downloadHandler.download(null, url);
+    }
+
+    /**
+     * Drains a download stream, as jars are downloaded.
+     *
+     * @return total The number of bytes read.
+     * @throws IOException If the download fails.
+     */
+    @Benchmark
+    public long downloadStream() throws IOException {
+        InputStream input = downloadHandler.getDownloadStream(url);
+        long total = 0;
+        int count;
+        try {
+            while ((count = input.read(buffer)) != -1) {
+                total += count;
+            }
+        } finally {
+            input.close();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import io.github.trulyfree.easyaspi.lib.callback.EmptyCallback;
+import io.github.trulyfree.easyaspi.lib.callback.StagedCallback;
+import io.github.trulyfree.easyaspi.lib.module.ClassIndex;
+import io.github.trulyfree.easyaspi.lib.module.ModuleHandler;
+
+/**
+ * Benchmark of ModuleHandler's extraction of classes from the downloaded jars, before dexing.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtractionBenchmark {
+
+    /**
+     * The number of jars extracted.
+     */
+    @Param({"1", "8"})
+    public int jars;
+
+    /**
+     * The number of classes in each jar.
+     */
+    @Param({"200"})
+    public int classes;
+
+    /**
+     * The size of each class, in bytes.
+     */
+    @Param({"2048"})
+    public int classSize;
+
+    /**
+     * The activity the handler belongs to.
+     */
+    private BenchActivity activity;
+
+    /**
+     * The handler being measured.
+     */
+    private ModuleHandler moduleHandler;
+
+    /**
+     * The private ModuleHandler.unpackJars.
+     */
+    private Method unpackJars;
+
+    /**
+     * The directory the jars are extracted to.
+     */
+    private File undexedDir;
+
+    /**
+     * The directory prebuilt dex shipped in the jars is copied to. The fixture jars ship none.
+     */
+    private File prebuiltDexDir;
+
+    /**
+     * Writes the jars and points the handler at them, without the rest of its setup.
+     *
+     * @throws Exception If setup fails.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        activity = new BenchActivity();
+        moduleHandler = activity.getModuleHandler();
+        File jarDir = activity.getDir("jars", 0);
+        for (int i = 0; i < jars; i++) {
+            Fixtures.jar(new File(jarDir, "jar" + i + ".jar"), classes, classSize, i * classes);
+        }
+        Reflection.set(moduleHandler, "jarDir", jarDir);
+        undexedDir = activity.getDir("undexed", 0);
+        prebuiltDexDir = activity.getDir("prebuilt", 0);
+        unpackJars = Reflection.method(ModuleHandler.class, "unpackJars",
+                File.class, File.class, ClassIndex.Builder.class, StagedCallback.class);
+    }
+
+    /**
+     * Deletes the files created.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        activity.destroy();
+    }
+
+    /**
+     * Extracts every jar, replacing the classes extracted by the previous invocation.
+     *
+     * @return index The index of the extracted classes.
+     * @throws Exception If extraction fails.
+     */
+    @Benchmark
+    public ClassIndex unpackJars() throws Exception {
+        ClassIndex.Builder builder = new ClassIndex.Builder();
+        Reflection.invoke(unpackJars, moduleHandler, undexedDir, prebuiltDexDir, builder, EmptyCallback.EMPTY);
+        return builder.build();
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import io.github.trulyfree.easyaspi.lib.io.FileHandler;
+
+/**
+ * Benchmarks of FileHandler: reading and writing files, and resolving and validating paths.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileHandlerBenchmark {
+
+    /**
+     * The size of the file read and written, in bytes.
+     */
+    @Param({"4096", "1048576"})
+    public int size;
+
+    /**
+     * The activity the handler belongs to.
+     */
+    private BenchActivity activity;
+
+    /**
+     * The handler being measured.
+     */
+    private FileHandler fileHandler;
+
+    /**
+     * The private FileHandler.isValidName.
+     */
+    private Method isValidName;
+
+    /**
+     * The content written.
+     */
+    private byte[] content;
+
+    /**
+     * The content written, as a String.
+     */
+    private String stringContent;
+
+    /**
+     * The file read and written.
+     */
+    private File target;
+
+    /**
+     * Creates the handler and the file to read.
+     *
+     * @throws Exception If setup fails.
+     */
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        activity = new BenchActivity();
+        fileHandler = activity.getFileHandler();
+        isValidName = Reflection.method(FileHandler.class, "isValidName", String.class);
+        content = Fixtures.bytes(size, size);
+        stringContent = new String(content, "UTF-8");
+        target = fileHandler.generateFile("bench", "content.bin");
+        fileHandler.writeFile(new ByteArrayInputStream(content), null, false, target);
+    }
+
+    /**
+     * Deletes the files created.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        activity.destroy();
+    }
+
+    /**
+     * Writes a stream to a file.
+     *
+     * @return target The file written.
+     * @throws IOException If the write fails.
+     */
+    @Benchmark
+    public File writeStream() throws IOException {
+        fileHandler.writeFile(new ByteArrayInputStream(content), null, false, target);
+        return target;
+    }
+
+    /**
+     * Writes a String to a file.
+     *
+     * @return target The file written.
+     * @throws IOException If the write fails.
+     */
+    @Benchmark
+    public File writeString() throws IOException {
+        fileHandler.writeFile(stringContent, null, target);
+        return target;
+    }
+
+    /**
+     * Reads a file into a stream.
+     *
+     * @return output The content read.
+     * @throws IOException If the read fails.
+     */
+    @Benchmark
+    public ByteArrayOutputStream readStream() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(size);
+        fileHandler.readFile(output, null, target);
+        return output;
+    }
+
+    /**
+     * Reads a file into a String.
+     *
+     * @return content The content read.
+     * @throws IOException If the read fails.
+     */
+    @Benchmark
+    public String readString() throws IOException {
+        return fileHandler.readFile(null, target);
+    }
+
+    /**
+     * Resolves a nested path.
+     *
+     * @return file The resolved file.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public File generateFile() {
+        return fileHandler.generateFile("config", "modules", "io.github.trulyfree.bench.json");
+    }
+
+    /**
+     * Validates a typical file name.
+     *
+     * @return valid Whether the name is valid.
+     * @throws Exception If the method could not be invoked.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Object isValidName() throws Exception {
+        return Reflection.invoke(isValidName, fileHandler, "io.github.trulyfree.bench.json");
+    }
+}
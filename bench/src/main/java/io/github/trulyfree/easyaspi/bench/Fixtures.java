@@ -0,0 +1,223 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.bench;
+
+import com.google.gson.Gson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import io.github.trulyfree.easyaspi.lib.module.conf.Config;
+import io.github.trulyfree.easyaspi.lib.module.conf.ModuleConfig;
+
+/**
+ * Generates the inputs benchmarks run against. Everything is derived from a seed, so every run
+ * measures the same data.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public final class Fixtures {
+
+    /**
+     * The number of distinct byte values in generated content. Kept small so that content
+     * compresses about as well as class files do.
+     */
+    private static final int ALPHABET = 48;
+
+    /**
+     * Not instantiable.
+     */
+    private Fixtures() {}
+
+    /**
+     * Generates content.
+     *
+     * @param size The size of the content, in bytes.
+     * @param seed The seed to derive the content from.
+     * @return content The content.
+     */
+    public static byte[] bytes(int size, long seed) {
+        Random random = new Random(seed);
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) random.nextInt(ALPHABET);
+        }
+        return content;
+    }
+
+    /**
+     * Writes a jar of classes, spread over a few packages. Classes are named after their seed, so
+     * jars with distinct seeds do not overlap.
+     *
+     * @param target The jar to write.
+     * @param classes The number of classes.
+     * @param classSize The size of each class, in bytes.
+     * @param seed The seed to derive the classes from.
+     * @throws IOException If the jar could not be written.
+     */
+    public static void jar(File target, int classes, int classSize, long seed) throws IOException {
+        String[] names = new String[classes];
+        for (int i = 0; i < classes; i++) {
+            names[i] = "bench/p" + (i % 8) + "/C" + (seed + i);
+        }
+        jar(target, names, classSize, seed);
+    }
+
+    /**
+     * Writes a jar of classes with specific names.
+     *
+     * @param target The jar to write.
+     * @param names The internal names of the classes, such as <code>bench/p0/C0</code>.
+     * @param classSize The size of each class, in bytes.
+     * @param seed The seed to derive the classes from.
+     * @throws IOException If the jar could not be written.
+     */
+    public static void jar(File target, String[] names, int classSize, long seed) throws IOException {
+        JarOutputStream output = new JarOutputStream(new FileOutputStream(target));
+        try {
+            writeJar(output, names, classSize, seed);
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Builds a jar of classes with specific names in memory.
+     *
+     * @param names The internal names of the classes, such as <code>bench/p0/C0</code>.
+     * @param classSize The size of each class, in bytes.
+     * @param seed The seed to derive the classes from.
+     * @return jar The content of the jar.
+     * @throws IOException If the jar could not be built.
+     */
+    public static byte[] jar(String[] names, int classSize, long seed) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JarOutputStream output = new JarOutputStream(bytes);
+        writeJar(output, names, classSize, seed);
+        output.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes classes to a jar stream.
+     *
+     * @param output The stream to write to. It is not closed.
+     * @param names The internal names of the classes.
+     * @param classSize The size of each class, in bytes.
+     * @param seed The seed to derive the classes from.
+     * @throws IOException If the classes could not be written.
+     */
+    private static void writeJar(JarOutputStream output, String[] names, int classSize, long seed)
+            throws IOException {
+        for (int i = 0; i < names.length; i++) {
+            output.putNextEntry(new JarEntry(names[i] + ".class"));
+            output.write(classFile(names[i], classSize, seed + i));
+            output.closeEntry();
+        }
+    }
+
+    /**
+     * Generates a valid class file, so that dx accepts it. The class extends Object and declares
+     * nothing; it is padded to size with an unused string constant.
+     *
+     * @param name The internal name of the class, such as <code>bench/p0/C0</code>.
+     * @param size The size of the class file, in bytes. Small sizes are rounded up to the
+     *             smallest class file possible.
+     * @param seed The seed to derive the padding from.
+     * @return classFile The class file.
+     * @throws IOException Never; required by the stream written to.
+     */
+    public static byte[] classFile(String name, int size, long seed) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(0xCAFEBABE);
+        output.writeShort(0);
+        output.writeShort(49);
+        output.writeShort(6);
+        output.writeByte(7);
+        output.writeShort(2);
+        output.writeByte(1);
+        output.writeUTF(name);
+        output.writeByte(7);
+        output.writeShort(4);
+        output.writeByte(1);
+        output.writeUTF("java/lang/Object");
+        // Leaves room for the padding constant's own header and the seven shorts after it.
+        int padding = Math.max(0, Math.min(65535, size - output.size() - 3 - 14));
+        byte[] filler = bytes(padding, seed);
+        for (int i = 0; i < padding; i++) {
+            filler[i] += 'A';
+        }
+        output.writeByte(1);
+        output.writeShort(padding);
+        output.write(filler);
+        output.writeShort(0x0021);
+        output.writeShort(1);
+        output.writeShort(3);
+        output.writeShort(0);
+        output.writeShort(0);
+        output.writeShort(0);
+        output.writeShort(0);
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Creates a module config with dependencies.
+     *
+     * @param dependencies The number of dependencies.
+     * @param baseUrl The URL the jars are served beneath.
+     * @return config The config.
+     */
+    public static ModuleConfig config(int dependencies, String baseUrl) {
+        ModuleConfig config = new ModuleConfig();
+        config.setName("bench");
+        config.setVersion("1.0.0");
+        config.setJarUrl(baseUrl + "/bench.jar");
+        config.setConfUrl(baseUrl + "/bench.json");
+        config.setTargetModule("bench.p0.C0");
+        Config[] configs = new Config[dependencies];
+        for (int i = 0; i < dependencies; i++) {
+            configs[i] = new Config();
+            configs[i].setName("dependency" + i);
+            configs[i].setJarUrl(baseUrl + "/dependency" + i + ".jar");
+        }
+        config.setDependencies(configs);
+        return config;
+    }
+
+    /**
+     * Serializes a module config with dependencies as the repository would serve it.
+     *
+     * @param dependencies The number of dependencies.
+     * @return json The config as JSON.
+     */
+    public static String configJson(int dependencies) {
+        return new Gson().toJson(config(dependencies, "http://127.0.0.1/modules"));
+    }
+}
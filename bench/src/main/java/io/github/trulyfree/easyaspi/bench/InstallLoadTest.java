@@ -0,0 +1,251 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.bench;
+
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import io.github.trulyfree.easyaspi.lib.metrics.Histogram;
+import io.github.trulyfree.easyaspi.lib.metrics.MetricsRegistry;
+import io.github.trulyfree.easyaspi.lib.module.ModuleHandler;
+import io.github.trulyfree.easyaspi.lib.module.conf.ModuleConfig;
+
+/**
+ * End to end load test of module installs and refreshes against a ModuleRepository. Installs every
+ * module one at a time, as a user would, then refreshes them all a number of times, and reports
+ * throughput, tail latency, failures and peak heap use for each phase.
+ *
+ * Options are given as <code>key=value</code> arguments:
+ * <ul>
+ *     <li><code>modules</code> (200): the number of modules published.</li>
+ *     <li><code>libraries</code> (20): the number of libraries modules depend on.</li>
+ *     <li><code>dependencies</code> (2): the number of libraries per module.</li>
+ *     <li><code>classes</code> (20): the number of classes per jar.</li>
+ *     <li><code>classSize</code> (1024): the size of each class, in bytes.</li>
+ *     <li><code>latency</code> (0): the delay before each response, in milliseconds.</li>
+ *     <li><code>bandwidth</code> (0): the rate of each response, in bytes per second.</li>
+ *     <li><code>failureRate</code> (0): the fraction of requests which fail.</li>
+ *     <li><code>refreshes</code> (3): the number of refreshes of every module.</li>
+ *     <li><code>digests</code> (false): whether configs carry the size and digest of their jars,
+ *     letting refreshes skip unchanged jars.</li>
+ *     <li><code>bundles</code> (false): whether modules are installed from bundles, one request
+ *     each.</li>
+ * </ul>
+ *
+ * Run with: ./gradlew :bench:loadTest -PloadTestArgs='modules=500 latency=20'
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public final class InstallLoadTest {
+
+    /**
+     * Not instantiable.
+     */
+    private InstallLoadTest() {}
+
+    /**
+     * Runs the load test.
+     *
+     * @param args The options, as <code>key=value</code>.
+     * @throws Exception If the test could not be set up.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split == -1) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+
+        LocalHttpServer server = new LocalHttpServer();
+        BenchActivity activity = new BenchActivity();
+        try {
+            ModuleRepository repository = new ModuleRepository(server);
+            repository.setPublishDigests(Boolean.parseBoolean(option(options, "digests", "false")));
+            repository.setPublishBundles(Boolean.parseBoolean(option(options, "bundles", "false")));
+            repository.publish(intOption(options, "modules", 200),
+                    intOption(options, "libraries", 20),
+                    intOption(options, "dependencies", 2),
+                    intOption(options, "classes", 20),
+                    intOption(options, "classSize", 1024));
+            server.setLatency(intOption(options, "latency", 0));
+            server.setBandwidth(Long.parseLong(option(options, "bandwidth", "0")));
+            server.setFailureRate(Double.parseDouble(option(options, "failureRate", "0")));
+
+            ModuleHandler moduleHandler = activity.getModuleHandler();
+            if (!moduleHandler.setup()) {
+                throw new IllegalStateException("ModuleHandler failed to set up.");
+            }
+            install(moduleHandler, repository.getConfigUrls());
+            refresh(moduleHandler, intOption(options, "refreshes", 3));
+
+            System.out.println(String.format(Locale.US, "requests %d, injected failures %d",
+                    server.getRequests(), server.getInjectedFailures()));
+            Writer writer = new OutputStreamWriter(System.out);
+            MetricsRegistry.SHARED.writeTo(writer);
+            writer.flush();
+        } finally {
+            server.stop();
+            activity.destroy();
+        }
+    }
+
+    /**
+     * Installs every module, one at a time.
+     *
+     * @param moduleHandler The handler to install with.
+     * @param configUrls The URLs of the configs of the modules.
+     */
+    private static void install(ModuleHandler moduleHandler, List<String> configUrls) {
+        Histogram latency = new Histogram("install");
+        int failures = 0;
+        resetPeakHeap();
+        long start = System.nanoTime();
+        for (String configUrl : configUrls) {
+            long installStart = System.nanoTime();
+            try {
+                ModuleConfig config = moduleHandler.getModuleConfig(configUrl);
+                moduleHandler.getNewModule(null, config, null, false);
+            } catch (IOException e) {
+                failures++;
+            } catch (JsonParseException e) {
+                failures++;
+            }
+            latency.record(System.nanoTime() - installStart);
+        }
+        report("install", latency, failures, System.nanoTime() - start);
+    }
+
+    /**
+     * Refreshes every installed module a number of times, dexing them each time.
+     *
+     * @param moduleHandler The handler to refresh with.
+     * @param refreshes The number of refreshes.
+     */
+    private static void refresh(ModuleHandler moduleHandler, int refreshes) {
+        Histogram latency = new Histogram("refresh");
+        int failures = 0;
+        resetPeakHeap();
+        long start = System.nanoTime();
+        for (int i = 0; i < refreshes; i++) {
+            long refreshStart = System.nanoTime();
+            try {
+                moduleHandler.refreshAll(null);
+            } catch (IOException e) {
+                failures++;
+            } catch (JsonParseException e) {
+                failures++;
+            }
+            latency.record(System.nanoTime() - refreshStart);
+        }
+        report("refresh", latency, failures, System.nanoTime() - start);
+    }
+
+    /**
+     * Prints the results of a phase.
+     *
+     * @param phase The name of the phase.
+     * @param latency The latency of each operation of the phase, in nanoseconds.
+     * @param failures The number of operations which failed.
+     * @param nanos The duration of the phase, in nanoseconds.
+     */
+    private static void report(String phase, Histogram latency, int failures, long nanos) {
+        long succeeded = latency.getCount() - failures;
+        System.out.println(String.format(Locale.US,
+                "%s: %d ok, %d failed in %.2f s (%.1f/s); ms p50=%.1f p90=%.1f p99=%.1f max=%.1f; peak heap %.1f MiB",
+                phase,
+                succeeded,
+                failures,
+                nanos / 1e9,
+                succeeded * 1e9 / Math.max(1, nanos),
+                latency.getPercentile(50) / 1e6,
+                latency.getPercentile(90) / 1e6,
+                latency.getPercentile(99) / 1e6,
+                latency.getMax() / 1e6,
+                getPeakHeap() / (1024.0 * 1024.0)));
+    }
+
+    /**
+     * Resets the peak usage of every heap pool.
+     */
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Returns the sum of the peak usage of every heap pool since they were last reset. Pools peak
+     * at different times, so this is an upper bound.
+     *
+     * @return peakHeap The peak heap usage, in bytes.
+     */
+    private static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Returns an option.
+     *
+     * @param options The options given.
+     * @param key The key of the option.
+     * @param fallback The value if the option was not given.
+     * @return value The value of the option.
+     */
+    private static String option(Map<String, String> options, String key, String fallback) {
+        String value = options.get(key);
+        return value == null ? fallback : value;
+    }
+
+    /**
+     * Returns an integer option.
+     *
+     * @param options The options given.
+     * @param key The key of the option.
+     * @param fallback The value if the option was not given.
+     * @return value The value of the option.
+     */
+    private static int intOption(Map<String, String> options, String key, int fallback) {
+        return Integer.parseInt(option(options, key, String.valueOf(fallback)));
+    }
+}
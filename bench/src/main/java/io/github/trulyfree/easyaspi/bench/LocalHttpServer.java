@@ -0,0 +1,278 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process HTTP server on the loopback interface, serving fixed content by path. Lets
+ * DownloadHandler be measured without the network. Latency, a bandwidth limit and failures may be
+ * injected to stand in for a real module host. Responses carry an ETag, and conditional requests
+ * for unchanged content are answered with 304 Not Modified.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class LocalHttpServer {
+
+    /**
+     * The underlying server.
+     */
+    private final HttpServer server;
+
+    /**
+     * The threads handling requests.
+     */
+    private final ExecutorService executorService;
+
+    /**
+     * Content by path.
+     */
+    private final Map<String, byte[]> content;
+
+    /**
+     * Chooses which requests fail.
+     */
+    private final Random random;
+
+    /**
+     * The number of requests received.
+     */
+    private final AtomicLong requests;
+
+    /**
+     * The number of requests failed on purpose.
+     */
+    private final AtomicLong injectedFailures;
+
+    /**
+     * The number of requests answered with 304 Not Modified.
+     */
+    private final AtomicLong notModified;
+
+    /**
+     * The delay before each response, in milliseconds.
+     */
+    private volatile int latency;
+
+    /**
+     * The rate each response is sent at, in bytes per second, or 0 for no limit.
+     */
+    private volatile long bandwidth;
+
+    /**
+     * The fraction of requests answered with 503 Service Unavailable.
+     */
+    private volatile double failureRate;
+
+    /**
+     * Standard constructor for LocalHttpServer. Binds an ephemeral port and starts serving.
+     *
+     * @throws IOException If the server could not be bound.
+     */
+    public LocalHttpServer() throws IOException {
+        // Without this, Nagle's algorithm holds each body until the headers are acknowledged,
+        // adding a delayed ACK to every response.
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        this.content = new ConcurrentHashMap<String, byte[]>();
+        this.random = new Random(0);
+        this.requests = new AtomicLong();
+        this.injectedFailures = new AtomicLong();
+        this.notModified = new AtomicLong();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.executorService = Executors.newCachedThreadPool();
+        this.server.setExecutor(executorService);
+        this.server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = content.get(exchange.getRequestURI().getPath());
+                requests.incrementAndGet();
+                try {
+                    if (latency > 0) {
+                        Thread.sleep(latency);
+                    }
+                    if (failureRate > 0 && nextDouble() < failureRate) {
+                        injectedFailures.incrementAndGet();
+                        exchange.sendResponseHeaders(503, -1);
+                        return;
+                    }
+                    if (body == null) {
+                        exchange.sendResponseHeaders(404, -1);
+                        return;
+                    }
+                    String etag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+                    exchange.getResponseHeaders().set("ETag", etag);
+                    if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                        notModified.incrementAndGet();
+                        exchange.sendResponseHeaders(304, -1);
+                        return;
+                    }
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream output = exchange.getResponseBody();
+                    write(output, body);
+                    output.close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        this.server.start();
+    }
+
+    /**
+     * Serves content at a path, replacing anything served there before.
+     *
+     * @param path The path, starting with a slash.
+     * @param body The content to serve.
+     * @return url The URL the content is served at.
+     */
+    public String serve(String path, byte[] body) {
+        content.put(path, body);
+        return getUrl(path);
+    }
+
+    /**
+     * Returns the URL of a path on this server.
+     *
+     * @param path The path, starting with a slash.
+     * @return url The URL of the path.
+     */
+    public String getUrl(String path) {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getAddress().getHostAddress() + ":" + address.getPort() + path;
+    }
+
+    /**
+     * Writes a response body, pacing it to the bandwidth limit.
+     *
+     * @param output The stream to write to.
+     * @param body The body to write.
+     * @throws IOException If the write fails.
+     * @throws InterruptedException If the thread was interrupted while pacing.
+     */
+    private void write(OutputStream output, byte[] body) throws IOException, InterruptedException {
+        long limit = bandwidth;
+        if (limit <= 0) {
+            output.write(body);
+            return;
+        }
+        int chunk = (int) Math.max(1024, Math.min(64 * 1024, limit / 20));
+        long start = System.nanoTime();
+        for (int offset = 0; offset < body.length; offset += chunk) {
+            int count = Math.min(chunk, body.length - offset);
+            output.write(body, offset, count);
+            long due = start + (offset + count) * 1000000000L / limit;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+            }
+        }
+    }
+
+    /**
+     * Returns the next random number from the shared generator.
+     *
+     * @return next A number between 0 and 1.
+     */
+    private double nextDouble() {
+        synchronized (random) {
+            return random.nextDouble();
+        }
+    }
+
+    /**
+     * Sets the delay before each response.
+     *
+     * @param latency The delay, in milliseconds.
+     */
+    public void setLatency(int latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Sets the rate each response is sent at.
+     *
+     * @param bandwidth The rate, in bytes per second, or 0 for no limit.
+     */
+    public void setBandwidth(long bandwidth) {
+        this.bandwidth = bandwidth;
+    }
+
+    /**
+     * Sets the fraction of requests answered with 503 Service Unavailable.
+     *
+     * @param failureRate The fraction, between 0 and 1.
+     */
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * Returns the number of requests received.
+     *
+     * @return requests The number of requests received.
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * Returns the number of requests failed on purpose.
+     *
+     * @return injectedFailures The number of requests failed on purpose.
+     */
+    public long getInjectedFailures() {
+        return injectedFailures.get();
+    }
+
+    /**
+     * Returns the number of requests answered with 304 Not Modified.
+     *
+     * @return notModified The number of requests answered with 304 Not Modified.
+     */
+    public long getNotModified() {
+        return notModified.get();
+    }
+
+    /**
+     * Stops the server.
+     */
+    public void stop() {
+        server.stop(0);
+        executorService.shutdownNow();
+    }
+}
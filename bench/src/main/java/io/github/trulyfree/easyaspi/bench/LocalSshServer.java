@@ -0,0 +1,237 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.bench;
+
+import org.apache.sshd.common.channel.Channel;
+import org.apache.sshd.common.channel.ChannelListener;
+import org.apache.sshd.common.keyprovider.MappedKeyPairProvider;
+import org.apache.sshd.common.session.Session;
+import org.apache.sshd.common.session.SessionListener;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.auth.password.AcceptAllPasswordAuthenticator;
+import org.apache.sshd.server.channel.ChannelSession;
+import org.apache.sshd.server.command.Command;
+import org.apache.sshd.server.command.CommandFactory;
+import org.apache.sshd.server.shell.ProcessShellFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process SSH server on the loopback interface, backed by Apache MINA sshd. Any password is
+ * accepted, and exec channels run their command through a local <code>/bin/sh</code>. Lets the
+ * SSH stack be tested without a Raspberry Pi. The host key may be replaced while running to stand
+ * in for a changed or spoofed host.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class LocalSshServer {
+
+    /**
+     * The underlying server.
+     */
+    private final SshServer server;
+
+    /**
+     * The number of sessions currently open.
+     */
+    private final AtomicInteger sessions;
+
+    /**
+     * The largest number of sessions open at once.
+     */
+    private final AtomicInteger peakSessions;
+
+    /**
+     * The number of channels open on each session.
+     */
+    private final ConcurrentHashMap<Session, AtomicInteger> channels;
+
+    /**
+     * The channels which opened successfully and have not closed yet.
+     */
+    private final ConcurrentHashMap<Channel, Boolean> openChannels;
+
+    /**
+     * The largest number of channels open at once on a single session.
+     */
+    private final AtomicInteger peakChannels;
+
+    /**
+     * Standard constructor for LocalSshServer. Starts the server on an ephemeral port.
+     *
+     * @throws IOException If the server could not be started.
+     */
+    public LocalSshServer() throws IOException {
+        this.sessions = new AtomicInteger();
+        this.peakSessions = new AtomicInteger();
+        this.channels = new ConcurrentHashMap<Session, AtomicInteger>();
+        this.openChannels = new ConcurrentHashMap<Channel, Boolean>();
+        this.peakChannels = new AtomicInteger();
+        this.server = SshServer.setUpDefaultServer();
+        server.setHost(InetAddress.getLoopbackAddress().getHostAddress());
+        server.setPort(0);
+        server.setKeyPairProvider(new MappedKeyPairProvider(generateHostKey()));
+        server.setPasswordAuthenticator(AcceptAllPasswordAuthenticator.INSTANCE);
+        server.setCommandFactory(new CommandFactory() {
+            @Override
+            public Command createCommand(ChannelSession channel, String command) {
+                // Run through a shell, as OpenSSH does, so quoting and operators behave alike.
+                return new ProcessShellFactory(command, "/bin/sh", "-c", command).createShell(channel);
+            }
+        });
+        server.addSessionListener(new SessionListener() {
+            @Override
+            public void sessionCreated(Session session) {
+                channels.put(session, new AtomicInteger());
+                raise(peakSessions, sessions.incrementAndGet());
+            }
+
+            @Override
+            public void sessionClosed(Session session) {
+                channels.remove(session);
+                sessions.decrementAndGet();
+            }
+        });
+        server.addChannelListener(new ChannelListener() {
+            @Override
+            public void channelOpenSuccess(Channel channel) {
+                AtomicInteger open = channels.get(channel.getSession());
+                if (open != null) {
+                    openChannels.put(channel, Boolean.TRUE);
+                    raise(peakChannels, open.incrementAndGet());
+                }
+            }
+
+            @Override
+            public void channelClosed(Channel channel, Throwable reason) {
+                AtomicInteger open = channels.get(channel.getSession());
+                if (openChannels.remove(channel) != null && open != null) {
+                    open.decrementAndGet();
+                }
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Replaces the host key. Sessions connected afterwards are offered the new key.
+     */
+    public void rotateHostKey() {
+        server.setKeyPairProvider(new MappedKeyPairProvider(generateHostKey()));
+    }
+
+    /**
+     * Returns the address the server listens on.
+     *
+     * @return host The address the server listens on.
+     */
+    public String getHost() {
+        return server.getHost();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return port The port the server listens on.
+     */
+    public int getPort() {
+        return server.getPort();
+    }
+
+    /**
+     * Returns the number of sessions currently open.
+     *
+     * @return sessions The number of sessions currently open.
+     */
+    public int getSessions() {
+        return sessions.get();
+    }
+
+    /**
+     * Returns the largest number of sessions open at once, and starts counting again from the
+     * current number.
+     *
+     * @return peakSessions The largest number of sessions open at once.
+     */
+    public int resetPeakSessions() {
+        return peakSessions.getAndSet(sessions.get());
+    }
+
+    /**
+     * Returns the largest number of channels open at once on a single session, and starts
+     * counting again from the current numbers.
+     *
+     * @return peakChannels The largest number of channels open at once on a single session.
+     */
+    public int resetPeakChannels() {
+        int current = 0;
+        for (AtomicInteger open : channels.values()) {
+            current = Math.max(current, open.get());
+        }
+        return peakChannels.getAndSet(current);
+    }
+
+    /**
+     * Stops the server, closing every session.
+     */
+    public void stop() {
+        try {
+            server.stop(true);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Raises a peak to the given value if it is larger.
+     *
+     * @param peak The peak to raise.
+     * @param value The value just observed.
+     */
+    private static void raise(AtomicInteger peak, int value) {
+        int current;
+        do {
+            current = peak.get();
+        } while (value > current && !peak.compareAndSet(current, value));
+    }
+
+    /**
+     * Generates a host key. ECDSA is used, as JSch accepts it without extra configuration.
+     *
+     * @return keyPair The generated host key.
+     */
+    private static KeyPair generateHostKey() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(256);
+            return generator.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
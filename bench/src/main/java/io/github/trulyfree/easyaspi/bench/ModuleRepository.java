@@ -0,0 +1,210 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.bench;
+
+import com.google.gson.Gson;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.github.trulyfree.easyaspi.lib.dl.VerifyingInputStream;
+import io.github.trulyfree.easyaspi.lib.module.ModuleBundle;
+import io.github.trulyfree.easyaspi.lib.module.conf.Config;
+import io.github.trulyfree.easyaspi.lib.module.conf.ModuleConfig;
+
+/**
+ * A module repository served by a LocalHttpServer. Publishes generated modules, each with a config
+ * at <code>/modules/&lt;name&gt;.json</code> and a jar at <code>/jars/&lt;name&gt;.jar</code>.
+ * Modules depend on libraries from a shared pool, so installs exercise the handling of jars
+ * already downloaded.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class ModuleRepository {
+
+    /**
+     * The server the repository is served by.
+     */
+    private final LocalHttpServer server;
+
+    /**
+     * The Gson instance used to serialize configs.
+     */
+    private final Gson gson;
+
+    /**
+     * The URLs of the configs published so far.
+     */
+    private final List<String> configUrls;
+
+    /**
+     * Whether configs carry the size and digest of their jars.
+     */
+    private boolean publishDigests;
+
+    /**
+     * Whether modules are published as bundles as well.
+     */
+    private boolean publishBundles;
+
+    /**
+     * Standard constructor for ModuleRepository.
+     *
+     * @param server The server to serve the repository by.
+     */
+    public ModuleRepository(LocalHttpServer server) {
+        this.server = server;
+        this.gson = new Gson();
+        this.configUrls = new ArrayList<String>();
+    }
+
+    /**
+     * Generates and serves modules and their libraries.
+     *
+     * @param modules The number of modules.
+     * @param libraries The number of libraries in the shared pool.
+     * @param dependencies The number of libraries each module depends on.
+     * @param classes The number of classes in each jar.
+     * @param classSize The size of each class, in bytes.
+     * @throws IOException If a jar could not be generated.
+     */
+    public void publish(int modules, int libraries, int dependencies, int classes, int classSize)
+            throws IOException {
+        Config[] pool = new Config[libraries];
+        byte[][] poolJars = new byte[libraries][];
+        for (int i = 0; i < libraries; i++) {
+            String name = "library" + i;
+            pool[i] = new Config();
+            pool[i].setName(name);
+            poolJars[i] = Fixtures.jar(classNames(name, classes, null), classSize, i * classes);
+            serveJar(pool[i], poolJars[i]);
+        }
+        dependencies = Math.min(dependencies, libraries);
+        for (int i = 0; i < modules; i++) {
+            String name = "module" + i;
+            String targetModule = "bench/" + name + "/Module";
+            ModuleConfig config = new ModuleConfig();
+            config.setName(name);
+            config.setVersion("1.0." + i);
+            config.setTargetModule(targetModule.replace('/', '.'));
+            byte[] jar = Fixtures.jar(classNames(name, classes, targetModule), classSize, (libraries + i) * classes);
+            serveJar(config, jar);
+            Config[] configDependencies = new Config[dependencies];
+            for (int j = 0; j < dependencies; j++) {
+                configDependencies[j] = pool[(i + j) % libraries];
+            }
+            config.setDependencies(configDependencies);
+            String path = "/modules/" + name + ".json";
+            config.setConfUrl(server.getUrl(path));
+            if (publishBundles) {
+                ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+                ModuleBundle.Writer writer = new ModuleBundle.Writer(bundle, config, gson);
+                writer.putJar(name, new ByteArrayInputStream(jar));
+                for (int j = 0; j < dependencies; j++) {
+                    writer.putJar(pool[(i + j) % libraries].getName(), new ByteArrayInputStream(poolJars[(i + j) % libraries]));
+                }
+                writer.close();
+                config.setBundleUrl(server.serve("/bundles/" + name + ".zip", bundle.toByteArray()));
+            }
+            configUrls.add(server.serve(path, gson.toJson(config).getBytes("UTF-8")));
+        }
+    }
+
+    /**
+     * Serves the jar of a config, setting its URL and, if enabled, its size and digest.
+     *
+     * @param config The config of the jar, with its name set.
+     * @param jar The content of the jar.
+     * @throws IOException If the jar could not be digested.
+     */
+    private void serveJar(Config config, byte[] jar) throws IOException {
+        config.setJarUrl(server.serve("/jars/" + config.getName() + ".jar", jar));
+        if (publishDigests) {
+            VerifyingInputStream digested = new VerifyingInputStream(new ByteArrayInputStream(jar), null, -1, config.getName());
+            byte[] buffer = new byte[8192];
+            while (digested.read(buffer) != -1) {
+                // Reading is all it takes.
+            }
+            config.setSha256(digested.getDigest());
+            config.setSize(jar.length);
+        }
+    }
+
+    /**
+     * Sets whether configs published from now on carry the size and digest of their jars.
+     *
+     * @param publishDigests Whether configs carry the size and digest of their jars.
+     */
+    public void setPublishDigests(boolean publishDigests) {
+        this.publishDigests = publishDigests;
+    }
+
+    /**
+     * Sets whether modules published from now on are published as bundles as well, which
+     * their configs point to.
+     *
+     * @param publishBundles Whether modules are published as bundles as well.
+     */
+    public void setPublishBundles(boolean publishBundles) {
+        this.publishBundles = publishBundles;
+    }
+
+    /**
+     * Returns the internal names of the classes of a jar.
+     *
+     * @param name The name of the module or library.
+     * @param classes The number of classes.
+     * @param first The name of the first class, or null to generate it.
+     * @return names The internal names of the classes.
+     */
+    private static String[] classNames(String name, int classes, String first) {
+        String[] names = new String[Math.max(1, classes)];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "bench/" + name + "/C" + i;
+        }
+        if (first != null) {
+            names[0] = first;
+        }
+        return names;
+    }
+
+    /**
+     * Returns the URLs of the configs published so far, in order.
+     *
+     * @return configUrls The URLs of the configs.
+     */
+    public List<String> getConfigUrls() {
+        return configUrls;
+    }
+
+    /**
+     * Returns the server the repository is served by, for injecting faults.
+     *
+     * @return server The server the repository is served by.
+     */
+    public LocalHttpServer getServer() {
+        return server;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.bench;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Access to private members of the lib, so benchmarks can measure them in isolation. Lookups are
+ * done once, in setup; only the returned Method is used in the measured code.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public final class Reflection {
+
+    /**
+     * Not instantiable.
+     */
+    private Reflection() {}
+
+    /**
+     * Returns a declared method made accessible.
+     *
+     * @param type The class declaring the method.
+     * @param name The name of the method.
+     * @param parameterTypes The parameter types of the method.
+     * @return method The accessible method.
+     * @throws NoSuchMethodException If there is no such method.
+     */
+    public static Method method(Class<?> type, String name, Class<?>... parameterTypes)
+            throws NoSuchMethodException {
+        Method method = type.getDeclaredMethod(name, parameterTypes);
+        method.setAccessible(true);
+        return method;
+    }
+
+    /**
+     * Invokes a method, unwrapping any exception it throws.
+     *
+     * @param method The method to invoke.
+     * @param target The object to invoke it on, or null if it is static.
+     * @param args The arguments to invoke it with.
+     * @return result The result of the method.
+     * @throws Exception The exception thrown by the method.
+     */
+    public static Object invoke(Method method, Object target, Object... args) throws Exception {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * Sets a declared field.
+     *
+     * @param target The object to set the field of.
+     * @param name The name of the field.
+     * @param value The value to set.
+     * @throws NoSuchFieldException If there is no such field.
+     * @throws IllegalAccessException If the field could not be made accessible.
+     */
+    public static void set(Object target, String name, Object value)
+            throws NoSuchFieldException, IllegalAccessException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
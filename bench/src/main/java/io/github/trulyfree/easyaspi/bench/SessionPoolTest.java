@@ -0,0 +1,260 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.bench;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import io.github.trulyfree.easyaspi.lib.ssh.SSHHost;
+import io.github.trulyfree.easyaspi.lib.ssh.SessionPool;
+
+/**
+ * Test of SessionPool against a LocalSshServer. Checks that concurrent leases never connect more
+ * sessions than the per host limit nor open more channels on a session than the per session
+ * limit, that a host is trusted on first use and its key stored in the known hosts file, and that
+ * a host presenting a different key afterwards is refused.
+ *
+ * Options are given as <code>key=value</code> arguments:
+ * <ul>
+ *     <li><code>threads</code> (16): the number of threads leasing channels at once.</li>
+ *     <li><code>commands</code> (10): the number of commands each thread runs.</li>
+ *     <li><code>sessions</code> (2): the maximum number of sessions per host.</li>
+ *     <li><code>channels</code> (4): the maximum number of channels per session.</li>
+ * </ul>
+ *
+ * Run with: ./gradlew :bench:sessionPoolTest -PsessionPoolTestArgs='threads=32'
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public final class SessionPoolTest {
+
+    /**
+     * The timeout for connecting sessions and channels, in milliseconds.
+     */
+    private static final int TIMEOUT = 5000;
+
+    /**
+     * Not instantiable.
+     */
+    private SessionPoolTest() {}
+
+    /**
+     * Runs the test, exiting with a non-zero status if any check fails.
+     *
+     * @param args The options, as <code>key=value</code>.
+     * @throws Exception If the test could not be set up.
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split == -1) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+        int maxSessions = intOption(options, "sessions", 2);
+        int maxChannels = intOption(options, "channels", 4);
+
+        LocalSshServer server = new LocalSshServer();
+        File knownHosts = File.createTempFile("known_hosts", null);
+        boolean passed = false;
+        try {
+            JSch jsch = new JSch();
+            jsch.setKnownHosts(knownHosts.getAbsolutePath());
+            SessionPool pool = new SessionPool(jsch, maxSessions, maxChannels, TIMEOUT, 0);
+            SSHHost host = new SSHHost(server.getHost(), server.getPort(), "pi", "raspberry", null);
+
+            checkSessionLimit(server, pool, host,
+                    intOption(options, "threads", 16),
+                    intOption(options, "commands", 10),
+                    maxSessions,
+                    maxChannels);
+            pool.closeAll();
+            checkChangedHostKey(server, pool, host);
+            passed = true;
+        } finally {
+            server.stop();
+            knownHosts.delete();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Runs commands from many threads at once and checks the host never sees more sessions than
+     * the limit, nor more channels than those sessions allow, and that the host key, unknown
+     * beforehand, was stored.
+     *
+     * @param server The server.
+     * @param pool The pool.
+     * @param host The host.
+     * @param threads The number of threads.
+     * @param commands The number of commands each thread runs.
+     * @param maxSessions The maximum number of sessions per host.
+     * @param maxChannels The maximum number of channels per session.
+     * @throws Exception If a command failed.
+     */
+    private static void checkSessionLimit(LocalSshServer server,
+                                          final SessionPool pool,
+                                          final SSHHost host,
+                                          int threads,
+                                          final int commands,
+                                          int maxSessions,
+                                          int maxChannels) throws Exception {
+        if (pool.getJSch().getHostKeyRepository().getHostKey().length != 0) {
+            throw new IllegalStateException("known_hosts was not empty.");
+        }
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        server.resetPeakSessions();
+        server.resetPeakChannels();
+        try {
+            for (int i = 0; i < threads; i++) {
+                final String expected = "thread-" + i;
+                results.add(executorService.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        int peak = 0;
+                        for (int j = 0; j < commands; j++) {
+                            String output = run(pool, host, "echo " + expected);
+                            if (!output.trim().equals(expected)) {
+                                throw new IllegalStateException("Expected " + expected + ", got " + output);
+                            }
+                            peak = Math.max(peak, pool.getSessionCount(host));
+                        }
+                        return peak;
+                    }
+                }));
+            }
+            start.countDown();
+            int poolPeak = 0;
+            for (Future<Integer> result : results) {
+                try {
+                    poolPeak = Math.max(poolPeak, result.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("A command failed.", e.getCause());
+                }
+            }
+            int serverPeak = server.resetPeakSessions();
+            System.out.println("session limit: " + threads * commands + " commands, peak sessions pool "
+                    + poolPeak + ", server " + serverPeak + ", limit " + maxSessions);
+            if (serverPeak > maxSessions || poolPeak > maxSessions) {
+                throw new IllegalStateException("More than " + maxSessions + " sessions were connected.");
+            }
+            int channelPeak = server.resetPeakChannels();
+            System.out.println("channel limit: peak channels per session " + channelPeak + ", limit "
+                    + maxChannels);
+            if (channelPeak > maxChannels) {
+                throw new IllegalStateException("More than " + maxChannels + " channels were opened per session.");
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        if (pool.getJSch().getHostKeyRepository().getHostKey().length != 1) {
+            throw new IllegalStateException("The host key was not stored on first use.");
+        }
+        System.out.println("trust on first use: host key stored");
+    }
+
+    /**
+     * Replaces the host key of the server and checks that connecting is refused.
+     *
+     * @param server The server.
+     * @param pool The pool.
+     * @param host The host.
+     */
+    private static void checkChangedHostKey(LocalSshServer server, SessionPool pool, SSHHost host) {
+        server.rotateHostKey();
+        Session session = null;
+        try {
+            session = pool.connectDedicated(host);
+        } catch (JSchException e) {
+            System.out.println("changed host key: refused (" + e.getMessage().split("\n")[0] + ")");
+            return;
+        } finally {
+            if (session != null) {
+                session.disconnect();
+            }
+        }
+        throw new IllegalStateException("A changed host key was accepted.");
+    }
+
+    /**
+     * Runs a command on a pooled session and returns its output.
+     *
+     * @param pool The pool.
+     * @param host The host.
+     * @param command The command.
+     * @return output The standard output of the command.
+     * @throws JSchException If the channel could not be opened.
+     * @throws IOException If the output could not be read.
+     */
+    private static String run(SessionPool pool, SSHHost host, String command) throws JSchException, IOException {
+        ChannelExec channel = (ChannelExec) pool.openChannel(host, "exec");
+        try {
+            channel.setCommand(command);
+            InputStream input = channel.getInputStream();
+            channel.connect(TIMEOUT);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            return output.toString("UTF-8");
+        } finally {
+            pool.release(channel);
+        }
+    }
+
+    /**
+     * Returns an integer option.
+     *
+     * @param options The options given.
+     * @param key The key of the option.
+     * @param fallback The value if the option was not given.
+     * @return value The value of the option.
+     */
+    private static int intOption(Map<String, String> options, String key, int fallback) {
+        String value = options.get(key);
+        return value == null ? fallback : Integer.parseInt(value);
+    }
+}
@@ -27,9 +27,13 @@ import java.util.concurrent.ExecutorService;
 
 import io.github.trulyfree.easyaspi.lib.disp.EAPDisplayableModule;
 import io.github.trulyfree.easyaspi.lib.dl.DownloadHandler;
+import io.github.trulyfree.easyaspi.lib.event.EventBus;
 import io.github.trulyfree.easyaspi.lib.io.FileHandler;
+import io.github.trulyfree.easyaspi.lib.metrics.MetricsRegistry;
 import io.github.trulyfree.easyaspi.lib.module.Module;
 import io.github.trulyfree.easyaspi.lib.module.ModuleHandler;
+import io.github.trulyfree.easyaspi.lib.ssh.SSHHandler;
+import io.github.trulyfree.easyaspi.lib.telemetry.TelemetryService;
 
 /**
  * The interface which all EAPActivities must extend. This is defined to allow mockable activities.
@@ -59,6 +63,34 @@ public interface EAPActivity extends Module {
      */
     public ModuleHandler getModuleHandler();
 
+    /**
+     * Returns the SSH handler owned by this activity.
+     *
+     * @return handler The SSH handler owned by this activity.
+     */
+    public SSHHandler getSSHHandler();
+
+    /**
+     * Returns the telemetry service used by this activity.
+     *
+     * @return service The telemetry service used by this activity.
+     */
+    public TelemetryService getTelemetryService();
+
+    /**
+     * Returns the event bus used by this activity.
+     *
+     * @return bus The event bus used by this activity.
+     */
+    public EventBus getEventBus();
+
+    /**
+     * Returns the metrics registry used by this activity.
+     *
+     * @return registry The metrics registry used by this activity.
+     */
+    public MetricsRegistry getMetricsRegistry();
+
     /**
      * Returns the executor service owned by this activity.
      *
@@ -0,0 +1,41 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.callback;
+
+/**
+ * A Callback interface extension which receives data as it is produced. The buffer passed to
+ * <code>onChunk</code> is owned by the caller and reused once the method returns, so chunks which
+ * must be kept have to be copied. <code>onProgress</code> receives the total number of bytes
+ * delivered so far, capped at <code>Integer.MAX_VALUE</code>.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public interface ChunkCallback extends Callback {
+    /**
+     * To be called with every chunk of data produced by the target method.
+     *
+     * @param buffer The buffer holding the chunk.
+     * @param offset The offset of the chunk in the buffer.
+     * @param length The length of the chunk.
+     */
+    public void onChunk(byte[] buffer, int offset, int length);
+}
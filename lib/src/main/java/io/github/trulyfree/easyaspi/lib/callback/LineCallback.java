@@ -0,0 +1,131 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.callback;
+
+/**
+ * A ChunkCallback which splits the chunks it receives into lines. Lines are passed to
+ * <code>onLine</code> as slices of a reused buffer, without their line terminator, so no object
+ * is allocated per line. Lines longer than the maximum line length are delivered in pieces.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public abstract class LineCallback implements ChunkCallback {
+
+    /**
+     * The default maximum line length, in bytes.
+     */
+    private static final int DEFAULT_MAX_LINE = 8192;
+
+    /**
+     * Holds the start of a line split across chunks.
+     */
+    private final byte[] carry;
+
+    /**
+     * The number of bytes held in <code>carry</code>.
+     */
+    private int carried;
+
+    /**
+     * Standard constructor for LineCallback.
+     */
+    public LineCallback() {
+        this(DEFAULT_MAX_LINE);
+    }
+
+    /**
+     * Constructor for LineCallbacks with a specific maximum line length.
+     *
+     * @param maxLine The maximum line length, in bytes.
+     */
+    public LineCallback(int maxLine) {
+        this.carry = new byte[maxLine];
+    }
+
+    /**
+     * To be called with every line of data produced by the target method.
+     *
+     * @param buffer The buffer holding the line.
+     * @param offset The offset of the line in the buffer.
+     * @param length The length of the line, excluding its terminator.
+     */
+    public abstract void onLine(byte[] buffer, int offset, int length);
+
+    @Override
+    public void onChunk(byte[] buffer, int offset, int length) {
+        int end = offset + length;
+        int start = offset;
+        for (int i = offset; i < end; i++) {
+            if (buffer[i] != '\n') {
+                continue;
+            }
+            int lineEnd = (i > start && buffer[i - 1] == '\r') ? i - 1 : i;
+            if (carried == 0) {
+                onLine(buffer, start, lineEnd - start);
+            } else {
+                append(buffer, start, i - start);
+                int carriedEnd = (carried > 0 && carry[carried - 1] == '\r') ? carried - 1 : carried;
+                onLine(carry, 0, carriedEnd);
+                carried = 0;
+            }
+            start = i + 1;
+        }
+        if (start < end) {
+            append(buffer, start, end - start);
+        }
+    }
+
+    @Override
+    public void onFinish() {
+        if (carried > 0) {
+            onLine(carry, 0, carried);
+            carried = 0;
+        }
+    }
+
+    @Override
+    public void onStart() {}
+
+    @Override
+    public void onProgress(int current) {}
+
+    /**
+     * Appends bytes to the carried partial line, flushing it as a piece when full.
+     *
+     * @param buffer The buffer holding the bytes.
+     * @param offset The offset of the bytes in the buffer.
+     * @param length The number of bytes.
+     */
+    private void append(byte[] buffer, int offset, int length) {
+        while (length > 0) {
+            if (carried == carry.length) {
+                onLine(carry, 0, carried);
+                carried = 0;
+            }
+            int count = Math.min(length, carry.length - carried);
+            System.arraycopy(buffer, offset, carry, carried, count);
+            carried += count;
+            offset += count;
+            length -= count;
+        }
+    }
+}
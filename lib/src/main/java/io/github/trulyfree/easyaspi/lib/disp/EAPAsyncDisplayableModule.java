@@ -0,0 +1,55 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.disp;
+
+import android.content.Intent;
+import android.view.View;
+
+/**
+ * Interface to be implemented by displayable modules whose views are expensive to build. Such
+ * modules are rendered in two phases: the view tree is built off the main thread, while it is not
+ * yet attached to any window, and is then attached on the main thread. Only the attach phase can
+ * drop frames, so it should do as little as possible.
+ *
+ * <code>getRootView</code> is not called for these modules.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public interface EAPAsyncDisplayableModule extends EAPDisplayableModule {
+    /**
+     * Loads whatever the module displays and builds its detached root view. This is called on a
+     * worker thread, after <code>setup</code>, so it must not touch views which are attached to a
+     * window. Returning null is an error, and the module is not displayed.
+     *
+     * @param data The Intent that was passed to the current EAPDisplay instance.
+     * @return root The root view of the target module, not yet attached. Never null.
+     */
+    public View prepareRootView(Intent data);
+
+    /**
+     * Called on the main thread once the prepared root view is attached to the activity. Work which
+     * needs an attached view, such as starting animations, belongs here.
+     *
+     * @param root The root view returned by <code>prepareRootView</code>.
+     */
+    public void onRootViewAttached(View root);
+}
@@ -21,20 +21,29 @@
 package io.github.trulyfree.easyaspi.lib.disp;
 
 import android.content.Intent;
+import android.content.pm.ApplicationInfo;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.v7.app.AppCompatActivity;
+import android.view.View;
 import android.widget.Toast;
 
+import java.io.IOException;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 
 import io.github.trulyfree.easyaspi.lib.EAPActivity;
 import io.github.trulyfree.easyaspi.lib.dl.DownloadHandler;
+import io.github.trulyfree.easyaspi.lib.event.EventBus;
 import io.github.trulyfree.easyaspi.lib.io.FileHandler;
+import io.github.trulyfree.easyaspi.lib.metrics.MetricsRegistry;
 import io.github.trulyfree.easyaspi.lib.module.ModuleHandler;
 import io.github.trulyfree.easyaspi.lib.module.conf.ModuleConfig;
+import io.github.trulyfree.easyaspi.lib.ssh.SSHHandler;
+import io.github.trulyfree.easyaspi.lib.telemetry.TelemetryService;
+import io.github.trulyfree.easyaspi.lib.trace.Tracer;
 
 /**
  * Implementation of EAPActivity which is guaranteed to be the implementation passed to modules on
@@ -60,6 +69,11 @@ public final class EAPDisplay extends AppCompatActivity implements EAPActivity {
      */
     private volatile ModuleHandler moduleHandler;
 
+    /**
+     * SSHHandler of this EAPActivity implementation.
+     */
+    private volatile SSHHandler sshHandler;
+
     /**
      * ExecutorService of this EAPActivity implementation.
      */
@@ -70,12 +84,38 @@ public final class EAPDisplay extends AppCompatActivity implements EAPActivity {
      */
     private EAPDisplayableModule currentModule;
 
+    /**
+     * Span from the creation of this activity until its module is attached.
+     */
+    private int timeToInteractive = Tracer.NOT_RECORDED;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        // Each launch is traced from scratch, so a long-lived process never fills the tracer.
+        Tracer.SHARED.reset();
+        timeToInteractive = Tracer.SHARED.beginAsync("EAPDisplay.timeToInteractive");
+        int span = Tracer.SHARED.begin("EAPDisplay.onCreate");
         super.onCreate(savedInstanceState);
         if (!setup()) {
             finish();
         }
+        Tracer.SHARED.end(span);
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (currentModule != null && moduleHandler != null) {
+            moduleHandler.releaseModule(currentModule);
+            currentModule = null;
+        }
+        if (moduleHandler != null) {
+            // Releases the module generation this activity loaded from, so it can be collected.
+            moduleHandler.destroy();
+        }
+        if (sshHandler != null) {
+            sshHandler.destroy();
+        }
+        super.onDestroy();
     }
 
     @Override
@@ -88,23 +128,52 @@ public final class EAPDisplay extends AppCompatActivity implements EAPActivity {
         try {
             displayableModule.setActivity(this);
             displayableModule.setExecutorService(executorService);
-            displayableModule.setup();
-            final Object lock = new Object();
-            runOnUiThread(new Runnable() {
+            if (!(displayableModule instanceof EAPReusableModule) || !displayableModule.isReady()) {
+                int span = Tracer.SHARED.begin("Module.setup");
+                displayableModule.setup();
+                Tracer.SHARED.end(span);
+            }
+            // Async modules build their views here, off the main thread; only attaching is left.
+            View prepareResult = null;
+            if (displayableModule instanceof EAPAsyncDisplayableModule) {
+                int span = Tracer.SHARED.begin("EAPAsyncDisplayableModule.prepareRootView");
+                prepareResult = ((EAPAsyncDisplayableModule) displayableModule).prepareRootView(getIntent());
+                Tracer.SHARED.end(span);
+                if (prepareResult == null) {
+                    throw new IllegalStateException(displayableModule.getClass().getName()
+                            + " prepared no root view.");
+                }
+            }
+            final View prepared = prepareResult;
+            FutureTask<Void> attach = new FutureTask<Void>(new Callable<Void>() {
                 @Override
-                public void run() {
+                public Void call() {
+                    int span = Tracer.SHARED.begin("EAPDisplay.attachRootView");
+                    View root = prepared == null ? displayableModule.getRootView(getIntent()) : prepared;
                     if (displayableModule.getLayoutParams() == null) {
-                        setContentView(displayableModule.getRootView(getIntent()));
+                        setContentView(root);
                     } else {
-                        setContentView(displayableModule.getRootView(getIntent()), displayableModule.getLayoutParams());
+                        setContentView(root, displayableModule.getLayoutParams());
                     }
-                    synchronized (lock) {
-                        lock.notifyAll();
+                    if (prepared != null) {
+                        ((EAPAsyncDisplayableModule) displayableModule).onRootViewAttached(root);
                     }
+                    Tracer.SHARED.end(span);
+                    return null;
                 }
             });
-            synchronized (lock) {
-                lock.wait();
+            runOnUiThread(attach);
+            attach.get();
+            if (timeToInteractive != Tracer.NOT_RECORDED) {
+                long nanos = Tracer.SHARED.endAsync(timeToInteractive);
+                timeToInteractive = Tracer.NOT_RECORDED;
+                Tracer.SHARED.mark("interactive:" + displayableModule.getClass().getName());
+                if (nanos >= 0) {
+                    MetricsRegistry.SHARED.getHistogram(MetricsRegistry.TIME_TO_INTERACTIVE).record(nanos);
+                }
+                if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+                    dumpStartup();
+                }
             }
             this.currentModule = displayableModule;
             this.currentModule.setActivity(this);
@@ -115,6 +184,24 @@ public final class EAPDisplay extends AppCompatActivity implements EAPActivity {
         return true;
     }
 
+    /**
+     * Writes the start-up trace and the metrics to files, for inspection of debug builds. Written
+     * in the background, as modules may switch from the UI thread.
+     */
+    private void dumpStartup() {
+        executorService.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Tracer.SHARED.writeChromeTrace(fileHandler.generateFile("trace", "startup.json"));
+                    MetricsRegistry.SHARED.dump(fileHandler.generateFile("metrics", "startup.txt"));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
     @Override
     public void displayToUser(final String text, final int time) {
         runOnUiThread(new Runnable() {
@@ -138,8 +225,10 @@ public final class EAPDisplay extends AppCompatActivity implements EAPActivity {
         this.moduleHandler = new ModuleHandler(this);
         this.fileHandler = new FileHandler(this);
         this.downloadHandler = new DownloadHandler(this);
+        this.sshHandler = new SSHHandler(this);
         this.executorService = Executors.newCachedThreadPool();
         moduleHandler.setup();
+        sshHandler.setup();
         executorService.submit(new Callable<Boolean>() {
             @Override
             public Boolean call() throws Exception {
@@ -219,6 +308,26 @@ public final class EAPDisplay extends AppCompatActivity implements EAPActivity {
         return moduleHandler;
     }
 
+    @Override
+    public SSHHandler getSSHHandler() {
+        return sshHandler;
+    }
+
+    @Override
+    public TelemetryService getTelemetryService() {
+        return TelemetryService.SHARED;
+    }
+
+    @Override
+    public EventBus getEventBus() {
+        return EventBus.SHARED;
+    }
+
+    @Override
+    public MetricsRegistry getMetricsRegistry() {
+        return MetricsRegistry.SHARED;
+    }
+
     @Override
     public ExecutorService getExecutorService() {
         return executorService;
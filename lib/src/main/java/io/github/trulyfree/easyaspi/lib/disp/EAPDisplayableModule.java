@@ -66,7 +66,8 @@ public interface EAPDisplayableModule extends Module {
     public ExecutorService getExecutorService();
 
     /**
-     * Returns the root view to be used by the activity, according to the Intent.
+     * Returns the root view to be used by the activity, according to the Intent. This is called on
+     * the main thread; modules with expensive views should implement EAPAsyncDisplayableModule.
      *
      * @param data The Intent that was passed to the current EAPDisplay instance.
      * @return root The root view of the target module.
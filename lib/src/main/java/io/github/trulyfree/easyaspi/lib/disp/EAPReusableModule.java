@@ -0,0 +1,44 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.disp;
+
+/**
+ * Interface to be implemented by displayable modules which may be relaunched without being
+ * constructed or set up again. When the EAPDisplay showing a reusable module finishes, the module
+ * is recycled and kept warm; the next launch of the same module is handed that instance instead
+ * of a new one.
+ *
+ * While a module is held warm, its activity and executor service are set to null. Both are set
+ * again before the module is next displayed, and <code>getRootView</code> is called again, so
+ * views built against the previous activity must not be returned.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public interface EAPReusableModule extends EAPDisplayableModule {
+    /**
+     * Prepares this module to be displayed again. This is called when the displaying activity
+     * finishes. Modules should drop any state tied to the previous launch here.
+     *
+     * @return reusable Whether the module may be reused. If false, the module will be destroyed.
+     */
+    public boolean recycle();
+}
@@ -25,15 +25,21 @@ import android.support.annotation.Nullable;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.Map;
 
 import io.github.trulyfree.easyaspi.lib.EAPActivity;
 import io.github.trulyfree.easyaspi.lib.callback.Callback;
 import io.github.trulyfree.easyaspi.lib.callback.EmptyCallback;
+import io.github.trulyfree.easyaspi.lib.metrics.MetricsRegistry;
+import io.github.trulyfree.easyaspi.lib.metrics.StripedCounter;
 
 /**
  * Helper class for all downloading actions taken by EasyAsPi. You do not have to use this if you
@@ -54,6 +60,16 @@ public class DownloadHandler {
      */
     private final static int TIMEOUT = 3000;
 
+    /**
+     * The header and validator holding the entity tag of a response.
+     */
+    public static final String ETAG = "ETag";
+
+    /**
+     * The header and validator holding the modification date of a response.
+     */
+    public static final String LAST_MODIFIED = "Last-Modified";
+
     /**
      * The activity which owns this download handler.
      */
@@ -95,13 +111,9 @@ public class DownloadHandler {
     public void download(@NonNull OutputStream output,
                          @Nullable Callback callback,
                          @NonNull String urlString) throws IOException {
-        broadcastDownload(urlString);
-        URL url = new URL(urlString);
-        URLConnection urlConnection = url.openConnection();
-        urlConnection.setConnectTimeout(TIMEOUT);
-        urlConnection.setReadTimeout(TIMEOUT);
-
-        InputStream input = new BufferedInputStream(url.openStream());
+        URLConnection urlConnection = connect(urlString);
+        InputStream input = new BufferedInputStream(urlConnection.getInputStream());
+        StripedCounter bytes = MetricsRegistry.SHARED.getCounter(MetricsRegistry.DOWNLOAD_BYTES);
 
         if (callback == null) {
             callback = EmptyCallback.EMPTY;
@@ -114,19 +126,78 @@ public class DownloadHandler {
                 current = 0,
                 count;
 
-        while ((count = input.read(data)) != -1) {
-            current += count;
-            callback.onProgress((100 * current) / total);
-            output.write(data, 0, count);
+        try {
+            while ((count = input.read(data)) != -1) {
+                current += count;
+                bytes.add(count);
+                if (total > 0) {
+                    callback.onProgress((100 * current) / total);
+                }
+                output.write(data, 0, count);
+            }
+        } catch (IOException e) {
+            MetricsRegistry.SHARED.getCounter(MetricsRegistry.DOWNLOAD_FAILURES).increment();
+            throw e;
+        } finally {
+            input.close();
         }
 
         output.flush();
         output.close();
-        input.close();
 
         callback.onFinish();
     }
 
+    /**
+     * Downloads an item as a String unless it is unchanged since the previous download. The
+     * validators the server returned (ETag and Last-Modified) are sent as a conditional request,
+     * and replaced by those of the new response.
+     *
+     * @param urlString The URL of this download.
+     * @param validators The validators of the previous download by header name, updated in place.
+     *                   Empty for the first download.
+     * @return content The content of the target URL as a String, or null if it is unchanged.
+     * @throws IOException If the download fails.
+     */
+    public String downloadIfModified(@NonNull String urlString,
+                                     @NonNull Map<String, String> validators) throws IOException {
+        Map<String, String> headers = new HashMap<String, String>();
+        if (validators.containsKey(ETAG)) {
+            headers.put("If-None-Match", validators.get(ETAG));
+        }
+        if (validators.containsKey(LAST_MODIFIED)) {
+            headers.put("If-Modified-Since", validators.get(LAST_MODIFIED));
+        }
+        URLConnection urlConnection = connect(urlString, headers);
+        InputStream input = new BufferedInputStream(urlConnection.getInputStream());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            if (urlConnection instanceof HttpURLConnection &&
+                    ((HttpURLConnection) urlConnection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return null;
+            }
+            byte data[] = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = input.read(data)) != -1) {
+                output.write(data, 0, count);
+            }
+            MetricsRegistry.SHARED.getCounter(MetricsRegistry.DOWNLOAD_BYTES).add(output.size());
+        } catch (IOException e) {
+            MetricsRegistry.SHARED.getCounter(MetricsRegistry.DOWNLOAD_FAILURES).increment();
+            throw e;
+        } finally {
+            input.close();
+        }
+        validators.clear();
+        for (String header : new String[]{ETAG, LAST_MODIFIED}) {
+            String value = urlConnection.getHeaderField(header);
+            if (value != null) {
+                validators.put(header, value);
+            }
+        }
+        return new String(output.toByteArray());
+    }
+
     /**
      * Returns a readable (buffered) input stream that downloads may be read from.
      *
@@ -135,22 +206,73 @@ public class DownloadHandler {
      * @throws IOException If the connection fails.
      */
     public InputStream getDownloadStream(@NonNull String urlString) throws IOException {
-        broadcastDownload(urlString);
-        URL url = new URL(urlString);
-        URLConnection urlConnection = url.openConnection();
-        urlConnection.setConnectTimeout(TIMEOUT);
-        urlConnection.setReadTimeout(TIMEOUT);
+        URLConnection urlConnection = connect(urlString);
+        final StripedCounter bytes = MetricsRegistry.SHARED.getCounter(MetricsRegistry.DOWNLOAD_BYTES);
+        return new BufferedInputStream(new FilterInputStream(urlConnection.getInputStream()) {
+            @Override
+            public int read() throws IOException {
+                int read = super.read();
+                if (read != -1) {
+                    bytes.increment();
+                }
+                return read;
+            }
 
-        return new BufferedInputStream(url.openStream());
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int count = super.read(buffer, offset, length);
+                if (count > 0) {
+                    bytes.add(count);
+                }
+                return count;
+            }
+        }, BUFFER_SIZE);
     }
 
     /**
-     * Debug method for checking when downloads occur.
+     * Opens a connection and waits for its response, recording the latency against the host.
+     * The connection's timeouts apply to both the connect and every later read.
      *
-     * @param urlString The URL of this download.
+     * @param urlString The URL to connect to.
+     * @return urlConnection The connection, with its response available.
+     * @throws IOException If the connection fails.
      */
-    private void broadcastDownload(@NonNull String urlString) {
-        System.out.println("Downloaded from " + urlString);
+    private URLConnection connect(@NonNull String urlString) throws IOException {
+        return connect(urlString, null);
+    }
+
+    /**
+     * Opens a connection with extra request headers and waits for its response, recording the
+     * latency against the host.
+     *
+     * @param urlString The URL to connect to.
+     * @param headers The request headers to send, or null for none.
+     * @return urlConnection The connection, with its response available.
+     * @throws IOException If the connection fails.
+     */
+    private URLConnection connect(@NonNull String urlString,
+                                  @Nullable Map<String, String> headers) throws IOException {
+        URL url = new URL(urlString);
+        long start = System.nanoTime();
+        try {
+            URLConnection urlConnection = url.openConnection();
+            urlConnection.setConnectTimeout(TIMEOUT);
+            urlConnection.setReadTimeout(TIMEOUT);
+            if (headers != null) {
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    urlConnection.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+            // Reads the response headers, so the latency covers the first byte and error
+            // responses fail here. The connection returns the same stream when asked again.
+            urlConnection.getInputStream();
+            MetricsRegistry.SHARED.getHistogram(MetricsRegistry.DOWNLOAD_LATENCY + url.getHost())
+                    .record(System.nanoTime() - start);
+            return urlConnection;
+        } catch (IOException e) {
+            MetricsRegistry.SHARED.getCounter(MetricsRegistry.DOWNLOAD_FAILURES).increment();
+            throw e;
+        }
     }
 
     /**
@@ -0,0 +1,259 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.dl;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import io.github.trulyfree.easyaspi.lib.metrics.MetricsRegistry;
+import io.github.trulyfree.easyaspi.lib.util.Utils;
+
+/**
+ * InputStream which computes the SHA-256 digest and size of everything read through it, and
+ * checks them against expected values once the end of the stream is reached. A stream longer than
+ * expected fails as soon as it passes the expected size, so a bad download is never copied in full.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class VerifyingInputStream extends FilterInputStream {
+
+    /**
+     * The digest algorithm used for verification.
+     */
+    public static final String ALGORITHM = "SHA-256";
+
+    /**
+     * The digest of everything read so far.
+     */
+    private final MessageDigest digest;
+
+    /**
+     * The expected hex digest, or null if unknown.
+     */
+    private final String expectedDigest;
+
+    /**
+     * The expected size in bytes, or a negative number if unknown.
+     */
+    private final long expectedSize;
+
+    /**
+     * A description of the stream, for error messages.
+     */
+    private final String source;
+
+    /**
+     * The number of bytes read so far.
+     */
+    private long size;
+
+    /**
+     * The hex digest of the whole stream, or null if the end has not been reached.
+     */
+    private String result;
+
+    /**
+     * Standard constructor for VerifyingInputStream.
+     *
+     * @param in The stream to read from.
+     * @param expectedDigest The expected hex SHA-256 digest, or null or empty if unknown.
+     * @param expectedSize The expected size in bytes, or a negative number if unknown.
+     * @param source A description of the stream, for error messages.
+     */
+    public VerifyingInputStream(@NonNull InputStream in,
+                                @Nullable String expectedDigest,
+                                long expectedSize,
+                                @NonNull String source) {
+        super(in);
+        this.digest = newDigest();
+        this.expectedDigest = expectedDigest == null || expectedDigest.length() == 0 ? null : expectedDigest;
+        this.expectedSize = expectedSize;
+        this.source = source;
+    }
+
+    /**
+     * Computes the hex SHA-256 digest of a file.
+     *
+     * @param file The file to digest.
+     * @return digest The hex SHA-256 digest of the file.
+     * @throws IOException If the file could not be read.
+     */
+    public static String digest(@NonNull File file) throws IOException {
+        VerifyingInputStream input = new VerifyingInputStream(
+                new BufferedInputStream(new FileInputStream(file)), null, -1, file.getPath());
+        try {
+            byte[] buffer = new byte[8192];
+            while (input.read(buffer) != -1) {
+                // Reading is all it takes.
+            }
+        } finally {
+            input.close();
+        }
+        return input.getDigest();
+    }
+
+    /**
+     * Returns whether a hex digest is known, so that content can be verified against it.
+     *
+     * @param digest The hex digest, possibly null or empty.
+     * @return known Whether the digest is known.
+     */
+    public static boolean isKnown(@Nullable String digest) {
+        return digest != null && digest.length() != 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int read = super.read();
+        if (read == -1) {
+            finish();
+        } else {
+            digest.update((byte) read);
+            advance(1);
+        }
+        return read;
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+        int count = super.read(buffer, offset, length);
+        if (count == -1) {
+            finish();
+        } else {
+            digest.update(buffer, offset, count);
+            advance(count);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        // Skipped bytes must still be digested.
+        byte[] buffer = new byte[(int) Math.min(count, 8192)];
+        long skipped = 0;
+        while (skipped < count) {
+            int read = read(buffer, 0, (int) Math.min(buffer.length, count - skipped));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        // Unsupported, as the digest cannot be rewound.
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Returns the hex SHA-256 digest of the whole stream.
+     *
+     * @return digest The hex digest, or null if the end of the stream has not been reached.
+     */
+    public String getDigest() {
+        return result;
+    }
+
+    /**
+     * Returns the number of bytes read so far.
+     *
+     * @return size The number of bytes read so far.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Counts bytes read, failing as soon as the stream is longer than expected.
+     *
+     * @param count The number of bytes just read.
+     * @throws IOException If the stream is longer than expected.
+     */
+    private void advance(int count) throws IOException {
+        size += count;
+        if (expectedSize >= 0 && size > expectedSize) {
+            throw fail(source + " is larger than the expected " + expectedSize + " bytes.");
+        }
+    }
+
+    /**
+     * Computes the digest at the end of the stream and checks it and the size.
+     *
+     * @throws IOException If the size or digest differ from those expected.
+     */
+    private void finish() throws IOException {
+        if (result != null) {
+            return;
+        }
+        result = Utils.toHex(digest.digest());
+        if (expectedSize >= 0 && size != expectedSize) {
+            throw fail(source + " is " + size + " bytes, expected " + expectedSize + ".");
+        }
+        if (expectedDigest != null && !expectedDigest.equalsIgnoreCase(result)) {
+            throw fail(source + " has digest " + result + ", expected " + expectedDigest + ".");
+        }
+    }
+
+    /**
+     * Records a failed verification.
+     *
+     * @param message The description of the failure.
+     * @return exception The exception to throw.
+     */
+    private static IOException fail(String message) {
+        MetricsRegistry.SHARED.getCounter(MetricsRegistry.VERIFY_FAILURES).increment();
+        return new IOException(message);
+    }
+
+    /**
+     * Creates a SHA-256 digest, which every Java and Android runtime must provide.
+     *
+     * @return digest A new SHA-256 digest.
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
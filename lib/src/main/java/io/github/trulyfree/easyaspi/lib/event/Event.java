@@ -0,0 +1,145 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.event;
+
+/**
+ * A single event of an EventTopic. Events are preallocated slots which are reused once the ring of
+ * their topic wraps around, so they carry primitive values in dedicated fields instead of boxing
+ * them. Subscribers receive a private copy of each slot, which is only valid until their
+ * <code>onEvent</code> method returns.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ * @param <T> The type of object payloads of the topic.
+ */
+public class Event<T> {
+
+    /**
+     * Stamp of a slot being written.
+     */
+    static final long WRITING = -1;
+
+    /**
+     * The topic of the event.
+     */
+    private final EventTopic<T> topic;
+
+    /**
+     * The sequence number of the event in the slot, or WRITING while it is being replaced.
+     */
+    volatile long stamp;
+
+    /**
+     * The time the event was published, from <code>System.nanoTime</code>.
+     */
+    volatile long time;
+
+    /**
+     * The integral value of the event.
+     */
+    volatile long longValue;
+
+    /**
+     * The floating point value of the event.
+     */
+    volatile double doubleValue;
+
+    /**
+     * The object payload of the event, if any.
+     */
+    volatile T payload;
+
+    /**
+     * Standard constructor for Event.
+     *
+     * @param topic The topic of the event.
+     */
+    Event(EventTopic<T> topic) {
+        this.topic = topic;
+        this.stamp = WRITING;
+    }
+
+    /**
+     * Copies the contents of another event into this one.
+     *
+     * @param other The event to copy.
+     */
+    void copy(Event<T> other) {
+        time = other.time;
+        longValue = other.longValue;
+        doubleValue = other.doubleValue;
+        payload = other.payload;
+    }
+
+    /**
+     * Returns the topic of this event.
+     *
+     * @return topic The topic of this event.
+     */
+    public EventTopic<T> getTopic() {
+        return topic;
+    }
+
+    /**
+     * Returns the sequence number of this event within its topic.
+     *
+     * @return sequence The sequence number of this event.
+     */
+    public long getSequence() {
+        return stamp;
+    }
+
+    /**
+     * Returns the time this event was published.
+     *
+     * @return time The time this event was published, from <code>System.nanoTime</code>.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * Returns the integral value of this event.
+     *
+     * @return value The integral value of this event.
+     */
+    public long getLong() {
+        return longValue;
+    }
+
+    /**
+     * Returns the floating point value of this event.
+     *
+     * @return value The floating point value of this event.
+     */
+    public double getDouble() {
+        return doubleValue;
+    }
+
+    /**
+     * Returns the object payload of this event.
+     *
+     * @return payload The object payload of this event, or null if there is none.
+     */
+    public T getPayload() {
+        return payload;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.event;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Publish/subscribe bus for communication between modules. Topics are looked up by name, so
+ * modules loaded independently by the ModuleHandler can share them without static state of their
+ * own: a dashboard's poller publishes to "pi.cpu.temperature", and each of its renderers
+ * subscribes to it on the UI thread.
+ *
+ * Topics outlive activities, so the shared instance should be used.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class EventBus {
+
+    /**
+     * The default number of slots of a topic.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * The bus shared by every activity in the process.
+     */
+    public static final EventBus SHARED = new EventBus(DEFAULT_CAPACITY);
+
+    /**
+     * The number of slots of new topics.
+     */
+    private final int capacity;
+
+    /**
+     * Topics by name.
+     */
+    private final ConcurrentMap<String, EventTopic<?>> topics;
+
+    /**
+     * Standard constructor for EventBus.
+     *
+     * @param capacity The number of slots of new topics.
+     */
+    public EventBus(int capacity) {
+        this.capacity = capacity;
+        this.topics = new ConcurrentHashMap<String, EventTopic<?>>();
+    }
+
+    /**
+     * Returns the topic of the specified name, creating it if needed. Publishers and subscribers
+     * should keep the topic rather than look it up per event.
+     *
+     * @param name The name of the topic.
+     * @param type The type of object payloads of the topic. Topics carrying only numbers may use
+     *             Void.
+     * @param <T> The type of object payloads of the topic.
+     * @return topic The topic.
+     * @throws IllegalArgumentException If the topic exists with a different payload type.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> EventTopic<T> getTopic(@NonNull String name, @NonNull Class<T> type) {
+        EventTopic<?> topic = topics.get(name);
+        if (topic == null) {
+            EventTopic<T> created = new EventTopic<T>(name, type, capacity);
+            topic = topics.putIfAbsent(name, created);
+            if (topic == null) {
+                return created;
+            }
+        }
+        if (topic.getType() != type) {
+            throw new IllegalArgumentException("Topic " + name + " carries " + topic.getType().getName() +
+                    ", not " + type.getName());
+        }
+        return (EventTopic<T>) topic;
+    }
+}
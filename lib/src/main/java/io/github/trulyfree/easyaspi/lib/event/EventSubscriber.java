@@ -0,0 +1,40 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.event;
+
+/**
+ * Receives the events of a topic. Events are delivered in batches on the executor of the
+ * subscription, in order, and never concurrently.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ * @param <T> The type of object payloads of the topic.
+ */
+public interface EventSubscriber<T> {
+    /**
+     * To be called with every event of the topic. The event is reused once this method returns.
+     *
+     * @param event The event.
+     * @param endOfBatch Whether this is the last event available for now, which is the time to
+     *                   render whatever the batch changed.
+     */
+    public void onEvent(Event<T> event, boolean endOfBatch);
+}
@@ -0,0 +1,270 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.event;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A typed stream of events backed by a ring of preallocated slots. Any thread may publish;
+ * publishers are serialized by a lock held only while a slot is written, as the stamp of a slot
+ * admits a single writer at a time. Each subscription drains the ring on its own executor, so a
+ * subscriber rendering on the UI thread never slows down the module polling the Pi. Publishers
+ * never wait for subscribers: one which falls more than a full ring behind skips the events it
+ * missed and counts them instead.
+ *
+ * Numbers are published through <code>publish(long)</code> and <code>publish(double)</code>,
+ * which store them in primitive fields of the slot and allocate nothing.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ * @param <T> The type of object payloads of this topic.
+ */
+public class EventTopic<T> {
+
+    /**
+     * The name of this topic.
+     */
+    private final String name;
+
+    /**
+     * The type of object payloads of this topic.
+     */
+    private final Class<T> type;
+
+    /**
+     * The slots of the ring.
+     */
+    private final Event<T>[] slots;
+
+    /**
+     * Mask mapping sequence numbers to slots.
+     */
+    private final int mask;
+
+    /**
+     * The next sequence number to claim.
+     */
+    private final AtomicLong claimed;
+
+    /**
+     * Held by publishers while they claim and write a slot.
+     */
+    private final Object writeLock;
+
+    /**
+     * The current subscriptions, replaced as a whole on change so publishing iterates without
+     * allocating.
+     */
+    private volatile Subscription<T>[] subscriptions;
+
+    /**
+     * Standard constructor for EventTopic.
+     *
+     * @param name The name of this topic.
+     * @param type The type of object payloads of this topic.
+     * @param capacity The number of slots of the ring. Rounded up to a power of two.
+     */
+    EventTopic(String name, Class<T> type, int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.name = name;
+        this.type = type;
+        @SuppressWarnings("unchecked")
+        Event<T>[] slots = (Event<T>[]) new Event<?>[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Event<T>(this);
+        }
+        this.slots = slots;
+        this.mask = size - 1;
+        this.claimed = new AtomicLong();
+        this.writeLock = new Object();
+        this.subscriptions = newSubscriptions(0);
+    }
+
+    /**
+     * Publishes an integral value.
+     *
+     * @param value The value to publish.
+     */
+    public void publish(long value) {
+        synchronized (writeLock) {
+            long sequence = claimed.getAndIncrement();
+            Event<T> slot = begin(sequence);
+            slot.longValue = value;
+            slot.doubleValue = value;
+            slot.payload = null;
+            slot.stamp = sequence;
+        }
+        signal();
+    }
+
+    /**
+     * Publishes a floating point value.
+     *
+     * @param value The value to publish.
+     */
+    public void publish(double value) {
+        synchronized (writeLock) {
+            long sequence = claimed.getAndIncrement();
+            Event<T> slot = begin(sequence);
+            slot.longValue = (long) value;
+            slot.doubleValue = value;
+            slot.payload = null;
+            slot.stamp = sequence;
+        }
+        signal();
+    }
+
+    /**
+     * Publishes an object payload.
+     *
+     * @param payload The payload to publish.
+     */
+    public void publish(T payload) {
+        synchronized (writeLock) {
+            long sequence = claimed.getAndIncrement();
+            Event<T> slot = begin(sequence);
+            slot.longValue = 0;
+            slot.doubleValue = 0;
+            slot.payload = payload;
+            slot.stamp = sequence;
+        }
+        signal();
+    }
+
+    /**
+     * Subscribes to this topic. Only events published after this call are delivered.
+     *
+     * @param subscriber The subscriber to deliver events to.
+     * @param executor The executor to deliver events on.
+     * @return subscription The subscription, which must be cancelled once no longer needed.
+     */
+    public synchronized Subscription<T> subscribe(@NonNull EventSubscriber<T> subscriber,
+                                                  @NonNull Executor executor) {
+        Subscription<T> subscription = new Subscription<T>(this, subscriber, executor, claimed.get());
+        Subscription<T>[] current = subscriptions;
+        Subscription<T>[] next = newSubscriptions(current.length + 1);
+        System.arraycopy(current, 0, next, 0, current.length);
+        next[current.length] = subscription;
+        subscriptions = next;
+        return subscription;
+    }
+
+    /**
+     * Removes a subscription.
+     *
+     * @param subscription The subscription to remove.
+     */
+    synchronized void unsubscribe(Subscription<T> subscription) {
+        Subscription<T>[] current = subscriptions;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == subscription) {
+                Subscription<T>[] next = newSubscriptions(current.length - 1);
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                subscriptions = next;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Marks the slot of a claimed sequence number as being written. Must hold the write lock.
+     *
+     * @param sequence The claimed sequence number.
+     * @return slot The slot to write.
+     */
+    private Event<T> begin(long sequence) {
+        Event<T> slot = slots[(int) (sequence & mask)];
+        slot.stamp = Event.WRITING;
+        slot.time = System.nanoTime();
+        return slot;
+    }
+
+    /**
+     * Wakes the subscriptions after a slot is published.
+     */
+    private void signal() {
+        Subscription<T>[] current = subscriptions;
+        for (int i = 0; i < current.length; i++) {
+            current[i].signal();
+        }
+    }
+
+    /**
+     * Creates an array of subscriptions.
+     *
+     * @param length The length of the array.
+     * @return subscriptions The new array.
+     */
+    @SuppressWarnings("unchecked")
+    private Subscription<T>[] newSubscriptions(int length) {
+        return (Subscription<T>[]) new Subscription<?>[length];
+    }
+
+    /**
+     * Returns the slot of a sequence number.
+     *
+     * @param sequence The sequence number.
+     * @return slot The slot holding the sequence number, or which will hold it.
+     */
+    Event<T> slot(long sequence) {
+        return slots[(int) (sequence & mask)];
+    }
+
+    /**
+     * Returns the next sequence number to be claimed.
+     *
+     * @return claimed The next sequence number to be claimed.
+     */
+    long getClaimed() {
+        return claimed.get();
+    }
+
+    /**
+     * Returns the number of slots of the ring.
+     *
+     * @return capacity The number of slots of the ring.
+     */
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * Returns the name of this topic.
+     *
+     * @return name The name of this topic.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the type of object payloads of this topic.
+     *
+     * @return type The type of object payloads of this topic.
+     */
+    public Class<T> getType() {
+        return type;
+    }
+}
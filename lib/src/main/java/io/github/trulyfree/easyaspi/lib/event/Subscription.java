@@ -0,0 +1,191 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.event;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A subscriber's position in an EventTopic. Publishing schedules a drain on the subscription's
+ * executor unless one is already pending, so a burst of events costs a single task. The drain
+ * hands every event available to the subscriber and flags the last one as the end of the batch.
+ *
+ * Slots are read like a sequence lock: each one is copied into the subscription's own event and
+ * its stamp is checked again afterwards. A slot which was overwritten meanwhile is skipped and
+ * counted as missed.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ * @param <T> The type of object payloads of the topic.
+ */
+public class Subscription<T> implements Runnable {
+
+    /**
+     * The topic subscribed to.
+     */
+    private final EventTopic<T> topic;
+
+    /**
+     * The subscriber to deliver events to.
+     */
+    private final EventSubscriber<T> subscriber;
+
+    /**
+     * The executor to deliver events on.
+     */
+    private final Executor executor;
+
+    /**
+     * The event handed to the subscriber, refilled for every delivery.
+     */
+    private final Event<T> delivered;
+
+    /**
+     * Whether a drain is pending or running.
+     */
+    private final AtomicBoolean scheduled;
+
+    /**
+     * The number of events skipped because the subscriber fell behind.
+     */
+    private final AtomicLong missed;
+
+    /**
+     * The next sequence number to deliver. Only accessed by the running drain.
+     */
+    private long cursor;
+
+    /**
+     * Whether this subscription was cancelled.
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * Standard constructor for Subscription.
+     *
+     * @param topic The topic subscribed to.
+     * @param subscriber The subscriber to deliver events to.
+     * @param executor The executor to deliver events on.
+     * @param cursor The first sequence number to deliver.
+     */
+    Subscription(EventTopic<T> topic, EventSubscriber<T> subscriber, Executor executor, long cursor) {
+        this.topic = topic;
+        this.subscriber = subscriber;
+        this.executor = executor;
+        this.delivered = new Event<T>(topic);
+        this.scheduled = new AtomicBoolean();
+        this.missed = new AtomicLong();
+        this.cursor = cursor;
+    }
+
+    /**
+     * Schedules a drain unless one is already pending.
+     */
+    void signal() {
+        if (!cancelled && scheduled.compareAndSet(false, true)) {
+            executor.execute(this);
+        }
+    }
+
+    /**
+     * Delivers every available event to the subscriber.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            while (!cancelled && readSlot(cursor)) {
+                long sequence = cursor++;
+                delivered.stamp = sequence;
+                subscriber.onEvent(delivered, !isPublished(cursor));
+            }
+            scheduled.set(false);
+            // A publisher may have committed after the last check but seen the drain as pending.
+            if (cancelled || !isPublished(cursor) || !scheduled.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copies a slot into the delivered event, skipping ahead if the slot was overwritten.
+     *
+     * @param sequence The sequence number to read.
+     * @return read Whether an event was copied; the cursor may have moved past missed events.
+     */
+    private boolean readSlot(long sequence) {
+        while (true) {
+            Event<T> slot = topic.slot(sequence);
+            long stamp = slot.stamp;
+            if (stamp == sequence) {
+                delivered.copy(slot);
+                if (slot.stamp == sequence) {
+                    return true;
+                }
+            } else if (stamp < sequence && topic.getClaimed() - sequence <= topic.getCapacity()) {
+                // Not published yet; the commit will signal again.
+                return false;
+            }
+            // Lapped: resume from the oldest event still held by the ring.
+            long oldest = Math.max(sequence + 1, topic.getClaimed() - topic.getCapacity());
+            missed.addAndGet(oldest - sequence);
+            sequence = oldest;
+            cursor = oldest;
+        }
+    }
+
+    /**
+     * Checks whether an event has been published.
+     *
+     * @param sequence The sequence number of the event.
+     * @return published Whether the event has been published.
+     */
+    private boolean isPublished(long sequence) {
+        return topic.slot(sequence).stamp >= sequence;
+    }
+
+    /**
+     * Stops delivery. Events already being delivered may still arrive.
+     */
+    public void cancel() {
+        cancelled = true;
+        topic.unsubscribe(this);
+    }
+
+    /**
+     * Returns the number of events skipped because the subscriber fell more than a full ring
+     * behind.
+     *
+     * @return missed The number of events skipped.
+     */
+    public long getMissed() {
+        return missed.get();
+    }
+
+    /**
+     * Returns the topic subscribed to.
+     *
+     * @return topic The topic subscribed to.
+     */
+    public EventTopic<T> getTopic() {
+        return topic;
+    }
+}
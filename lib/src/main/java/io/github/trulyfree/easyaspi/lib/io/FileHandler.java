@@ -34,6 +34,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.github.trulyfree.easyaspi.lib.EAPActivity;
 import io.github.trulyfree.easyaspi.lib.callback.Callback;
@@ -57,6 +58,38 @@ public class FileHandler {
      */
     private static final char[] ILLEGAL_CHARACTERS = {'/', '\n', '\r', '\t', '\0', '\f', '`', '?', '*', '\\', '<', '>', '|', '\"', ':'};
 
+    /**
+     * Whether each ASCII character is illegal, indexed by character. Every illegal character is
+     * ASCII, so characters beyond the table are legal.
+     */
+    private static final boolean[] ILLEGAL_TABLE = new boolean[128];
+
+    static {
+        for (char character : ILLEGAL_CHARACTERS) {
+            ILLEGAL_TABLE[character] = true;
+        }
+    }
+
+    /**
+     * The maximum number of resolved files cached per app directory.
+     */
+    private static final int MAX_CACHED_FILES = 1024;
+
+    /**
+     * App directories by name. Resolving one costs a stat and possibly a mkdir, so it is done once.
+     */
+    private final ConcurrentHashMap<String, File> appDirs;
+
+    /**
+     * Files directly beneath each app directory, by app directory and then by name.
+     */
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, File>> resolved;
+
+    /**
+     * The trash that deleted folders are moved into, or null if it has not been used.
+     */
+    private Trash trash;
+
     /**
      * The activity which owns this FileHandler.
      */
@@ -70,6 +103,8 @@ public class FileHandler {
      */
     public FileHandler(@NonNull EAPActivity activity) {
         this.activity = activity;
+        this.appDirs = new ConcurrentHashMap<String, File>();
+        this.resolved = new ConcurrentHashMap<String, ConcurrentHashMap<String, File>>();
     }
 
     /**
@@ -167,19 +202,37 @@ public class FileHandler {
 
         callback.onStart();
 
-        while ((count = input.read(data)) != -1) {
-            current += count;
-            callback.onProgress(current);
-            output.write(data, 0, count);
+        // Verifying inputs throw mid-copy, so both streams must be closed either way.
+        try {
+            while ((count = input.read(data)) != -1) {
+                current += count;
+                callback.onProgress(current);
+                output.write(data, 0, count);
+            }
+            output.flush();
+        } finally {
+            output.close();
+            input.close();
         }
 
-        output.flush();
-        output.close();
-        input.close();
-
         callback.onFinish();
     }
 
+    /**
+     * Flushes the content of a file to the storage device, so it survives a crash or power loss.
+     *
+     * @param file The file to sync.
+     * @throws IOException If the file could not be opened or synced.
+     */
+    public static void sync(@NonNull File file) throws IOException {
+        FileOutputStream output = new FileOutputStream(file, true);
+        try {
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+    }
+
     /**
      * Reads content from a file at the specified path and writes it to an OutputStream.
      *
@@ -272,23 +325,58 @@ public class FileHandler {
     }
 
     /**
-     * Deletes a File instance. If that File is a folder, it will delete its submembers first.
+     * Deletes a File instance. A folder is renamed into the trash and deleted in the background,
+     * so this returns once it has gone from its original location; if it cannot be renamed, its
+     * submembers are deleted first, on this thread.
      *
      * @param file File to delete.
      * @return success Success or failure of the deletion process.
      * @throws IOException If the reading process fails.
      */
     public boolean deleteFile(@NonNull File file) throws IOException {
+        if (file.isDirectory()) {
+            // A deleted app directory must be recreated by the activity on next use.
+            appDirs.values().remove(file);
+            if (getTrash().moveToTrash(file)) {
+                return true;
+            }
+        }
+        return deleteNow(file);
+    }
+
+    /**
+     * Deletes a File instance on this thread. If that File is a folder, it will delete its
+     * submembers first.
+     *
+     * @param file File to delete.
+     * @return success Success or failure of the deletion process.
+     */
+    private boolean deleteNow(@NonNull File file) {
         if (file.isDirectory()) {
             for (File subfile : file.listFiles()) {
-                deleteFile(subfile);
+                deleteNow(subfile);
             }
         }
         return file.delete();
     }
 
     /**
-     * Generates a File instance given a specified path (with path checking).
+     * Returns the trash that deleted folders are moved into, creating it if needed.
+     *
+     * @return trash The trash of this handler.
+     */
+    public synchronized Trash getTrash() {
+        if (trash == null) {
+            trash = new Trash(activity.getDir("trash", Context.MODE_PRIVATE));
+        }
+        return trash;
+    }
+
+    /**
+     * Generates a File instance given a specified path (with path checking). App directories are
+     * resolved once and files directly beneath them are reused, so repeated calls cost no
+     * filesystem access and, for those files, no allocation. The app directory is created on
+     * first use only; callers creating files should create missing parents, as writeFile does.
      *
      * @param appdir The application subdirectory in which to locate the target file.
      * @param path The subdirectories beneath the appdir, ending with the target file.
@@ -296,6 +384,15 @@ public class FileHandler {
      */
     public File generateFile(@NonNull String appdir,
                              @NonNull String... path) {
+        if (path.length == 1) {
+            ConcurrentHashMap<String, File> files = resolved.get(appdir);
+            if (files != null) {
+                File file = files.get(path[0]);
+                if (file != null) {
+                    return file;
+                }
+            }
+        }
         if (!isValidName(appdir) || path.length == 0) {
             return null;
         }
@@ -304,13 +401,52 @@ public class FileHandler {
                 return null;
             }
         }
-        File appdirfile = activity.getDir(appdir, Context.MODE_PRIVATE);
-        StringBuilder concatpath = new StringBuilder(appdirfile.getAbsolutePath());
+        File target = getAppDir(appdir);
         for (String pathmember : path) {
-            concatpath.append("/");
-            concatpath.append(pathmember);
+            target = new File(target, pathmember);
         }
-        return new File(concatpath.toString());
+        if (path.length == 1) {
+            cache(appdir, path[0], target);
+        }
+        return target;
+    }
+
+    /**
+     * Returns an app directory, asking the activity for it only the first time.
+     *
+     * @param appdir The name of the app directory.
+     * @return appDir The app directory.
+     */
+    private File getAppDir(@NonNull String appdir) {
+        File appDir = appDirs.get(appdir);
+        if (appDir == null) {
+            appDir = activity.getDir(appdir, Context.MODE_PRIVATE);
+            appDirs.put(appdir, appDir);
+        }
+        return appDir;
+    }
+
+    /**
+     * Caches a file directly beneath an app directory. The cache of the app directory is emptied
+     * once full, which bounds it however many names are resolved.
+     *
+     * @param appdir The name of the app directory.
+     * @param name The name of the file.
+     * @param file The file.
+     */
+    private void cache(@NonNull String appdir, @NonNull String name, @NonNull File file) {
+        ConcurrentHashMap<String, File> files = resolved.get(appdir);
+        if (files == null) {
+            ConcurrentHashMap<String, File> created = new ConcurrentHashMap<String, File>();
+            files = resolved.putIfAbsent(appdir, created);
+            if (files == null) {
+                files = created;
+            }
+        }
+        if (files.size() >= MAX_CACHED_FILES) {
+            files.clear();
+        }
+        files.put(name, file);
     }
 
     /**
@@ -323,11 +459,10 @@ public class FileHandler {
         if (filename == null || filename.length() == 0) {
             return false;
         }
-        for (char character : filename.toCharArray()) {
-            for (char check : ILLEGAL_CHARACTERS) {
-                if (character == check) {
-                    return false;
-                }
+        for (int i = 0; i < filename.length(); i++) {
+            char character = filename.charAt(i);
+            if (character < ILLEGAL_TABLE.length && ILLEGAL_TABLE[character]) {
+                return false;
             }
         }
         return true;
@@ -0,0 +1,187 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.io;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A directory that trees are renamed into instead of being deleted in place. A rename within
+ * the app's storage is a single atomic operation however large the tree is, so the caller never
+ * waits on thousands of unlinks; the trash is then purged on a background thread.
+ *
+ * Anything in the trash is garbage by definition, so a purge interrupted by the process dying is
+ * simply picked up again by the next <code>purge</code>.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class Trash {
+
+    /**
+     * The number of files deleted between pauses while purging.
+     */
+    private static final int PURGE_BATCH = 128;
+
+    /**
+     * The pause between batches while purging, in milliseconds, leaving the disk to the
+     * foreground.
+     */
+    private static final int PURGE_PAUSE = 10;
+
+    /**
+     * The single thread every trash is purged on. Runs at the lowest priority, which Android maps
+     * to a background nice level.
+     */
+    private static final ExecutorService PURGER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "EAP-trash-purger");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    /**
+     * Makes the names of trashed trees unique.
+     */
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    /**
+     * The directory trees are renamed into.
+     */
+    private final File directory;
+
+    /**
+     * Whether a purge is scheduled but has not yet started, so that trashing many trees in a row
+     * schedules one purge.
+     */
+    private final AtomicBoolean scheduled;
+
+    /**
+     * Standard constructor for Trash.
+     *
+     * @param directory The directory trees are renamed into. Must be on the same filesystem as
+     *                  the trees trashed.
+     */
+    public Trash(@NonNull File directory) {
+        this.directory = directory;
+        this.scheduled = new AtomicBoolean();
+    }
+
+    /**
+     * Moves a file or tree into the trash and schedules a purge. Fails, leaving the file in place,
+     * if it could not be renamed, for example if it is on another filesystem.
+     *
+     * @param file The file or tree to trash.
+     * @return moved Whether the file was moved into the trash.
+     */
+    public boolean moveToTrash(@NonNull File file) {
+        if (!file.exists() || contains(file)) {
+            return false;
+        }
+        directory.mkdirs();
+        File target = new File(directory,
+                System.currentTimeMillis() + "-" + COUNTER.incrementAndGet() + "-" + file.getName());
+        if (!file.renameTo(target)) {
+            return false;
+        }
+        purge();
+        return true;
+    }
+
+    /**
+     * Checks whether a file is the trash or is inside it.
+     *
+     * @param file The file to check.
+     * @return contained Whether the file is the trash or is inside it.
+     */
+    public boolean contains(@NonNull File file) {
+        String trash = directory.getAbsolutePath();
+        String path = file.getAbsolutePath();
+        return path.equals(trash) || path.startsWith(trash + File.separator);
+    }
+
+    /**
+     * Schedules everything in the trash to be deleted on the purge thread. Should be called at
+     * start-up to sweep up anything a previous process left behind.
+     */
+    public void purge() {
+        if (!scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        PURGER.execute(new Runnable() {
+            @Override
+            public void run() {
+                scheduled.set(false);
+                File[] entries = directory.listFiles();
+                if (entries == null) {
+                    return;
+                }
+                int[] deleted = new int[1];
+                for (File entry : entries) {
+                    try {
+                        delete(entry, deleted);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes a tree depth first, pausing after every batch.
+     *
+     * @param file The root of the tree.
+     * @param deleted The number of files deleted so far, in its only element.
+     * @throws InterruptedException If the thread was interrupted while pausing.
+     */
+    private static void delete(File file, int[] deleted) throws InterruptedException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child, deleted);
+            }
+        }
+        file.delete();
+        if (++deleted[0] % PURGE_BATCH == 0) {
+            Thread.sleep(PURGE_PAUSE);
+        }
+    }
+
+    /**
+     * Returns the directory trees are renamed into.
+     *
+     * @return directory The directory trees are renamed into.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+}
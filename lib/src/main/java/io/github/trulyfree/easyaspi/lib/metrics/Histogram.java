@@ -0,0 +1,204 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values with logarithmic buckets. Each power of two is split into
+ * four buckets, so any recorded value is known to within 25% while the whole range of a long fits
+ * in 256 counters. Recording is a few bit operations and one atomic increment.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class Histogram {
+
+    /**
+     * The number of buckets per power of two, as a power of two.
+     */
+    private static final int SUB_BITS = 2;
+
+    /**
+     * The number of buckets per power of two.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /**
+     * The name of this histogram.
+     */
+    private final String name;
+
+    /**
+     * The number of values in each bucket.
+     */
+    private final AtomicLongArray buckets;
+
+    /**
+     * The number of values recorded.
+     */
+    private final StripedCounter count;
+
+    /**
+     * The sum of the values recorded.
+     */
+    private final StripedCounter sum;
+
+    /**
+     * The largest value recorded.
+     */
+    private final AtomicLong max;
+
+    /**
+     * Standard constructor for Histogram.
+     *
+     * @param name The name of this histogram.
+     */
+    public Histogram(String name) {
+        this.name = name;
+        this.buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+        this.count = new StripedCounter(name + ".count");
+        this.sum = new StripedCounter(name + ".sum");
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * Records a value. Negative values are recorded as zero.
+     *
+     * @param value The value to record.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // Retry until this value is no longer the largest.
+        }
+    }
+
+    /**
+     * Returns the bucket of a value.
+     *
+     * @param value The value.
+     * @return bucket The index of the bucket holding the value.
+     */
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Returns the largest value held by a bucket.
+     *
+     * @param bucket The index of the bucket.
+     * @return upperBound The largest value the bucket holds.
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        long lower = (1L << exponent) + (sub << (exponent - SUB_BITS));
+        return lower + (1L << (exponent - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Returns an estimate of a percentile of the recorded values.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return value The upper bound of the bucket holding the percentile, capped at the largest
+     *               value recorded, or 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            total += buckets.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Returns the number of values recorded.
+     *
+     * @return count The number of values recorded.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the sum of the values recorded.
+     *
+     * @return sum The sum of the values recorded.
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * Returns the mean of the values recorded.
+     *
+     * @return mean The mean, or 0 if nothing was recorded.
+     */
+    public double getMean() {
+        long values = count.get();
+        return values == 0 ? 0 : (double) sum.get() / values;
+    }
+
+    /**
+     * Returns the largest value recorded.
+     *
+     * @return max The largest value recorded, or 0 if nothing was recorded.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the name of this histogram.
+     *
+     * @return name The name of this histogram.
+     */
+    public String getName() {
+        return name;
+    }
+}
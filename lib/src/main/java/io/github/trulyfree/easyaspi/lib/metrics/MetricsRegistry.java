@@ -0,0 +1,264 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.metrics;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shared store of counters and histograms describing the module install pipeline: how much is
+ * downloaded and how fast, how long extraction and dexing take, and how often the module cache
+ * is hit. Recording is lock-free, so it may be done from any thread on any hot path; reading sums
+ * the current values and may be done at any time, for example to dump them to a file.
+ *
+ * Metrics are named with dots. Latencies and durations are recorded in nanoseconds and
+ * throughputs in bytes per second.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class MetricsRegistry {
+
+    /**
+     * The number of bytes downloaded.
+     */
+    public static final String DOWNLOAD_BYTES = "download.bytes";
+
+    /**
+     * The number of downloads which failed.
+     */
+    public static final String DOWNLOAD_FAILURES = "download.failures";
+
+    /**
+     * The time from opening a connection to receiving its response, per host. Suffixed with the
+     * host name.
+     */
+    public static final String DOWNLOAD_LATENCY = "download.latency.";
+
+    /**
+     * The number of bytes extracted from module jars.
+     */
+    public static final String EXTRACT_BYTES = "extract.bytes";
+
+    /**
+     * The rate at which module jars were extracted.
+     */
+    public static final String EXTRACT_THROUGHPUT = "extract.throughput";
+
+    /**
+     * The time taken to dex the extracted classes.
+     */
+    public static final String DEX_DURATION = "dex.duration";
+
+    /**
+     * The number of requests satisfied by the module cache.
+     */
+    public static final String CACHE_HITS = "cache.hits";
+
+    /**
+     * The number of requests the module cache could not satisfy.
+     */
+    public static final String CACHE_MISSES = "cache.misses";
+
+    /**
+     * The number of modules which failed to install.
+     */
+    public static final String INSTALL_FAILURES = "install.failures";
+
+    /**
+     * The number of downloads which did not match the size or digest of their config.
+     */
+    public static final String VERIFY_FAILURES = "verify.failures";
+
+    /**
+     * The number of jars not downloaded again because the installed copy matched its digest.
+     */
+    public static final String DOWNLOADS_SKIPPED = "download.skipped";
+
+    /**
+     * The number of jars rebuilt from a patch rather than downloaded whole.
+     */
+    public static final String PATCHES_APPLIED = "patch.applied";
+
+    /**
+     * The number of patches which failed, so the whole jar was downloaded instead.
+     */
+    public static final String PATCH_FALLBACKS = "patch.fallbacks";
+
+    /**
+     * The number of prebuilt dex downloaded, whose jars need no dexing on the device.
+     */
+    public static final String DEX_PREBUILT = "dex.prebuilt";
+
+    /**
+     * The number of prebuilt dex which failed, so their jars are dexed on the device instead.
+     */
+    public static final String DEX_FALLBACKS = "dex.fallbacks";
+
+    /**
+     * The number of classes provided by more than one jar when a generation was built.
+     */
+    public static final String DUPLICATE_CLASSES = "class.duplicates";
+
+    /**
+     * The time from the creation of a module's activity until its views are attached.
+     */
+    public static final String TIME_TO_INTERACTIVE = "startup.interactive";
+
+    /**
+     * The registry shared by every activity in the process.
+     */
+    public static final MetricsRegistry SHARED = new MetricsRegistry();
+
+    /**
+     * Counters by name.
+     */
+    private final ConcurrentMap<String, StripedCounter> counters;
+
+    /**
+     * Histograms by name.
+     */
+    private final ConcurrentMap<String, Histogram> histograms;
+
+    /**
+     * Standard constructor for MetricsRegistry.
+     */
+    public MetricsRegistry() {
+        this.counters = new ConcurrentHashMap<String, StripedCounter>();
+        this.histograms = new ConcurrentHashMap<String, Histogram>();
+    }
+
+    /**
+     * Returns a counter, creating it if needed. Hot paths should keep the counter rather than
+     * look it up each time.
+     *
+     * @param name The name of the counter.
+     * @return counter The counter.
+     */
+    public StripedCounter getCounter(@NonNull String name) {
+        StripedCounter counter = counters.get(name);
+        if (counter == null) {
+            StripedCounter created = new StripedCounter(name);
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Returns a histogram, creating it if needed. Hot paths should keep the histogram rather
+     * than look it up each time.
+     *
+     * @param name The name of the histogram.
+     * @return histogram The histogram.
+     */
+    public Histogram getHistogram(@NonNull String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram(name);
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Records a rate in bytes per second to a histogram.
+     *
+     * @param name The name of the histogram.
+     * @param bytes The number of bytes processed.
+     * @param nanos The time taken, in nanoseconds.
+     */
+    public void recordThroughput(@NonNull String name, long bytes, long nanos) {
+        if (nanos > 0) {
+            getHistogram(name).record(bytes * 1000000000L / nanos);
+        }
+    }
+
+    /**
+     * Returns the fraction of module cache requests which were hits.
+     *
+     * @return ratio The cache hit ratio, or 0 if there were no requests.
+     */
+    public double getCacheHitRatio() {
+        long hits = getCounter(CACHE_HITS).get();
+        long total = hits + getCounter(CACHE_MISSES).get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Writes every metric to a writer, one per line, sorted by name.
+     *
+     * @param writer The writer to write to. It is flushed but not closed.
+     * @throws IOException If the writer failed.
+     */
+    public void writeTo(@NonNull Writer writer) throws IOException {
+        PrintWriter out = new PrintWriter(writer);
+        for (Map.Entry<String, StripedCounter> entry : new TreeMap<String, StripedCounter>(counters).entrySet()) {
+            out.println(entry.getKey() + " " + entry.getValue().get());
+        }
+        out.println(String.format(Locale.US, "cache.ratio %.3f", getCacheHitRatio()));
+        for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(histograms).entrySet()) {
+            Histogram histogram = entry.getValue();
+            out.println(String.format(Locale.US,
+                    "%s count=%d mean=%.0f p50=%d p90=%d p99=%d max=%d",
+                    entry.getKey(),
+                    histogram.getCount(),
+                    histogram.getMean(),
+                    histogram.getPercentile(50),
+                    histogram.getPercentile(90),
+                    histogram.getPercentile(99),
+                    histogram.getMax()));
+        }
+        if (out.checkError()) {
+            throw new IOException("Failed to write metrics");
+        }
+    }
+
+    /**
+     * Writes every metric to a file, replacing its contents.
+     *
+     * @param file The file to write to.
+     * @throws IOException If the file could not be written.
+     */
+    public void dump(@NonNull File file) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            writeTo(writer);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter which many threads may add to without contending. Each thread adds to one of several
+ * cells, spaced a cache line apart, chosen from its id; reading sums the cells. This trades a
+ * slightly slower read for writes which never retry against each other, as LongAdder does on
+ * newer platforms.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class StripedCounter {
+
+    /**
+     * The number of cells. A power of two.
+     */
+    private static final int STRIPES = 8;
+
+    /**
+     * The distance between cells, in longs, so each sits on its own cache line.
+     */
+    private static final int PADDING = 8;
+
+    /**
+     * The name of this counter.
+     */
+    private final String name;
+
+    /**
+     * The cells of this counter.
+     */
+    private final AtomicLongArray cells;
+
+    /**
+     * Standard constructor for StripedCounter.
+     *
+     * @param name The name of this counter.
+     */
+    public StripedCounter(String name) {
+        this.name = name;
+        this.cells = new AtomicLongArray(STRIPES * PADDING);
+    }
+
+    /**
+     * Adds one to this counter.
+     */
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * Adds to this counter.
+     *
+     * @param delta The amount to add.
+     */
+    public void add(long delta) {
+        long id = Thread.currentThread().getId();
+        int stripe = (int) ((id ^ (id >>> 16)) & (STRIPES - 1));
+        cells.addAndGet(stripe * PADDING, delta);
+    }
+
+    /**
+     * Returns the value of this counter.
+     *
+     * @return value The sum of every cell.
+     */
+    public long get() {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            sum += cells.get(stripe * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the name of this counter.
+     *
+     * @return name The name of this counter.
+     */
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.module;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Index of which classes are provided by which jar. The index is kept as a sorted table, so
+ * lookups are a binary search, and is stored on disk with the shared prefix of neighbouring
+ * names removed.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class ClassIndex {
+
+    /**
+     * Magic number at the start of every stored index.
+     */
+    private static final int MAGIC = 0x45415049;
+
+    /**
+     * Version of the stored index format.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Names of the jars known by this index.
+     */
+    private final String[] jars;
+
+    /**
+     * Sorted fully qualified class names.
+     */
+    private final String[] classes;
+
+    /**
+     * Index into <code>jars</code> of the jar providing each class, as unsigned 16 bit values.
+     */
+    private final short[] providers;
+
+    /**
+     * Classes provided by more than one jar, mapped to every jar providing them.
+     */
+    private final Map<String, List<String>> duplicates;
+
+    /**
+     * Constructor hidden; use <code>Builder</code> or <code>read</code>.
+     *
+     * @param jars Names of the jars known by this index.
+     * @param classes Sorted fully qualified class names.
+     * @param providers Index of the jar providing each class.
+     * @param duplicates Classes provided by more than one jar.
+     */
+    private ClassIndex(String[] jars, String[] classes, short[] providers, Map<String, List<String>> duplicates) {
+        this.jars = jars;
+        this.classes = classes;
+        this.providers = providers;
+        this.duplicates = duplicates;
+    }
+
+    /**
+     * Checks whether a class is provided by any jar known by this index.
+     *
+     * @param classname The fully qualified name of the class.
+     * @return contained Whether the class is provided.
+     */
+    public boolean contains(@NonNull String classname) {
+        return Arrays.binarySearch(classes, classname) >= 0;
+    }
+
+    /**
+     * Returns the name of the jar which provides a class.
+     *
+     * @param classname The fully qualified name of the class.
+     * @return jar The name of the providing jar, or null if no jar provides it.
+     */
+    public String getJar(@NonNull String classname) {
+        int position = Arrays.binarySearch(classes, classname);
+        return position < 0 ? null : jars[providers[position] & 0xFFFF];
+    }
+
+    /**
+     * Returns the classes provided by more than one jar. Only duplicates seen while building the
+     * index are known; an index read from disk reports none.
+     *
+     * @return duplicates Duplicated classes, mapped to every jar providing them.
+     */
+    public Map<String, List<String>> getDuplicates() {
+        return Collections.unmodifiableMap(duplicates);
+    }
+
+    /**
+     * Returns the number of classes in this index.
+     *
+     * @return size The number of classes in this index.
+     */
+    public int size() {
+        return classes.length;
+    }
+
+    /**
+     * Writes this index to a file.
+     *
+     * @param target The file to write to.
+     * @throws IOException If the writing process fails.
+     */
+    public void write(@NonNull File target) throws IOException {
+        target.getParentFile().mkdirs();
+        File temporary = new File(target.getParentFile(), target.getName() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            output.writeShort(jars.length);
+            for (String jar : jars) {
+                output.writeUTF(jar);
+            }
+            output.writeInt(classes.length);
+            String previous = "";
+            for (int i = 0; i < classes.length; i++) {
+                int shared = sharedPrefix(previous, classes[i]);
+                output.writeShort(shared);
+                output.writeUTF(classes[i].substring(shared));
+                output.writeShort(providers[i]);
+                previous = classes[i];
+            }
+        } finally {
+            output.close();
+        }
+        if (!temporary.renameTo(target)) {
+            temporary.delete();
+            throw new IOException("Failed to replace " + target.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Reads an index from a file.
+     *
+     * @param source The file to read from.
+     * @return index The index stored in the file.
+     * @throws IOException If the file is missing, unreadable or not an index.
+     */
+    public static ClassIndex read(@NonNull File source) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(source)));
+        try {
+            if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) {
+                throw new IOException(source.getAbsolutePath() + " is not a class index.");
+            }
+            String[] jars = new String[input.readUnsignedShort()];
+            for (int i = 0; i < jars.length; i++) {
+                jars[i] = input.readUTF();
+            }
+            int count = input.readInt();
+            String[] classes = new String[count];
+            short[] providers = new short[count];
+            String previous = "";
+            for (int i = 0; i < count; i++) {
+                int shared = input.readUnsignedShort();
+                classes[i] = previous.substring(0, shared) + input.readUTF();
+                providers[i] = (short) input.readUnsignedShort();
+                previous = classes[i];
+            }
+            return new ClassIndex(jars, classes, providers, new HashMap<String, List<String>>());
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Returns the length of the prefix shared by two Strings.
+     *
+     * @param first The first String.
+     * @param second The second String.
+     * @return shared The length of the shared prefix.
+     */
+    private static int sharedPrefix(String first, String second) {
+        int limit = Math.min(Math.min(first.length(), second.length()), 0xFFFF);
+        int shared = 0;
+        while (shared < limit && first.charAt(shared) == second.charAt(shared)) {
+            shared++;
+        }
+        return shared;
+    }
+
+    /**
+     * Converts the name of a jar entry to a fully qualified class name.
+     *
+     * @param entryName The name of the jar entry, ending in <code>.class</code>.
+     * @return classname The fully qualified class name.
+     */
+    public static String toClassName(@NonNull String entryName) {
+        return entryName.substring(0, entryName.length() - ".class".length()).replace('/', '.');
+    }
+
+    /**
+     * Builder for ClassIndex instances. Builders are not thread safe.
+     */
+    public static class Builder {
+
+        /**
+         * Names of the jars added so far, by their position in the index.
+         */
+        private final ArrayList<String> jars;
+
+        /**
+         * Classes added so far, mapped to the position of their providing jar.
+         */
+        private final TreeMap<String, Short> classes;
+
+        /**
+         * Classes provided by more than one jar.
+         */
+        private final HashMap<String, List<String>> duplicates;
+
+        /**
+         * Standard constructor for Builder.
+         */
+        public Builder() {
+            this.jars = new ArrayList<String>();
+            this.classes = new TreeMap<String, Short>();
+            this.duplicates = new HashMap<String, List<String>>();
+        }
+
+        /**
+         * Records that a jar provides a class. If another jar already provides it, the first jar
+         * is kept as the provider and the class is recorded as a duplicate.
+         *
+         * @param jar The name of the jar.
+         * @param classname The fully qualified name of the class.
+         * @return builder This builder.
+         */
+        public Builder add(@NonNull String jar, @NonNull String classname) {
+            short position = positionOf(jar);
+            Short previous = classes.get(classname);
+            if (previous == null) {
+                classes.put(classname, position);
+            } else if (previous != position) {
+                List<String> providers = duplicates.get(classname);
+                if (providers == null) {
+                    providers = new ArrayList<String>();
+                    providers.add(jars.get(previous & 0xFFFF));
+                    duplicates.put(classname, providers);
+                }
+                providers.add(jar);
+            }
+            return this;
+        }
+
+        /**
+         * Records every class provided by a jar on disk. Only the jar's central directory is read.
+         *
+         * @param jarFile The jar to index.
+         * @return builder This builder.
+         * @throws IOException If the jar cannot be read.
+         */
+        public Builder addJar(@NonNull File jarFile) throws IOException {
+            JarFile jar = new JarFile(jarFile);
+            try {
+                Enumeration<JarEntry> entries = jar.entries();
+                while (entries.hasMoreElements()) {
+                    JarEntry entry = entries.nextElement();
+                    if (!entry.isDirectory() && entry.getName().endsWith(".class")) {
+                        add(jarFile.getName(), toClassName(entry.getName()));
+                    }
+                }
+            } finally {
+                jar.close();
+            }
+            return this;
+        }
+
+        /**
+         * Builds the index.
+         *
+         * @return index The index of every class added so far.
+         */
+        public ClassIndex build() {
+            String[] classNames = new String[classes.size()];
+            short[] providers = new short[classNames.length];
+            int i = 0;
+            for (Map.Entry<String, Short> entry : classes.entrySet()) {
+                classNames[i] = entry.getKey();
+                providers[i] = entry.getValue();
+                i++;
+            }
+            return new ClassIndex(jars.toArray(new String[jars.size()]),
+                    classNames,
+                    providers,
+                    new HashMap<String, List<String>>(duplicates));
+        }
+
+        /**
+         * Returns the position of a jar, adding it if it is new.
+         *
+         * @param jar The name of the jar.
+         * @return position The position of the jar.
+         */
+        private short positionOf(String jar) {
+            int position = jars.indexOf(jar);
+            if (position == -1) {
+                position = jars.size();
+                if (position > 0xFFFF) {
+                    throw new IllegalStateException("An index holds at most " + (0xFFFF + 1) + " jars.");
+                }
+                jars.add(jar);
+            }
+            // Stored as an unsigned 16 bit value.
+            return (short) position;
+        }
+    }
+}
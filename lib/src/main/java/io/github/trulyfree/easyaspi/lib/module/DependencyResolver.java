@@ -0,0 +1,501 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.module;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.github.trulyfree.easyaspi.lib.io.FileHandler;
+import io.github.trulyfree.easyaspi.lib.module.conf.Config;
+import io.github.trulyfree.easyaspi.lib.module.conf.ModuleConfig;
+
+/**
+ * Resolves the transitive dependencies of modules. A dependency with a config URL is described by
+ * the ModuleConfig found there, whose own dependencies are followed in turn; a dependency without
+ * one has no dependencies. Descriptors are fetched a breadth-first level at a time, each level in
+ * parallel.
+ *
+ * All modules are loaded from one dex, so only one version of a library can be installed. When
+ * versions conflict, the highest version wins, whether it is wanted by the module being resolved
+ * or by an installed module; equal versions keep the one found first. The result lists the
+ * dependencies in topological waves: every dependency of a wave comes after its own dependencies,
+ * so the jars of a wave may be fetched in parallel once the previous waves are in place.
+ *
+ * The resolved graph of a module is cached by name, version and declared dependencies, in memory
+ * and on disk, so repeat resolutions need no request. A dependency with a config URL but no
+ * declared version is unpinned: it follows whatever is published there, so its descriptor is
+ * fetched on every resolution and graphs reaching it are never cached. Revalidating resolutions
+ * bypass the caches altogether and replace what they hold.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class DependencyResolver {
+
+    /**
+     * Resolved graphs by cache key, shared by every handler in the process.
+     */
+    private static final ConcurrentHashMap<String, Config[][]> GRAPHS = new ConcurrentHashMap<String, Config[][]>();
+
+    /**
+     * Descriptors by config URL and declared version, shared by every handler in the process.
+     */
+    private static final ConcurrentHashMap<String, ModuleConfig> DESCRIPTORS = new ConcurrentHashMap<String, ModuleConfig>();
+
+    /**
+     * The module handler descriptors are downloaded with.
+     */
+    private final ModuleHandler moduleHandler;
+
+    /**
+     * The directory resolved graphs are cached in.
+     */
+    private final File graphDir;
+
+    /**
+     * The Gson instance used to cache graphs.
+     */
+    private final Gson gson;
+
+    /**
+     * Standard constructor for DependencyResolver.
+     *
+     * @param moduleHandler The module handler descriptors are downloaded with.
+     * @param graphDir The directory resolved graphs are cached in.
+     */
+    public DependencyResolver(@NonNull ModuleHandler moduleHandler, @NonNull File graphDir) {
+        this.moduleHandler = moduleHandler;
+        this.graphDir = graphDir;
+        this.gson = new Gson();
+    }
+
+    /**
+     * Resolves the transitive dependencies of a module against the installed modules.
+     *
+     * @param module The module to resolve.
+     * @param installed The installed modules, whose dependencies take part in conflicts, or null.
+     * @return waves The dependencies of the module in topological waves, leaves first.
+     * @throws IOException If a descriptor could not be downloaded.
+     * @throws JsonParseException If a descriptor is malformed.
+     */
+    public Config[][] resolve(@NonNull ModuleConfig module, @Nullable ModuleConfig[] installed)
+            throws IOException, JsonParseException {
+        return resolve(module, installed, false);
+    }
+
+    /**
+     * Resolves the transitive dependencies of a module against the installed modules.
+     *
+     * @param module The module to resolve.
+     * @param installed The installed modules, whose dependencies take part in conflicts, or null.
+     * @param revalidate Whether to fetch every descriptor again rather than trust the caches.
+     * @return waves The dependencies of the module in topological waves, leaves first.
+     * @throws IOException If a descriptor could not be downloaded.
+     * @throws JsonParseException If a descriptor is malformed.
+     */
+    public Config[][] resolve(@NonNull ModuleConfig module, @Nullable ModuleConfig[] installed, boolean revalidate)
+            throws IOException, JsonParseException {
+        return reconcile(module, getGraph(module, revalidate), installed);
+    }
+
+    /**
+     * Replaces every dependency of a module by the version an installed module depends on, if
+     * that version is higher.
+     *
+     * @param module The module.
+     * @param waves The dependencies of the module in topological waves.
+     * @param installed The installed modules, or null.
+     * @return waves The dependencies in the same waves, each at the highest version.
+     */
+    public static Config[][] reconcile(@NonNull ModuleConfig module,
+                                       @NonNull Config[][] waves,
+                                       @Nullable ModuleConfig[] installed) {
+        Map<String, Config> installedVersions = new HashMap<String, Config>();
+        if (installed != null) {
+            for (ModuleConfig other : installed) {
+                if (other.getName().equals(module.getName())) {
+                    continue;
+                }
+                for (Config dependency : other.getResolvedDependencies()) {
+                    Config previous = installedVersions.get(dependency.getName());
+                    if (previous == null || compareVersions(dependency.getVersion(), previous.getVersion()) > 0) {
+                        installedVersions.put(dependency.getName(), dependency);
+                    }
+                }
+            }
+        }
+        Config[][] reconciled = new Config[waves.length][];
+        for (int i = 0; i < waves.length; i++) {
+            reconciled[i] = new Config[waves[i].length];
+            for (int j = 0; j < waves[i].length; j++) {
+                Config wanted = waves[i][j];
+                Config other = installedVersions.get(wanted.getName());
+                boolean higher = other != null && compareVersions(other.getVersion(), wanted.getVersion()) > 0;
+                reconciled[i][j] = higher ? other : wanted;
+            }
+        }
+        return reconciled;
+    }
+
+    /**
+     * Flattens waves of dependencies.
+     *
+     * @param waves The waves.
+     * @return dependencies The dependencies of every wave, in order.
+     */
+    public static Config[] flatten(@NonNull Config[][] waves) {
+        List<Config> dependencies = new ArrayList<Config>();
+        for (Config[] wave : waves) {
+            Collections.addAll(dependencies, wave);
+        }
+        return dependencies.toArray(new Config[dependencies.size()]);
+    }
+
+    /**
+     * Compares two versions. Versions are split into segments on dots and dashes; numeric
+     * segments compare as numbers and rank above other segments, which compare as strings.
+     * A missing segment ranks below a numeric one and above any other, so 1.0 is below 1.0.1 and
+     * above 1.0-beta.
+     *
+     * @param first The first version, or null.
+     * @param second The second version, or null.
+     * @return comparison Negative, zero or positive as the first version is lower, equal or higher.
+     */
+    public static int compareVersions(@Nullable String first, @Nullable String second) {
+        String[] firstSegments = first == null || first.length() == 0 ? new String[0] : first.split("[.-]");
+        String[] secondSegments = second == null || second.length() == 0 ? new String[0] : second.split("[.-]");
+        for (int i = 0; i < Math.max(firstSegments.length, secondSegments.length); i++) {
+            if (i >= firstSegments.length) {
+                return secondSegments[i].matches("\\d+") ? -1 : 1;
+            }
+            if (i >= secondSegments.length) {
+                return firstSegments[i].matches("\\d+") ? 1 : -1;
+            }
+            boolean firstNumeric = firstSegments[i].matches("\\d+");
+            boolean secondNumeric = secondSegments[i].matches("\\d+");
+            int comparison;
+            if (firstNumeric && secondNumeric) {
+                // Compared by length first, so segments of any length compare numerically.
+                String a = firstSegments[i].replaceFirst("^0+(?=.)", "");
+                String b = secondSegments[i].replaceFirst("^0+(?=.)", "");
+                comparison = a.length() != b.length() ? a.length() - b.length() : a.compareTo(b);
+            } else if (firstNumeric != secondNumeric) {
+                comparison = firstNumeric ? 1 : -1;
+            } else {
+                comparison = firstSegments[i].compareTo(secondSegments[i]);
+            }
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the resolved graph of a module on its own, from the cache if possible.
+     *
+     * @param module The module.
+     * @param revalidate Whether to bypass the cache.
+     * @return waves The dependencies of the module in topological waves, leaves first.
+     * @throws IOException If a descriptor could not be downloaded.
+     * @throws JsonParseException If a descriptor is malformed.
+     */
+    private Config[][] getGraph(@NonNull ModuleConfig module, boolean revalidate) throws IOException, JsonParseException {
+        String key = module.getName() + "@" + module.getVersion() + "#" + gson.toJson(module.getDependencies());
+        Config[][] graph = revalidate ? null : GRAPHS.get(key);
+        if (graph != null) {
+            return graph;
+        }
+        FileHandler fileHandler = moduleHandler.getActivity().getFileHandler();
+        File cached = new File(graphDir, Integer.toHexString(key.hashCode()) + ".json");
+        if (!revalidate && cached.exists()) {
+            try {
+                CachedGraph read = gson.fromJson(fileHandler.readFile(null, cached), CachedGraph.class);
+                if (read != null && key.equals(read.key) && read.waves != null) {
+                    GRAPHS.put(key, read.waves);
+                    return read.waves;
+                }
+            } catch (JsonParseException e) {
+                e.printStackTrace();
+            }
+        }
+        AtomicBoolean unpinned = new AtomicBoolean();
+        graph = build(module, revalidate, unpinned);
+        if (unpinned.get()) {
+            // A stale entry would outlive the next publication of the unpinned dependency.
+            GRAPHS.remove(key);
+            cached.delete();
+            return graph;
+        }
+        CachedGraph written = new CachedGraph();
+        written.key = key;
+        written.waves = graph;
+        graphDir.mkdirs();
+        File part = new File(cached.getPath() + InstallJournal.STAGED_SUFFIX);
+        fileHandler.writeFile(gson.toJson(written), null, part);
+        if (!part.renameTo(cached)) {
+            part.delete();
+        }
+        GRAPHS.put(key, graph);
+        return graph;
+    }
+
+    /**
+     * Builds the resolved graph of a module: expands every version of every dependency reachable,
+     * keeps the highest version of each, and orders those still reachable into waves.
+     *
+     * @param module The module.
+     * @param revalidate Whether to fetch every descriptor again rather than trust the cache.
+     * @param unpinned Set if any dependency expanded is unpinned.
+     * @return waves The dependencies of the module in topological waves, leaves first.
+     * @throws IOException If a descriptor could not be downloaded.
+     * @throws JsonParseException If a descriptor is malformed.
+     */
+    private Config[][] build(@NonNull ModuleConfig module,
+                             final boolean revalidate,
+                             @NonNull final AtomicBoolean unpinned) throws IOException, JsonParseException {
+        // Every version found, by name and declared version, in breadth-first order.
+        LinkedHashMap<String, Config> nodes = new LinkedHashMap<String, Config>();
+        Map<String, Config[]> edges = new HashMap<String, Config[]>();
+        List<Config> level = new ArrayList<Config>();
+        Collections.addAll(level, module.getDependencies());
+        while (!level.isEmpty()) {
+            List<String> keys = new ArrayList<String>();
+            List<Future<ModuleConfig>> descriptors = new ArrayList<Future<ModuleConfig>>();
+            for (final Config dependency : level) {
+                String key = nodeKey(dependency);
+                if (nodes.containsKey(key) || keys.contains(key)) {
+                    continue;
+                }
+                keys.add(key);
+                descriptors.add(submit(new Callable<ModuleConfig>() {
+                    @Override
+                    public ModuleConfig call() throws Exception {
+                        return describe(dependency, revalidate, unpinned);
+                    }
+                }));
+            }
+            List<Config> next = new ArrayList<Config>();
+            for (int i = 0; i < keys.size(); i++) {
+                ModuleConfig descriptor = ModuleHandler.await(descriptors.get(i));
+                nodes.put(keys.get(i), descriptor);
+                edges.put(keys.get(i), descriptor.getDependencies());
+                Collections.addAll(next, descriptor.getDependencies());
+            }
+            level = next;
+        }
+
+        // The highest version of each name, and the node it came from.
+        Map<String, String> chosen = new HashMap<String, String>();
+        for (Map.Entry<String, Config> node : nodes.entrySet()) {
+            String name = node.getValue().getName();
+            String current = chosen.get(name);
+            if (current == null || compareVersions(node.getValue().getVersion(), nodes.get(current).getVersion()) > 0) {
+                chosen.put(name, node.getKey());
+            }
+        }
+
+        // Only dependencies reachable through chosen versions are needed.
+        Map<String, Set<String>> needs = new HashMap<String, Set<String>>();
+        List<String> pending = new ArrayList<String>();
+        for (Config dependency : module.getDependencies()) {
+            pending.add(dependency.getName());
+        }
+        while (!pending.isEmpty()) {
+            String name = pending.remove(pending.size() - 1);
+            if (needs.containsKey(name)) {
+                continue;
+            }
+            Set<String> names = new HashSet<String>();
+            for (Config dependency : edges.get(chosen.get(name))) {
+                if (!dependency.getName().equals(name)) {
+                    names.add(dependency.getName());
+                    pending.add(dependency.getName());
+                }
+            }
+            needs.put(name, names);
+        }
+
+        // Each wave holds what only depends on earlier waves; cycles are broken by taking what is
+        // left as one wave.
+        List<Config[]> waves = new ArrayList<Config[]>();
+        Set<String> placed = new HashSet<String>();
+        while (placed.size() < needs.size()) {
+            List<String> wave = new ArrayList<String>();
+            for (Map.Entry<String, Set<String>> node : needs.entrySet()) {
+                if (!placed.contains(node.getKey()) && placed.containsAll(node.getValue())) {
+                    wave.add(node.getKey());
+                }
+            }
+            if (wave.isEmpty()) {
+                for (String name : needs.keySet()) {
+                    if (!placed.contains(name)) {
+                        wave.add(name);
+                    }
+                }
+            }
+            Collections.sort(wave);
+            Config[] configs = new Config[wave.size()];
+            for (int i = 0; i < configs.length; i++) {
+                configs[i] = toDependency(nodes.get(chosen.get(wave.get(i))));
+            }
+            waves.add(configs);
+            placed.addAll(wave);
+        }
+        return waves.toArray(new Config[waves.size()][]);
+    }
+
+    /**
+     * Returns the descriptor of a dependency, downloading it if it has a config URL.
+     *
+     * @param dependency The dependency.
+     * @param revalidate Whether to download the descriptor again rather than trust the cache.
+     * @param unpinned Set if the dependency is unpinned.
+     * @return descriptor The descriptor, named and versioned as the dependency unless the descriptor
+     * says otherwise.
+     * @throws IOException If the descriptor could not be downloaded.
+     * @throws JsonParseException If the descriptor is malformed.
+     */
+    private ModuleConfig describe(@NonNull Config dependency,
+                                  boolean revalidate,
+                                  @NonNull AtomicBoolean unpinned) throws IOException, JsonParseException {
+        ModuleConfig descriptor = new ModuleConfig();
+        String confUrl = dependency.getConfUrl();
+        ModuleConfig published = null;
+        if (isSet(confUrl)) {
+            boolean pinned = isSet(dependency.getVersion());
+            if (!pinned) {
+                unpinned.set(true);
+            }
+            String key = confUrl + "@" + dependency.getVersion();
+            published = revalidate || !pinned ? null : DESCRIPTORS.get(key);
+            if (published == null) {
+                published = moduleHandler.getModuleConfig(confUrl);
+                if (published == null) {
+                    throw new JsonParseException("Empty config at " + confUrl);
+                }
+                if (pinned) {
+                    DESCRIPTORS.put(key, published);
+                }
+            }
+        }
+        Config source = published == null ? dependency : published;
+        // The name is the dependency's own, as it names the jar.
+        descriptor.setName(dependency.getName());
+        descriptor.setConfUrl(confUrl);
+        descriptor.setVersion(isSet(source.getVersion()) ? source.getVersion() : dependency.getVersion());
+        descriptor.setJarUrl(isSet(source.getJarUrl()) ? source.getJarUrl() : dependency.getJarUrl());
+        descriptor.setSha256(source.getSha256());
+        descriptor.setSize(source.getSize());
+        descriptor.setPatches(source.getPatches());
+        descriptor.setDexUrl(source.getDexUrl());
+        descriptor.setDexSha256(source.getDexSha256());
+        if (published != null && published.getDependencies() != null) {
+            descriptor.setDependencies(published.getDependencies());
+        }
+        return descriptor;
+    }
+
+    /**
+     * Copies the fields of a descriptor which belong in the dependency list of a module.
+     *
+     * @param descriptor The descriptor.
+     * @return dependency The descriptor as a dependency.
+     */
+    private static Config toDependency(@NonNull Config descriptor) {
+        Config dependency = new Config();
+        dependency.setName(descriptor.getName());
+        dependency.setVersion(descriptor.getVersion());
+        dependency.setConfUrl(descriptor.getConfUrl());
+        dependency.setJarUrl(descriptor.getJarUrl());
+        dependency.setSha256(descriptor.getSha256());
+        dependency.setSize(descriptor.getSize());
+        dependency.setPatches(descriptor.getPatches());
+        dependency.setDexUrl(descriptor.getDexUrl());
+        dependency.setDexSha256(descriptor.getDexSha256());
+        return dependency;
+    }
+
+    /**
+     * Returns the key a dependency is expanded once by.
+     *
+     * @param dependency The dependency.
+     * @return key The name, declared version and config URL of the dependency.
+     */
+    private static String nodeKey(@NonNull Config dependency) {
+        return dependency.getName() + "@" + dependency.getVersion() + "|" + dependency.getConfUrl();
+    }
+
+    /**
+     * Returns whether a string is set.
+     *
+     * @param value The string, possibly null.
+     * @return set Whether the string is neither null nor empty.
+     */
+    private static boolean isSet(@Nullable String value) {
+        return value != null && value.length() != 0;
+    }
+
+    /**
+     * Runs a task on the executor of the activity, or on the calling thread if it has none.
+     *
+     * @param task The task.
+     * @param <T> The type of the result of the task.
+     * @return future The result of the task.
+     */
+    private <T> Future<T> submit(@NonNull Callable<T> task) {
+        return ModuleHandler.submit(moduleHandler.getActivity().getExecutorService(), task);
+    }
+
+    /**
+     * A resolved graph as cached on disk.
+     */
+    private static class CachedGraph {
+
+        /**
+         * The cache key of the graph, which the file name is only a hash of.
+         */
+        String key;
+
+        /**
+         * The waves of the graph.
+         */
+        Config[][] waves;
+    }
+}
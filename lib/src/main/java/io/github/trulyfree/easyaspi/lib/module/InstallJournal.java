@@ -0,0 +1,430 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.module;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.trulyfree.easyaspi.lib.io.FileHandler;
+
+/**
+ * An append-only journal making module installs, removals and refreshes crash safe. Files are
+ * written beside their targets as <code>.part</code> files, and only renamed over the targets once
+ * every file of the transaction is complete. Each step is recorded and synced before it is taken:
+ *
+ * <pre>
+ * BEGIN  id operation
+ * STAGE  id staged target
+ * DELETE id target
+ * COMMIT id
+ * DONE   id
+ * ABORT  id
+ * </pre>
+ *
+ * On replay, a transaction which never committed is rolled back by deleting its staged files, and
+ * one which committed but never finished is rolled forward by redoing its renames and deletions.
+ * Both are idempotent, so a crash during replay is harmless.
+ *
+ * Transactions still running in this process are never replayed, so every handler must share the
+ * journal of a file; journals are obtained with <code>forFile</code>.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class InstallJournal {
+
+    /**
+     * The suffix of staged files.
+     */
+    public static final String STAGED_SUFFIX = ".part";
+
+    /**
+     * Journals by absolute path of their file.
+     */
+    private static final ConcurrentHashMap<String, InstallJournal> JOURNALS = new ConcurrentHashMap<String, InstallJournal>();
+
+    /**
+     * Makes transaction ids unique within a process.
+     */
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    /**
+     * The file of this journal.
+     */
+    private final File file;
+
+    /**
+     * The ids of the transactions running in this process.
+     */
+    private final HashSet<String> running;
+
+    /**
+     * Whether a transaction of this process committed but could not be applied, and is left for
+     * replay. The journal is kept until then.
+     */
+    private boolean unresolved;
+
+    /**
+     * Standard constructor for InstallJournal. Use <code>forFile</code> instead, so handlers share
+     * the running transactions of the journal.
+     *
+     * @param file The file of this journal.
+     */
+    InstallJournal(@NonNull File file) {
+        this.file = file;
+        this.running = new HashSet<String>();
+    }
+
+    /**
+     * Returns the journal of a file, shared by every handler in the process.
+     *
+     * @param file The file of the journal.
+     * @return journal The journal of the file.
+     */
+    public static InstallJournal forFile(@NonNull File file) {
+        String key = file.getAbsolutePath();
+        InstallJournal journal = JOURNALS.get(key);
+        if (journal == null) {
+            InstallJournal created = new InstallJournal(file);
+            journal = JOURNALS.putIfAbsent(key, created);
+            if (journal == null) {
+                journal = created;
+            }
+        }
+        return journal;
+    }
+
+    /**
+     * Starts a transaction.
+     *
+     * @param operation The name of the operation, for diagnosis.
+     * @return transaction The new transaction.
+     * @throws IOException If the journal could not be written.
+     */
+    public synchronized Transaction begin(@NonNull String operation) throws IOException {
+        String id = System.currentTimeMillis() + "-" + COUNTER.incrementAndGet();
+        append("BEGIN", id, operation);
+        running.add(id);
+        return new Transaction(id);
+    }
+
+    /**
+     * Resolves every transaction left incomplete by a previous process, then empties the journal
+     * if no transaction is running.
+     *
+     * @throws IOException If the journal could not be read.
+     */
+    public synchronized void replay() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        Map<String, Record> records = new LinkedHashMap<String, Record>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                // A torn final line is ignored; its step was never taken.
+                if (fields.length < 2 || running.contains(fields[1])) {
+                    continue;
+                }
+                Record record = records.get(fields[1]);
+                if (record == null) {
+                    record = new Record();
+                    records.put(fields[1], record);
+                }
+                String type = fields[0];
+                if (type.equals("STAGE") && fields.length == 4) {
+                    record.staged.add(new File(fields[2]));
+                    record.targets.add(new File(fields[3]));
+                } else if (type.equals("DELETE") && fields.length == 3) {
+                    record.deleted.add(new File(fields[2]));
+                } else if (type.equals("COMMIT")) {
+                    record.committed = true;
+                } else if (type.equals("DONE") || type.equals("ABORT")) {
+                    record.finished = true;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        for (Record record : records.values()) {
+            if (record.finished) {
+                continue;
+            }
+            if (record.committed) {
+                apply(record.staged, record.targets, record.deleted);
+            } else {
+                discard(record.staged);
+            }
+        }
+        unresolved = false;
+        truncateIfIdle();
+    }
+
+    /**
+     * Renames staged files over their targets and deletes files. Staged files already renamed
+     * are skipped.
+     *
+     * @param staged The staged files.
+     * @param targets The targets of the staged files, in the same order.
+     * @param deleted The files to delete.
+     * @throws IOException If a staged file could not be renamed.
+     */
+    private static void apply(List<File> staged, List<File> targets, List<File> deleted) throws IOException {
+        for (int i = 0; i < staged.size(); i++) {
+            File stagedFile = staged.get(i);
+            if (stagedFile.exists() && !stagedFile.renameTo(targets.get(i))) {
+                throw new IOException("Could not rename " + stagedFile + " to " + targets.get(i));
+            }
+        }
+        for (File deletedFile : deleted) {
+            deletedFile.delete();
+        }
+    }
+
+    /**
+     * Deletes staged files.
+     *
+     * @param staged The staged files.
+     */
+    private static void discard(List<File> staged) {
+        for (File stagedFile : staged) {
+            stagedFile.delete();
+        }
+    }
+
+    /**
+     * Appends a record and syncs it to disk.
+     *
+     * @param fields The fields of the record.
+     * @throws IOException If the journal could not be written.
+     */
+    private synchronized void append(String... fields) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (String field : fields) {
+            if (line.length() != 0) {
+                line.append('\t');
+            }
+            line.append(field);
+        }
+        line.append('\n');
+        file.getParentFile().mkdirs();
+        FileOutputStream output = new FileOutputStream(file, true);
+        try {
+            output.write(line.toString().getBytes("UTF-8"));
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Ends a transaction, emptying the journal once no transaction is running.
+     *
+     * @param id The id of the transaction.
+     * @param type The final record, DONE or ABORT.
+     * @throws IOException If the journal could not be written.
+     */
+    private synchronized void finish(String id, String type) throws IOException {
+        append(type, id);
+        running.remove(id);
+        truncateIfIdle();
+    }
+
+    /**
+     * Empties the journal if no transaction is running or left for replay, as every record in it
+     * is resolved.
+     */
+    private void truncateIfIdle() {
+        if (running.isEmpty() && !unresolved) {
+            file.delete();
+        }
+    }
+
+    /**
+     * The records of one transaction read back from the journal.
+     */
+    private static class Record {
+
+        /**
+         * The staged files.
+         */
+        final List<File> staged = new ArrayList<File>();
+
+        /**
+         * The targets of the staged files.
+         */
+        final List<File> targets = new ArrayList<File>();
+
+        /**
+         * The files to delete.
+         */
+        final List<File> deleted = new ArrayList<File>();
+
+        /**
+         * Whether the transaction committed.
+         */
+        boolean committed;
+
+        /**
+         * Whether the transaction was done or aborted.
+         */
+        boolean finished;
+    }
+
+    /**
+     * A transaction of this journal. Files may be staged from several threads, but commit and
+     * abort must wait for them.
+     */
+    public class Transaction {
+
+        /**
+         * The id of this transaction.
+         */
+        private final String id;
+
+        /**
+         * The staged files of this transaction, by target.
+         */
+        private final Map<File, File> staged;
+
+        /**
+         * The files this transaction deletes.
+         */
+        private final List<File> deleted;
+
+        /**
+         * Whether this transaction has ended.
+         */
+        private boolean ended;
+
+        /**
+         * Standard constructor for Transaction.
+         *
+         * @param id The id of this transaction.
+         */
+        private Transaction(String id) {
+            this.id = id;
+            this.staged = new LinkedHashMap<File, File>();
+            this.deleted = new ArrayList<File>();
+        }
+
+        /**
+         * Records that a file will be written, returning where to write it. The target is only
+         * replaced on commit.
+         *
+         * @param target The file to write.
+         * @return staged The file to write to instead.
+         * @throws IOException If the journal could not be written.
+         */
+        public synchronized File stage(@NonNull File target) throws IOException {
+            File stagedFile = staged.get(target);
+            if (stagedFile == null) {
+                stagedFile = new File(target.getPath() + STAGED_SUFFIX);
+                append("STAGE", id, stagedFile.getAbsolutePath(), target.getAbsolutePath());
+                staged.put(target, stagedFile);
+            }
+            return stagedFile;
+        }
+
+        /**
+         * Records that a file will be deleted on commit.
+         *
+         * @param target The file to delete.
+         * @throws IOException If the journal could not be written.
+         */
+        public synchronized void delete(@NonNull File target) throws IOException {
+            append("DELETE", id, target.getAbsolutePath());
+            deleted.add(target);
+        }
+
+        /**
+         * Returns the file a target is being written to by this transaction.
+         *
+         * @param target The file to look up.
+         * @return file The staged file if the target was staged, or the target itself.
+         */
+        public synchronized File resolve(@NonNull File target) {
+            File stagedFile = staged.get(target);
+            return stagedFile == null ? target : stagedFile;
+        }
+
+        /**
+         * Commits this transaction, replacing every target by its staged file and deleting the
+         * deleted files. The staged files are synced first, so a commit recorded before a crash
+         * never refers to data still in the page cache. Once the commit is recorded the transaction
+         * will complete, here or on replay.
+         *
+         * @throws IOException If a staged file could not be synced, the journal could not be
+         *                     written or a file could not be renamed.
+         */
+        public synchronized void commit() throws IOException {
+            for (File stagedFile : staged.values()) {
+                if (stagedFile.exists()) {
+                    FileHandler.sync(stagedFile);
+                }
+            }
+            append("COMMIT", id);
+            ended = true;
+            try {
+                apply(new ArrayList<File>(staged.values()), new ArrayList<File>(staged.keySet()), deleted);
+            } catch (IOException e) {
+                // The commit is recorded, so the next replay rolls the transaction forward.
+                synchronized (InstallJournal.this) {
+                    running.remove(id);
+                    unresolved = true;
+                }
+                throw e;
+            }
+            finish(id, "DONE");
+        }
+
+        /**
+         * Aborts this transaction, deleting its staged files. Does nothing once committed.
+         */
+        public synchronized void abort() {
+            if (ended) {
+                return;
+            }
+            ended = true;
+            discard(new ArrayList<File>(staged.values()));
+            try {
+                finish(id, "ABORT");
+            } catch (IOException e) {
+                // Replay rolls back a transaction which never committed all the same.
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,466 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.module;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary patches between two versions of a jar, at the granularity of zip entries. The compressed
+ * data of every entry of the new jar which also appears in the old jar (same CRC, same compressed
+ * bytes) is copied from the old jar; everything else, including entry headers and the central
+ * directory, is carried in the patch. Applying a patch therefore rebuilds the new jar byte for
+ * byte, so it can be verified against the digest of the new jar.
+ *
+ * A patch is a stream of operations following the magic bytes "EAPP" and a format version:
+ *
+ * <pre>
+ * 1 offset:long length:long  copy bytes of the old jar
+ * 2 length:int bytes         insert bytes
+ * 0                          end of patch
+ * </pre>
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public final class JarPatch {
+
+    /**
+     * The magic bytes starting every patch.
+     */
+    private static final byte[] MAGIC = {'E', 'A', 'P', 'P'};
+
+    /**
+     * The format version of patches.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Operation ending a patch.
+     */
+    private static final int END = 0;
+
+    /**
+     * Operation copying bytes of the old jar.
+     */
+    private static final int COPY = 1;
+
+    /**
+     * Operation inserting bytes carried in the patch.
+     */
+    private static final int DATA = 2;
+
+    /**
+     * Signature of the end of central directory record.
+     */
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+    /**
+     * Signature of central directory headers.
+     */
+    private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+
+    /**
+     * Signature of local file headers.
+     */
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+
+    /**
+     * Not instantiable.
+     */
+    private JarPatch() {}
+
+    /**
+     * Computes the patch turning one jar into another. Files which are not readable zips are
+     * carried in the patch whole.
+     *
+     * @param base The old jar.
+     * @param target The new jar.
+     * @param patch The stream to write the patch to. Not closed.
+     * @throws IOException If a jar could not be read or the patch could not be written.
+     */
+    public static void diff(@NonNull File base, @NonNull File target, @NonNull OutputStream patch)
+            throws IOException {
+        byte[] baseBytes = readFully(base);
+        byte[] targetBytes = readFully(target);
+
+        Map<String, List<Entry>> baseEntries = new HashMap<String, List<Entry>>();
+        for (Entry entry : entries(baseBytes)) {
+            List<Entry> candidates = baseEntries.get(entry.key());
+            if (candidates == null) {
+                candidates = new ArrayList<Entry>();
+                baseEntries.put(entry.key(), candidates);
+            }
+            candidates.add(entry);
+        }
+
+        DataOutputStream output = new DataOutputStream(patch);
+        output.write(MAGIC);
+        output.write(VERSION);
+        int position = 0;
+        for (Entry entry : entries(targetBytes)) {
+            Entry match = null;
+            List<Entry> candidates = baseEntries.get(entry.key());
+            if (candidates != null) {
+                for (Entry candidate : candidates) {
+                    if (regionEquals(baseBytes, candidate.dataStart, targetBytes, entry.dataStart, entry.compressedSize)) {
+                        match = candidate;
+                        break;
+                    }
+                }
+            }
+            if (match == null) {
+                continue;
+            }
+            writeData(output, targetBytes, position, entry.dataStart - position);
+            output.write(COPY);
+            output.writeLong(match.dataStart);
+            output.writeLong(entry.compressedSize);
+            position = entry.dataStart + entry.compressedSize;
+        }
+        writeData(output, targetBytes, position, targetBytes.length - position);
+        output.write(END);
+        output.flush();
+    }
+
+    /**
+     * Returns a stream of the new jar rebuilt from an old jar and a patch. The patch is read
+     * lazily, so it may be read straight from a download.
+     *
+     * @param base The old jar.
+     * @param patch The patch. Closed along with the returned stream.
+     * @return jar The new jar.
+     * @throws IOException If the old jar could not be opened or the patch is not one.
+     */
+    public static InputStream open(@NonNull File base, @NonNull InputStream patch) throws IOException {
+        DataInputStream input = new DataInputStream(patch);
+        byte[] magic = new byte[MAGIC.length];
+        try {
+            input.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || input.read() != VERSION) {
+                throw new IOException("Not a supported patch.");
+            }
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+        return new PatchedInputStream(new RandomAccessFile(base, "r"), input);
+    }
+
+    /**
+     * Writes an operation inserting bytes, if there are any.
+     *
+     * @param output The patch.
+     * @param bytes The bytes to insert from.
+     * @param offset The offset of the first byte to insert.
+     * @param length The number of bytes to insert.
+     * @throws IOException If the patch could not be written.
+     */
+    private static void writeData(DataOutputStream output, byte[] bytes, int offset, int length) throws IOException {
+        if (length <= 0) {
+            return;
+        }
+        output.write(DATA);
+        output.writeInt(length);
+        output.write(bytes, offset, length);
+    }
+
+    /**
+     * Lists the entries of a zip by the offset of their data. Returns no entries for files which
+     * are not zips, or use zip features the patch format does not handle (zip64).
+     *
+     * @param zip The zip.
+     * @return entries The entries of the zip, in the order of their data.
+     */
+    private static List<Entry> entries(byte[] zip) {
+        List<Entry> entries = new ArrayList<Entry>();
+        int end = -1;
+        for (int i = zip.length - 22; i >= Math.max(0, zip.length - 22 - 0xffff); i--) {
+            if (readInt(zip, i) == END_OF_CENTRAL_DIRECTORY) {
+                end = i;
+                break;
+            }
+        }
+        if (end == -1) {
+            return entries;
+        }
+        int count = readShort(zip, end + 10);
+        long directory = readInt(zip, end + 16) & 0xffffffffL;
+        int position = (int) Math.min(directory, zip.length);
+        for (int i = 0; i < count; i++) {
+            if (position + 46 > zip.length || readInt(zip, position) != CENTRAL_DIRECTORY_HEADER) {
+                return new ArrayList<Entry>();
+            }
+            int crc = readInt(zip, position + 16);
+            long compressedSize = readInt(zip, position + 20) & 0xffffffffL;
+            long localHeader = readInt(zip, position + 42) & 0xffffffffL;
+            if (compressedSize == 0xffffffffL || localHeader == 0xffffffffL || localHeader + 30 > zip.length ||
+                    readInt(zip, (int) localHeader) != LOCAL_FILE_HEADER) {
+                return new ArrayList<Entry>();
+            }
+            int dataStart = (int) localHeader + 30 +
+                    readShort(zip, (int) localHeader + 26) + readShort(zip, (int) localHeader + 28);
+            if (dataStart + compressedSize > zip.length) {
+                return new ArrayList<Entry>();
+            }
+            entries.add(new Entry(crc, dataStart, (int) compressedSize));
+            position += 46 + readShort(zip, position + 28) + readShort(zip, position + 30) + readShort(zip, position + 32);
+        }
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry first, Entry second) {
+                return first.dataStart < second.dataStart ? -1 : (first.dataStart == second.dataStart ? 0 : 1);
+            }
+        });
+        // Overlapping entries would make copies overlap; such zips are carried whole.
+        for (int i = 1; i < entries.size(); i++) {
+            Entry previous = entries.get(i - 1);
+            if (previous.dataStart + previous.compressedSize > entries.get(i).dataStart) {
+                return new ArrayList<Entry>();
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Compares two regions of bytes.
+     *
+     * @param first The first bytes.
+     * @param firstOffset The offset of the region in the first bytes.
+     * @param second The second bytes.
+     * @param secondOffset The offset of the region in the second bytes.
+     * @param length The length of the regions.
+     * @return equal Whether the regions are equal.
+     */
+    private static boolean regionEquals(byte[] first, int firstOffset, byte[] second, int secondOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (first[firstOffset + i] != second[secondOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a little endian unsigned short.
+     *
+     * @param bytes The bytes to read from.
+     * @param offset The offset of the short.
+     * @return value The short.
+     */
+    private static int readShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8;
+    }
+
+    /**
+     * Reads a little endian int.
+     *
+     * @param bytes The bytes to read from.
+     * @param offset The offset of the int.
+     * @return value The int.
+     */
+    private static int readInt(byte[] bytes, int offset) {
+        return readShort(bytes, offset) | readShort(bytes, offset + 2) << 16;
+    }
+
+    /**
+     * Reads a whole file.
+     *
+     * @param file The file to read.
+     * @return bytes The content of the file.
+     * @throws IOException If the file could not be read.
+     */
+    private static byte[] readFully(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            input.readFully(bytes);
+        } finally {
+            input.close();
+        }
+        return bytes;
+    }
+
+    /**
+     * The compressed data of a zip entry.
+     */
+    private static class Entry {
+
+        /**
+         * The CRC of the uncompressed data.
+         */
+        final int crc;
+
+        /**
+         * The offset of the compressed data.
+         */
+        final int dataStart;
+
+        /**
+         * The length of the compressed data.
+         */
+        final int compressedSize;
+
+        /**
+         * Standard constructor for Entry.
+         *
+         * @param crc The CRC of the uncompressed data.
+         * @param dataStart The offset of the compressed data.
+         * @param compressedSize The length of the compressed data.
+         */
+        Entry(int crc, int dataStart, int compressedSize) {
+            this.crc = crc;
+            this.dataStart = dataStart;
+            this.compressedSize = compressedSize;
+        }
+
+        /**
+         * Returns the key entries are matched by before their bytes are compared.
+         *
+         * @return key The CRC and compressed size of this entry.
+         */
+        String key() {
+            return crc + ":" + compressedSize;
+        }
+    }
+
+    /**
+     * Stream of a jar rebuilt from an old jar and a patch.
+     */
+    private static class PatchedInputStream extends InputStream {
+
+        /**
+         * The old jar.
+         */
+        private final RandomAccessFile base;
+
+        /**
+         * The patch.
+         */
+        private final DataInputStream patch;
+
+        /**
+         * The current operation.
+         */
+        private int operation;
+
+        /**
+         * The bytes left of the current operation.
+         */
+        private long remaining;
+
+        /**
+         * Whether the end of the patch was reached.
+         */
+        private boolean ended;
+
+        /**
+         * Standard constructor for PatchedInputStream.
+         *
+         * @param base The old jar.
+         * @param patch The patch, past its header.
+         */
+        PatchedInputStream(RandomAccessFile base, DataInputStream patch) {
+            this.base = base;
+            this.patch = patch;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (remaining == 0) {
+                if (ended) {
+                    return -1;
+                }
+                next();
+            }
+            int count = (int) Math.min(length, remaining);
+            count = operation == COPY ? base.read(buffer, offset, count) : patch.read(buffer, offset, count);
+            if (count == -1) {
+                throw new EOFException(operation == COPY ? "Patch copies past the old jar." : "Patch is truncated.");
+            }
+            remaining -= count;
+            return count;
+        }
+
+        /**
+         * Reads the next operation of the patch.
+         *
+         * @throws IOException If the patch is malformed or truncated.
+         */
+        private void next() throws IOException {
+            operation = patch.read();
+            if (operation == END) {
+                ended = true;
+            } else if (operation == COPY) {
+                long offset = patch.readLong();
+                remaining = patch.readLong();
+                if (offset < 0 || remaining < 0 || offset + remaining > base.length()) {
+                    throw new IOException("Patch copies past the old jar.");
+                }
+                base.seek(offset);
+            } else if (operation == DATA) {
+                remaining = patch.readInt();
+                if (remaining < 0) {
+                    throw new IOException("Patch is malformed.");
+                }
+            } else if (operation == -1) {
+                throw new EOFException("Patch is truncated.");
+            } else {
+                throw new IOException("Unknown patch operation " + operation + ".");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                base.close();
+            } finally {
+                patch.close();
+            }
+        }
+    }
+}
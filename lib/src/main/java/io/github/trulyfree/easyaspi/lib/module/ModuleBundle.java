@@ -0,0 +1,275 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.module;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import io.github.trulyfree.easyaspi.lib.module.conf.ModuleConfig;
+
+/**
+ * Reader of module bundles: single archives holding the config of a module along with the jars of
+ * the module and its dependencies, and optionally their dex, so that a module is installed with
+ * one request. A bundle is a zip archive read in a single streaming pass, laid out as follows:
+ *
+ * <pre>
+ * module.json      the ModuleConfig of the module, which must be the first entry
+ * jars/NAME.jar    the jar of the module or dependency NAME
+ * dex/NAME.dex     the dex of the jar of NAME, which must follow that jar
+ * </pre>
+ *
+ * Other entries are skipped.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class ModuleBundle implements Closeable {
+
+    /**
+     * The name of the entry holding the config.
+     */
+    public static final String CONFIG_ENTRY = "module.json";
+
+    /**
+     * The directory of the entries holding jars.
+     */
+    public static final String JAR_PREFIX = "jars/";
+
+    /**
+     * The directory of the entries holding dex.
+     */
+    public static final String DEX_PREFIX = "dex/";
+
+    /**
+     * The stream of the bundle.
+     */
+    private final ZipInputStream input;
+
+    /**
+     * The config of the bundle.
+     */
+    private final ModuleConfig config;
+
+    /**
+     * The name of the module or dependency of the current entry.
+     */
+    private String name;
+
+    /**
+     * Whether the current entry holds dex rather than a jar.
+     */
+    private boolean dex;
+
+    /**
+     * Standard constructor for ModuleBundle. Reads the config of the bundle.
+     *
+     * @param input The stream of the bundle, which is closed with the bundle.
+     * @param gson The Gson instance to read the config with.
+     * @throws IOException If the bundle cannot be read or does not start with its config.
+     * @throws JsonParseException If the config is malformed.
+     */
+    public ModuleBundle(@NonNull InputStream input, @NonNull Gson gson) throws IOException, JsonParseException {
+        this.input = new ZipInputStream(input);
+        try {
+            ZipEntry entry = this.input.getNextEntry();
+            if (entry == null || !CONFIG_ENTRY.equals(entry.getName())) {
+                throw new IOException("Bundle does not start with " + CONFIG_ENTRY);
+            }
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = this.input.read(buffer)) != -1) {
+                content.write(buffer, 0, count);
+            }
+            this.config = gson.fromJson(content.toString("UTF-8"), ModuleConfig.class);
+            if (config == null) {
+                throw new JsonParseException("Empty " + CONFIG_ENTRY);
+            }
+        } catch (IOException e) {
+            this.input.close();
+            throw e;
+        } catch (RuntimeException e) {
+            this.input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the config of the bundle.
+     *
+     * @return config The config of the bundle.
+     */
+    public ModuleConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Advances to the next jar or dex of the bundle.
+     *
+     * @return found Whether there was another jar or dex.
+     * @throws IOException If the bundle cannot be read.
+     */
+    public boolean next() throws IOException {
+        ZipEntry entry;
+        while ((entry = input.getNextEntry()) != null) {
+            String entryName = entry.getName();
+            if (entryName.startsWith(JAR_PREFIX) && entryName.endsWith(".jar")) {
+                name = entryName.substring(JAR_PREFIX.length(), entryName.length() - ".jar".length());
+                dex = false;
+            } else if (entryName.startsWith(DEX_PREFIX) && entryName.endsWith(".dex")) {
+                name = entryName.substring(DEX_PREFIX.length(), entryName.length() - ".dex".length());
+                dex = true;
+            } else {
+                continue;
+            }
+            // Names become file names, so they must not reach outside their directory.
+            if (name.length() != 0 && name.indexOf('/') == -1 && name.indexOf('\\') == -1 && !name.startsWith(".")) {
+                return true;
+            }
+        }
+        name = null;
+        return false;
+    }
+
+    /**
+     * Returns the name of the module or dependency of the current entry.
+     *
+     * @return name The name of the module or dependency of the current entry.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns whether the current entry holds dex rather than a jar.
+     *
+     * @return dex Whether the current entry holds dex.
+     */
+    public boolean isDex() {
+        return dex;
+    }
+
+    /**
+     * Returns the content of the current entry. Closing it does not close the bundle.
+     *
+     * @return stream The content of the current entry.
+     */
+    public InputStream getStream() {
+        return new FilterInputStream(input) {
+            @Override
+            public void close() throws IOException {
+                input.closeEntry();
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * Writer of module bundles.
+     */
+    public static class Writer implements Closeable {
+
+        /**
+         * The stream of the bundle.
+         */
+        private final ZipOutputStream output;
+
+        /**
+         * Standard constructor for Writer. Writes the config of the bundle.
+         *
+         * @param output The stream to write the bundle to, which is closed with the writer.
+         * @param config The config of the bundle.
+         * @param gson The Gson instance to write the config with.
+         * @throws IOException If the bundle cannot be written.
+         */
+        public Writer(@NonNull OutputStream output, @NonNull ModuleConfig config, @NonNull Gson gson)
+                throws IOException {
+            this.output = new ZipOutputStream(output);
+            this.output.putNextEntry(new ZipEntry(CONFIG_ENTRY));
+            this.output.write(gson.toJson(config).getBytes("UTF-8"));
+            this.output.closeEntry();
+        }
+
+        /**
+         * Writes the jar of a module or dependency.
+         *
+         * @param name The name of the module or dependency.
+         * @param jar The content of the jar, which is closed once written.
+         * @throws IOException If the bundle cannot be written.
+         */
+        public void putJar(@NonNull String name, @NonNull InputStream jar) throws IOException {
+            put(JAR_PREFIX + name + ".jar", jar);
+        }
+
+        /**
+         * Writes the dex of the jar of a module or dependency, which must already be written.
+         *
+         * @param name The name of the module or dependency.
+         * @param dex The content of the dex, which is closed once written.
+         * @throws IOException If the bundle cannot be written.
+         */
+        public void putDex(@NonNull String name, @NonNull InputStream dex) throws IOException {
+            put(DEX_PREFIX + name + ".dex", dex);
+        }
+
+        /**
+         * Writes an entry.
+         *
+         * @param entryName The name of the entry.
+         * @param content The content of the entry, which is closed once written.
+         * @throws IOException If the bundle cannot be written.
+         */
+        private void put(@NonNull String entryName, @NonNull InputStream content) throws IOException {
+            try {
+                output.putNextEntry(new ZipEntry(entryName));
+                byte[] buffer = new byte[8192];
+                int count;
+                while ((count = content.read(buffer)) != -1) {
+                    output.write(buffer, 0, count);
+                }
+                output.closeEntry();
+            } finally {
+                content.close();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+    }
+}
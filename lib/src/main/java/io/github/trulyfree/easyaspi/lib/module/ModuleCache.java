@@ -0,0 +1,286 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.module;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import dalvik.system.DexClassLoader;
+import io.github.trulyfree.easyaspi.lib.disp.EAPReusableModule;
+import io.github.trulyfree.easyaspi.lib.metrics.MetricsRegistry;
+import io.github.trulyfree.easyaspi.lib.metrics.StripedCounter;
+import io.github.trulyfree.easyaspi.lib.trace.Tracer;
+
+/**
+ * Process-wide cache of the dex class loader, the constructors of module classes, and warm
+ * instances of reusable modules. Every EAPDisplay owns its own ModuleHandler, so anything cached
+ * per handler would be lost between launches; this class is shared between them instead.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class ModuleCache {
+
+    /**
+     * The default maximum number of warm modules held by the pool.
+     */
+    private static final int DEFAULT_POOL_SIZE = 4;
+
+    /**
+     * The global instance for ModuleCache.
+     */
+    public static final ModuleCache SHARED = new ModuleCache(DEFAULT_POOL_SIZE);
+
+    /**
+     * The maximum number of warm modules held by the pool.
+     */
+    private final int poolSize;
+
+    /**
+     * Warm reusable modules by class name, in least to most recently used order.
+     */
+    private final LinkedHashMap<String, EAPReusableModule> pool;
+
+    /**
+     * Constructors of loaded classes by class name. Only valid for the current class loader.
+     */
+    private volatile ConcurrentHashMap<String, Constructor<?>> constructors;
+
+    /**
+     * The current class loader.
+     */
+    private volatile ClassLoader classLoader;
+
+    /**
+     * The key (path, modification time and length of the dex) of the current class loader.
+     */
+    private String classLoaderKey;
+
+    /**
+     * The number of requests satisfied by this cache.
+     */
+    private final StripedCounter hits;
+
+    /**
+     * The number of requests this cache could not satisfy.
+     */
+    private final StripedCounter misses;
+
+    /**
+     * Standard constructor for ModuleCache.
+     *
+     * @param poolSize The maximum number of warm modules held by the pool.
+     */
+    public ModuleCache(int poolSize) {
+        this.poolSize = poolSize;
+        this.pool = new LinkedHashMap<String, EAPReusableModule>(poolSize, 0.75f, true);
+        this.constructors = new ConcurrentHashMap<String, Constructor<?>>();
+        this.hits = MetricsRegistry.SHARED.getCounter(MetricsRegistry.CACHE_HITS);
+        this.misses = MetricsRegistry.SHARED.getCounter(MetricsRegistry.CACHE_MISSES);
+    }
+
+    /**
+     * Returns a class loader for the specified dex. The previous class loader is reused if the dex
+     * has not changed since it was created; otherwise, the cache is invalidated first.
+     *
+     * @param dexedJar The dex to load classes from.
+     * @param optimizedDexDir The directory to place the optimized dex in.
+     * @param parent The parent class loader.
+     * @return classLoader A class loader for the specified dex.
+     */
+    public ClassLoader getClassLoader(@NonNull File dexedJar,
+                                      @NonNull File optimizedDexDir,
+                                      @Nullable ClassLoader parent) {
+        return getClassLoader(dexedJar.getAbsolutePath(), optimizedDexDir, parent);
+    }
+
+    /**
+     * Returns a class loader for the specified dex path. The previous class loader is reused if no
+     * dex of the path has changed since it was created; otherwise, the cache is invalidated first.
+     *
+     * @param dexPath The dex files to load classes from, separated by the path separator.
+     * @param optimizedDexDir The directory to place the optimized dex in.
+     * @param parent The parent class loader.
+     * @return classLoader A class loader for the specified dex path.
+     */
+    public synchronized ClassLoader getClassLoader(@NonNull String dexPath,
+                                                   @NonNull File optimizedDexDir,
+                                                   @Nullable ClassLoader parent) {
+        StringBuilder keyBuilder = new StringBuilder();
+        for (String path : dexPath.split(File.pathSeparator)) {
+            File dexFile = new File(path);
+            keyBuilder.append(path).append('@').append(dexFile.lastModified()).append('#').append(dexFile.length()).append(';');
+        }
+        String key = keyBuilder.toString();
+        if (classLoader == null || !key.equals(classLoaderKey)) {
+            misses.increment();
+            invalidate();
+            int span = Tracer.SHARED.begin("DexClassLoader.<init>");
+            classLoader = new DexClassLoader(dexPath,
+                    optimizedDexDir.getAbsolutePath(),
+                    null,
+                    parent);
+            Tracer.SHARED.end(span);
+            classLoaderKey = key;
+        } else {
+            hits.increment();
+        }
+        return classLoader;
+    }
+
+    /**
+     * Instantiates an Object given a class, reusing the constructor found on previous calls.
+     *
+     * @param loader The class loader to load the class with.
+     * @param classname The fully qualified name of the class to instantiate.
+     * @return obj The instantiation of the target class.
+     * @throws ClassNotFoundException If the classname did not associate with a known class.
+     * @throws IllegalAccessException If we cannot access the target class.
+     * @throws InstantiationException If we cannot instantiate the target class with an empty constructor.
+     */
+    public Object instantiate(@NonNull ClassLoader loader, @NonNull String classname)
+            throws ClassNotFoundException, IllegalAccessException, InstantiationException {
+        int span = Tracer.SHARED.begin("ModuleCache.instantiate");
+        try {
+            return construct(loader, classname);
+        } finally {
+            Tracer.SHARED.end(span);
+        }
+    }
+
+    /**
+     * Instantiates an Object given a class, reusing the constructor found on previous calls.
+     *
+     * @param loader The class loader to load the class with.
+     * @param classname The fully qualified name of the class to instantiate.
+     * @return obj The instantiation of the target class.
+     * @throws ClassNotFoundException If the classname did not associate with a known class.
+     * @throws IllegalAccessException If we cannot access the target class.
+     * @throws InstantiationException If we cannot instantiate the target class with an empty constructor.
+     */
+    private Object construct(ClassLoader loader, String classname)
+            throws ClassNotFoundException, IllegalAccessException, InstantiationException {
+        ConcurrentHashMap<String, Constructor<?>> constructors = this.constructors;
+        boolean cacheable = loader == classLoader;
+        Constructor<?> constructor = cacheable ? constructors.get(classname) : null;
+        if (constructor == null) {
+            misses.increment();
+            try {
+                constructor = loader.loadClass(classname).getDeclaredConstructor();
+            } catch (NoSuchMethodException e) {
+                InstantiationException exception = new InstantiationException(classname + " has no empty constructor.");
+                exception.initCause(e);
+                throw exception;
+            }
+            if (cacheable) {
+                constructors.put(classname, constructor);
+            }
+        } else {
+            hits.increment();
+        }
+        try {
+            return constructor.newInstance();
+        } catch (InvocationTargetException e) {
+            InstantiationException exception = new InstantiationException(classname + " threw during construction.");
+            exception.initCause(e.getCause());
+            throw exception;
+        }
+    }
+
+    /**
+     * Takes a warm module of the specified class out of the pool.
+     *
+     * @param classname The fully qualified name of the module class.
+     * @return module The warm module, or null if there is none.
+     */
+    public synchronized EAPReusableModule acquire(@NonNull String classname) {
+        EAPReusableModule module = pool.remove(classname);
+        (module == null ? misses : hits).increment();
+        return module;
+    }
+
+    /**
+     * Recycles a module and returns it to the pool. If the module refuses to be recycled, or if
+     * the pool is full, the module (or the least recently used one) is destroyed.
+     *
+     * @param module The module to return to the pool.
+     * @return pooled Whether the module was returned to the pool.
+     */
+    public boolean release(@NonNull EAPReusableModule module) {
+        if (!module.recycle() || poolSize <= 0 || module.getClass().getClassLoader() != classLoader) {
+            module.destroy();
+            return false;
+        }
+        module.setActivity(null);
+        module.setExecutorService(null);
+        ArrayList<EAPReusableModule> evicted = new ArrayList<EAPReusableModule>();
+        synchronized (this) {
+            EAPReusableModule previous = pool.put(module.getClass().getName(), module);
+            if (previous != null && previous != module) {
+                evicted.add(previous);
+            }
+            while (pool.size() > poolSize) {
+                Map.Entry<String, EAPReusableModule> eldest = pool.entrySet().iterator().next();
+                pool.remove(eldest.getKey());
+                evicted.add(eldest.getValue());
+            }
+        }
+        for (EAPReusableModule old : evicted) {
+            old.destroy();
+        }
+        return true;
+    }
+
+    /**
+     * Drops the class loader and all constructors, and destroys all warm modules. This must be
+     * called whenever the dex the modules are loaded from is rebuilt.
+     */
+    public void invalidate() {
+        ArrayList<EAPReusableModule> evicted;
+        synchronized (this) {
+            classLoader = null;
+            classLoaderKey = null;
+            constructors = new ConcurrentHashMap<String, Constructor<?>>();
+            evicted = new ArrayList<EAPReusableModule>(pool.values());
+            pool.clear();
+        }
+        for (EAPReusableModule old : evicted) {
+            old.destroy();
+        }
+    }
+
+    /**
+     * Returns the maximum number of warm modules held by the pool.
+     *
+     * @return poolSize The maximum number of warm modules held by the pool.
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+}
@@ -30,24 +30,43 @@ import com.google.gson.Gson;
 import com.google.gson.JsonParseException;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
-import dalvik.system.DexClassLoader;
 import io.github.trulyfree.easyaspi.lib.EAPActivity;
+import io.github.trulyfree.easyaspi.lib.callback.Callback;
 import io.github.trulyfree.easyaspi.lib.callback.EmptyCallback;
 import io.github.trulyfree.easyaspi.lib.callback.StagedCallback;
 import io.github.trulyfree.easyaspi.lib.disp.EAPDisplayableModule;
+import io.github.trulyfree.easyaspi.lib.disp.EAPReusableModule;
 import io.github.trulyfree.easyaspi.lib.dl.DownloadHandler;
+import io.github.trulyfree.easyaspi.lib.dl.VerifyingInputStream;
 import io.github.trulyfree.easyaspi.lib.io.FileHandler;
+import io.github.trulyfree.easyaspi.lib.metrics.MetricsRegistry;
+import io.github.trulyfree.easyaspi.lib.metrics.StripedCounter;
 import io.github.trulyfree.easyaspi.lib.module.conf.Config;
 import io.github.trulyfree.easyaspi.lib.module.conf.ModuleConfig;
+import io.github.trulyfree.easyaspi.lib.module.conf.PatchConfig;
+import io.github.trulyfree.easyaspi.lib.trace.Tracer;
 
 /**
  * Helper class for Module configuration, downloading, and establishment.
@@ -56,6 +75,36 @@ import io.github.trulyfree.easyaspi.lib.module.conf.ModuleConfig;
  * @since v0.0.1-alpha
  */
 public class ModuleHandler implements Module {
+    /**
+     * Buffer size for copying classes out of jars.
+     */
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    /**
+     * Suffix of prebuilt dex being downloaded, before they are staged.
+     */
+    private static final String DOWNLOAD_SUFFIX = ".download";
+
+    /**
+     * Accepts configs, skipping files staged by the journal.
+     */
+    private static final FilenameFilter CONFIG_FILTER = new FilenameFilter() {
+        @Override
+        public boolean accept(File dir, String name) {
+            return name.endsWith(".json");
+        }
+    };
+
+    /**
+     * Accepts jars, skipping files staged by the journal.
+     */
+    private static final FilenameFilter JAR_FILTER = new FilenameFilter() {
+        @Override
+        public boolean accept(File dir, String name) {
+            return name.endsWith(".jar");
+        }
+    };
+
     /**
      * The activity which owns this ModuleHandler.
      */
@@ -82,24 +131,50 @@ public class ModuleHandler implements Module {
     private File jarDir;
 
     /**
-     * The directory containing the undexed classes that this handler will manipulate.
+     * The directory holding the prebuilt dex of jars which came with one.
+     */
+    private File dexDir;
+
+    /**
+     * The directory holding updates downloaded ahead of being applied.
+     */
+    private File updateDir;
+
+    /**
+     * The directory holding the dependencies each installed module was resolved to. Configs keep
+     * only the dependencies they declare.
+     */
+    private File lockDir;
+
+    /**
+     * The journal making installs, removals and refreshes crash safe.
+     */
+    private InstallJournal journal;
+
+    /**
+     * The resolver of the transitive dependencies of modules.
+     */
+    private DependencyResolver resolver;
+
+    /**
+     * The store of the generations of built modules.
      */
-    private File undexedDir;
+    private ModuleStore store;
 
     /**
-     * The directory containing the dexed classes that this handler will manipulate.
+     * The generation this handler loads modules from, or null if none has been built.
      */
-    private File dexedJar;
+    private ModuleStore.Generation generation;
 
     /**
-     * The directory containing the optimized dex file that this handler will load modules from.
+     * The index of the classes provided by the jars, or null if it has not been loaded.
      */
-    private File optimizedDexDir;
+    private ClassIndex classIndex;
 
     /**
      * The class loader used by the ModuleHandler to load up modules.
      */
-    private DexClassLoader classLoader;
+    private ClassLoader classLoader;
 
     /**
      * The configs that the ModuleHandler should define by default. This exists for developers to
@@ -107,6 +182,22 @@ public class ModuleHandler implements Module {
      */
     private ModuleConfig[] debugConfigs;
 
+    /**
+     * Guards <code>inFlight</code> and <code>destroyed</code>. Distinct from this handler's own
+     * lock, so destroy never waits on a running install.
+     */
+    private final Object lifecycle = new Object();
+
+    /**
+     * The number of operations running which use the store, generation or class loader.
+     */
+    private int inFlight;
+
+    /**
+     * Whether this handler was destroyed. Its resources are released once no operation runs.
+     */
+    private boolean destroyed;
+
     /**
      * Standard constructor for ModuleHandler. All ModuleHandlers MUST be instantiated with a
      * reference to an EAPActivity.
@@ -130,10 +221,14 @@ public class ModuleHandler implements Module {
      * @throws JsonParseException If the instantiation through Gson fails.
      */
     public ModuleConfig getModuleConfig(@NonNull String configUrl) throws IOException, JsonParseException {
-        DownloadHandler downloadHandler = activity.getDownloadHandler();
-        String stringConfig = downloadHandler.download(null, configUrl);
-        System.out.println("Downloaded JSON: " + stringConfig);
-        return gson.fromJson(stringConfig, ModuleConfig.class);
+        enter();
+        try {
+            DownloadHandler downloadHandler = activity.getDownloadHandler();
+            String stringConfig = downloadHandler.download(null, configUrl);
+            return gson.fromJson(stringConfig, ModuleConfig.class);
+        } finally {
+            exit();
+        }
     }
 
     /**
@@ -147,123 +242,550 @@ public class ModuleHandler implements Module {
      * @throws IOException If the download fails.
      * @throws JsonParseException If the ModuleConfig's config URL contains a malformed config.
      */
-    public boolean getNewModule(@Nullable StagedCallback callback, @NonNull ModuleConfig config, @Nullable Stack<String> alreadyDownloaded, boolean refreshDexed) throws IOException, JsonParseException {
-        DownloadHandler downloadHandler = activity.getDownloadHandler();
+    public synchronized boolean getNewModule(@Nullable StagedCallback callback, @NonNull ModuleConfig config, @Nullable Stack<String> alreadyDownloaded, boolean refreshDexed) throws IOException, JsonParseException {
+        enter();
+        try {
+            if (callback == null) {
+                callback = EmptyCallback.EMPTY;
+            }
+
+            InstallJournal.Transaction transaction = journal.begin("install " + config.getName());
+            try {
+                stageModule(callback, config, alreadyDownloaded, false, transaction);
+                transaction.commit();
+            } catch (IOException e) {
+                transaction.abort();
+                MetricsRegistry.SHARED.getCounter(MetricsRegistry.INSTALL_FAILURES).increment();
+                throw e;
+            } catch (RuntimeException e) {
+                transaction.abort();
+                MetricsRegistry.SHARED.getCounter(MetricsRegistry.INSTALL_FAILURES).increment();
+                throw e;
+            }
+
+            try {
+                refreshConfigs();
+                if (refreshDexed) {
+                    final StagedCallback intermediary = callback;
+                    callback.onStart();
+                    refreshDexed(new StagedCallback() {
+                        int stageCount = 1, current = 0;
+
+                        @Override
+                        public void setStages(String[] names) {
+                            stageCount = names.length;
+                        }
+
+                        @Override
+                        public void onStart() {
+                            // Do nothing.
+                        }
+
+                        @Override
+                        public void onProgress(int current) {
+                            int numerator = this.current * 100 + current;
+                            int denominator = this.stageCount;
+                            intermediary.onProgress(numerator / denominator);
+                        }
+
+                        @Override
+                        public void onFinish() {
+                            current++;
+                        }
+                    });
+                    callback.onFinish();
+                } else {
+                    callback.onStart();
+                    callback.onProgress(100);
+                    callback.onFinish();
+                }
+            } catch (IOException e) {
+                // The module stays installed; the active generation is untouched until a build succeeds.
+                MetricsRegistry.SHARED.getCounter(MetricsRegistry.INSTALL_FAILURES).increment();
+                throw e;
+            }
+            return true;
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * Downloads the config and jars of a module as staged files of a transaction, and checks that
+     * they provide the target module. Nothing is visible to other readers until the transaction
+     * commits. The config is resolved to its transitive dependencies, which are downloaded a wave
+     * at a time, each wave in parallel. Bundled modules are installed from their bundle instead.
+     *
+     * @param callback The callback to report progress to.
+     * @param config The config to base off of.
+     * @param alreadyDownloaded URLs which we have already downloaded from.
+     * @param revalidate Whether to resolve the dependencies afresh rather than from the cache.
+     * @param transaction The transaction to stage the files in.
+     * @return downloaded Whether any jar was downloaded, rather than found already installed.
+     * @throws IOException If the download fails or does not match the config.
+     * @throws JsonParseException If the config of a dependency is malformed.
+     */
+    private boolean stageModule(@NonNull StagedCallback callback,
+                             @NonNull ModuleConfig config,
+                             @Nullable Stack<String> alreadyDownloaded,
+                             boolean revalidate,
+                             @NonNull InstallJournal.Transaction transaction) throws IOException {
         FileHandler fileHandler = activity.getFileHandler();
 
         if (alreadyDownloaded == null) {
             alreadyDownloaded = new Stack<String>();
         }
 
-        Stack<File> writtenFiles = new Stack<File>();
+        String bundleUrl = config.getBundleUrl();
+        if (bundleUrl != null && bundleUrl.length() != 0) {
+            return stageBundle(callback, config, activity.getDownloadHandler().getDownloadStream(bundleUrl),
+                    alreadyDownloaded, transaction);
+        }
+
+        Config[][] waves = resolver.resolve(config, configs, revalidate);
+        config.setResolvedDependencies(DependencyResolver.flatten(waves));
+
+        String stringConfig = gson.toJson(config);
+        fileHandler.writeFile(stringConfig, null,
+                transaction.stage(fileHandler.generateFile("config", config.getName() + ".json")));
+        stageLock(config.getName(), config.getResolvedDependencies(), transaction);
+
+        String[] stages = new String[config.getResolvedDependencies().length + 2];
+
+        StringBuilder stringBuilder;
+        for (int i = 0; i < stages.length - 2; i++) {
+            stringBuilder = new StringBuilder("Getting dependency ");
+            stringBuilder.append(config.getResolvedDependencies()[i].getName());
+            stringBuilder.append(" (");
+            stringBuilder.append(i + 1);
+            stringBuilder.append("/");
+            stringBuilder.append(stages.length - 1);
+            stringBuilder.append(")...");
+            stages[i] = stringBuilder.toString();
+        }
+        stages[stages.length - 2] = "Getting main jar (" + config.getName() + ")...";
+        stages[stages.length - 1] = "Building modules...";
+        callback.setStages(stages);
+
+        boolean downloaded = false;
+        for (Config[] wave : waves) {
+            downloaded |= stageWave(callback, wave, alreadyDownloaded, transaction);
+        }
+        downloaded |= stageJar(callback, config, alreadyDownloaded, transaction);
+        upgradeDependents(config, transaction);
+        validateTargetModule(config, transaction);
+        return downloaded;
+    }
 
+    /**
+     * Installs a module from its bundle as staged files of a transaction, in one pass over the
+     * bundle. The config of the bundle replaces the given one, which only names the bundle.
+     * Jars the bundle leaves out are downloaded on their own, and bundled jars older than the
+     * version an installed module depends on are skipped.
+     *
+     * @param callback The callback to report progress to.
+     * @param config The config naming the bundle.
+     * @param input The stream of the bundle, which is closed once read.
+     * @param alreadyDownloaded URLs which we have already downloaded from.
+     * @param transaction The transaction to stage the files in.
+     * @return downloaded Whether any jar was downloaded.
+     * @throws IOException If the bundle cannot be read or does not match its config.
+     * @throws JsonParseException If the config of the bundle is malformed.
+     */
+    private boolean stageBundle(@NonNull StagedCallback callback,
+                                @NonNull ModuleConfig config,
+                                @NonNull InputStream input,
+                                @NonNull Stack<String> alreadyDownloaded,
+                                @NonNull InstallJournal.Transaction transaction) throws IOException {
+        FileHandler fileHandler = activity.getFileHandler();
+        callback.setStages(new String[]{
+                "Getting bundle (" + config.getName() + ")...",
+                "Building modules..."
+        });
+        callback.onStart();
+        ModuleConfig bundled;
+        Map<String, Config> items = new HashMap<String, Config>();
+        HashSet<String> unpacked = new HashSet<String>();
+        HashSet<String> dexed = new HashSet<String>();
+        ModuleBundle bundle = new ModuleBundle(input, gson);
         try {
-            String stringConfig = gson.toJson(config);
-            writtenFiles.push(fileHandler.generateFile("config", config.getName() + ".json"));
-            if (writtenFiles.peek().exists()) {
-                writtenFiles.peek().delete();
+            bundled = bundle.getConfig();
+            if (!config.getName().equals(bundled.getName())) {
+                throw new IOException("Bundle of " + config.getName() + " holds " + bundled.getName());
             }
-            fileHandler.writeFile(stringConfig, null, writtenFiles.peek());
-
-            if (callback == null) {
-                callback = EmptyCallback.EMPTY;
+            bundled.setConfUrl(config.getConfUrl());
+            bundled.setBundleUrl(config.getBundleUrl());
+            Config[] dependencies = bundled.getDependencies();
+            bundled.setResolvedDependencies(DependencyResolver.flatten(
+                    DependencyResolver.reconcile(bundled, new Config[][]{dependencies}, configs)));
+            items.put(bundled.getName(), bundled);
+            for (int i = 0; i < dependencies.length; i++) {
+                // Dependencies replaced by an installed version keep the installed jar.
+                if (bundled.getResolvedDependencies()[i] == dependencies[i]) {
+                    items.put(dependencies[i].getName(), dependencies[i]);
+                }
             }
-
-            String[] stages = new String[config.getDependencies().length + 2];
-
-            stages[0] = "Getting main jar (" + config.getName() + ")...";
-            StringBuilder stringBuilder;
-            for (int i = 1; i < stages.length - 1; i++) {
-                stringBuilder = new StringBuilder("Getting dependency ");
-                stringBuilder.append(config.getDependencies()[i - 1].getName());
-                stringBuilder.append(" (");
-                stringBuilder.append(i);
-                stringBuilder.append("/");
-                stringBuilder.append(stages.length - 1);
-                stringBuilder.append(")...");
-                stages[i] = stringBuilder.toString();
+            while (bundle.next()) {
+                Config item = items.get(bundle.getName());
+                if (item == null) {
+                    continue;
+                }
+                if (!bundle.isDex()) {
+                    File jar = fileHandler.generateFile("jars", item.getName() + ".jar");
+                    fileHandler.writeFile(new VerifyingInputStream(bundle.getStream(), item.getSha256(), item.getSize(), config.getBundleUrl()),
+                            null,
+                            false,
+                            transaction.stage(jar));
+                    unpacked.add(item.getName());
+                } else if (unpacked.contains(item.getName()) && VerifyingInputStream.isKnown(item.getDexSha256())) {
+                    // Dex without a digest could not be verified; it is built locally instead.
+                    fileHandler.writeFile(new VerifyingInputStream(bundle.getStream(), item.getDexSha256(), -1, config.getBundleUrl()),
+                            null,
+                            false,
+                            transaction.stage(new File(dexDir, item.getName() + ".dex")));
+                    dexed.add(item.getName());
+                }
             }
-            stages[stages.length - 1] = "Building modules...";
-            callback.setStages(stages);
-
-            writtenFiles.push(fileHandler.generateFile("jars", config.getName() + ".jar"));
-            if (writtenFiles.peek().exists()) {
-                writtenFiles.peek().delete();
+        } finally {
+            bundle.close();
+        }
+        // Only now, as deletions of stale dex are applied after the staged files on commit.
+        for (String name : unpacked) {
+            if (!dexed.contains(name)) {
+                stagePrebuiltDex(items.get(name), true, transaction);
             }
-            if (!alreadyDownloaded.contains(config.getJarUrl())) {
-                fileHandler.writeFile(downloadHandler.getDownloadStream(config.getJarUrl()),
-                        callback,
-                        false,
-                        writtenFiles.peek());
-                alreadyDownloaded.push(config.getJarUrl());
+        }
+        callback.onProgress(100);
+        callback.onFinish();
+
+        fileHandler.writeFile(gson.toJson(bundled), null,
+                transaction.stage(fileHandler.generateFile("config", bundled.getName() + ".json")));
+        stageLock(bundled.getName(), bundled.getResolvedDependencies(), transaction);
+        boolean downloaded = !unpacked.isEmpty();
+        for (Config item : items.values()) {
+            String jarUrl = item.getJarUrl();
+            if (unpacked.contains(item.getName())) {
+                if (jarUrl != null && jarUrl.length() != 0) {
+                    alreadyDownloaded.push(jarUrl);
+                }
             } else {
+                downloaded |= stageJar(EmptyCallback.EMPTY, item, alreadyDownloaded, transaction);
+            }
+        }
+        upgradeDependents(bundled, transaction);
+        validateTargetModule(bundled, transaction);
+        return downloaded;
+    }
+
+    /**
+     * Downloads the jars of a wave of dependencies in parallel, as staged files of a transaction.
+     * Progress is reported per jar once all of them are done.
+     *
+     * @param callback The callback to report progress to.
+     * @param wave The dependencies, none of which depends on another.
+     * @param alreadyDownloaded URLs which we have already downloaded from.
+     * @param transaction The transaction to stage the jars in.
+     * @return downloaded Whether any jar was downloaded.
+     * @throws IOException If a download fails or does not match its config.
+     */
+    private boolean stageWave(@NonNull StagedCallback callback,
+                              @NonNull Config[] wave,
+                              @NonNull final Stack<String> alreadyDownloaded,
+                              @NonNull final InstallJournal.Transaction transaction) throws IOException {
+        if (wave.length == 1) {
+            return stageJar(callback, wave[0], alreadyDownloaded, transaction);
+        }
+        List<Future<Boolean>> jars = new ArrayList<Future<Boolean>>();
+        for (final Config dependency : wave) {
+            jars.add(submit(activity.getExecutorService(), new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws IOException {
+                    return stageJar(EmptyCallback.EMPTY, dependency, alreadyDownloaded, transaction);
+                }
+            }));
+        }
+        // Every jar is waited for, so none is still being staged if the transaction aborts.
+        boolean downloaded = false;
+        IOException ioFailure = null;
+        RuntimeException runtimeFailure = null;
+        for (Future<Boolean> jar : jars) {
+            try {
+                downloaded |= await(jar);
                 callback.onStart();
                 callback.onProgress(100);
                 callback.onFinish();
+            } catch (IOException e) {
+                ioFailure = ioFailure == null ? e : ioFailure;
+            } catch (RuntimeException e) {
+                runtimeFailure = runtimeFailure == null ? e : runtimeFailure;
             }
+        }
+        if (ioFailure != null) {
+            throw ioFailure;
+        }
+        if (runtimeFailure != null) {
+            throw runtimeFailure;
+        }
+        return downloaded;
+    }
 
-            for (Config dependency : config.getDependencies()) {
-                if (!alreadyDownloaded.contains(dependency.getJarUrl())) {
-                    File dependencyFile = fileHandler.generateFile("jars", dependency.getName() + ".jar");
-                    if (dependencyFile.exists()) {
-                        dependencyFile.delete();
-                    }
-                    writtenFiles.push(dependencyFile);
-                    fileHandler.writeFile(downloadHandler.getDownloadStream(dependency.getJarUrl()),
-                            callback,
-                            false,
-                            writtenFiles.peek());
-                    alreadyDownloaded.push(dependency.getJarUrl());
-                } else {
-                    callback.onStart();
-                    callback.onProgress(100);
-                    callback.onFinish();
+    /**
+     * Rewrites the resolved dependencies of installed modules which depend on an older version of a
+     * dependency of a config, as only one version of each jar can be installed. The configs of
+     * those modules, and so the dependencies they declare, are untouched.
+     *
+     * @param config The config whose dependencies are being installed.
+     * @param transaction The transaction to stage the rewritten dependencies in.
+     * @throws IOException If the dependencies could not be written.
+     */
+    private void upgradeDependents(@NonNull ModuleConfig config,
+                                   @NonNull InstallJournal.Transaction transaction) throws IOException {
+        ModuleConfig[] installed = configs;
+        if (installed == null) {
+            return;
+        }
+        Map<String, Config> resolved = new HashMap<String, Config>();
+        for (Config dependency : config.getResolvedDependencies()) {
+            resolved.put(dependency.getName(), dependency);
+        }
+        for (ModuleConfig other : installed) {
+            if (other.getName().equals(config.getName())) {
+                continue;
+            }
+            Config[] dependencies = other.getResolvedDependencies().clone();
+            boolean upgraded = false;
+            for (int i = 0; i < dependencies.length; i++) {
+                Config newer = resolved.get(dependencies[i].getName());
+                if (newer != null && DependencyResolver.compareVersions(newer.getVersion(), dependencies[i].getVersion()) > 0) {
+                    dependencies[i] = newer;
+                    upgraded = true;
                 }
             }
-            refreshConfigs();
-            if (refreshDexed) {
-                final StagedCallback intermediary = callback;
-                callback.onStart();
-                refreshDexed(new StagedCallback() {
-                    int stageCount = 1, current = 0;
+            if (upgraded) {
+                stageLock(other.getName(), dependencies, transaction);
+            }
+        }
+    }
 
-                    @Override
-                    public void setStages(String[] names) {
-                        stageCount = names.length;
-                    }
+    /**
+     * Writes the dependencies a module was resolved to as a staged file of a transaction.
+     *
+     * @param name The name of the module.
+     * @param resolved The dependencies the module was resolved to.
+     * @param transaction The transaction to stage the file in.
+     * @throws IOException If the file could not be written.
+     */
+    private void stageLock(@NonNull String name,
+                           @NonNull Config[] resolved,
+                           @NonNull InstallJournal.Transaction transaction) throws IOException {
+        activity.getFileHandler().writeFile(gson.toJson(resolved), null,
+                transaction.stage(new File(lockDir, name + ".json")));
+    }
 
-                    @Override
-                    public void onStart() {
-                        // Do nothing.
-                    }
+    /**
+     * Reads the dependencies a module was resolved to into its config, if they were written.
+     *
+     * @param config The config of the module.
+     * @param lock The file the dependencies were written to.
+     * @throws IOException If the file could not be read.
+     * @throws JsonParseException If the file is malformed.
+     */
+    private void readLock(@NonNull ModuleConfig config, @NonNull File lock) throws IOException {
+        if (lock.exists()) {
+            config.setResolvedDependencies(gson.fromJson(activity.getFileHandler().readFile(null, lock), Config[].class));
+        }
+    }
 
-                    @Override
-                    public void onProgress(int current) {
-                        int numerator = this.current * 100 + current;
-                        int denominator = this.stageCount;
-                        intermediary.onProgress(numerator / denominator);
-                    }
+    /**
+     * Downloads the jar of a config as a staged file of a transaction, verifying it against the
+     * size and digest of the config while it is copied. The download is skipped if the URL was
+     * already downloaded, or if the installed jar matches the digest of the config.
+     *
+     * @param callback The callback to report progress to.
+     * @param item The config of the jar.
+     * @param alreadyDownloaded URLs which we have already downloaded from.
+     * @param transaction The transaction to stage the jar in.
+     * @return downloaded Whether the jar was downloaded.
+     * @throws IOException If the download fails or does not match the config.
+     */
+    private boolean stageJar(@NonNull StagedCallback callback,
+                             @NonNull Config item,
+                             @NonNull Stack<String> alreadyDownloaded,
+                             @NonNull InstallJournal.Transaction transaction) throws IOException {
+        FileHandler fileHandler = activity.getFileHandler();
+        File target = fileHandler.generateFile("jars", item.getName() + ".jar");
+        String jarUrl = item.getJarUrl();
+        if (alreadyDownloaded.contains(jarUrl) || isInstalled(item, target)) {
+            stagePrebuiltDex(item, false, transaction);
+            callback.onStart();
+            callback.onProgress(100);
+            callback.onFinish();
+            return false;
+        }
+        downloadJar(callback, item, target, transaction.stage(target));
+        stagePrebuiltDex(item, true, transaction);
+        alreadyDownloaded.push(jarUrl);
+        return true;
+    }
 
-                    @Override
-                    public void onFinish() {
-                        current++;
-                    }
-                });
-                callback.onFinish();
-            } else {
-                callback.onStart();
-                callback.onProgress(100);
-                callback.onFinish();
+    /**
+     * Downloads the prebuilt dex of a config as a staged file of a transaction, unless the one
+     * installed or staged already matches its digest. Without a prebuilt dex, or should it fail
+     * to download or verify, the jar is dexed on the device instead, so a dex built from a jar
+     * being replaced is deleted.
+     *
+     * @param item The config of the jar.
+     * @param jarReplaced Whether the jar of the config is being replaced.
+     * @param transaction The transaction to stage the dex in.
+     * @throws IOException If the journal could not be written.
+     */
+    private void stagePrebuiltDex(@NonNull Config item,
+                                  boolean jarReplaced,
+                                  @NonNull InstallJournal.Transaction transaction) throws IOException {
+        File prebuiltDex = new File(dexDir, item.getName() + ".dex");
+        String dexUrl = item.getDexUrl();
+        boolean offered = dexUrl != null && dexUrl.length() != 0 && VerifyingInputStream.isKnown(item.getDexSha256());
+        if (offered) {
+            File current = transaction.resolve(prebuiltDex);
+            try {
+                if (current.exists() && item.getDexSha256().equalsIgnoreCase(VerifyingInputStream.digest(current))) {
+                    return;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (downloadPrebuiltDex(item, prebuiltDex, transaction)) {
+                return;
+            }
+        }
+        if ((jarReplaced || offered) && prebuiltDex.exists()) {
+            transaction.delete(prebuiltDex);
+        }
+    }
+
+    /**
+     * Downloads the prebuilt dex of a config and moves it over a target once verified against the
+     * digest of the config. The dex is downloaded aside, as a staged file cannot be withdrawn
+     * should the download fail.
+     *
+     * @param item The config of the jar, which must offer a prebuilt dex.
+     * @param target The file to move the dex to.
+     * @param transaction The transaction to stage the target in, or null to replace it directly.
+     * @return downloaded Whether the dex was downloaded; if not, the jar is dexed on the device.
+     */
+    private boolean downloadPrebuiltDex(@NonNull Config item,
+                                        @NonNull File target,
+                                        @Nullable InstallJournal.Transaction transaction) {
+        String dexUrl = item.getDexUrl();
+        File download = new File(target.getPath() + DOWNLOAD_SUFFIX);
+        try {
+            activity.getFileHandler().writeFile(new VerifyingInputStream(activity.getDownloadHandler().getDownloadStream(dexUrl), item.getDexSha256(), -1, dexUrl),
+                    null,
+                    false,
+                    download);
+            File destination = transaction == null ? target : transaction.stage(target);
+            if (!download.renameTo(destination)) {
+                throw new IOException("Could not rename " + download + " to " + destination);
             }
+            MetricsRegistry.SHARED.getCounter(MetricsRegistry.DEX_PREBUILT).increment();
+            return true;
         } catch (IOException e) {
-            for (File file : writtenFiles) {
-                if (file.exists()) {
-                    file.delete();
+            e.printStackTrace();
+            MetricsRegistry.SHARED.getCounter(MetricsRegistry.DEX_FALLBACKS).increment();
+            return false;
+        } finally {
+            download.delete();
+        }
+    }
+
+    /**
+     * Downloads the jar of a config, verifying it against the size and digest of the config while
+     * it is copied. If the config offers a patch from the installed jar, only the patch is
+     * downloaded and applied to the installed jar; should that fail, the whole jar is downloaded.
+     *
+     * @param callback The callback to report progress to.
+     * @param item The config of the jar.
+     * @param installedJar The installed jar, which need not exist.
+     * @param destination The file to write the jar to.
+     * @throws IOException If the download fails or does not match the config.
+     */
+    private void downloadJar(@Nullable Callback callback,
+                             @NonNull Config item,
+                             @NonNull File installedJar,
+                             @NonNull File destination) throws IOException {
+        FileHandler fileHandler = activity.getFileHandler();
+        DownloadHandler downloadHandler = activity.getDownloadHandler();
+        String jarUrl = item.getJarUrl();
+        PatchConfig patch = findPatch(item, installedJar);
+        if (patch != null) {
+            try {
+                InputStream patched = JarPatch.open(installedJar, downloadHandler.getDownloadStream(patch.getPatchUrl()));
+                fileHandler.writeFile(new VerifyingInputStream(patched, item.getSha256(), item.getSize(), patch.getPatchUrl()),
+                        callback,
+                        false,
+                        destination);
+                MetricsRegistry.SHARED.getCounter(MetricsRegistry.PATCHES_APPLIED).increment();
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();
+                MetricsRegistry.SHARED.getCounter(MetricsRegistry.PATCH_FALLBACKS).increment();
+            }
+        }
+        fileHandler.writeFile(new VerifyingInputStream(downloadHandler.getDownloadStream(jarUrl), item.getSha256(), item.getSize(), jarUrl),
+                callback,
+                false,
+                destination);
+    }
+
+    /**
+     * Finds the patch of a config which applies to the installed jar. Patches are only used when
+     * the config has a digest to verify the patched jar against.
+     *
+     * @param item The config of the jar.
+     * @param installedJar The installed jar.
+     * @return patch The patch applying to the installed jar, or null if there is none.
+     */
+    private PatchConfig findPatch(@NonNull Config item, @NonNull File installedJar) {
+        PatchConfig[] patches = item.getPatches();
+        if (patches == null || patches.length == 0 || !VerifyingInputStream.isKnown(item.getSha256()) ||
+                !installedJar.exists()) {
+            return null;
+        }
+        try {
+            String installed = VerifyingInputStream.digest(installedJar);
+            for (PatchConfig patch : patches) {
+                if (installed.equalsIgnoreCase(patch.getFromSha256())) {
+                    return patch;
                 }
             }
-            throw e;
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        return true;
+        return null;
+    }
+
+    /**
+     * Checks whether an installed jar matches the size and digest of its config. Jars of configs
+     * without a digest never match, as they cannot be verified.
+     *
+     * @param item The config of the jar.
+     * @param target The installed jar.
+     * @return installed Whether the installed jar matches its config.
+     */
+    private boolean isInstalled(@NonNull Config item, @NonNull File target) {
+        if (!VerifyingInputStream.isKnown(item.getSha256()) || !target.exists() ||
+                (item.getSize() >= 0 && target.length() != item.getSize())) {
+            return false;
+        }
+        try {
+            if (item.getSha256().equalsIgnoreCase(VerifyingInputStream.digest(target))) {
+                MetricsRegistry.SHARED.getCounter(MetricsRegistry.DOWNLOADS_SKIPPED).increment();
+                return true;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return false;
     }
 
     /**
@@ -274,39 +796,55 @@ public class ModuleHandler implements Module {
      * @return success Whether the config was successfully removed.
      * @throws IOException If the deletion process fails.
      */
-    public boolean remove(StagedCallback callback, @NonNull ModuleConfig config) throws IOException {
-        FileHandler fileHandler = activity.getFileHandler();
-        File configFile = fileHandler.generateFile("config", config.getName() + ".json");
-        if (!configFile.exists() || configFile.delete()) {
+    public synchronized boolean remove(StagedCallback callback, @NonNull ModuleConfig config) throws IOException {
+        enter();
+        try {
+            FileHandler fileHandler = activity.getFileHandler();
+            File configFile = fileHandler.generateFile("config", config.getName() + ".json");
+            File lock = new File(lockDir, config.getName() + ".json");
+            InstallJournal.Transaction transaction = journal.begin("remove " + config.getName());
+            try {
+                transaction.delete(configFile);
+                if (lock.exists()) {
+                    transaction.delete(lock);
+                }
+                transaction.commit();
+            } catch (IOException e) {
+                transaction.abort();
+                throw e;
+            }
+            if (configFile.exists()) {
+                return false;
+            }
             refreshAll(callback);
             return true;
-        } else {
-            return false;
+        } finally {
+            exit();
         }
     }
 
     /**
-     * Clears all jars not referenced by a ModuleConfig.
+     * Clears all jars not referenced by a ModuleConfig, along with their prebuilt dex.
      */
     private void clearUntrackedJars() {
-        FileHandler fileHandler = activity.getFileHandler();
-        ArrayList<String> jarStrings = new ArrayList<String>();
-        for (String file : jarDir.list()) {
-            int dir = file.lastIndexOf(File.separatorChar);
-            if (dir != -1) {
-                jarStrings.add(file.substring(dir));
-            } else {
-                jarStrings.add(file);
+        HashSet<String> tracked = new HashSet<String>();
+        for (ModuleConfig config : getConfigs()) {
+            tracked.add(config.getName() + ".jar");
+            for (Config dependency : config.getResolvedDependencies()) {
+                tracked.add(dependency.getName() + ".jar");
             }
         }
-        for (ModuleConfig config : getConfigs()) {
-            jarStrings.remove(config.getName() + ".jar");
-            for (Config dependency : config.getDependencies()) {
-                jarStrings.remove(dependency.getName() + ".jar");
+        for (String jar : jarDir.list()) {
+            // Staged jars belong to the journal, which discards or commits them.
+            if (jar.endsWith(".jar") && !tracked.contains(jar)) {
+                new File(jarDir, jar).delete();
             }
         }
-        for (String jar : jarStrings) {
-            fileHandler.generateFile("jars", jar).delete();
+        for (String dex : dexDir.list()) {
+            if ((dex.endsWith(".dex") && !tracked.contains(dex.substring(0, dex.length() - ".dex".length()) + ".jar")) ||
+                    dex.endsWith(DOWNLOAD_SUFFIX)) {
+                new File(dexDir, dex).delete();
+            }
         }
     }
 
@@ -317,94 +855,354 @@ public class ModuleHandler implements Module {
      * @throws IOException If the download or file processes fail.
      * @throws JsonParseException If a config downloaded is not a valid json.
      */
-    public void refreshAll(StagedCallback callback) throws IOException, JsonParseException {
-        refreshConfigs();
-        File undexedDir = activity.getDir("undexed", Context.MODE_PRIVATE);
-        File backupClassesFolder = activity.getDir("undexed_backup", Context.MODE_PRIVATE);
-        if (backupClassesFolder.exists()) {
-            activity.getFileHandler().deleteFile(backupClassesFolder);
+    public synchronized void refreshAll(StagedCallback callback) throws IOException, JsonParseException {
+        enter();
+        try {
+            refreshConfigs();
+            // A failure leaves the active generation untouched, so there is nothing to restore.
+            try {
+                String[] stages = new String[configs.length + 1];
+                for (int i = 0; i < configs.length; i++) {
+                    stages[i] = "Getting module " + configs[i].getName();
+                }
+                stages[configs.length] = "Building modules...";
+                if (callback == null) {
+                    callback = EmptyCallback.EMPTY;
+                }
+                callback.setStages(stages);
+                Stack<String> alreadyDownloaded = new Stack<String>();
+                final StagedCallback intermediary = callback;
+                // Every module is replaced at once, so a crash never mixes old and new jars.
+                InstallJournal.Transaction transaction = journal.begin("refresh");
+                boolean downloaded = false;
+                try {
+                    for (ModuleConfig config : configs) {
+                        callback.onStart();
+                        StagedCallback moduleCallback = new StagedCallback() {
+                            int stageCount = 1, current = 0;
+
+                            @Override
+                            public void setStages(String[] names) {
+                                stageCount = names.length;
+                            }
+
+                            @Override
+                            public void onStart() {
+                                // Do nothing.
+                            }
+
+                            @Override
+                            public void onProgress(int current) {
+                                int numerator = this.current * 100 + current;
+                                int denominator = this.stageCount;
+                                intermediary.onProgress(numerator / denominator);
+                            }
+
+                            @Override
+                            public void onFinish() {
+                                current++;
+                            }
+                        };
+                        // Resolved afresh, so republished dependencies are picked up.
+                        downloaded |= stageModule(moduleCallback, config, alreadyDownloaded, true, transaction);
+                        moduleCallback.onStart();
+                        moduleCallback.onProgress(100);
+                        moduleCallback.onFinish();
+                        callback.onFinish();
+                    }
+                    transaction.commit();
+                } catch (IOException e) {
+                    transaction.abort();
+                    MetricsRegistry.SHARED.getCounter(MetricsRegistry.INSTALL_FAILURES).increment();
+                    throw e;
+                } catch (RuntimeException e) {
+                    transaction.abort();
+                    MetricsRegistry.SHARED.getCounter(MetricsRegistry.INSTALL_FAILURES).increment();
+                    throw e;
+                }
+                refreshConfigs();
+                callback.onStart();
+                if (downloaded || !isGenerationCurrent()) {
+                    refreshDexed(new StagedCallback() {
+                        int stageCount = 1, current = 0;
+
+                        @Override
+                        public void setStages(String[] names) {
+                            stageCount = names.length;
+                        }
+
+                        @Override
+                        public void onStart() {
+                            // Do nothing.
+                        }
+
+                        @Override
+                        public void onProgress(int current) {
+                            int numerator = this.current * 100 + current;
+                            int denominator = this.stageCount;
+                            intermediary.onProgress(numerator / denominator);
+                        }
+
+                        @Override
+                        public void onFinish() {
+                            current++;
+                        }
+                    });
+                } else {
+                    // Every jar matched its digest, so the active generation is already up to date.
+                    callback.onProgress(100);
+                }
+                callback.onFinish();
+            } catch (IOException e) {
+                e.printStackTrace();
+                throw e;
+            } catch (JsonParseException e) {
+                e.printStackTrace();
+                throw e;
+            }
+        } finally {
+            exit();
         }
-        undexedDir.renameTo(backupClassesFolder);
-        undexedDir.mkdirs();
+    }
+
+    /**
+     * Downloads an update of an installed module ahead of applying it. Only jars which changed are
+     * downloaded: those whose digest differs from the installed jar or, for jars without a digest,
+     * the module's own jar and any dependency whose URL changed. Bundled modules download their
+     * whole bundle. The config is written last, so an update is only pending once all of its jars
+     * are. Must not run concurrently with
+     * applyUpdates.
+     *
+     * @param update The new config of the module.
+     * @param alreadyDownloaded URLs which we have already downloaded from.
+     * @return staged Whether the update was staged; false if the module is not installed, or
+     * this version is installed or already staged.
+     * @throws IOException If the download fails or does not match the config.
+     * @throws JsonParseException If the config of a dependency is malformed.
+     */
+    public boolean stageUpdate(@NonNull ModuleConfig update,
+                               @Nullable Stack<String> alreadyDownloaded) throws IOException {
+        enter();
         try {
-            String[] stages = new String[configs.length + 1];
-            for (int i = 0; i < configs.length; i++) {
-                stages[i] = "Getting module " + configs[i].getName();
+            ModuleConfig installed = getInstalledConfig(update.getName());
+            if (installed == null || update.getVersion().equals(installed.getVersion())) {
+                return false;
             }
-            stages[configs.length] = "Building modules...";
-            if (callback == null) {
-                callback = EmptyCallback.EMPTY;
+            FileHandler fileHandler = activity.getFileHandler();
+            File updateFile = new File(updateDir, update.getName() + ".json");
+            if (updateFile.exists()) {
+                ModuleConfig pending = gson.fromJson(fileHandler.readFile(null, updateFile), ModuleConfig.class);
+                if (pending != null && update.getVersion().equals(pending.getVersion())) {
+                    return false;
+                }
+            }
+            if (alreadyDownloaded == null) {
+                alreadyDownloaded = new Stack<String>();
             }
-            callback.setStages(stages);
-            Stack<String> alreadyDownloaded = new Stack<String>();
-            final StagedCallback intermediary = callback;
-            for (ModuleConfig config : configs) {
-                callback.onStart();
-                getNewModule(new StagedCallback() {
-                    int stageCount = 1, current = 0;
 
-                    @Override
-                    public void setStages(String[] names) {
-                        stageCount = names.length;
+            String bundleUrl = update.getBundleUrl();
+            if (bundleUrl != null && bundleUrl.length() != 0) {
+                // Bundles are applied whole, so they are kept as downloaded.
+                File bundleFile = new File(updateDir, update.getName() + ".bundle");
+                File bundlePart = new File(bundleFile.getPath() + InstallJournal.STAGED_SUFFIX);
+                fileHandler.writeFile(activity.getDownloadHandler().getDownloadStream(bundleUrl), null, false, bundlePart);
+                if (!bundlePart.renameTo(bundleFile)) {
+                    throw new IOException("Could not rename " + bundlePart + " to " + bundleFile);
+                }
+            } else {
+                new File(updateDir, update.getName() + ".bundle").delete();
+                // Resolved afresh, as an update may come with republished dependencies.
+                update.setResolvedDependencies(DependencyResolver.flatten(resolver.resolve(update, configs, true)));
+                stageUpdatedJar(update, installed, alreadyDownloaded);
+                for (Config dependency : update.getResolvedDependencies()) {
+                    Config installedDependency = null;
+                    for (Config candidate : installed.getResolvedDependencies()) {
+                        if (candidate.getName().equals(dependency.getName())) {
+                            installedDependency = candidate;
+                        }
                     }
+                    stageUpdatedJar(dependency, installedDependency, alreadyDownloaded);
+                }
+                File lock = new File(updateDir, update.getName() + ".lock");
+                File lockPart = new File(lock.getPath() + InstallJournal.STAGED_SUFFIX);
+                fileHandler.writeFile(gson.toJson(update.getResolvedDependencies()), null, lockPart);
+                if (!lockPart.renameTo(lock)) {
+                    throw new IOException("Could not rename " + lockPart + " to " + lock);
+                }
+            }
 
-                    @Override
-                    public void onStart() {
-                        // Do nothing.
-                    }
+            File part = new File(updateDir, update.getName() + ".json" + InstallJournal.STAGED_SUFFIX);
+            fileHandler.writeFile(gson.toJson(update), null, part);
+            if (!part.renameTo(updateFile)) {
+                throw new IOException("Could not rename " + part + " to " + updateFile);
+            }
+            return true;
+        } finally {
+            exit();
+        }
+    }
 
-                    @Override
-                    public void onProgress(int current) {
-                        int numerator = this.current * 100 + current;
-                        int denominator = this.stageCount;
-                        intermediary.onProgress(numerator / denominator);
-                    }
+    /**
+     * Downloads the jar of an updated config into the update directory, unless it is unchanged.
+     *
+     * @param item The new config of the jar.
+     * @param installed The installed config of the jar, or null if it is new.
+     * @param alreadyDownloaded URLs which we have already downloaded from.
+     * @throws IOException If the download fails or does not match the config.
+     */
+    private void stageUpdatedJar(@NonNull Config item,
+                                 @Nullable Config installed,
+                                 @NonNull Stack<String> alreadyDownloaded) throws IOException {
+        FileHandler fileHandler = activity.getFileHandler();
+        File installedJar = fileHandler.generateFile("jars", item.getName() + ".jar");
+        File target = new File(updateDir, item.getName() + ".jar");
+        String jarUrl = item.getJarUrl();
+        if (alreadyDownloaded.contains(jarUrl) || isInstalled(item, installedJar) || isInstalled(item, target)) {
+            return;
+        }
+        // Without a digest, only a new URL shows that a dependency changed. The module's own jar
+        // is assumed to change with its version.
+        if (!VerifyingInputStream.isKnown(item.getSha256()) && installed != null && !(item instanceof ModuleConfig) &&
+                installed.getJarUrl().equals(jarUrl) && installedJar.exists()) {
+            return;
+        }
+        File part = new File(target.getPath() + InstallJournal.STAGED_SUFFIX);
+        downloadJar(null, item, installedJar, part);
+        if (!part.renameTo(target)) {
+            throw new IOException("Could not rename " + part + " to " + target);
+        }
+        alreadyDownloaded.push(jarUrl);
 
-                    @Override
-                    public void onFinish() {
-                        current++;
-                    }
-                }, config, alreadyDownloaded, false);
-                callback.onFinish();
-            }
-            callback.onStart();
-            refreshDexed(new StagedCallback() {
-                int stageCount = 1, current = 0;
+        String dexUrl = item.getDexUrl();
+        if (dexUrl != null && dexUrl.length() != 0 && VerifyingInputStream.isKnown(item.getDexSha256())) {
+            downloadPrebuiltDex(item, new File(updateDir, item.getName() + ".dex"), null);
+        }
+    }
 
-                @Override
-                public void setStages(String[] names) {
-                    stageCount = names.length;
-                }
+    /**
+     * Returns whether any staged update is waiting to be applied.
+     *
+     * @return pending Whether any staged update is waiting to be applied.
+     */
+    public boolean hasPendingUpdates() {
+        File[] updates = updateDir.listFiles(CONFIG_FILTER);
+        return updates != null && updates.length != 0;
+    }
 
-                @Override
-                public void onStart() {
-                    // Do nothing.
+    /**
+     * Installs every staged update in one transaction and rebuilds the modules. No download is
+     * needed, as updates are staged complete. Updates of modules removed or already brought up to
+     * date since are dropped.
+     *
+     * @return applied The number of modules updated.
+     * @throws IOException If an update could not be installed or the modules could not be built.
+     */
+    public synchronized int applyUpdates() throws IOException {
+        enter();
+        try {
+            File[] updates = updateDir.listFiles(CONFIG_FILTER);
+            if (updates == null || updates.length == 0) {
+                return 0;
+            }
+            FileHandler fileHandler = activity.getFileHandler();
+            int applied = 0;
+            InstallJournal.Transaction transaction = journal.begin("update");
+            try {
+                for (File updateFile : updates) {
+                    ModuleConfig update = gson.fromJson(fileHandler.readFile(null, updateFile), ModuleConfig.class);
+                    ModuleConfig installed = update == null ? null : getInstalledConfig(update.getName());
+                    if (installed == null || installed.getVersion().equals(update.getVersion())) {
+                        continue;
+                    }
+                    File bundleFile = new File(updateDir, update.getName() + ".bundle");
+                    if (bundleFile.exists()) {
+                        stageBundle(EmptyCallback.EMPTY, update, new FileInputStream(bundleFile), new Stack<String>(), transaction);
+                        applied++;
+                        continue;
+                    }
+                    readLock(update, new File(updateDir, update.getName() + ".lock"));
+                    fileHandler.writeFile(gson.toJson(update), null,
+                            transaction.stage(fileHandler.generateFile("config", update.getName() + ".json")));
+                    stageLock(update.getName(), update.getResolvedDependencies(), transaction);
+                    applyUpdatedJar(update, transaction);
+                    for (Config dependency : update.getResolvedDependencies()) {
+                        applyUpdatedJar(dependency, transaction);
+                    }
+                    upgradeDependents(update, transaction);
+                    validateTargetModule(update, transaction);
+                    applied++;
                 }
-
-                @Override
-                public void onProgress(int current) {
-                    int numerator = this.current * 100 + current;
-                    int denominator = this.stageCount;
-                    intermediary.onProgress(numerator / denominator);
+                transaction.commit();
+            } catch (IOException e) {
+                transaction.abort();
+                MetricsRegistry.SHARED.getCounter(MetricsRegistry.INSTALL_FAILURES).increment();
+                throw e;
+            } catch (RuntimeException e) {
+                transaction.abort();
+                MetricsRegistry.SHARED.getCounter(MetricsRegistry.INSTALL_FAILURES).increment();
+                throw e;
+            } finally {
+                // Whatever is left was dropped. After an abort, updates must be staged again.
+                for (File leftover : updateDir.listFiles()) {
+                    leftover.delete();
                 }
+            }
+            if (applied != 0) {
+                refreshConfigs();
+                refreshDexed(EmptyCallback.EMPTY);
+            }
+            return applied;
+        } finally {
+            exit();
+        }
+    }
 
-                @Override
-                public void onFinish() {
-                    current++;
+    /**
+     * Moves the staged jar of an updated config into a transaction, if one was staged, along
+     * with its prebuilt dex.
+     *
+     * @param item The new config of the jar.
+     * @param transaction The transaction to stage the jar in.
+     * @throws IOException If the jar could not be moved.
+     */
+    private void applyUpdatedJar(@NonNull Config item,
+                                 @NonNull InstallJournal.Transaction transaction) throws IOException {
+        File updatedJar = new File(updateDir, item.getName() + ".jar");
+        if (!updatedJar.exists()) {
+            return;
+        }
+        File staged = transaction.stage(activity.getFileHandler().generateFile("jars", item.getName() + ".jar"));
+        if (!updatedJar.renameTo(staged)) {
+            throw new IOException("Could not rename " + updatedJar + " to " + staged);
+        }
+        File prebuiltDex = new File(dexDir, item.getName() + ".dex");
+        File updatedDex = new File(updateDir, item.getName() + ".dex");
+        if (updatedDex.exists()) {
+            File stagedDex = transaction.stage(prebuiltDex);
+            if (!updatedDex.renameTo(stagedDex)) {
+                throw new IOException("Could not rename " + updatedDex + " to " + stagedDex);
+            }
+        } else if (prebuiltDex.exists()) {
+            transaction.delete(prebuiltDex);
+        }
+    }
+
+    /**
+     * Returns the installed config of a module.
+     *
+     * @param name The name of the module.
+     * @return config The installed config, or null if the module is not installed.
+     */
+    private ModuleConfig getInstalledConfig(@NonNull String name) {
+        ModuleConfig[] current = configs;
+        if (current != null) {
+            for (ModuleConfig config : current) {
+                if (config.getName().equals(name)) {
+                    return config;
                 }
-            });
-            callback.onFinish();
-        } catch (IOException e) {
-            e.printStackTrace();
-            activity.getFileHandler().deleteFile(undexedDir);
-            backupClassesFolder.renameTo(undexedDir);
-            throw e;
-        } catch (JsonParseException e) {
-            e.printStackTrace();
-            activity.getFileHandler().deleteFile(undexedDir);
-            backupClassesFolder.renameTo(undexedDir);
-            throw e;
+            }
         }
+        return null;
     }
 
     /**
@@ -439,7 +1237,38 @@ public class ModuleHandler implements Module {
      */
     public EAPDisplayableModule loadModule(ModuleConfig config)
             throws ClassNotFoundException, IllegalAccessException, InstantiationException {
-        return (EAPDisplayableModule) instantiate(config.getTargetModule());
+        enter();
+        try {
+            String targetModule = config.getTargetModule();
+            ClassIndex index = getClassIndex();
+            if (index != null && !index.contains(targetModule)) {
+                // Debug configs may target classes shipped with the app itself.
+                activity.getClassLoader().loadClass(targetModule);
+            }
+            // Resolving the class loader first drops warm modules built from an outdated dex.
+            getClassLoader();
+            EAPDisplayableModule module = ModuleCache.SHARED.acquire(targetModule);
+            if (module != null) {
+                return module;
+            }
+            return (EAPDisplayableModule) instantiate(targetModule);
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * Returns a displayed module once its activity has finished. Reusable modules are kept warm for
+     * the next launch; other modules are left untouched.
+     *
+     * @param module The module to release.
+     * @return pooled Whether the module was kept warm.
+     */
+    public boolean releaseModule(@NonNull EAPDisplayableModule module) {
+        if (module instanceof EAPReusableModule) {
+            return ModuleCache.SHARED.release((EAPReusableModule) module);
+        }
+        return false;
     }
 
     /**
@@ -452,36 +1281,154 @@ public class ModuleHandler implements Module {
      * @throws InstantiationException If we cannot instantiate the target class with an empty constructor.
      */
     public Object instantiate(String classname) throws ClassNotFoundException, IllegalAccessException, InstantiationException {
+        enter();
+        try {
+            return ModuleCache.SHARED.instantiate(getClassLoader(), classname);
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * Returns the class loader used to load up modules, creating it if needed.
+     *
+     * @return classLoader The class loader used to load up modules.
+     */
+    private ClassLoader getClassLoader() {
         if (classLoader == null) {
-            classLoader = new DexClassLoader(dexedJar.getAbsolutePath(),
-                    optimizedDexDir.getAbsolutePath(),
-                    null,
+            if (generation == null) {
+                // Nothing has been built; only classes shipped with the app can be loaded.
+                return activity.getClassLoader();
+            }
+            classLoader = ModuleCache.SHARED.getClassLoader(generation.getDexPath(),
+                    generation.getOptimizedDexDir(),
                     activity.getClassLoader());
         }
-        return classLoader.loadClass(classname).newInstance();
+        return classLoader;
+    }
+
+    /**
+     * Returns the index of the classes provided by the jars, reading it from disk if needed.
+     *
+     * @return index The index of the classes provided by the jars, or null if there is none.
+     */
+    public ClassIndex getClassIndex() {
+        if (classIndex == null && generation != null && generation.getClassIndexFile().exists()) {
+            try {
+                classIndex = ClassIndex.read(generation.getClassIndexFile());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return classIndex;
+    }
+
+    /**
+     * Checks whether the active generation was built from exactly the configs on disk, so that
+     * rebuilding it from unchanged jars would produce the same dex.
+     *
+     * @return current Whether the active generation matches the configs on disk.
+     */
+    private boolean isGenerationCurrent() {
+        if (generation == null) {
+            return false;
+        }
+        FileHandler fileHandler = activity.getFileHandler();
+        File[] snapshot = generation.getConfigDir().listFiles(CONFIG_FILTER);
+        File[] current = configDir.listFiles(CONFIG_FILTER);
+        if (snapshot == null || current == null || snapshot.length != current.length) {
+            return false;
+        }
+        try {
+            for (File configFile : current) {
+                File snapshotFile = new File(generation.getConfigDir(), configFile.getName());
+                if (!snapshotFile.exists() ||
+                        !fileHandler.readFile(null, configFile).equals(fileHandler.readFile(null, snapshotFile))) {
+                    return false;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks that the target module of a config is provided by its own jar or its dependencies,
+     * and by only one of them.
+     *
+     * @param config The config to validate.
+     * @param transaction The transaction whose staged jars replace the installed ones.
+     * @throws IOException If the jars cannot be read or do not provide the target module.
+     */
+    private void validateTargetModule(@NonNull ModuleConfig config,
+                                      @NonNull InstallJournal.Transaction transaction) throws IOException {
+        String targetModule = config.getTargetModule();
+        if (targetModule == null || targetModule.length() == 0) {
+            return;
+        }
+        FileHandler fileHandler = activity.getFileHandler();
+        ClassIndex.Builder builder = new ClassIndex.Builder();
+        builder.addJar(transaction.resolve(fileHandler.generateFile("jars", config.getName() + ".jar")));
+        for (Config dependency : config.getResolvedDependencies()) {
+            File dependencyFile = transaction.resolve(fileHandler.generateFile("jars", dependency.getName() + ".jar"));
+            if (dependencyFile.exists()) {
+                builder.addJar(dependencyFile);
+            }
+        }
+        ClassIndex index = builder.build();
+        if (!index.contains(targetModule)) {
+            throw new IOException("Target module " + targetModule + " is not provided by " +
+                    config.getName() + " or its dependencies.");
+        }
+        // Only one copy of a class makes it into the dex, so the target would be a coin toss.
+        List<String> providers = index.getDuplicates().get(targetModule);
+        if (providers != null) {
+            throw new IOException("Target module " + targetModule + " is provided by more than one jar: " + providers);
+        }
     }
 
     @Override
     public boolean setup() {
+        int span = Tracer.SHARED.begin("ModuleHandler.setup");
         gson = new Gson();
 
         configDir = activity.getDir("config", Context.MODE_PRIVATE);
         jarDir = activity.getDir("jars", Context.MODE_PRIVATE);
-        undexedDir = activity.getDir("undexed", Context.MODE_PRIVATE);
-        dexedJar = activity.getFileHandler().generateFile("dexed", "classes.jar");
-        optimizedDexDir = activity.getDir("optdex", Context.MODE_PRIVATE);
+        dexDir = activity.getDir("dexes", Context.MODE_PRIVATE);
+        updateDir = activity.getDir("updates", Context.MODE_PRIVATE);
+        lockDir = activity.getDir("locks", Context.MODE_PRIVATE);
+        store = ModuleStore.forDirectory(activity.getDir("store", Context.MODE_PRIVATE));
+        generation = store.acquire();
+        if (generation == null) {
+            migrateLegacyDex();
+        }
 
         configDir.mkdirs();
-        dexedJar.getParentFile().mkdirs();
         jarDir.mkdirs();
-        undexedDir.mkdirs();
-        optimizedDexDir.mkdirs();
+        dexDir.mkdirs();
+        updateDir.mkdirs();
+        lockDir.mkdirs();
+        resolver = new DependencyResolver(this, activity.getDir("graphs", Context.MODE_PRIVATE));
+        // Completes or rolls back whatever a previous process was installing when it died.
+        journal = InstallJournal.forFile(activity.getFileHandler().generateFile("journal", "install.journal"));
+        try {
+            journal.replay();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        // Sweeps up generations and trees left behind by a previous process.
+        store.collect(activity.getFileHandler());
+        activity.getFileHandler().getTrash().purge();
 
         try {
             refreshConfigs();
         } catch (IOException ex) {
             ex.printStackTrace();
             return false;
+        } finally {
+            Tracer.SHARED.end(span);
         }
         return true;
     }
@@ -492,21 +1439,97 @@ public class ModuleHandler implements Module {
                 gson != null &&
                 classLoader != null &&
                 configDir != null &&
-                undexedDir != null &&
-                dexedJar != null &&
-                optimizedDexDir != null;
+                store != null;
     }
 
+    /**
+     * Destroys this handler. Operations still running, such as an install on another thread,
+     * finish first; the generation is released by the last of them. Operations started
+     * afterwards throw IllegalStateException.
+     *
+     * @return success Whether the handler was destroyed.
+     */
     @Override
     public boolean destroy() {
+        synchronized (lifecycle) {
+            if (destroyed) {
+                return true;
+            }
+            destroyed = true;
+            if (inFlight != 0) {
+                return true;
+            }
+        }
+        release();
+        return true;
+    }
+
+    /**
+     * Marks the start of an operation using the store, generation or class loader, so destroy
+     * leaves them to it. Every call must be paired with <code>exit</code>.
+     *
+     * @throws IllegalStateException If this handler was destroyed.
+     */
+    private void enter() {
+        synchronized (lifecycle) {
+            if (destroyed) {
+                throw new IllegalStateException("ModuleHandler was destroyed.");
+            }
+            inFlight++;
+        }
+    }
+
+    /**
+     * Marks the end of an operation begun with <code>enter</code>, releasing the resources of this
+     * handler if it was destroyed meanwhile and this was the last operation.
+     */
+    private void exit() {
+        synchronized (lifecycle) {
+            if (--inFlight != 0 || !destroyed) {
+                return;
+            }
+        }
+        release();
+    }
+
+    /**
+     * Releases the generation this handler loads modules from, so it can be collected.
+     */
+    private void release() {
         configs = null;
-        gson = null;
         classLoader = null;
-        configDir = null;
-        undexedDir = null;
-        dexedJar = null;
-        optimizedDexDir = null;
-        return true;
+        if (store != null) {
+            store.release(generation, activity.getFileHandler());
+        }
+        store = null;
+        generation = null;
+        classIndex = null;
+    }
+
+    /**
+     * Creates the first generation, moving the dex and class index built before generations were
+     * introduced into it, and deletes the directories they used. Runs once, as a generation exists
+     * afterwards even if there was nothing to move.
+     */
+    private void migrateLegacyDex() {
+        FileHandler fileHandler = activity.getFileHandler();
+        File legacyDex = fileHandler.generateFile("dexed", "classes.jar");
+        File legacyIndex = fileHandler.generateFile("index", "classes.idx");
+        try {
+            ModuleStore.Generation first = store.begin();
+            first.getOptimizedDexDir().mkdirs();
+            if (legacyDex.exists() && legacyIndex.exists()) {
+                legacyDex.renameTo(first.getDexFile());
+                legacyIndex.renameTo(first.getClassIndexFile());
+            }
+            store.activate(first, fileHandler);
+            generation = store.acquire();
+            for (String legacyDir : new String[]{"dexed", "index", "undexed", "undexed_backup", "optdex"}) {
+                fileHandler.deleteFile(activity.getDir(legacyDir, Context.MODE_PRIVATE));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -515,8 +1538,22 @@ public class ModuleHandler implements Module {
      * @throws IOException If the refresh action fails due to IO failure.
      */
     private void refreshConfigs() throws IOException {
+        int span = Tracer.SHARED.begin("ModuleHandler.refreshConfigs");
+        try {
+            readConfigs();
+        } finally {
+            Tracer.SHARED.end(span);
+        }
+    }
+
+    /**
+     * Reads every config from disk, along with the debug configs.
+     *
+     * @throws IOException If a config cannot be read.
+     */
+    private void readConfigs() throws IOException {
         FileHandler fileHandler = activity.getFileHandler();
-        final File[] configFiles = configDir.listFiles();
+        final File[] configFiles = configDir.listFiles(CONFIG_FILTER);
         ArrayList<ModuleConfig> configList = new ArrayList<ModuleConfig>(configFiles.length + debugConfigs.length);
         ModuleConfig midconfig;
         for (int i = 0; i < configFiles.length; i++) {
@@ -530,6 +1567,7 @@ public class ModuleHandler implements Module {
                     }
                 });
             } else {
+                readLock(midconfig, new File(lockDir, midconfig.getName() + ".json"));
                 configList.add(midconfig);
             }
         }
@@ -548,14 +1586,56 @@ public class ModuleHandler implements Module {
     private void refreshDexed(final @NonNull StagedCallback callback) throws IOException {
 
         callback.onStart();
-        if (dexedJar.exists()) {
-            dexedJar.delete();
+        clearUntrackedJars();
+
+        FileHandler fileHandler = activity.getFileHandler();
+        ModuleStore.Generation next = store.begin();
+        try {
+            buildGeneration(next, callback);
+            store.activate(next, fileHandler);
+        } catch (IOException e) {
+            store.abandon(next, fileHandler);
+            throw e;
+        } catch (RuntimeException e) {
+            store.abandon(next, fileHandler);
+            throw e;
         }
-        dexedJar.getParentFile().mkdirs();
 
-        clearUntrackedJars();
+        // Launches in progress keep the generation they acquired until they release it.
+        ModuleStore.Generation previous = generation;
+        generation = store.acquire();
+        store.release(previous, fileHandler);
+        classIndex = null;
+        classLoader = null;
+        ModuleCache.SHARED.invalidate();
+        getClassLoader();
+        callback.onProgress(100);
+        callback.onFinish();
+    }
+
+    /**
+     * Builds a generation from the jars and configs of this handler.
+     *
+     * @param next The generation to build.
+     * @param callback Callback to report progress to.
+     * @throws IOException If the build fails.
+     */
+    private void buildGeneration(@NonNull ModuleStore.Generation next,
+                                 final @NonNull StagedCallback callback) throws IOException {
+        FileHandler fileHandler = activity.getFileHandler();
+        File undexedDir = next.getUndexedDir();
+        undexedDir.mkdirs();
+        next.getOptimizedDexDir().mkdirs();
+
+        File snapshotDir = next.getConfigDir();
+        snapshotDir.mkdirs();
+        for (File configFile : configDir.listFiles(CONFIG_FILTER)) {
+            fileHandler.writeFile(new FileInputStream(configFile), null, false,
+                    new File(snapshotDir, configFile.getName()));
+        }
 
-        unpackJars(new StagedCallback() {
+        ClassIndex.Builder indexBuilder = new ClassIndex.Builder();
+        unpackJars(undexedDir, next.getPrebuiltDexDir(), indexBuilder, new StagedCallback() {
             int stageCount = 1, current = 0;
 
             @Override
@@ -581,35 +1661,43 @@ public class ModuleHandler implements Module {
             }
         });
 
-        if (undexedDir.list().length == 0) {
-            return;
+        ClassIndex index = indexBuilder.build();
+        index.write(next.getClassIndexFile());
+        // Unpacked over one another, so the last jar providing a class wins.
+        MetricsRegistry.SHARED.getCounter(MetricsRegistry.DUPLICATE_CLASSES).add(index.getDuplicates().size());
+
+        if (undexedDir.list().length != 0) {
+            String[] args = new String[]{
+                    "--keep-classes",
+                    "--verbose",
+                    "--output=" + next.getDexFile().getAbsolutePath(),
+                    undexedDir.getAbsolutePath()
+            };
+
+            long dexStart = System.nanoTime();
+            Main.main(args);
+            MetricsRegistry.SHARED.getHistogram(MetricsRegistry.DEX_DURATION).record(System.nanoTime() - dexStart);
+            if (!next.getDexFile().exists()) {
+                throw new IOException("dx did not produce " + next.getDexFile());
+            }
         }
-
-        String[] args = new String[]{
-                "--keep-classes",
-                "--verbose",
-                "--incremental",
-                "--output=" + dexedJar.getAbsolutePath(),
-                undexedDir.getAbsolutePath()
-        };
-
-        Main.main(args);
-
-        classLoader = new DexClassLoader(dexedJar.getAbsolutePath(),
-                optimizedDexDir.getAbsolutePath(),
-                null,
-                activity.getClassLoader());
-        callback.onProgress(100);
-        callback.onFinish();
+        fileHandler.deleteFile(undexedDir);
     }
 
     /**
-     * Unpacks the jars available to this Handler.
+     * Unpacks the jars available to this Handler. Jars with a valid prebuilt dex are not
+     * unpacked; their dex is copied instead.
      *
+     * @param undexedDir The directory to unpack the classes into.
+     * @param prebuiltDexDir The directory to copy prebuilt dex into.
+     * @param indexBuilder Builder to record the classes provided by each jar in.
      * @param callback Callback to report progress to.
      * @throws IOException If the upackage action fails due to IO failure.
      */
-    private void unpackJars(final @NonNull StagedCallback callback) throws IOException {
+    private void unpackJars(@NonNull File undexedDir,
+                            @NonNull File prebuiltDexDir,
+                            @NonNull ClassIndex.Builder indexBuilder,
+                            final @NonNull StagedCallback callback) throws IOException {
         String targetDir = undexedDir.getAbsolutePath();
         JarFile jarFile;
         Enumeration<JarEntry> jarEntryEnumeration;
@@ -617,37 +1705,95 @@ public class ModuleHandler implements Module {
         File outputFile;
         InputStream fromJar;
         FileOutputStream toFile;
-        File[] jarFiles = jarDir.listFiles();
+        File[] jarFiles = jarDir.listFiles(JAR_FILTER);
+        StripedCounter extracted = MetricsRegistry.SHARED.getCounter(MetricsRegistry.EXTRACT_BYTES);
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        int count;
         callback.setStages(new String[jarFiles.length]);
         for (File jarFile1 : jarFiles) {
             callback.onStart();
+            long start = System.nanoTime();
+            long bytes = 0;
+            String jarName = jarFile1.getName();
+            File prebuiltDex = new File(dexDir, jarName.substring(0, jarName.length() - ".jar".length()) + ".dex");
+            boolean prebuilt = prebuiltDex.exists() && isDex(prebuiltDex);
+            if (prebuilt) {
+                // Copied, as a generation must not change under the launches still using it.
+                activity.getFileHandler().writeFile(new FileInputStream(prebuiltDex), null, false,
+                        new File(prebuiltDexDir, prebuiltDex.getName()));
+            }
             jarFile = new JarFile(jarFile1);
-            jarEntryEnumeration = jarFile.entries();
-            while (jarEntryEnumeration.hasMoreElements()) {
-                jarEntry = jarEntryEnumeration.nextElement();
-                if (jarEntry.isDirectory() || !jarEntry.getName().endsWith(".class")) {
-                    continue;
-                }
-                outputFile = new File(targetDir, jarEntry.getName());
-                if (outputFile.exists()) {
-                    outputFile.delete();
-                } else {
-                    outputFile.getParentFile().mkdirs();
-                    System.out.println(jarEntry.getName());
-                }
-                fromJar = jarFile.getInputStream(jarEntry);
-                toFile = new FileOutputStream(outputFile);
-                while (fromJar.available() > 0) {
-                    toFile.write(fromJar.read());
+            try {
+                jarEntryEnumeration = jarFile.entries();
+                while (jarEntryEnumeration.hasMoreElements()) {
+                    jarEntry = jarEntryEnumeration.nextElement();
+                    if (jarEntry.isDirectory() || !jarEntry.getName().endsWith(".class")) {
+                        continue;
+                    }
+                    indexBuilder.add(jarFile1.getName(), ClassIndex.toClassName(jarEntry.getName()));
+                    if (prebuilt) {
+                        continue;
+                    }
+                    outputFile = new File(targetDir, jarEntry.getName());
+                    if (outputFile.exists()) {
+                        outputFile.delete();
+                    } else {
+                        outputFile.getParentFile().mkdirs();
+                    }
+                    // available() only promises what can be read without blocking, so read to the
+                    // end of the entry instead.
+                    fromJar = jarFile.getInputStream(jarEntry);
+                    toFile = new FileOutputStream(outputFile);
+                    try {
+                        while ((count = fromJar.read(buffer)) != -1) {
+                            toFile.write(buffer, 0, count);
+                            bytes += count;
+                        }
+                    } finally {
+                        fromJar.close();
+                        toFile.close();
+                    }
                 }
-                fromJar.close();
-                toFile.close();
+            } finally {
+                jarFile.close();
             }
+            extracted.add(bytes);
+            MetricsRegistry.SHARED.recordThroughput(MetricsRegistry.EXTRACT_THROUGHPUT,
+                    bytes,
+                    System.nanoTime() - start);
             callback.onProgress(100);
             callback.onFinish();
         }
     }
 
+    /**
+     * Checks whether a file starts like a dex file. Anything else is dexed from its jar instead.
+     *
+     * @param file The file to check.
+     * @return dex Whether the file starts with the magic bytes of dex files.
+     */
+    private static boolean isDex(@NonNull File file) {
+        byte[] magic = new byte[4];
+        try {
+            FileInputStream input = new FileInputStream(file);
+            try {
+                if (input.read(magic) != magic.length) {
+                    return false;
+                }
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        if (magic[0] == 'd' && magic[1] == 'e' && magic[2] == 'x' && magic[3] == '\n') {
+            return true;
+        }
+        MetricsRegistry.SHARED.getCounter(MetricsRegistry.DEX_FALLBACKS).increment();
+        return false;
+    }
+
     /**
      * Returns the array of ModuleConfigs known by this handler.
      *
@@ -675,4 +1821,55 @@ public class ModuleHandler implements Module {
         return activity;
     }
 
+    /**
+     * Runs a task on an executor, or on the calling thread if there is none or it was shut down,
+     * as activities shut theirs down before an operation still running has finished.
+     *
+     * @param executor The executor, or null.
+     * @param task The task.
+     * @param <T> The type of the result of the task.
+     * @return future The result of the task.
+     */
+    static <T> Future<T> submit(@Nullable ExecutorService executor, @NonNull Callable<T> task) {
+        if (executor != null) {
+            try {
+                return executor.submit(task);
+            } catch (RejectedExecutionException e) {
+                // Shut down; fall through to the calling thread.
+            }
+        }
+        FutureTask<T> future = new FutureTask<T>(task);
+        future.run();
+        return future;
+    }
+
+    /**
+     * Waits for the result of a task, rethrowing the exception it failed with.
+     *
+     * @param future The result of the task.
+     * @param <T> The type of the result of the task.
+     * @return result The result of the task.
+     * @throws IOException If the task failed with one, or was interrupted.
+     */
+    static <T> T await(@NonNull Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a task.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
 }
@@ -0,0 +1,471 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.module;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.github.trulyfree.easyaspi.lib.io.FileHandler;
+
+/**
+ * Numbered generations of built modules. Each generation is a directory holding a dex, the class
+ * index of the jars it was built from and a snapshot of the configs it was built for. A new
+ * generation is built off to the side and activated by atomically replacing a pointer file, so a
+ * build never touches the generation in use, and a failed build leaves it active.
+ *
+ * Handlers acquire the generation they load from and release it when done. Generations which are
+ * neither active, being built nor acquired are deleted. Every handler must share the store of a
+ * directory for this to hold, so stores are obtained with <code>forDirectory</code>.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class ModuleStore {
+
+    /**
+     * The name of the pointer file.
+     */
+    private static final String POINTER = "current";
+
+    /**
+     * The prefix of generation directories.
+     */
+    private static final String PREFIX = "gen-";
+
+    /**
+     * Stores by absolute path of their directory.
+     */
+    private static final ConcurrentHashMap<String, ModuleStore> STORES = new ConcurrentHashMap<String, ModuleStore>();
+
+    /**
+     * The directory of this store.
+     */
+    private final File directory;
+
+    /**
+     * The number of holders of each generation, by generation number.
+     */
+    private final Map<Long, Integer> references;
+
+    /**
+     * The numbers of generations being built.
+     */
+    private final HashSet<Long> building;
+
+    /**
+     * The active generation, or null if none has been activated.
+     */
+    private Generation current;
+
+    /**
+     * The highest generation number used so far.
+     */
+    private long highest;
+
+    /**
+     * Standard constructor for ModuleStore. Use <code>forDirectory</code> instead, so handlers
+     * share the reference counts of the store.
+     *
+     * @param directory The directory of this store.
+     */
+    ModuleStore(@NonNull File directory) {
+        this.directory = directory;
+        this.references = new HashMap<Long, Integer>();
+        this.building = new HashSet<Long>();
+        directory.mkdirs();
+        this.current = readPointer();
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                long number = parseNumber(name);
+                highest = Math.max(highest, number);
+            }
+        }
+    }
+
+    /**
+     * Returns the store of a directory, shared by every handler in the process.
+     *
+     * @param directory The directory of the store.
+     * @return store The store of the directory.
+     */
+    public static ModuleStore forDirectory(@NonNull File directory) {
+        String key = directory.getAbsolutePath();
+        ModuleStore store = STORES.get(key);
+        if (store == null) {
+            ModuleStore created = new ModuleStore(directory);
+            store = STORES.putIfAbsent(key, created);
+            if (store == null) {
+                store = created;
+            }
+        }
+        return store;
+    }
+
+    /**
+     * Acquires the active generation, which will not be deleted until released.
+     *
+     * @return generation The active generation, or null if none has been activated.
+     */
+    public synchronized Generation acquire() {
+        if (current != null) {
+            retain(current.getNumber());
+        }
+        return current;
+    }
+
+    /**
+     * Releases a generation acquired from this store, deleting it if it is no longer needed.
+     *
+     * @param generation The generation to release. Ignored if null.
+     * @param fileHandler The handler to delete with.
+     */
+    public void release(Generation generation, @NonNull FileHandler fileHandler) {
+        if (generation == null) {
+            return;
+        }
+        synchronized (this) {
+            Integer count = references.get(generation.getNumber());
+            if (count == null) {
+                return;
+            }
+            if (count <= 1) {
+                references.remove(generation.getNumber());
+            } else {
+                references.put(generation.getNumber(), count - 1);
+            }
+        }
+        collect(fileHandler);
+    }
+
+    /**
+     * Starts building a new generation in an empty directory.
+     *
+     * @return generation The generation to build.
+     * @throws IOException If its directory could not be created.
+     */
+    public synchronized Generation begin() throws IOException {
+        Generation generation = new Generation(++highest);
+        if (!generation.getDirectory().mkdirs()) {
+            throw new IOException("Could not create " + generation.getDirectory());
+        }
+        building.add(generation.getNumber());
+        return generation;
+    }
+
+    /**
+     * Makes a built generation the active one. Its files are synced first, so the pointer never
+     * names a generation whose files a crash could still truncate. The previous generation is
+     * deleted once released by every handler holding it.
+     *
+     * @param generation The generation to activate.
+     * @param fileHandler The handler to delete with.
+     * @throws IOException If the files of the generation could not be synced or the pointer could
+     *                     not be replaced. The previous generation stays active.
+     */
+    public void activate(@NonNull Generation generation, @NonNull FileHandler fileHandler) throws IOException {
+        syncFile(generation.getDexFile());
+        syncFile(generation.getClassIndexFile());
+        syncFiles(generation.getPrebuiltDexDir());
+        syncFiles(generation.getConfigDir());
+        synchronized (this) {
+            File temporary = new File(directory, POINTER + ".tmp");
+            FileOutputStream output = new FileOutputStream(temporary);
+            try {
+                output.write(Long.toString(generation.getNumber()).getBytes("UTF-8"));
+                output.getFD().sync();
+            } finally {
+                output.close();
+            }
+            if (!temporary.renameTo(new File(directory, POINTER))) {
+                throw new IOException("Could not replace the pointer of " + directory);
+            }
+            building.remove(generation.getNumber());
+            current = generation;
+        }
+        collect(fileHandler);
+    }
+
+    /**
+     * Syncs a file of a generation, if it exists.
+     *
+     * @param file The file to sync.
+     * @throws IOException If the file could not be synced.
+     */
+    private static void syncFile(File file) throws IOException {
+        if (file.isFile()) {
+            FileHandler.sync(file);
+        }
+    }
+
+    /**
+     * Syncs every file in a directory of a generation, if it exists.
+     *
+     * @param dir The directory to sync the files of.
+     * @throws IOException If a file could not be synced.
+     */
+    private static void syncFiles(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                syncFile(file);
+            }
+        }
+    }
+
+    /**
+     * Abandons a generation which failed to build, deleting it.
+     *
+     * @param generation The generation to abandon.
+     * @param fileHandler The handler to delete with.
+     */
+    public void abandon(@NonNull Generation generation, @NonNull FileHandler fileHandler) {
+        synchronized (this) {
+            building.remove(generation.getNumber());
+        }
+        collect(fileHandler);
+    }
+
+    /**
+     * Deletes every generation which is neither active, being built nor acquired, including any
+     * left behind by a build interrupted by the process dying.
+     *
+     * @param fileHandler The handler to delete with.
+     */
+    public void collect(@NonNull FileHandler fileHandler) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            long number = parseNumber(file.getName());
+            boolean garbage;
+            synchronized (this) {
+                garbage = number > 0 &&
+                        (current == null || number != current.getNumber()) &&
+                        !building.contains(number) &&
+                        !references.containsKey(number);
+            }
+            if (garbage) {
+                try {
+                    fileHandler.deleteFile(file);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts a holder of a generation.
+     *
+     * @param number The number of the generation.
+     */
+    private void retain(long number) {
+        Integer count = references.get(number);
+        references.put(number, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Reads the active generation from the pointer file.
+     *
+     * @return generation The active generation, or null if there is none or it is missing.
+     */
+    private Generation readPointer() {
+        File pointer = new File(directory, POINTER);
+        if (!pointer.exists()) {
+            return null;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(pointer));
+            try {
+                Generation generation = new Generation(Long.parseLong(reader.readLine().trim()));
+                return generation.getDirectory().isDirectory() ? generation : null;
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Parses the number of a generation directory.
+     *
+     * @param name The name of the directory.
+     * @return number The number of the generation, or 0 if the name is not of a generation.
+     */
+    private static long parseNumber(String name) {
+        if (!name.startsWith(PREFIX)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(name.substring(PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * A generation of built modules.
+     */
+    public class Generation {
+
+        /**
+         * The number of this generation.
+         */
+        private final long number;
+
+        /**
+         * The directory of this generation.
+         */
+        private final File generationDirectory;
+
+        /**
+         * Standard constructor for Generation.
+         *
+         * @param number The number of this generation.
+         */
+        private Generation(long number) {
+            this.number = number;
+            this.generationDirectory = new File(directory, PREFIX + number);
+        }
+
+        /**
+         * Returns the number of this generation. Later generations have higher numbers.
+         *
+         * @return number The number of this generation.
+         */
+        public long getNumber() {
+            return number;
+        }
+
+        /**
+         * Returns the directory of this generation.
+         *
+         * @return directory The directory of this generation.
+         */
+        public File getDirectory() {
+            return generationDirectory;
+        }
+
+        /**
+         * Returns the dex of this generation.
+         *
+         * @return dexFile The dex of this generation.
+         */
+        public File getDexFile() {
+            return new File(generationDirectory, "classes.jar");
+        }
+
+        /**
+         * Returns the directory of the prebuilt dex of this generation, copied from jars which
+         * came with their own dex rather than being dexed into the dex of this generation.
+         *
+         * @return prebuiltDexDir The directory of the prebuilt dex.
+         */
+        public File getPrebuiltDexDir() {
+            return new File(generationDirectory, "dex");
+        }
+
+        /**
+         * Returns the dex path of this generation: its dex, if any class needed dexing, followed
+         * by its prebuilt dex, separated by the path separator.
+         *
+         * @return dexPath The dex path of this generation.
+         */
+        public String getDexPath() {
+            List<File> dexFiles = new ArrayList<File>();
+            if (getDexFile().exists()) {
+                dexFiles.add(getDexFile());
+            }
+            String[] prebuilt = getPrebuiltDexDir().list();
+            if (prebuilt != null) {
+                Arrays.sort(prebuilt);
+                for (String dex : prebuilt) {
+                    dexFiles.add(new File(getPrebuiltDexDir(), dex));
+                }
+            }
+            StringBuilder dexPath = new StringBuilder();
+            for (File dexFile : dexFiles) {
+                if (dexPath.length() != 0) {
+                    dexPath.append(File.pathSeparatorChar);
+                }
+                dexPath.append(dexFile.getAbsolutePath());
+            }
+            return dexPath.toString();
+        }
+
+        /**
+         * Returns the directory the dex of this generation is optimized into. Each generation has
+         * its own, as optimized dex files are named after their dex and a generation still loaded
+         * must not have its optimized dex replaced.
+         *
+         * @return optimizedDexDir The directory of the optimized dex.
+         */
+        public File getOptimizedDexDir() {
+            return new File(generationDirectory, "optdex");
+        }
+
+        /**
+         * Returns the class index of this generation.
+         *
+         * @return classIndexFile The class index of this generation.
+         */
+        public File getClassIndexFile() {
+            return new File(generationDirectory, "classes.idx");
+        }
+
+        /**
+         * Returns the directory of the snapshot of the configs this generation was built for.
+         *
+         * @return configDir The directory of the config snapshot.
+         */
+        public File getConfigDir() {
+            return new File(generationDirectory, "config");
+        }
+
+        /**
+         * Returns the directory the classes of this generation are extracted to while it is
+         * built. Deleted once the dex is built.
+         *
+         * @return undexedDir The directory of the extracted classes.
+         */
+        public File getUndexedDir() {
+            return new File(generationDirectory, "undexed");
+        }
+    }
+}
@@ -0,0 +1,418 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.module;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import io.github.trulyfree.easyaspi.lib.dl.DownloadHandler;
+import io.github.trulyfree.easyaspi.lib.event.EventBus;
+import io.github.trulyfree.easyaspi.lib.event.EventTopic;
+import io.github.trulyfree.easyaspi.lib.module.conf.ModuleConfig;
+
+/**
+ * Periodically checks the config URLs of installed modules for new versions in the background,
+ * and stages the changed jars of updated modules so applying them needs no download. Updates are
+ * applied, and the modules rebuilt, only while the owner reports being idle; the number of modules
+ * updated is then published on the UPDATED_TOPIC of the shared EventBus.
+ *
+ * Configs are fetched with conditional requests, so unchanged configs cost a 304 response. The
+ * requests of a check are spread over a window with random delays and limited per host, so many
+ * modules from one repository do not arrive as a burst. Checks themselves are jittered around
+ * their interval.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class UpdateChecker {
+
+    /**
+     * The topic the number of modules updated is published on, as a long.
+     */
+    public static final String UPDATED_TOPIC = "modules.updated";
+
+    /**
+     * The default time between checks, in milliseconds.
+     */
+    public static final long DEFAULT_INTERVAL = TimeUnit.HOURS.toMillis(6);
+
+    /**
+     * The default window the requests of a check are spread over, in milliseconds.
+     */
+    public static final long DEFAULT_SPREAD = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * The default number of concurrent requests per host.
+     */
+    public static final int DEFAULT_REQUESTS_PER_HOST = 2;
+
+    /**
+     * The number of threads making requests.
+     */
+    private static final int FETCH_THREADS = 4;
+
+    /**
+     * The fraction of the interval checks are moved by at random.
+     */
+    private static final double INTERVAL_JITTER = 0.1;
+
+    /**
+     * The longest stop waits for updates being applied, in milliseconds.
+     */
+    private static final long STOP_TIMEOUT = TimeUnit.SECONDS.toMillis(2);
+
+    /**
+     * The module handler whose modules are checked.
+     */
+    private final ModuleHandler moduleHandler;
+
+    /**
+     * The time between checks, in milliseconds.
+     */
+    private final long interval;
+
+    /**
+     * The window the requests of a check are spread over, in milliseconds.
+     */
+    private final long spread;
+
+    /**
+     * The number of concurrent requests per host.
+     */
+    private final int requestsPerHost;
+
+    /**
+     * Runs checks and applies updates, one at a time.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Makes the requests of checks.
+     */
+    private final ScheduledExecutorService fetchers;
+
+    /**
+     * Permits for requests, by host.
+     */
+    private final ConcurrentHashMap<String, Semaphore> hosts;
+
+    /**
+     * The validators of the last response, by config URL.
+     */
+    private final ConcurrentHashMap<String, Map<String, String>> validators;
+
+    /**
+     * The topic updates are published on.
+     */
+    private final EventTopic<Void> updated;
+
+    /**
+     * Source of jitter.
+     */
+    private final Random random;
+
+    /**
+     * Whether the owner is idle, so updates may be applied.
+     */
+    private volatile boolean idle;
+
+    /**
+     * The next scheduled check, or null if not started.
+     */
+    private ScheduledFuture<?> next;
+
+    /**
+     * Standard constructor for UpdateChecker, with the default interval, spread and per host limit.
+     *
+     * @param moduleHandler The module handler whose modules are checked. Must be set up.
+     */
+    public UpdateChecker(@NonNull ModuleHandler moduleHandler) {
+        this(moduleHandler, DEFAULT_INTERVAL, DEFAULT_SPREAD, DEFAULT_REQUESTS_PER_HOST);
+    }
+
+    /**
+     * Standard constructor for UpdateChecker.
+     *
+     * @param moduleHandler The module handler whose modules are checked. Must be set up.
+     * @param interval The time between checks, in milliseconds.
+     * @param spread The window the requests of a check are spread over, in milliseconds.
+     * @param requestsPerHost The number of concurrent requests per host.
+     */
+    public UpdateChecker(@NonNull ModuleHandler moduleHandler, long interval, long spread, int requestsPerHost) {
+        this.moduleHandler = moduleHandler;
+        this.interval = interval;
+        this.spread = spread;
+        this.requestsPerHost = requestsPerHost;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("EAP-update-checker"));
+        this.fetchers = Executors.newScheduledThreadPool(FETCH_THREADS, daemonThreads("EAP-update-fetcher"));
+        this.hosts = new ConcurrentHashMap<String, Semaphore>();
+        this.validators = new ConcurrentHashMap<String, Map<String, String>>();
+        this.updated = EventBus.SHARED.getTopic(UPDATED_TOPIC, Void.class);
+        this.random = new Random();
+    }
+
+    /**
+     * Starts checking periodically. The first check runs within one spread of this call.
+     */
+    public synchronized void start() {
+        if (next == null) {
+            schedule(jitter(spread));
+        }
+    }
+
+    /**
+     * Stops checking and cancels requests in flight, then waits up to STOP_TIMEOUT for updates
+     * being applied. An apply still running after that finishes on its own, as the module handler
+     * is only released once it does. A checker cannot be restarted.
+     */
+    public void stop() {
+        synchronized (this) {
+            if (next != null) {
+                next.cancel(false);
+            }
+            scheduler.shutdownNow();
+            fetchers.shutdownNow();
+        }
+        // Waited for outside the lock, as a finishing check takes it to schedule the next.
+        try {
+            scheduler.awaitTermination(STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sets whether the owner is idle. Becoming idle applies pending updates in the background.
+     *
+     * @param idle Whether the owner is idle.
+     */
+    public void setIdle(boolean idle) {
+        this.idle = idle;
+        if (idle && moduleHandler.hasPendingUpdates()) {
+            try {
+                scheduler.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        applyIfIdle();
+                    }
+                });
+            } catch (RuntimeException e) {
+                // Stopped; nothing is applied any more.
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Checks every installed module for a new version and stages the updates found, then applies
+     * them if the owner is idle. Runs on the calling thread, which waits for all requests.
+     *
+     * @return staged The number of updates staged.
+     * @throws InterruptedException If interrupted while waiting for requests.
+     */
+    public int check() throws InterruptedException {
+        List<Future<ModuleConfig>> fetches = new ArrayList<Future<ModuleConfig>>();
+        List<String> confUrls = new ArrayList<String>();
+        ModuleConfig[] configs = moduleHandler.getConfigs();
+        if (configs != null) {
+            for (ModuleConfig config : configs) {
+                final String confUrl = config.getConfUrl();
+                if (confUrl == null || confUrl.length() == 0) {
+                    continue;
+                }
+                fetches.add(fetchers.schedule(new Callable<ModuleConfig>() {
+                    @Override
+                    public ModuleConfig call() throws Exception {
+                        return fetch(confUrl);
+                    }
+                }, jitter(spread), TimeUnit.MILLISECONDS));
+                confUrls.add(confUrl);
+            }
+        }
+        int staged = 0;
+        // Shared jars are only downloaded once per check.
+        Stack<String> alreadyDownloaded = new Stack<String>();
+        for (int i = 0; i < fetches.size(); i++) {
+            try {
+                ModuleConfig update = fetches.get(i).get();
+                if (update != null && moduleHandler.stageUpdate(update, alreadyDownloaded)) {
+                    staged++;
+                }
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            } catch (IOException e) {
+                e.printStackTrace();
+                // The config is unchanged on the next check, which must stage it all the same.
+                validators.remove(confUrls.get(i));
+            } catch (JsonParseException e) {
+                e.printStackTrace();
+            }
+        }
+        applyIfIdle();
+        return staged;
+    }
+
+    /**
+     * Fetches a config if it changed since the last fetch, waiting for a permit of its host.
+     *
+     * @param confUrl The URL of the config.
+     * @return config The config, or null if unchanged.
+     * @throws IOException If the request fails.
+     * @throws InterruptedException If interrupted while waiting for a permit.
+     */
+    private ModuleConfig fetch(@NonNull String confUrl) throws IOException, InterruptedException {
+        Semaphore permits = getPermits(new URL(confUrl).getHost());
+        Map<String, String> previous = validators.get(confUrl);
+        Map<String, String> current = previous == null ?
+                new HashMap<String, String>() :
+                new HashMap<String, String>(previous);
+        String json;
+        permits.acquire();
+        try {
+            DownloadHandler downloadHandler = moduleHandler.getActivity().getDownloadHandler();
+            json = downloadHandler.downloadIfModified(confUrl, current);
+        } finally {
+            permits.release();
+        }
+        if (json == null) {
+            return null;
+        }
+        ModuleConfig config = moduleHandler.fromJson(json);
+        // Validators are only kept once the config is known to parse.
+        validators.put(confUrl, current);
+        return config;
+    }
+
+    /**
+     * Applies pending updates if the owner is idle, publishing the number of modules updated.
+     */
+    private void applyIfIdle() {
+        if (!idle || !moduleHandler.hasPendingUpdates()) {
+            return;
+        }
+        try {
+            int applied = moduleHandler.applyUpdates();
+            if (applied != 0) {
+                updated.publish(applied);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            // The staged updates were dropped, so the next check must fetch them again.
+            validators.clear();
+        }
+    }
+
+    /**
+     * Returns the request permits of a host.
+     *
+     * @param host The host.
+     * @return permits The request permits of the host.
+     */
+    private Semaphore getPermits(@NonNull String host) {
+        Semaphore permits = hosts.get(host);
+        if (permits == null) {
+            Semaphore created = new Semaphore(requestsPerHost);
+            permits = hosts.putIfAbsent(host, created);
+            if (permits == null) {
+                permits = created;
+            }
+        }
+        return permits;
+    }
+
+    /**
+     * Schedules the next check.
+     *
+     * @param delay The delay before the check, in milliseconds.
+     */
+    private synchronized void schedule(long delay) {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        next = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    check();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                long jitter = (long) (interval * INTERVAL_JITTER);
+                schedule(interval - jitter + jitter(2 * jitter));
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a random delay.
+     *
+     * @param bound The exclusive upper bound of the delay, in milliseconds.
+     * @return delay A random delay from zero up to the bound, in milliseconds.
+     */
+    private long jitter(long bound) {
+        if (bound <= 0) {
+            return 0;
+        }
+        synchronized (random) {
+            return (long) (random.nextDouble() * bound);
+        }
+    }
+
+    /**
+     * Returns a factory of low priority daemon threads.
+     *
+     * @param name The name of the threads.
+     * @return factory A factory of low priority daemon threads.
+     */
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        };
+    }
+}
@@ -39,12 +39,56 @@ public class Config {
      */
     private String jarUrl;
 
+    /**
+     * The version of this item.
+     */
+    private String version;
+
+    /**
+     * The URL for the configuration file of this item, or an empty string if it has none.
+     */
+    private String confUrl;
+
+    /**
+     * The hex SHA-256 digest of the jar for this item, or an empty string if unknown.
+     */
+    private String sha256;
+
+    /**
+     * The size in bytes of the jar for this item, or a negative number if unknown.
+     */
+    private long size;
+
+    /**
+     * Patches from earlier versions of the jar for this item. Only used when the digest is known,
+     * so the patched jar can be verified.
+     */
+    private PatchConfig[] patches;
+
+    /**
+     * The URL of the dex built from the jar for this item, or an empty string if there is none.
+     */
+    private String dexUrl;
+
+    /**
+     * The hex SHA-256 digest of the dex built from the jar for this item. The dex is only used
+     * when this is known.
+     */
+    private String dexSha256;
+
     /**
      * Standard constructor for the Config, which just defines initial non-null values for fields.
      */
     public Config() {
         this.name = "";
         this.jarUrl = "";
+        this.version = "";
+        this.confUrl = "";
+        this.sha256 = "";
+        this.size = -1;
+        this.patches = new PatchConfig[0];
+        this.dexUrl = "";
+        this.dexSha256 = "";
     }
 
     /**
@@ -82,4 +126,131 @@ public class Config {
     public void setJarUrl(String jarUrl) {
         this.jarUrl = jarUrl;
     }
+
+    /**
+     * Returns the version of this item.
+     *
+     * @return version The version of this item.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the version of this item.
+     *
+     * @param version The version of this item.
+     */
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
+    /**
+     * Returns the URL for the configuration file of this item. The configuration file of a
+     * dependency is a ModuleConfig listing the dependencies of the dependency.
+     *
+     * @return confUrl The URL for the configuration file of this item, or an empty string if it has none.
+     */
+    public String getConfUrl() {
+        return confUrl;
+    }
+
+    /**
+     * Sets the URL for the configuration file of this item.
+     *
+     * @param confUrl The URL for the configuration file of this item, or an empty string if it has none.
+     */
+    public void setConfUrl(String confUrl) {
+        this.confUrl = confUrl;
+    }
+
+    /**
+     * Returns the hex SHA-256 digest of the jar for this item.
+     *
+     * @return sha256 The hex SHA-256 digest of the jar for this item, or an empty string if unknown.
+     */
+    public String getSha256() {
+        return sha256;
+    }
+
+    /**
+     * Sets the hex SHA-256 digest of the jar for this item.
+     *
+     * @param sha256 The hex SHA-256 digest of the jar for this item, or an empty string if unknown.
+     */
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+
+    /**
+     * Returns the size in bytes of the jar for this item.
+     *
+     * @return size The size in bytes of the jar for this item, or a negative number if unknown.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Sets the size in bytes of the jar for this item.
+     *
+     * @param size The size in bytes of the jar for this item, or a negative number if unknown.
+     */
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    /**
+     * Returns the patches from earlier versions of the jar for this item.
+     *
+     * @return patches The patches from earlier versions of the jar for this item.
+     */
+    public PatchConfig[] getPatches() {
+        return patches;
+    }
+
+    /**
+     * Sets the patches from earlier versions of the jar for this item.
+     *
+     * @param patches The patches from earlier versions of the jar for this item.
+     */
+    public void setPatches(PatchConfig[] patches) {
+        this.patches = patches;
+    }
+
+    /**
+     * Returns the URL of the dex built from the jar for this item.
+     *
+     * @return dexUrl The URL of the dex built from the jar for this item, or an empty string if there is none.
+     */
+    public String getDexUrl() {
+        return dexUrl;
+    }
+
+    /**
+     * Sets the URL of the dex built from the jar for this item.
+     *
+     * @param dexUrl The URL of the dex built from the jar for this item, or an empty string if there is none.
+     */
+    public void setDexUrl(String dexUrl) {
+        this.dexUrl = dexUrl;
+    }
+
+    /**
+     * Returns the hex SHA-256 digest of the dex built from the jar for this item.
+     *
+     * @return dexSha256 The hex SHA-256 digest of the dex, or an empty string if unknown.
+     */
+    public String getDexSha256() {
+        return dexSha256;
+    }
+
+    /**
+     * Sets the hex SHA-256 digest of the dex built from the jar for this item.
+     *
+     * @param dexSha256 The hex SHA-256 digest of the dex, or an empty string if unknown.
+     */
+    public void setDexSha256(String dexSha256) {
+        this.dexSha256 = dexSha256;
+    }
 }
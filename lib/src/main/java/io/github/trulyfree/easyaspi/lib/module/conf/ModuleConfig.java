@@ -21,111 +21,115 @@
 package io.github.trulyfree.easyaspi.lib.module.conf;
 
 /**
- * Config for Modules, which must exist jsonified for Module downloads.
+ * Config for Modules, which must exist jsonified for Module downloads. Libraries may publish one
+ * too, without a target module, so that the dependencies of a library can be resolved.
  *
  * @author vtcakavsmoace
  * @since v0.0.1-alpha
  */
 public class ModuleConfig extends Config {
     /**
-     * The version of this module.
+     * The fully qualified classname of the target displayable module.
      */
-    private String version;
+    private String targetModule;
 
     /**
-     * The URL for the configuration file of this module.
+     * An array of configs for the dependencies this module declares.
      */
-    private String confUrl;
+    private Config[] dependencies;
 
     /**
-     * The fully qualified classname of the target displayable module.
+     * The dependencies this module was resolved to, or null if it was not resolved. Transient, so
+     * a config only ever stores the dependencies it declares.
      */
-    private String targetModule;
+    private transient Config[] resolvedDependencies;
 
     /**
-     * An array of configs for the dependencies of this module.
+     * The URL of the bundle of this module, or empty if it is not bundled.
      */
-    private Config[] dependencies;
+    private String bundleUrl;
 
     /**
      * Standard constructor for the ModuleConfig, which just defines initial non-null values for fields.
      */
     public ModuleConfig() {
-        this.version = "";
-        this.confUrl = "";
         this.targetModule = "";
         this.dependencies = new Config[0];
+        this.bundleUrl = "";
     }
 
     /**
-     * Returns the version of this module.
+     * Returns the fully qualified classname of the target displayable module.
      *
-     * @return version The version of this module.
+     * @return targetModule The fully qualified classname of the target displayable module.
      */
-    public String getVersion() {
-        return version;
+    public String getTargetModule() {
+        return targetModule;
     }
 
     /**
-     * Sets the version of this module.
+     * Set the fully qualified classname of the target displayable module.
      *
-     * @param version The version of this module.
+     * @param targetModule The fully qualified classname of the target displayable module.
      */
-    public void setVersion(String version) {
-        this.version = version;
+    public void setTargetModule(String targetModule) {
+        this.targetModule = targetModule;
     }
 
     /**
-     * Returns the URL for the configuration file of this module.
+     * Returns the array of configs for the dependencies this module declares.
      *
-     * @return confUrl The URL for the configuration file of this module.
+     * @return dependencies An array of configs for the dependencies this module declares.
      */
-    public String getConfUrl() {
-        return confUrl;
+    public Config[] getDependencies() {
+        return dependencies;
     }
 
     /**
-     * Sets the URL for the configuration file of this module.
+     * Sets the array of configs for the dependencies this module declares.
      *
-     * @param confUrl The URL for the configuration file of this module.
+     * @param dependencies An array of configs for the dependencies this module declares.
      */
-    public void setConfUrl(String confUrl) {
-        this.confUrl = confUrl;
+    public void setDependencies(Config[] dependencies) {
+        this.dependencies = dependencies;
     }
 
     /**
-     * Returns the fully qualified classname of the target displayable module.
+     * Returns the dependencies this module was resolved to: those it declares and theirs in turn,
+     * each at the version installed. A module which was not resolved returns the dependencies it
+     * declares.
      *
-     * @return targetModule The fully qualified classname of the target displayable module.
+     * @return resolvedDependencies The dependencies this module was resolved to.
      */
-    public String getTargetModule() {
-        return targetModule;
+    public Config[] getResolvedDependencies() {
+        return resolvedDependencies == null ? dependencies : resolvedDependencies;
     }
 
     /**
-     * Set the fully qualified classname of the target displayable module.
+     * Sets the dependencies this module was resolved to.
      *
-     * @param targetModule The fully qualified classname of the target displayable module.
+     * @param resolvedDependencies The dependencies this module was resolved to, or null.
      */
-    public void setTargetModule(String targetModule) {
-        this.targetModule = targetModule;
+    public void setResolvedDependencies(Config[] resolvedDependencies) {
+        this.resolvedDependencies = resolvedDependencies;
     }
 
     /**
-     * Returns the array of configs for the dependencies of this module.
+     * Returns the URL of the bundle of this module, which holds this config along with the jars
+     * of the module and its dependencies.
      *
-     * @return dependencies An array of configs for the dependencies of this module.
+     * @return bundleUrl The URL of the bundle of this module, or empty if it is not bundled.
      */
-    public Config[] getDependencies() {
-        return dependencies;
+    public String getBundleUrl() {
+        return bundleUrl;
     }
 
     /**
-     * Sets the array of configs for the dependencies of this module.
+     * Sets the URL of the bundle of this module.
      *
-     * @param dependencies An array of configs for the dependencies of this module.
+     * @param bundleUrl The URL of the bundle of this module, or empty if it is not bundled.
      */
-    public void setDependencies(Config[] dependencies) {
-        this.dependencies = dependencies;
+    public void setBundleUrl(String bundleUrl) {
+        this.bundleUrl = bundleUrl;
     }
 }
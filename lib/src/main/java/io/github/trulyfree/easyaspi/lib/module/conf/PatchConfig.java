@@ -0,0 +1,85 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.module.conf;
+
+/**
+ * Config of a patch turning an earlier version of a jar into the jar of a Config.
+ *
+ * @see io.github.trulyfree.easyaspi.lib.module.JarPatch
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class PatchConfig {
+    /**
+     * The hex SHA-256 digest of the jar this patch applies to.
+     */
+    private String fromSha256;
+
+    /**
+     * The URL of this patch.
+     */
+    private String patchUrl;
+
+    /**
+     * Standard constructor for the PatchConfig, which just defines initial non-null values for fields.
+     */
+    public PatchConfig() {
+        this.fromSha256 = "";
+        this.patchUrl = "";
+    }
+
+    /**
+     * Returns the hex SHA-256 digest of the jar this patch applies to.
+     *
+     * @return fromSha256 The hex SHA-256 digest of the jar this patch applies to.
+     */
+    public String getFromSha256() {
+        return fromSha256;
+    }
+
+    /**
+     * Sets the hex SHA-256 digest of the jar this patch applies to.
+     *
+     * @param fromSha256 The hex SHA-256 digest of the jar this patch applies to.
+     */
+    public void setFromSha256(String fromSha256) {
+        this.fromSha256 = fromSha256;
+    }
+
+    /**
+     * Returns the URL of this patch.
+     *
+     * @return patchUrl The URL of this patch.
+     */
+    public String getPatchUrl() {
+        return patchUrl;
+    }
+
+    /**
+     * Sets the URL of this patch.
+     *
+     * @param patchUrl The URL of this patch.
+     */
+    public void setPatchUrl(String patchUrl) {
+        this.patchUrl = patchUrl;
+    }
+}
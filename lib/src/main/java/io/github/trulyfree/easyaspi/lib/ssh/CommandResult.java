@@ -0,0 +1,121 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.ssh;
+
+/**
+ * The result of a command run on a remote host.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class CommandResult {
+
+    /**
+     * The command which was run.
+     */
+    private final String command;
+
+    /**
+     * The exit status of the command, or -1 if it is unknown.
+     */
+    private final int exitStatus;
+
+    /**
+     * The standard output of the command.
+     */
+    private final String output;
+
+    /**
+     * The standard error of the command.
+     */
+    private final String error;
+
+    /**
+     * Constructor for CommandResults of commands which wrote nothing to standard error.
+     *
+     * @param command The command which was run.
+     * @param exitStatus The exit status of the command, or -1 if it is unknown.
+     * @param output The standard output of the command.
+     */
+    public CommandResult(String command, int exitStatus, String output) {
+        this(command, exitStatus, output, "");
+    }
+
+    /**
+     * Standard constructor for CommandResult.
+     *
+     * @param command The command which was run.
+     * @param exitStatus The exit status of the command, or -1 if it is unknown.
+     * @param output The standard output of the command.
+     * @param error The standard error of the command.
+     */
+    public CommandResult(String command, int exitStatus, String output, String error) {
+        this.command = command;
+        this.exitStatus = exitStatus;
+        this.output = output;
+        this.error = error;
+    }
+
+    /**
+     * Returns the command which was run.
+     *
+     * @return command The command which was run.
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * Returns the exit status of the command.
+     *
+     * @return exitStatus The exit status of the command, or -1 if it is unknown.
+     */
+    public int getExitStatus() {
+        return exitStatus;
+    }
+
+    /**
+     * Returns the standard output of the command.
+     *
+     * @return output The standard output of the command.
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    /**
+     * Returns the standard error of the command.
+     *
+     * @return error The standard error of the command.
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Checks whether the command exited successfully.
+     *
+     * @return success Whether the exit status of the command was zero.
+     */
+    public boolean isSuccess() {
+        return exitStatus == 0;
+    }
+}
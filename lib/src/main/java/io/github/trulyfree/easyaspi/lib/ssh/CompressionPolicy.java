@@ -0,0 +1,288 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.ssh;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Decides whether a transfer should run over a compressed session. Compression only pays off when
+ * the time saved on the link exceeds the time spent compressing: a payload compressing to ratio r
+ * over a link of throughput L with compression rate C is sent compressed when r / L + 1 / C is
+ * less than 1 / L. The compressibility of a payload is estimated from its name, or by deflating a
+ * few samples of it. Link throughput is measured from completed transfers. Compression rate comes
+ * from the counters of ZlibCompression.
+ *
+ * Measurements outlive activities, so the shared instance should be used.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class CompressionPolicy {
+
+    /**
+     * The policy shared by every SSHHandler in the process.
+     */
+    public static final CompressionPolicy SHARED = new CompressionPolicy();
+
+    /**
+     * The zlib level of compressed sessions. Low levels keep most of the gain on text for a
+     * fraction of the CPU time.
+     */
+    static final int COMPRESSION_LEVEL = 3;
+
+    /**
+     * Ratios above which payloads are never compressed.
+     */
+    private static final double INCOMPRESSIBLE_RATIO = 0.9;
+
+    /**
+     * The ratio assumed for payloads which cannot be sampled and have no telling name.
+     */
+    private static final double DEFAULT_RATIO = 0.5;
+
+    /**
+     * The link throughput assumed before any transfer is measured, in bytes per second.
+     */
+    private static final double DEFAULT_LINK_THROUGHPUT = 2 * 1024 * 1024;
+
+    /**
+     * The compression rate assumed before enough data is compressed, in bytes per second.
+     */
+    private static final double DEFAULT_COMPRESSION_RATE = 20 * 1024 * 1024;
+
+    /**
+     * The number of bytes which must be compressed before the measured rate is trusted.
+     */
+    private static final long MIN_COMPRESSED_BYTES = 1024 * 1024;
+
+    /**
+     * The weight of a new throughput measurement against the previous estimate.
+     */
+    private static final double SMOOTHING = 0.3;
+
+    /**
+     * The size of each sample deflated to estimate compressibility.
+     */
+    private static final int SAMPLE_SIZE = 16 * 1024;
+
+    /**
+     * The maximum number of files sampled in a directory.
+     */
+    private static final int MAX_SAMPLED_FILES = 8;
+
+    /**
+     * Extensions of formats which are already compressed.
+     */
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<String>(Arrays.asList(
+            "jar", "zip", "apk", "gz", "tgz", "bz2", "xz", "7z", "png", "jpg", "jpeg", "gif",
+            "webp", "mp3", "mp4", "mkv", "ogg", "h264"));
+
+    /**
+     * Estimated link throughput by host, in bytes per second.
+     */
+    private final Map<SSHHost, Double> throughput;
+
+    /**
+     * Standard constructor for CompressionPolicy.
+     */
+    public CompressionPolicy() {
+        this.throughput = new HashMap<SSHHost, Double>();
+    }
+
+    /**
+     * Returns the host to use for a transfer, with compression enabled if it would pay off.
+     *
+     * @param host The host to transfer to or from.
+     * @param ratio The estimated compressed size of the payload relative to its original size.
+     * @return host The host with the chosen compression.
+     */
+    public SSHHost select(@NonNull SSHHost host, double ratio) {
+        return host.withCompression(shouldCompress(host, ratio));
+    }
+
+    /**
+     * Checks whether a payload should be sent over a compressed session.
+     *
+     * @param host The host to transfer to or from.
+     * @param ratio The estimated compressed size of the payload relative to its original size.
+     * @return compress Whether compression is expected to shorten the transfer.
+     */
+    public boolean shouldCompress(@NonNull SSHHost host, double ratio) {
+        if (ratio >= INCOMPRESSIBLE_RATIO) {
+            return false;
+        }
+        double link = getLinkThroughput(host);
+        return ratio / link + 1 / getCompressionRate() < 1 / link;
+    }
+
+    /**
+     * Records a completed transfer, updating the throughput estimate of its host.
+     *
+     * @param host The host of the transfer, with the compression it used.
+     * @param bytes The number of payload bytes transferred.
+     * @param nanos The duration of the transfer, in nanoseconds.
+     * @param ratio The estimated compression ratio of the payload.
+     */
+    public void recordTransfer(@NonNull SSHHost host, long bytes, long nanos, double ratio) {
+        if (bytes <= 0 || nanos <= 0) {
+            return;
+        }
+        double wireBytes = host.isCompressed() ? bytes * Math.min(ratio, 1) : bytes;
+        double measured = wireBytes * 1e9 / nanos;
+        SSHHost key = host.withCompression(false);
+        synchronized (throughput) {
+            Double previous = throughput.get(key);
+            throughput.put(key, previous == null ? measured : previous + SMOOTHING * (measured - previous));
+        }
+    }
+
+    /**
+     * Returns the estimated link throughput to a host.
+     *
+     * @param host The host.
+     * @return throughput The estimated throughput, in bytes per second.
+     */
+    public double getLinkThroughput(@NonNull SSHHost host) {
+        synchronized (throughput) {
+            Double estimate = throughput.get(host.withCompression(false));
+            return estimate == null ? DEFAULT_LINK_THROUGHPUT : estimate;
+        }
+    }
+
+    /**
+     * Returns the measured rate of compression on this device.
+     *
+     * @return rate The rate of compression, in input bytes per second of CPU time.
+     */
+    public double getCompressionRate() {
+        long input = ZlibCompression.getDeflateInput();
+        long nanos = ZlibCompression.getDeflateNanos();
+        if (input < MIN_COMPRESSED_BYTES || nanos == 0) {
+            return DEFAULT_COMPRESSION_RATE;
+        }
+        return input * 1e9 / nanos;
+    }
+
+    /**
+     * Estimates the compression ratio of a payload from its name alone.
+     *
+     * @param name The name or path of the payload.
+     * @return ratio The estimated compression ratio.
+     */
+    public double estimateRatio(@NonNull String name) {
+        int dot = name.lastIndexOf('.');
+        if (dot != -1 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.US))) {
+            return 1;
+        }
+        return DEFAULT_RATIO;
+    }
+
+    /**
+     * Estimates the compression ratio of a file by deflating samples from its start, middle and
+     * end, or of a directory by sampling some of the files beneath it.
+     *
+     * @param file The file or directory.
+     * @return ratio The estimated compression ratio.
+     */
+    public double estimateRatio(@NonNull File file) {
+        long[] totals = new long[2];
+        Deflater deflater = new Deflater(COMPRESSION_LEVEL);
+        try {
+            sample(file, deflater, new byte[SAMPLE_SIZE], new byte[SAMPLE_SIZE], totals, new int[1]);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return estimateRatio(file.getName());
+        } finally {
+            deflater.end();
+        }
+        return totals[0] == 0 ? DEFAULT_RATIO : (double) totals[1] / totals[0];
+    }
+
+    /**
+     * Deflates samples of a file or of the files beneath a directory.
+     *
+     * @param file The file or directory.
+     * @param deflater The deflater to use.
+     * @param input Buffer for samples.
+     * @param output Buffer for deflated samples.
+     * @param totals The totals of bytes sampled and bytes produced, updated in place.
+     * @param files The number of files sampled so far, updated in place.
+     * @throws IOException If a file could not be read.
+     */
+    private void sample(File file, Deflater deflater, byte[] input, byte[] output, long[] totals, int[] files)
+            throws IOException {
+        if (files[0] >= MAX_SAMPLED_FILES) {
+            return;
+        }
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    sample(child, deflater, input, output, totals, files);
+                }
+            }
+            return;
+        }
+        files[0]++;
+        if (estimateRatio(file.getName()) == 1) {
+            // Known formats are counted as incompressible without being read.
+            long size = Math.min(file.length(), 3 * SAMPLE_SIZE);
+            totals[0] += size;
+            totals[1] += size;
+            return;
+        }
+        RandomAccessFile reader = new RandomAccessFile(file, "r");
+        try {
+            long length = reader.length();
+            long[] offsets = length <= 3 * SAMPLE_SIZE ?
+                    new long[]{0} : new long[]{0, length / 2, length - SAMPLE_SIZE};
+            for (long offset : offsets) {
+                reader.seek(offset);
+                int count = reader.read(input, 0, (int) Math.min(input.length, length - offset));
+                if (count <= 0) {
+                    continue;
+                }
+                deflater.reset();
+                deflater.setInput(input, 0, count);
+                deflater.finish();
+                long produced = 0;
+                while (!deflater.finished()) {
+                    produced += deflater.deflate(output);
+                }
+                totals[0] += count;
+                totals[1] += produced;
+            }
+        } finally {
+            reader.close();
+        }
+    }
+}
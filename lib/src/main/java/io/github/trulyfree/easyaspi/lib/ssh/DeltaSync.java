@@ -0,0 +1,735 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.ssh;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSchException;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.github.trulyfree.easyaspi.lib.callback.Callback;
+import io.github.trulyfree.easyaspi.lib.callback.EmptyCallback;
+import io.github.trulyfree.easyaspi.lib.util.Utils;
+
+/**
+ * Synchronizes a local directory to a remote host, sending only what changed. This follows the
+ * rsync algorithm: the remote host splits each of its files into blocks and reports a weak
+ * (Adler-32) and a strong (MD5) checksum per block. Locally, a rolling Adler-32 is slid over the
+ * new version of each file one byte at a time, and the strong checksum of a window is only
+ * computed when its weak checksum matches a remote block. Matching windows are sent as references
+ * to remote blocks, everything else as literal data. Files missing locally are deleted remotely.
+ *
+ * Both remote halves are small Python 3 scripts run over exec channels, so nothing needs to be
+ * installed on the remote host beyond what Raspbian ships with. Every file is rebuilt beside its
+ * old copy, checked against the MD5 of the local file, and renamed into place. Local files are
+ * mapped into memory whole, so a directory holding a file larger than 2 GiB is refused.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class DeltaSync {
+
+    /**
+     * The modulus of Adler-32.
+     */
+    private static final int ADLER_MOD = 65521;
+
+    /**
+     * The smallest block size used for signatures.
+     */
+    private static final int MIN_BLOCK_SIZE = 1024;
+
+    /**
+     * The largest block size used for signatures.
+     */
+    private static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * The largest literal sent in a single operation.
+     */
+    private static final int MAX_LITERAL = 64 * 1024;
+
+    /**
+     * Timeout for connecting channels, in milliseconds.
+     */
+    private static final int TIMEOUT = 5000;
+
+    /**
+     * Prints the block signatures of every regular file beneath a directory as JSON. The block
+     * size of each file grows with the square root of its size, as in rsync.
+     */
+    private static final String SIGNATURE_SCRIPT = "" +
+            "import hashlib,json,os,sys,zlib\n" +
+            "root,lo,hi=sys.argv[1],int(sys.argv[2]),int(sys.argv[3])\n" +
+            "out={}\n" +
+            "for d,dirs,files in os.walk(root):\n" +
+            "  for n in files:\n" +
+            "    p=os.path.join(d,n)\n" +
+            "    if n.endswith('.eapsync') or os.path.islink(p) or not os.path.isfile(p): continue\n" +
+            "    s=os.path.getsize(p)\n" +
+            "    b=max(lo,min(hi,int(s**0.5)//64*64))\n" +
+            "    w=[];g=[];h=hashlib.md5()\n" +
+            "    with open(p,'rb') as f:\n" +
+            "      while True:\n" +
+            "        c=f.read(b)\n" +
+            "        if not c: break\n" +
+            "        w.append(zlib.adler32(c)&0xffffffff);g.append(hashlib.md5(c).hexdigest());h.update(c)\n" +
+            "    out[os.path.relpath(p,root).replace(os.sep,'/')]={'size':s,'block':b,'md5':h.hexdigest(),'weak':w,'strong':g}\n" +
+            "json.dump(out,sys.stdout)\n";
+
+    /**
+     * Applies a delta read from standard input to the files beneath a directory.
+     */
+    private static final String PATCH_SCRIPT = "" +
+            "import hashlib,os,shutil,struct,sys\n" +
+            "root=os.path.abspath(sys.argv[1]);i=sys.stdin.buffer\n" +
+            "def rd(n):\n" +
+            "  b=i.read(n)\n" +
+            "  if len(b)!=n: sys.exit('truncated delta')\n" +
+            "  return b\n" +
+            "def num(f): return struct.unpack(f,rd(struct.calcsize(f)))[0]\n" +
+            "def name():\n" +
+            "  p=os.path.normpath(os.path.join(root,rd(num('>H')).decode('utf-8')))\n" +
+            "  if not p.startswith(root+os.sep): sys.exit('path outside root: '+p)\n" +
+            "  return p\n" +
+            "while True:\n" +
+            "  op=rd(1)\n" +
+            "  if op==b'Q': break\n" +
+            "  p=name()\n" +
+            "  if op==b'D':\n" +
+            "    if os.path.lexists(p): os.remove(p)\n" +
+            "    continue\n" +
+            "  b=num('>I');t=p+'.eapsync';h=hashlib.md5()\n" +
+            "  os.makedirs(os.path.dirname(p),exist_ok=True)\n" +
+            "  old=open(p,'rb') if os.path.isfile(p) else None\n" +
+            "  with open(t,'wb') as o:\n" +
+            "    while True:\n" +
+            "      c=rd(1)\n" +
+            "      if c==b'C':\n" +
+            "        k=num('>I');old.seek(k*b);d=old.read(num('>I')*b)\n" +
+            "      elif c==b'L': d=rd(num('>I'))\n" +
+            "      else: break\n" +
+            "      h.update(d);o.write(d)\n" +
+            "  if old:\n" +
+            "    old.close();shutil.copymode(p,t)\n" +
+            "  if h.digest()!=rd(16):\n" +
+            "    os.remove(t);sys.exit('checksum mismatch: '+p)\n" +
+            "  os.replace(t,p)\n";
+
+    /**
+     * The SSH handler whose sessions this sync uses.
+     */
+    private final SSHHandler sshHandler;
+
+    /**
+     * Standard constructor for DeltaSync.
+     *
+     * @param sshHandler The SSH handler whose sessions this sync uses.
+     */
+    public DeltaSync(@NonNull SSHHandler sshHandler) {
+        this.sshHandler = sshHandler;
+    }
+
+    /**
+     * Synchronizes a local directory to a directory on a remote host. Relative remote paths are
+     * resolved against the home directory of the user.
+     *
+     * @param callback Callback instance for progress updates, by percentage of local bytes scanned.
+     * @param remote The host to synchronize to. Compression is chosen from samples of the local
+     *               files by the policy of the SSH handler.
+     * @param localDir The directory to synchronize.
+     * @param remoteDir The directory on the remote host to synchronize into.
+     * @param delete Whether to delete remote files which do not exist locally.
+     * @return result A summary of what was sent.
+     * @throws IOException If the synchronization fails.
+     */
+    public SyncResult sync(@Nullable Callback callback,
+                           @NonNull SSHHost remote,
+                           @NonNull File localDir,
+                           @NonNull String remoteDir,
+                           boolean delete) throws IOException {
+        if (callback == null) {
+            callback = EmptyCallback.EMPTY;
+        }
+
+        CompressionPolicy policy = sshHandler.getCompressionPolicy();
+        double ratio = policy.estimateRatio(localDir);
+        SSHHost host = policy.select(remote, ratio);
+
+        Map<String, File> localFiles = new TreeMap<String, File>();
+        long totalBytes = listFiles(localDir, "", localFiles);
+        for (Map.Entry<String, File> entry : localFiles.entrySet()) {
+            if (entry.getValue().length() > Integer.MAX_VALUE) {
+                throw new IOException(tooLarge(entry.getValue()));
+            }
+        }
+
+        callback.onStart();
+
+        try {
+            long started = System.nanoTime();
+            Map<String, Signature> signatures = readSignatures(host, remoteDir);
+
+            ChannelExec channel = sshHandler.openExecChannel(host, "mkdir -p " + SSHHandler.quote(remoteDir) +
+                    " && python3 -c " + SSHHandler.quote(PATCH_SCRIPT) + " " + SSHHandler.quote(remoteDir));
+            ErrorCapture errors = new ErrorCapture();
+            Delta delta;
+            try {
+                channel.setErrStream(errors, false);
+                delta = new Delta(new DataOutputStream(new BufferedOutputStream(channel.getOutputStream(),
+                        MAX_LITERAL)));
+                InputStream input = channel.getInputStream();
+                channel.connect(TIMEOUT);
+
+                long scanned = 0;
+                for (Map.Entry<String, File> entry : localFiles.entrySet()) {
+                    delta.file(entry.getKey(), entry.getValue(), signatures.remove(entry.getKey()));
+                    scanned += entry.getValue().length();
+                    callback.onProgress((int) ((100 * scanned) / Math.max(totalBytes, 1)));
+                }
+                if (delete) {
+                    for (String path : signatures.keySet()) {
+                        delta.delete(path);
+                    }
+                }
+                delta.finish();
+
+                byte[] data = new byte[1024];
+                while (input.read(data) != -1) {
+                    // The patch script only writes on failure, which is reported below.
+                }
+                // The exit status may arrive after the end of the output, but always before the close.
+                errors.awaitClose(0);
+            } finally {
+                sshHandler.releaseChannel(channel);
+            }
+            if (channel.getExitStatus() != 0) {
+                throw new IOException("Failed to apply delta to " + remoteDir + ": " + errors.toString().trim());
+            }
+
+            SyncResult result = delta.getResult();
+            policy.recordTransfer(host, result.getLiteralBytes(), System.nanoTime() - started, ratio);
+            callback.onFinish();
+            return result;
+        } catch (JSchException e) {
+            throw new IOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while synchronizing " + localDir);
+        }
+    }
+
+    /**
+     * Reads the block signatures of every file in a remote directory.
+     *
+     * @param host The remote host.
+     * @param remoteDir The remote directory.
+     * @return signatures The signatures of the remote files, by path relative to the directory.
+     * @throws JSchException If the remote command could not be run.
+     * @throws IOException If the output of the remote command could not be read.
+     */
+    private Map<String, Signature> readSignatures(SSHHost host, String remoteDir) throws JSchException, IOException {
+        String output = sshHandler.exec(null, host, "python3 -c " + SSHHandler.quote(SIGNATURE_SCRIPT) + " " +
+                SSHHandler.quote(remoteDir) + " " + MIN_BLOCK_SIZE + " " + MAX_BLOCK_SIZE);
+        try {
+            Map<String, Signature> signatures = new Gson().fromJson(output,
+                    new TypeToken<HashMap<String, Signature>>() {}.getType());
+            if (signatures == null) {
+                throw new IOException("Failed to read signatures of " + remoteDir);
+            }
+            return signatures;
+        } catch (JsonParseException e) {
+            throw new IOException("Failed to read signatures of " + remoteDir, e);
+        }
+    }
+
+    /**
+     * Collects the regular files beneath a directory.
+     *
+     * @param dir The directory to search.
+     * @param prefix The path of the directory relative to the root.
+     * @param files The map to add files to, by path relative to the root.
+     * @return size The total size of the files found.
+     */
+    private static long listFiles(File dir, String prefix, Map<String, File> files) {
+        long size = 0;
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return size;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                size += listFiles(child, prefix + child.getName() + '/', files);
+            } else if (child.isFile()) {
+                files.put(prefix + child.getName(), child);
+                size += child.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Computes the Adler-32 checksum of a window of a buffer, as zlib does.
+     *
+     * @param buffer The buffer.
+     * @param offset The start of the window.
+     * @param length The length of the window.
+     * @return checksum The checksum, with the high sum in the upper 16 bits.
+     */
+    static int adler32(MappedByteBuffer buffer, int offset, int length) {
+        long a = 1;
+        long b = 0;
+        for (int i = offset; i < offset + length; i++) {
+            a += buffer.get(i) & 0xff;
+            b += a;
+            if ((i & 0xfff) == 0) {
+                a %= ADLER_MOD;
+                b %= ADLER_MOD;
+            }
+        }
+        return (int) (((b % ADLER_MOD) << 16) | (a % ADLER_MOD));
+    }
+
+    /**
+     * Slides an Adler-32 window forward by one byte.
+     *
+     * @param checksum The checksum of the current window.
+     * @param length The length of the window.
+     * @param out The byte leaving the window.
+     * @param in The byte entering the window.
+     * @return checksum The checksum of the next window.
+     */
+    static int roll(int checksum, int length, int out, int in) {
+        int a = checksum & 0xffff;
+        int b = checksum >>> 16;
+        a = (a - out + in) % ADLER_MOD;
+        if (a < 0) {
+            a += ADLER_MOD;
+        }
+        long nextB = (b - (long) length * out + a - 1) % ADLER_MOD;
+        if (nextB < 0) {
+            nextB += ADLER_MOD;
+        }
+        return (int) ((nextB << 16) | a);
+    }
+
+    /**
+     * Describes why a file cannot be synchronized. Files are mapped into memory whole, and a
+     * mapping holds at most 2 GiB.
+     *
+     * @param file The file.
+     * @return message The description.
+     */
+    private static String tooLarge(File file) {
+        return file.getAbsolutePath() + " is larger than 2 GiB and cannot be synchronized.";
+    }
+
+    /**
+     * The block signatures of a remote file, as printed by the signature script.
+     */
+    private static class Signature {
+
+        /**
+         * The size of the file.
+         */
+        long size;
+
+        /**
+         * The size of the blocks of the file.
+         */
+        int block;
+
+        /**
+         * The MD5 digest of the whole file.
+         */
+        String md5;
+
+        /**
+         * The Adler-32 checksum of each block.
+         */
+        long[] weak;
+
+        /**
+         * The MD5 digest of each block.
+         */
+        String[] strong;
+    }
+
+    /**
+     * Writes the delta consumed by the patch script. Each file is introduced with its path and
+     * block size, followed by block references and literals, and ends with its MD5 digest.
+     */
+    private static class Delta {
+
+        /**
+         * The stream to the patch script.
+         */
+        private final DataOutputStream output;
+
+        /**
+         * Digest of the file being written.
+         */
+        private final MessageDigest fileDigest;
+
+        /**
+         * Digest of candidate blocks.
+         */
+        private final MessageDigest blockDigest;
+
+        /**
+         * Buffer for literals and candidate blocks.
+         */
+        private final byte[] scratch;
+
+        /**
+         * The first block of the pending run of block references.
+         */
+        private int runStart;
+
+        /**
+         * The number of blocks in the pending run of block references.
+         */
+        private int runLength;
+
+        /**
+         * The number of files created or updated.
+         */
+        private int filesSent;
+
+        /**
+         * The number of files already up to date.
+         */
+        private int filesUnchanged;
+
+        /**
+         * The number of files deleted.
+         */
+        private int filesDeleted;
+
+        /**
+         * The number of bytes sent as literals.
+         */
+        private long literalBytes;
+
+        /**
+         * The number of bytes sent as block references.
+         */
+        private long matchedBytes;
+
+        /**
+         * Standard constructor for Delta.
+         *
+         * @param output The stream to the patch script.
+         * @throws IOException If MD5 is unavailable.
+         */
+        private Delta(DataOutputStream output) throws IOException {
+            this.output = output;
+            try {
+                this.fileDigest = MessageDigest.getInstance("MD5");
+                this.blockDigest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+            this.scratch = new byte[Math.max(MAX_LITERAL, MAX_BLOCK_SIZE)];
+        }
+
+        /**
+         * Writes the delta of a single file.
+         *
+         * @param path The path of the file relative to the root.
+         * @param file The local file.
+         * @param signature The signature of the remote copy of the file, or null if there is none.
+         * @throws IOException If the file could not be read or the delta could not be written.
+         */
+        private void file(String path, File file, Signature signature) throws IOException {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = input.getChannel();
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException(tooLarge(file));
+                }
+                int length = (int) channel.size();
+                MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+
+                if (signature != null && signature.size == length &&
+                        Utils.toHex(update(fileDigest, data, 0, length).digest()).equals(signature.md5)) {
+                    filesUnchanged++;
+                    return;
+                }
+
+                int blockSize = signature == null ? MAX_BLOCK_SIZE : signature.block;
+                output.writeByte('F');
+                writeName(path);
+                output.writeInt(blockSize);
+                fileDigest.reset();
+                if (signature == null || signature.weak.length == 0) {
+                    literal(data, 0, length);
+                } else {
+                    match(data, length, signature);
+                }
+                output.writeByte('E');
+                output.write(fileDigest.digest());
+                filesSent++;
+            } finally {
+                input.close();
+            }
+        }
+
+        /**
+         * Slides a window over a file, sending windows matching remote blocks as references and
+         * the bytes between them as literals.
+         *
+         * @param data The contents of the file.
+         * @param length The length of the file.
+         * @param signature The signature of the remote copy of the file.
+         * @throws IOException If the delta could not be written.
+         */
+        private void match(MappedByteBuffer data, int length, Signature signature) throws IOException {
+            int blockSize = signature.block;
+            int blocks = signature.weak.length;
+            int lastLength = (int) (signature.size - (long) (blocks - 1) * blockSize);
+            int fullBlocks = lastLength == blockSize ? blocks : blocks - 1;
+
+            // Chains of full blocks by weak checksum, in block order. The head of each chain is kept
+            // in an open addressing table, so the rolling loop below never boxes a checksum.
+            int capacity = 2;
+            while (capacity < fullBlocks * 2) {
+                capacity <<= 1;
+            }
+            int[] heads = new int[capacity];
+            Arrays.fill(heads, -1);
+            int[] next = new int[blocks];
+            for (int i = fullBlocks - 1; i >= 0; i--) {
+                int slot = slotOf(heads, signature.weak, (int) signature.weak[i]);
+                next[i] = heads[slot];
+                heads[slot] = i;
+            }
+
+            int literalStart = 0;
+            int position = 0;
+            int weak = length >= blockSize ? adler32(data, 0, blockSize) : 0;
+            while (position + blockSize <= length) {
+                int candidate = heads[slotOf(heads, signature.weak, weak)];
+                int found = -1;
+                if (candidate != -1) {
+                    String strong = Utils.toHex(update(blockDigest, data, position, blockSize).digest());
+                    for (int i = candidate; i != -1; i = next[i]) {
+                        if (signature.strong[i].equals(strong)) {
+                            found = i;
+                            break;
+                        }
+                    }
+                }
+                if (found != -1) {
+                    literal(data, literalStart, position - literalStart);
+                    copy(data, position, found, blockSize);
+                    position += blockSize;
+                    literalStart = position;
+                    if (position + blockSize <= length) {
+                        weak = adler32(data, position, blockSize);
+                    }
+                    continue;
+                }
+                if (position + blockSize < length) {
+                    weak = roll(weak, blockSize, data.get(position) & 0xff, data.get(position + blockSize) & 0xff);
+                }
+                position++;
+            }
+
+            // The last remote block is shorter, so it can only match the very end of the file.
+            if (fullBlocks < blocks && length - literalStart >= lastLength) {
+                int tail = length - lastLength;
+                if (adler32(data, tail, lastLength) == (int) signature.weak[blocks - 1] &&
+                        Utils.toHex(update(blockDigest, data, tail, lastLength).digest()).equals(signature.strong[blocks - 1])) {
+                    literal(data, literalStart, tail - literalStart);
+                    copy(data, tail, blocks - 1, lastLength);
+                    literalStart = length;
+                }
+            }
+            literal(data, literalStart, length - literalStart);
+            flushRun();
+        }
+
+        /**
+         * Finds the slot of a weak checksum in a table of chain heads, probing linearly.
+         *
+         * @param heads The table of chain heads, whose length is a power of two.
+         * @param weak The weak checksums of the remote blocks.
+         * @param checksum The weak checksum to look up.
+         * @return slot The slot holding the chain of the checksum, or the empty slot where it
+         *              belongs.
+         */
+        private static int slotOf(int[] heads, long[] weak, int checksum) {
+            int mask = heads.length - 1;
+            int hash = checksum * 0x9E3779B9;
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            while (heads[slot] != -1 && (int) weak[heads[slot]] != checksum) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * Records a reference to a remote block, extending the pending run where possible.
+         *
+         * @param data The contents of the file.
+         * @param offset The offset of the matching window.
+         * @param block The index of the remote block.
+         * @param length The length of the block.
+         * @throws IOException If the delta could not be written.
+         */
+        private void copy(MappedByteBuffer data, int offset, int block, int length) throws IOException {
+            if (runLength > 0 && runStart + runLength != block) {
+                flushRun();
+            }
+            if (runLength == 0) {
+                runStart = block;
+            }
+            runLength++;
+            update(fileDigest, data, offset, length);
+            matchedBytes += length;
+        }
+
+        /**
+         * Writes the pending run of block references.
+         *
+         * @throws IOException If the delta could not be written.
+         */
+        private void flushRun() throws IOException {
+            if (runLength == 0) {
+                return;
+            }
+            output.writeByte('C');
+            output.writeInt(runStart);
+            output.writeInt(runLength);
+            runLength = 0;
+        }
+
+        /**
+         * Writes a range of the file as literals.
+         *
+         * @param data The contents of the file.
+         * @param offset The start of the range.
+         * @param length The length of the range.
+         * @throws IOException If the delta could not be written.
+         */
+        private void literal(MappedByteBuffer data, int offset, int length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            flushRun();
+            while (length > 0) {
+                int count = Math.min(length, MAX_LITERAL);
+                data.position(offset);
+                data.get(scratch, 0, count);
+                output.writeByte('L');
+                output.writeInt(count);
+                output.write(scratch, 0, count);
+                fileDigest.update(scratch, 0, count);
+                literalBytes += count;
+                offset += count;
+                length -= count;
+            }
+        }
+
+        /**
+         * Writes the deletion of a remote file.
+         *
+         * @param path The path of the file relative to the root.
+         * @throws IOException If the delta could not be written.
+         */
+        private void delete(String path) throws IOException {
+            output.writeByte('D');
+            writeName(path);
+            filesDeleted++;
+        }
+
+        /**
+         * Ends the delta and closes the stream to the patch script.
+         *
+         * @throws IOException If the delta could not be written.
+         */
+        private void finish() throws IOException {
+            output.writeByte('Q');
+            output.close();
+        }
+
+        /**
+         * Writes a path as a length-prefixed UTF-8 String.
+         *
+         * @param path The path to write.
+         * @throws IOException If the delta could not be written.
+         */
+        private void writeName(String path) throws IOException {
+            byte[] name = path.getBytes("UTF-8");
+            output.writeShort(name.length);
+            output.write(name);
+        }
+
+        /**
+         * Feeds a range of a buffer into a digest.
+         *
+         * @param digest The digest to update.
+         * @param data The buffer.
+         * @param offset The start of the range.
+         * @param length The length of the range.
+         * @return digest The digest which was updated.
+         */
+        private MessageDigest update(MessageDigest digest, MappedByteBuffer data, int offset, int length) {
+            for (int position = offset; position < offset + length; ) {
+                int count = Math.min(scratch.length, offset + length - position);
+                data.position(position);
+                data.get(scratch, 0, count);
+                digest.update(scratch, 0, count);
+                position += count;
+            }
+            return digest;
+        }
+
+        /**
+         * Returns a summary of the delta written so far.
+         *
+         * @return result A summary of the delta.
+         */
+        private SyncResult getResult() {
+            return new SyncResult(filesSent, filesUnchanged, filesDeleted, literalBytes, matchedBytes);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.ssh;
+
+import android.support.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * The standard error of a channel, captured in memory. JSch writes it from the thread reading the
+ * session's socket, so writes never block; a flood of errors costs memory rather than stalling the
+ * session. JSch closes the capture once the channel closes, which is after the exit status has
+ * arrived, so readers may block on that rather than poll the channel.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+class ErrorCapture extends OutputStream {
+
+    /**
+     * The bytes written and not yet taken.
+     */
+    private byte[] data;
+
+    /**
+     * The number of bytes written and not yet taken.
+     */
+    private int size;
+
+    /**
+     * Whether the channel has closed.
+     */
+    private boolean closed;
+
+    /**
+     * Standard constructor for ErrorCapture.
+     */
+    ErrorCapture() {
+        this.data = new byte[256];
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        ensureCapacity(size + 1);
+        data[size++] = (byte) b;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void write(@NonNull byte[] b, int off, int len) {
+        ensureCapacity(size + len);
+        System.arraycopy(b, off, data, size, len);
+        size += len;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Waits for the channel to close.
+     *
+     * @param timeout The maximum time to wait, in milliseconds, or 0 to wait forever.
+     * @return closed Whether the channel closed in time.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    synchronized boolean awaitClose(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (!closed) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (timeout == 0) {
+                wait();
+            } else if (remaining > 0) {
+                wait(remaining);
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Waits for a delimiter to be written, then takes every byte written before it and discards
+     * the delimiter.
+     *
+     * @param delimiter The delimiter to wait for.
+     * @return text The bytes written before the delimiter, decoded as UTF-8.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     * @throws EOFException If the channel closed before the delimiter was written.
+     */
+    synchronized String takeUntil(@NonNull byte[] delimiter) throws InterruptedException, EOFException {
+        int searched = 0;
+        while (true) {
+            for (int i = searched; i + delimiter.length <= size; i++) {
+                if (matches(i, delimiter)) {
+                    String text = decode(0, i);
+                    int end = i + delimiter.length;
+                    System.arraycopy(data, end, data, 0, size - end);
+                    size -= end;
+                    return text;
+                }
+            }
+            searched = Math.max(0, size - delimiter.length + 1);
+            if (closed) {
+                throw new EOFException("Channel closed before the end of standard error.");
+            }
+            wait();
+        }
+    }
+
+    /**
+     * Returns every byte written so far.
+     *
+     * @return text The bytes written, decoded as UTF-8.
+     */
+    @Override
+    public synchronized String toString() {
+        return decode(0, size);
+    }
+
+    /**
+     * Checks whether the delimiter was written at an offset.
+     *
+     * @param offset The offset to check.
+     * @param delimiter The delimiter.
+     * @return matches Whether the delimiter was written at the offset.
+     */
+    private boolean matches(int offset, byte[] delimiter) {
+        for (int j = 0; j < delimiter.length; j++) {
+            if (data[offset + j] != delimiter[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes written bytes as UTF-8.
+     *
+     * @param offset The offset of the first byte.
+     * @param length The number of bytes.
+     * @return text The decoded bytes.
+     */
+    private String decode(int offset, int length) {
+        try {
+            return new String(data, offset, length, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Grows the buffer to hold at least the specified number of bytes.
+     *
+     * @param capacity The number of bytes to hold.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > data.length) {
+            data = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.ssh;
+
+import android.support.annotation.NonNull;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.github.trulyfree.easyaspi.lib.callback.ChunkCallback;
+import io.github.trulyfree.easyaspi.lib.util.ByteRingBuffer;
+
+/**
+ * The output of a long-running remote command, delivered to a ChunkCallback as it is produced.
+ *
+ * JSch writes channel data from the thread reading the session's socket. That data goes into a
+ * bounded ring buffer, which a consumer thread drains into the callback. When the callback falls
+ * behind, the buffer fills and the session's reader blocks. The server then stops receiving window
+ * adjustments and stops sending. Memory use is capped at the size of the buffer however fast the
+ * command produces output. Because this pauses the whole session, every stream runs on its own
+ * session rather than a pooled one.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class RemoteStream {
+
+    /**
+     * The maximum time to wait for the exit status once all output is delivered, in milliseconds.
+     */
+    private static final int EXIT_STATUS_WAIT = 1000;
+
+    /**
+     * The dedicated session the command runs on.
+     */
+    private final Session session;
+
+    /**
+     * The channel the command runs on.
+     */
+    private final ChannelExec channel;
+
+    /**
+     * The buffer between the channel and the callback.
+     */
+    private final ByteRingBuffer buffer;
+
+    /**
+     * Released once the callback has received all output.
+     */
+    private final CountDownLatch finished;
+
+    /**
+     * Released once the channel has closed, which is after its exit status has arrived.
+     */
+    private final CountDownLatch closed;
+
+    /**
+     * The failure which ended the stream, if any.
+     */
+    private volatile Throwable failure;
+
+    /**
+     * Standard constructor for RemoteStream. The stream is not started until <code>start</code> is
+     * called.
+     *
+     * @param session The dedicated session to run the command on. It is disconnected once done.
+     * @param command The command to run.
+     * @param bufferSize The size of the buffer between the channel and the callback, in bytes.
+     * @throws JSchException If the channel could not be opened.
+     */
+    public RemoteStream(@NonNull Session session, @NonNull String command, int bufferSize) throws JSchException {
+        this.session = session;
+        this.channel = (ChannelExec) session.openChannel("exec");
+        this.channel.setCommand(command);
+        this.buffer = new ByteRingBuffer(bufferSize);
+        this.finished = new CountDownLatch(1);
+        this.closed = new CountDownLatch(1);
+    }
+
+    /**
+     * Starts the command and delivers its output to a callback on a thread of the executor.
+     *
+     * @param callback The callback to deliver output to.
+     * @param executorService The executor to run the consumer on.
+     * @param timeout The timeout for connecting the channel, in milliseconds.
+     * @throws JSchException If the channel could not be connected.
+     */
+    public void start(@NonNull final ChunkCallback callback,
+                      @NonNull ExecutorService executorService,
+                      int timeout) throws JSchException {
+        channel.setOutputStream(buffer.asOutputStream(), false);
+        // Standard error is discarded; JSch closes its stream only once the channel closes.
+        channel.setErrStream(new OutputStream() {
+            @Override
+            public void write(int b) {}
+
+            @Override
+            public void write(@NonNull byte[] b, int off, int len) {}
+
+            @Override
+            public void close() {
+                closed.countDown();
+            }
+        }, false);
+        try {
+            channel.connect(timeout);
+        } catch (JSchException e) {
+            session.disconnect();
+            throw e;
+        }
+        executorService.submit(new Runnable() {
+            @Override
+            public void run() {
+                long total = 0;
+                try {
+                    callback.onStart();
+                    int count;
+                    while ((count = buffer.drain(callback)) != -1) {
+                        total += count;
+                        callback.onProgress((int) Math.min(total, Integer.MAX_VALUE));
+                    }
+                    // The exit status may arrive shortly after the end of the output.
+                    closed.await(EXIT_STATUS_WAIT, TimeUnit.MILLISECONDS);
+                    callback.onFinish();
+                } catch (InterruptedException e) {
+                    failure = e;
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    failure = e;
+                } finally {
+                    buffer.abort();
+                    channel.disconnect();
+                    session.disconnect();
+                    finished.countDown();
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops the command. Output not yet delivered is discarded.
+     */
+    public void cancel() {
+        buffer.abort();
+        channel.disconnect();
+    }
+
+    /**
+     * Waits for all output to be delivered.
+     *
+     * @param timeout The maximum time to wait, in milliseconds.
+     * @return exitStatus The exit status of the command, or -1 if it is unknown.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    public int waitFor(long timeout) throws InterruptedException {
+        finished.await(timeout, TimeUnit.MILLISECONDS);
+        return channel.getExitStatus();
+    }
+
+    /**
+     * Checks whether output is still being delivered.
+     *
+     * @return running Whether output is still being delivered.
+     */
+    public boolean isRunning() {
+        return finished.getCount() > 0;
+    }
+
+    /**
+     * Returns the failure which ended the stream, if any.
+     *
+     * @return failure The failure which ended the stream, or null if there was none.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+}
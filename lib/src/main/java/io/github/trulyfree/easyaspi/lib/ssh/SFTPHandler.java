@@ -0,0 +1,782 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.ssh;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+import com.jcraft.jsch.SftpProgressMonitor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.trulyfree.easyaspi.lib.callback.Callback;
+import io.github.trulyfree.easyaspi.lib.callback.EmptyCallback;
+import io.github.trulyfree.easyaspi.lib.dl.VerifyingInputStream;
+import io.github.trulyfree.easyaspi.lib.io.FileHandler;
+import io.github.trulyfree.easyaspi.lib.util.Utils;
+
+/**
+ * Helper class for moving files between the device and a remote host over SFTP. Large files are
+ * split into ranges which are sent over several channels in parallel, each with pipelined writes.
+ * Completed ranges are recorded, so an interrupted transfer of an unchanged file resumes where it
+ * stopped. Every transfer is checked against the SHA-256 digest computed by the remote host.
+ *
+ * The methods of this class mirror the read and write methods of FileHandler: <code>write</code>
+ * methods push to the remote host, and <code>read</code> methods pull from it.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class SFTPHandler {
+
+    /**
+     * The size of the ranges files are split into.
+     */
+    private static final long CHUNK_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The maximum number of ranges transferred at once.
+     */
+    private static final int PARALLELISM = 4;
+
+    /**
+     * The read/write buffer size.
+     */
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    /**
+     * Timeout for connecting channels, in milliseconds.
+     */
+    private static final int TIMEOUT = 5000;
+
+    /**
+     * The SSH handler whose sessions this handler uses.
+     */
+    private final SSHHandler sshHandler;
+
+    /**
+     * Standard constructor for SFTPHandler.
+     *
+     * @param sshHandler The SSH handler whose sessions this handler uses.
+     */
+    public SFTPHandler(@NonNull SSHHandler sshHandler) {
+        this.sshHandler = sshHandler;
+    }
+
+    /**
+     * Writes a file at the specified path to a remote host.
+     *
+     * @param callback Callback instance for progress updates on the write operation.
+     * @param host The host to write to.
+     * @param remotePath The path of the file on the remote host.
+     * @param appdir The application subdirectory in which to locate the source file.
+     * @param path The subdirectories beneath the appdir, ending with the source file.
+     * @throws IOException If the transfer or its verification fails.
+     */
+    public void writeFile(@Nullable Callback callback,
+                          @NonNull SSHHost host,
+                          @NonNull String remotePath,
+                          @NonNull String appdir,
+                          @NonNull String... path) throws IOException {
+        File source = getFileHandler().generateFile(appdir, path);
+        if (source == null) {
+            return;
+        }
+        writeFile(source, callback, host, remotePath);
+    }
+
+    /**
+     * Writes a specified file to a remote host.
+     *
+     * @param source The file to write.
+     * @param callback Callback instance for progress updates on the write operation.
+     * @param remote The host to write to. Compression is chosen for the file by the policy of
+     *               the SSH handler.
+     * @param remotePath The path of the file on the remote host.
+     * @throws IOException If the transfer or its verification fails.
+     */
+    public void writeFile(@NonNull final File source,
+                          @Nullable Callback callback,
+                          @NonNull SSHHost remote,
+                          @NonNull final String remotePath) throws IOException {
+        if (callback == null) {
+            callback = EmptyCallback.EMPTY;
+        }
+
+        CompressionPolicy policy = sshHandler.getCompressionPolicy();
+        double ratio = policy.estimateRatio(source);
+        final SSHHost host = policy.select(remote, ratio);
+        final long length = source.length();
+        final TransferState state = TransferState.open(stateFile("put", host, remotePath, source),
+                length, source.lastModified(), CHUNK_SIZE);
+
+        callback.onStart();
+
+        Future<String> localDigest = getActivityExecutor().submit(new Callable<String>() {
+            @Override
+            public String call() throws IOException {
+                return VerifyingInputStream.digest(source);
+            }
+        });
+
+        long started = System.nanoTime();
+        long pending = state.pendingBytes();
+        try {
+            if (state.isFresh()) {
+                ChannelSftp sftp = openSftp(host);
+                try {
+                    sftp.put(remotePath, (SftpProgressMonitor) null, ChannelSftp.OVERWRITE).close();
+                } finally {
+                    sshHandler.releaseChannel(sftp);
+                }
+            }
+
+            final Progress progress = new Progress(callback, length, length - state.pendingBytes());
+            List<Range> ranges = state.pendingRanges();
+            for (int wave = 0; wave < ranges.size(); wave += PARALLELISM) {
+                List<Range> batch = ranges.subList(wave, Math.min(wave + PARALLELISM, ranges.size()));
+                // Writers are opened one after another before any of them writes, so the size
+                // each one is positioned against cannot change under it.
+                boolean opened = false;
+                try {
+                    for (Range range : batch) {
+                        range.sftp = openSftp(host);
+                        long size = range.sftp.stat(remotePath).getSize();
+                        range.output = range.sftp.put(remotePath, (SftpProgressMonitor) null,
+                                ChannelSftp.RESUME, range.start - size);
+                    }
+                    opened = true;
+                } finally {
+                    if (!opened) {
+                        closeAll(batch);
+                    }
+                }
+
+                runAll(batch, new RangeTask() {
+                    @Override
+                    public void transfer(Range range) throws IOException {
+                        RandomAccessFile input = new RandomAccessFile(source, "r");
+                        try {
+                            input.seek(range.start);
+                            byte[] data = new byte[BUFFER_SIZE];
+                            long remaining = range.length;
+                            while (remaining > 0) {
+                                int count = input.read(data, 0, (int) Math.min(data.length, remaining));
+                                if (count == -1) {
+                                    throw new IOException(source + " changed during transfer.");
+                                }
+                                range.output.write(data, 0, count);
+                                remaining -= count;
+                                progress.add(count);
+                            }
+                            range.output.close();
+                        } finally {
+                            input.close();
+                        }
+                        state.complete(range);
+                    }
+                });
+            }
+
+            policy.recordTransfer(host, pending, System.nanoTime() - started, ratio);
+            verify(host, remotePath, get(localDigest), state);
+        } catch (JSchException e) {
+            throw new IOException(e);
+        } catch (SftpException e) {
+            throw new IOException(e);
+        }
+
+        callback.onFinish();
+    }
+
+    /**
+     * Reads a file from a remote host and writes it to a file at the specified path.
+     *
+     * @param callback Callback instance for progress updates on the read operation.
+     * @param host The host to read from.
+     * @param remotePath The path of the file on the remote host.
+     * @param appdir The application subdirectory in which to place the target file.
+     * @param path The subdirectories beneath the appdir, ending with the target file.
+     * @throws IOException If the transfer or its verification fails.
+     */
+    public void readFile(@Nullable Callback callback,
+                         @NonNull SSHHost host,
+                         @NonNull String remotePath,
+                         @NonNull String appdir,
+                         @NonNull String... path) throws IOException {
+        File target = getFileHandler().generateFile(appdir, path);
+        if (target == null) {
+            return;
+        }
+        readFile(target, callback, host, remotePath);
+    }
+
+    /**
+     * Reads a file from a remote host and writes it to a specified file. The file is assembled
+     * next to the target and only replaces it once verified.
+     *
+     * @param target The file to write to.
+     * @param callback Callback instance for progress updates on the read operation.
+     * @param remote The host to read from. Compression is chosen from the name of the remote file
+     *               by the policy of the SSH handler.
+     * @param remotePath The path of the file on the remote host.
+     * @throws IOException If the transfer or its verification fails.
+     */
+    public void readFile(@NonNull File target,
+                         @Nullable Callback callback,
+                         @NonNull SSHHost remote,
+                         @NonNull final String remotePath) throws IOException {
+        if (callback == null) {
+            callback = EmptyCallback.EMPTY;
+        }
+
+        CompressionPolicy policy = sshHandler.getCompressionPolicy();
+        double ratio = policy.estimateRatio(remotePath);
+        final SSHHost host = policy.select(remote, ratio);
+
+        target.getParentFile().mkdirs();
+        final File partial = new File(target.getParentFile(), target.getName() + ".part");
+
+        try {
+            ChannelSftp sftp = openSftp(host);
+            SftpATTRS attributes;
+            try {
+                attributes = sftp.stat(remotePath);
+            } finally {
+                sshHandler.releaseChannel(sftp);
+            }
+            long length = attributes.getSize();
+            long modified = attributes.getMTime();
+
+            final TransferState state = TransferState.open(stateFile("get", host, remotePath, target),
+                    length, modified, CHUNK_SIZE);
+            if (state.isFresh() || !partial.exists()) {
+                state.reset();
+                RandomAccessFile output = new RandomAccessFile(partial, "rw");
+                try {
+                    output.setLength(length);
+                } finally {
+                    output.close();
+                }
+            }
+
+            callback.onStart();
+
+            long started = System.nanoTime();
+            long pending = state.pendingBytes();
+            final Progress progress = new Progress(callback, length, length - pending);
+            runAll(state.pendingRanges(), new RangeTask() {
+                @Override
+                public void transfer(Range range) throws IOException, JSchException, SftpException {
+                    ChannelSftp sftp = openSftp(host);
+                    RandomAccessFile output = new RandomAccessFile(partial, "rw");
+                    try {
+                        InputStream input = sftp.get(remotePath, null, range.start);
+                        output.seek(range.start);
+                        byte[] data = new byte[BUFFER_SIZE];
+                        long remaining = range.length;
+                        while (remaining > 0) {
+                            int count = input.read(data, 0, (int) Math.min(data.length, remaining));
+                            if (count == -1) {
+                                throw new IOException(remotePath + " changed during transfer.");
+                            }
+                            output.write(data, 0, count);
+                            remaining -= count;
+                            progress.add(count);
+                        }
+                        input.close();
+                    } finally {
+                        output.close();
+                        sshHandler.releaseChannel(sftp);
+                    }
+                    state.complete(range);
+                }
+            });
+
+            policy.recordTransfer(host, pending, System.nanoTime() - started, ratio);
+            verify(host, remotePath, VerifyingInputStream.digest(partial), state);
+        } catch (JSchException e) {
+            throw new IOException(e);
+        } catch (SftpException e) {
+            throw new IOException(e);
+        }
+
+        if (target.exists() && !target.delete()) {
+            throw new IOException("Failed to replace " + target.getAbsolutePath());
+        }
+        if (!partial.renameTo(target)) {
+            throw new IOException("Failed to replace " + target.getAbsolutePath());
+        }
+
+        callback.onFinish();
+    }
+
+    /**
+     * Compares the digest of a transferred file with the one computed by the remote host. The
+     * transfer state is discarded either way, so a corrupt transfer is restarted from scratch.
+     *
+     * @param host The remote host.
+     * @param remotePath The path of the file on the remote host.
+     * @param localDigest The SHA-256 digest of the local file.
+     * @param state The state of the transfer.
+     * @throws IOException If the digests differ or the remote digest could not be computed.
+     * @throws JSchException If the remote command could not be run.
+     */
+    private void verify(SSHHost host, String remotePath, String localDigest, TransferState state)
+            throws IOException, JSchException {
+        state.discard();
+        CommandResult result = sshHandler.execForResult(host, "sha256sum " + SSHHandler.quote(remotePath));
+        if (!result.isSuccess()) {
+            throw new IOException("Failed to verify " + remotePath + ": " + result.getError());
+        }
+        String remoteDigest = result.getOutput().trim().split("\\s+")[0];
+        if (!remoteDigest.equalsIgnoreCase(localDigest)) {
+            throw new IOException("Transfer of " + remotePath + " is corrupt (expected " +
+                    localDigest + ", got " + remoteDigest + ").");
+        }
+    }
+
+    /**
+     * Runs a task over every range, at most <code>PARALLELISM</code> at once.
+     *
+     * @param ranges The ranges to transfer.
+     * @param task The task transferring a single range.
+     * @throws IOException If any range fails.
+     */
+    private void runAll(final List<Range> ranges, final RangeTask task) throws IOException {
+        final AtomicInteger next = new AtomicInteger();
+        List<Future<Void>> workers = new ArrayList<Future<Void>>();
+        for (int i = 0; i < Math.min(PARALLELISM, ranges.size()); i++) {
+            workers.add(getActivityExecutor().submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    int index;
+                    while ((index = next.getAndIncrement()) < ranges.size()) {
+                        task.transfer(ranges.get(index));
+                    }
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<Void> worker : workers) {
+                get(worker);
+            }
+        } finally {
+            next.set(ranges.size());
+            closeAll(ranges);
+        }
+    }
+
+    /**
+     * Opens and connects an SFTP channel on a pooled session.
+     *
+     * @param host The host to connect to.
+     * @return sftp The connected SFTP channel.
+     * @throws JSchException If the channel could not be opened.
+     */
+    private ChannelSftp openSftp(SSHHost host) throws JSchException {
+        ChannelSftp sftp = (ChannelSftp) sshHandler.openChannel(host, "sftp");
+        sftp.connect(TIMEOUT);
+        return sftp;
+    }
+
+    /**
+     * Disconnects the channels of every range.
+     *
+     * @param ranges The ranges whose channels to disconnect.
+     */
+    private void closeAll(List<Range> ranges) {
+        for (Range range : ranges) {
+            if (range.sftp != null) {
+                sshHandler.releaseChannel(range.sftp);
+                range.sftp = null;
+            }
+        }
+    }
+
+    /**
+     * Waits for a future, unwrapping the failure it completed with.
+     *
+     * @param future The future to wait for.
+     * @param <T> The type of the result.
+     * @return result The result of the future.
+     * @throws IOException If the future failed or the thread was interrupted.
+     */
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted during transfer.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the file recording the state of a transfer.
+     *
+     * @param direction The direction of the transfer.
+     * @param host The remote host.
+     * @param remotePath The path of the file on the remote host.
+     * @param local The local file.
+     * @return stateFile The file recording the state of the transfer.
+     * @throws IOException If the name of the state file cannot be computed.
+     */
+    private File stateFile(String direction, SSHHost host, String remotePath, File local) throws IOException {
+        String key = direction + '\n' + host + '\n' + remotePath + '\n' + local.getAbsolutePath();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            String name = Utils.toHex(digest.digest(key.getBytes("UTF-8")));
+            return getFileHandler().generateFile("sftp", name + ".state");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Returns the file handler of the owning activity.
+     *
+     * @return fileHandler The file handler of the owning activity.
+     */
+    private FileHandler getFileHandler() {
+        return sshHandler.getActivity().getFileHandler();
+    }
+
+    /**
+     * Returns the executor service of the owning activity.
+     *
+     * @return executorService The executor service of the owning activity.
+     */
+    private ExecutorService getActivityExecutor() {
+        return sshHandler.getActivity().getExecutorService();
+    }
+
+    /**
+     * A task transferring a single range of a file.
+     */
+    private interface RangeTask {
+        /**
+         * Transfers a single range.
+         *
+         * @param range The range to transfer.
+         * @throws Exception If the transfer fails.
+         */
+        void transfer(Range range) throws Exception;
+    }
+
+    /**
+     * A range of a file, along with the channel and stream transferring it.
+     */
+    static class Range {
+
+        /**
+         * The position of the range in the list of ranges.
+         */
+        final int index;
+
+        /**
+         * The offset of the range in the file.
+         */
+        final long start;
+
+        /**
+         * The length of the range.
+         */
+        final long length;
+
+        /**
+         * The channel transferring the range, if any.
+         */
+        ChannelSftp sftp;
+
+        /**
+         * The stream writing the range to the remote host, if any.
+         */
+        OutputStream output;
+
+        /**
+         * Standard constructor for Range.
+         *
+         * @param index The position of the range in the list of ranges.
+         * @param start The offset of the range in the file.
+         * @param length The length of the range.
+         */
+        Range(int index, long start, long length) {
+            this.index = index;
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Aggregates the progress of parallel ranges and reports it as a percentage.
+     */
+    private static class Progress {
+
+        /**
+         * The callback to report to.
+         */
+        private final Callback callback;
+
+        /**
+         * The total number of bytes to transfer.
+         */
+        private final long total;
+
+        /**
+         * The number of bytes transferred so far.
+         */
+        private final AtomicLong current;
+
+        /**
+         * The last percentage reported.
+         */
+        private final AtomicInteger reported;
+
+        /**
+         * Standard constructor for Progress.
+         *
+         * @param callback The callback to report to.
+         * @param total The total number of bytes to transfer.
+         * @param initial The number of bytes already transferred.
+         */
+        private Progress(Callback callback, long total, long initial) {
+            this.callback = callback;
+            this.total = Math.max(total, 1);
+            this.current = new AtomicLong(initial);
+            this.reported = new AtomicInteger(-1);
+        }
+
+        /**
+         * Records transferred bytes, reporting whenever the percentage changes.
+         *
+         * @param count The number of bytes transferred.
+         */
+        private void add(long count) {
+            int percentage = (int) ((100 * current.addAndGet(count)) / total);
+            int last = reported.get();
+            if (percentage != last && reported.compareAndSet(last, percentage)) {
+                callback.onProgress(percentage);
+            }
+        }
+    }
+
+    /**
+     * Records which ranges of a transfer are complete. The state file starts with the length and
+     * modification time of the file and the chunk size, followed by the index of each completed
+     * range on its own line. If the file or chunk size changed since, the transfer starts over.
+     */
+    private static class TransferState {
+
+        /**
+         * The file recording the state.
+         */
+        private final File file;
+
+        /**
+         * The header identifying the version of the file being transferred.
+         */
+        private final String header;
+
+        /**
+         * The length of the file being transferred.
+         */
+        private final long length;
+
+        /**
+         * The size of the ranges the file is split into.
+         */
+        private final long chunkSize;
+
+        /**
+         * Whether each range is complete.
+         */
+        private final boolean[] done;
+
+        /**
+         * Whether no range was complete when the state was opened.
+         */
+        private boolean fresh;
+
+        /**
+         * Standard constructor for TransferState.
+         *
+         * @param file The file recording the state.
+         * @param length The length of the file being transferred.
+         * @param modified The modification time of the file being transferred.
+         * @param chunkSize The size of the ranges the file is split into.
+         */
+        private TransferState(File file, long length, long modified, long chunkSize) {
+            this.file = file;
+            this.header = length + " " + modified + " " + chunkSize;
+            this.length = length;
+            this.chunkSize = chunkSize;
+            this.done = new boolean[(int) ((length + chunkSize - 1) / chunkSize)];
+            this.fresh = true;
+        }
+
+        /**
+         * Opens the state of a transfer, restoring completed ranges if the file is unchanged.
+         *
+         * @param file The file recording the state.
+         * @param length The length of the file being transferred.
+         * @param modified The modification time of the file being transferred.
+         * @param chunkSize The size of the ranges the file is split into.
+         * @return state The state of the transfer.
+         * @throws IOException If the state could not be written.
+         */
+        private static TransferState open(File file, long length, long modified, long chunkSize)
+                throws IOException {
+            TransferState state = new TransferState(file, length, modified, chunkSize);
+            if (file.exists()) {
+                BufferedReader reader = new BufferedReader(new FileReader(file));
+                try {
+                    if (state.header.equals(reader.readLine())) {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            try {
+                                int index = Integer.parseInt(line.trim());
+                                if (index >= 0 && index < state.done.length) {
+                                    state.done[index] = true;
+                                    state.fresh = false;
+                                }
+                            } catch (NumberFormatException e) {
+                                // A torn final line from an interrupted write; the range is redone.
+                            }
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+            if (state.fresh) {
+                state.reset();
+            }
+            return state;
+        }
+
+        /**
+         * Forgets every completed range.
+         *
+         * @throws IOException If the state could not be written.
+         */
+        private synchronized void reset() throws IOException {
+            Arrays.fill(done, false);
+            fresh = true;
+            FileWriter writer = new FileWriter(file, false);
+            try {
+                writer.write(header + '\n');
+            } finally {
+                writer.close();
+            }
+        }
+
+        /**
+         * Checks whether no range was complete when the state was opened.
+         *
+         * @return fresh Whether the transfer starts from scratch.
+         */
+        private boolean isFresh() {
+            return fresh;
+        }
+
+        /**
+         * Returns the ranges yet to be transferred.
+         *
+         * @return ranges The ranges yet to be transferred.
+         */
+        private synchronized List<Range> pendingRanges() {
+            List<Range> ranges = new ArrayList<Range>();
+            for (int i = 0; i < done.length; i++) {
+                if (!done[i]) {
+                    long start = i * chunkSize;
+                    ranges.add(new Range(i, start, Math.min(chunkSize, length - start)));
+                }
+            }
+            return ranges;
+        }
+
+        /**
+         * Returns the number of bytes yet to be transferred.
+         *
+         * @return pendingBytes The number of bytes yet to be transferred.
+         */
+        private synchronized long pendingBytes() {
+            long pending = 0;
+            for (int i = 0; i < done.length; i++) {
+                if (!done[i]) {
+                    pending += Math.min(chunkSize, length - i * chunkSize);
+                }
+            }
+            return pending;
+        }
+
+        /**
+         * Records a range as complete.
+         *
+         * @param range The completed range.
+         * @throws IOException If the state could not be written.
+         */
+        private synchronized void complete(Range range) throws IOException {
+            done[range.index] = true;
+            FileWriter writer = new FileWriter(file, true);
+            try {
+                writer.write(Integer.toString(range.index) + '\n');
+            } finally {
+                writer.close();
+            }
+        }
+
+        /**
+         * Deletes the state file.
+         */
+        private synchronized void discard() {
+            file.delete();
+        }
+    }
+}
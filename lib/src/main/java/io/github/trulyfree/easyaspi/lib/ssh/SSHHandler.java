@@ -0,0 +1,492 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.ssh;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import io.github.trulyfree.easyaspi.lib.EAPActivity;
+import io.github.trulyfree.easyaspi.lib.callback.Callback;
+import io.github.trulyfree.easyaspi.lib.callback.ChunkCallback;
+import io.github.trulyfree.easyaspi.lib.callback.EmptyCallback;
+import io.github.trulyfree.easyaspi.lib.module.Module;
+
+/**
+ * Helper class for all SSH actions taken by EasyAsPi. Sessions to each host are pooled and kept
+ * alive, so commands issued by modules reuse warm sessions instead of paying for a new key
+ * exchange every time. The pool is process-wide; destroying a handler leaves its sessions warm for
+ * the next activity.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class SSHHandler implements Module {
+
+    /**
+     * Timeout for all connections, in milliseconds.
+     */
+    private static final int TIMEOUT = SessionPool.DEFAULT_CONNECT_TIMEOUT;
+
+    /**
+     * Time after which an idle session is disconnected, in milliseconds.
+     */
+    private static final long IDLE_TIMEOUT = 5 * 60 * 1000;
+
+    /**
+     * The read buffer size.
+     */
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * The size of the buffer between a streamed command and its callback.
+     */
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The activity which owns this SSHHandler.
+     */
+    private final EAPActivity activity;
+
+    /**
+     * The pool of sessions used by this SSHHandler.
+     */
+    private final SessionPool sessionPool;
+
+    /**
+     * Whether this SSHHandler owns its pool, and closes it when destroyed.
+     */
+    private final boolean ownsPool;
+
+    /**
+     * Whether this SSHHandler has been set up and not destroyed since.
+     */
+    private volatile boolean ready;
+
+    /**
+     * The SFTP handler sharing the sessions of this SSHHandler.
+     */
+    private final SFTPHandler sftpHandler;
+
+    /**
+     * The policy deciding which transfers run over compressed sessions.
+     */
+    private final CompressionPolicy compressionPolicy;
+
+    /**
+     * The delta sync sharing the sessions of this SSHHandler.
+     */
+    private final DeltaSync deltaSync;
+
+    /**
+     * Standard constructor for SSHHandler. All SSHHandlers MUST be instantiated with a reference to
+     * an EAPActivity. Sessions are leased from the shared pool.
+     *
+     * @param activity The activity which owns this SSH handler.
+     */
+    public SSHHandler(@NonNull EAPActivity activity) {
+        this(activity, SessionPool.SHARED, false);
+    }
+
+    /**
+     * Constructor for SSHHandlers using a preconfigured JSch instance, such as one trusting the
+     * host key of a local test server. The handler gets a pool of its own, closed when it is
+     * destroyed.
+     *
+     * @param activity The activity which owns this SSH handler.
+     * @param jsch The JSch instance to create sessions from.
+     */
+    public SSHHandler(@NonNull EAPActivity activity, @NonNull JSch jsch) {
+        this(activity, new SessionPool(jsch,
+                SessionPool.DEFAULT_MAX_SESSIONS_PER_HOST,
+                SessionPool.DEFAULT_MAX_CHANNELS_PER_SESSION,
+                SessionPool.DEFAULT_CONNECT_TIMEOUT,
+                SessionPool.DEFAULT_KEEP_ALIVE_INTERVAL), true);
+    }
+
+    /**
+     * Constructor for SSHHandlers leasing from the specified pool.
+     *
+     * @param activity The activity which owns this SSH handler.
+     * @param sessionPool The pool to lease sessions from.
+     * @param ownsPool Whether the pool is closed when this handler is destroyed.
+     */
+    private SSHHandler(@NonNull EAPActivity activity, @NonNull SessionPool sessionPool, boolean ownsPool) {
+        this.activity = activity;
+        this.sessionPool = sessionPool;
+        this.ownsPool = ownsPool;
+        this.compressionPolicy = CompressionPolicy.SHARED;
+        this.sftpHandler = new SFTPHandler(this);
+        this.deltaSync = new DeltaSync(this);
+    }
+
+    /**
+     * Returns a connected, pooled session to the specified host. The session is shared and must
+     * not be disconnected by the caller.
+     *
+     * @param host The host to connect to.
+     * @return session A connected session.
+     * @throws JSchException If no session could be connected.
+     */
+    public Session getSession(@NonNull SSHHost host) throws JSchException {
+        return sessionPool.getSession(host);
+    }
+
+    /**
+     * Opens a channel on a pooled session. The channel is not connected; callers must connect it,
+     * and should disconnect it once done so that its slot is freed.
+     *
+     * @param host The host to open the channel to.
+     * @param type The JSch channel type, such as "exec", "shell" or "sftp".
+     * @return channel The opened channel.
+     * @throws JSchException If the channel could not be opened.
+     */
+    public Channel openChannel(@NonNull SSHHost host, @NonNull String type) throws JSchException {
+        return sessionPool.openChannel(host, type);
+    }
+
+    /**
+     * Opens an exec channel for a command on a pooled session. The channel is not connected.
+     *
+     * @param host The host to run the command on.
+     * @param command The command to run.
+     * @return channel The opened exec channel.
+     * @throws JSchException If the channel could not be opened.
+     */
+    public ChannelExec openExecChannel(@NonNull SSHHost host, @NonNull String command) throws JSchException {
+        ChannelExec channel = (ChannelExec) sessionPool.openChannel(host, "exec");
+        channel.setCommand(command);
+        return channel;
+    }
+
+    /**
+     * Disconnects a channel opened by this handler and returns its slot to the pool, so a caller
+     * waiting for one can proceed.
+     *
+     * @param channel The channel to release.
+     */
+    public void releaseChannel(@NonNull Channel channel) {
+        sessionPool.release(channel);
+    }
+
+    /**
+     * Runs a command and returns its standard output as a String.
+     *
+     * @param callback Callback for progress updates on the command.
+     * @param host The host to run the command on.
+     * @param command The command to run.
+     * @return output The standard output of the command.
+     * @throws JSchException If the channel could not be opened.
+     * @throws IOException If reading the output fails.
+     */
+    public String exec(@Nullable Callback callback,
+                       @NonNull SSHHost host,
+                       @NonNull String command) throws JSchException, IOException {
+        if (callback == null) {
+            callback = EmptyCallback.EMPTY;
+        }
+
+        ChannelExec channel = openExecChannel(host, command);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            InputStream input = channel.getInputStream();
+            channel.connect(TIMEOUT);
+
+            callback.onStart();
+
+            byte data[] = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = input.read(data)) != -1) {
+                output.write(data, 0, count);
+            }
+        } finally {
+            sessionPool.release(channel);
+        }
+
+        callback.onFinish();
+        return new String(output.toByteArray(), "UTF-8");
+    }
+
+    /**
+     * Runs a command and returns its result, including standard error, kept apart from standard
+     * output, and the exit status.
+     *
+     * @param host The host to run the command on.
+     * @param command The command to run.
+     * @return result The result of the command.
+     * @throws JSchException If the channel could not be opened.
+     * @throws IOException If reading the output fails.
+     */
+    public CommandResult execForResult(@NonNull SSHHost host,
+                                       @NonNull String command) throws JSchException, IOException {
+        ChannelExec channel = openExecChannel(host, command);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ErrorCapture error = new ErrorCapture();
+        try {
+            InputStream input = channel.getInputStream();
+            channel.setErrStream(error, false);
+            channel.connect(TIMEOUT);
+
+            byte data[] = new byte[BUFFER_SIZE];
+            int count;
+            while ((count = input.read(data)) != -1) {
+                output.write(data, 0, count);
+            }
+            // The exit status may arrive after the end of the output, but always before the close.
+            error.awaitClose(0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + command);
+        } finally {
+            sessionPool.release(channel);
+        }
+        return new CommandResult(command,
+                channel.getExitStatus(),
+                new String(output.toByteArray(), "UTF-8"),
+                error.toString());
+    }
+
+    /**
+     * Runs many commands concurrently, each on its own exec channel. Channels are multiplexed over
+     * the pooled sessions of the host, so no more than the per-session channel limit run at once on
+     * a single session.
+     *
+     * @param callback Callback for progress updates, by percentage of commands completed.
+     * @param host The host to run the commands on.
+     * @param commands The commands to run.
+     * @return results The results of the commands, in order.
+     * @throws JSchException If a channel could not be opened.
+     * @throws IOException If reading the output of a command fails.
+     */
+    public CommandResult[] execAll(@Nullable Callback callback,
+                                   @NonNull final SSHHost host,
+                                   @NonNull String... commands) throws JSchException, IOException {
+        if (callback == null) {
+            callback = EmptyCallback.EMPTY;
+        }
+
+        callback.onStart();
+
+        final Semaphore permits = new Semaphore(sessionPool.getMaxChannelsPerSession());
+        List<Future<CommandResult>> futures = new ArrayList<Future<CommandResult>>(commands.length);
+        for (final String command : commands) {
+            futures.add(activity.getExecutorService().submit(new Callable<CommandResult>() {
+                @Override
+                public CommandResult call() throws Exception {
+                    permits.acquire();
+                    try {
+                        return execForResult(host, command);
+                    } finally {
+                        permits.release();
+                    }
+                }
+            }));
+        }
+
+        CommandResult[] results = new CommandResult[commands.length];
+        try {
+            for (int i = 0; i < results.length; i++) {
+                results[i] = futures.get(i).get();
+                callback.onProgress((100 * (i + 1)) / results.length);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running commands.");
+        } catch (ExecutionException e) {
+            for (Future<CommandResult> future : futures) {
+                future.cancel(true);
+            }
+            if (e.getCause() instanceof JSchException) {
+                throw (JSchException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+
+        callback.onFinish();
+        return results;
+    }
+
+    /**
+     * Opens a long-lived shell on a pooled session, over which commands may be pipelined.
+     *
+     * @param host The host to open the shell on.
+     * @return shell The opened shell. It must be closed once no longer needed.
+     * @throws JSchException If the channel could not be opened.
+     * @throws IOException If the streams of the channel could not be opened.
+     */
+    public SSHShell openShell(@NonNull SSHHost host) throws JSchException, IOException {
+        return new SSHShell(openExecChannel(host, "sh"), TIMEOUT, sessionPool);
+    }
+
+    /**
+     * Runs a long-running command, such as <code>tail -f</code>, and delivers its output to a
+     * callback as it is produced. The output is passed through a bounded buffer, so memory use is
+     * capped regardless of how fast the command produces output. To receive lines, use a
+     * LineCallback.
+     *
+     * @param callback The callback to deliver output to. It is invoked on the executor service of
+     *                 the activity.
+     * @param host The host to run the command on.
+     * @param command The command to run.
+     * @return stream The running stream, which may be used to cancel the command.
+     * @throws JSchException If the command could not be started.
+     */
+    public RemoteStream stream(@NonNull ChunkCallback callback,
+                               @NonNull SSHHost host,
+                               @NonNull String command) throws JSchException {
+        RemoteStream stream = new RemoteStream(sessionPool.connectDedicated(host), command, STREAM_BUFFER_SIZE);
+        stream.start(callback, activity.getExecutorService(), TIMEOUT);
+        return stream;
+    }
+
+    /**
+     * Synchronizes a local directory to a directory on a remote host. Only the blocks of files
+     * which changed are sent, along with new files; remote files missing locally are deleted.
+     * Requires <code>python3</code> on the remote host.
+     *
+     * @param callback Callback instance for progress updates on the synchronization.
+     * @param host The host to synchronize to.
+     * @param localDir The directory to synchronize.
+     * @param remoteDir The directory on the remote host to synchronize into.
+     * @return result A summary of what was sent.
+     * @throws IOException If the synchronization fails.
+     */
+    public SyncResult sync(@Nullable Callback callback,
+                           @NonNull SSHHost host,
+                           @NonNull File localDir,
+                           @NonNull String remoteDir) throws IOException {
+        return deltaSync.sync(callback, host, localDir, remoteDir, true);
+    }
+
+    /**
+     * Quotes a String for use as a single argument in a POSIX shell command.
+     *
+     * @param argument The argument to quote.
+     * @return quoted The quoted argument.
+     */
+    public static String quote(@NonNull String argument) {
+        return "'" + argument.replace("'", "'\\''") + "'";
+    }
+
+    /**
+     * Disconnects every pooled session to the specified host.
+     *
+     * @param host The host to disconnect from.
+     */
+    public void disconnect(@NonNull SSHHost host) {
+        sessionPool.close(host.withCompression(false));
+        sessionPool.close(host.withCompression(true));
+    }
+
+    @Override
+    public boolean setup() {
+        File knownHosts = activity.getFileHandler().generateFile("ssh", "known_hosts");
+        knownHosts.getParentFile().mkdirs();
+        JSch jsch = sessionPool.getJSch();
+        try {
+            synchronized (jsch) {
+                // The shared pool is set up by every activity; only load the file the first time.
+                if (!knownHosts.getAbsolutePath().equals(jsch.getHostKeyRepository().getKnownHostsRepositoryID())
+                        && (knownHosts.exists() || knownHosts.createNewFile())) {
+                    jsch.setKnownHosts(knownHosts.getAbsolutePath());
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (JSchException e) {
+            e.printStackTrace();
+        }
+        sessionPool.startHealthChecks(IDLE_TIMEOUT);
+        ready = true;
+        return true;
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public boolean destroy() {
+        ready = false;
+        if (ownsPool) {
+            sessionPool.stopHealthChecks();
+            sessionPool.closeAll();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the pool of sessions used by this handler.
+     *
+     * @return sessionPool The pool of sessions used by this handler.
+     */
+    public SessionPool getSessionPool() {
+        return sessionPool;
+    }
+
+    /**
+     * Returns the policy deciding which transfers run over compressed sessions. Its measurements of
+     * link throughput, and the counters of ZlibCompression, show how it decided.
+     *
+     * @return compressionPolicy The compression policy of this handler.
+     */
+    public CompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    /**
+     * Returns the SFTP handler sharing the sessions of this handler.
+     *
+     * @return sftpHandler The SFTP handler sharing the sessions of this handler.
+     */
+    public SFTPHandler getSFTPHandler() {
+        return sftpHandler;
+    }
+
+    /**
+     * Returns the activity which owns this SSHHandler.
+     *
+     * @return activity The activity which owns this SSHHandler.
+     */
+    public EAPActivity getActivity() {
+        return activity;
+    }
+}
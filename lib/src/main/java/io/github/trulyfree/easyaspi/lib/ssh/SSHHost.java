@@ -0,0 +1,237 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.ssh;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Description of an SSH host and the credentials used to log in to it. Hosts are compared by
+ * address, port, username, credentials and compression, so a session is only shared with users
+ * who logged in the same way. Compression is negotiated once per session, so compressed and
+ * uncompressed connections to the same host are pooled separately.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class SSHHost {
+
+    /**
+     * The default SSH port.
+     */
+    public static final int DEFAULT_PORT = 22;
+
+    /**
+     * The hostname or address of this host.
+     */
+    private final String host;
+
+    /**
+     * The port of this host.
+     */
+    private final int port;
+
+    /**
+     * The username to log in with.
+     */
+    private final String username;
+
+    /**
+     * The password to log in with, if any.
+     */
+    private final String password;
+
+    /**
+     * The path of the private key to log in with, if any.
+     */
+    private final String identityFile;
+
+    /**
+     * Whether sessions to this host use zlib compression.
+     */
+    private final boolean compressed;
+
+    /**
+     * Standard constructor for SSHHost.
+     *
+     * @param host The hostname or address of this host.
+     * @param port The port of this host.
+     * @param username The username to log in with.
+     * @param password The password to log in with, if any.
+     * @param identityFile The path of the private key to log in with, if any.
+     */
+    public SSHHost(@NonNull String host,
+                   int port,
+                   @NonNull String username,
+                   @Nullable String password,
+                   @Nullable String identityFile) {
+        this(host, port, username, password, identityFile, false);
+    }
+
+    /**
+     * Constructor for SSHHosts with explicit compression.
+     *
+     * @param host The hostname or address of this host.
+     * @param port The port of this host.
+     * @param username The username to log in with.
+     * @param password The password to log in with, if any.
+     * @param identityFile The path of the private key to log in with, if any.
+     * @param compressed Whether sessions to this host use zlib compression.
+     */
+    public SSHHost(@NonNull String host,
+                   int port,
+                   @NonNull String username,
+                   @Nullable String password,
+                   @Nullable String identityFile,
+                   boolean compressed) {
+        this.host = host;
+        this.port = port;
+        this.username = username;
+        this.password = password;
+        this.identityFile = identityFile;
+        this.compressed = compressed;
+    }
+
+    /**
+     * Constructor for SSHHosts using password authentication on the default port.
+     *
+     * @param host The hostname or address of this host.
+     * @param username The username to log in with.
+     * @param password The password to log in with.
+     */
+    public SSHHost(@NonNull String host, @NonNull String username, @NonNull String password) {
+        this(host, DEFAULT_PORT, username, password, null);
+    }
+
+    /**
+     * Returns the hostname or address of this host.
+     *
+     * @return host The hostname or address of this host.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Returns the port of this host.
+     *
+     * @return port The port of this host.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Returns the username to log in with.
+     *
+     * @return username The username to log in with.
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Returns the password to log in with.
+     *
+     * @return password The password to log in with, or null if there is none.
+     */
+    public String getPassword() {
+        return password;
+    }
+
+    /**
+     * Returns the path of the private key to log in with.
+     *
+     * @return identityFile The path of the private key, or null if there is none.
+     */
+    public String getIdentityFile() {
+        return identityFile;
+    }
+
+    /**
+     * Checks whether sessions to this host use zlib compression.
+     *
+     * @return compressed Whether sessions to this host use zlib compression.
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Returns this host with compression enabled or disabled.
+     *
+     * @param compressed Whether sessions to the host should use zlib compression.
+     * @return host This host, or a copy of it with the requested compression.
+     */
+    public SSHHost withCompression(boolean compressed) {
+        if (compressed == this.compressed) {
+            return this;
+        }
+        return new SSHHost(host, port, username, password, identityFile, compressed);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof SSHHost)) {
+            return false;
+        }
+        SSHHost that = (SSHHost) other;
+        return port == that.port && compressed == that.compressed &&
+                host.equals(that.host) && username.equals(that.username) &&
+                equal(password, that.password) && equal(identityFile, that.identityFile);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 31 * (31 * host.hashCode() + port) + username.hashCode();
+        hash = 31 * (31 * hash + hashOf(password)) + hashOf(identityFile);
+        return 2 * hash + (compressed ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return username + "@" + host + ":" + port;
+    }
+
+    /**
+     * Compares two Strings which may be null.
+     *
+     * @param first The first String.
+     * @param second The second String.
+     * @return equal Whether both are null or equal.
+     */
+    private static boolean equal(@Nullable String first, @Nullable String second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    /**
+     * Returns the hash code of a String which may be null.
+     *
+     * @param value The String.
+     * @return hash The hash code of the String, or 0 if it is null.
+     */
+    private static int hashOf(@Nullable String value) {
+        return value == null ? 0 : value.hashCode();
+    }
+}
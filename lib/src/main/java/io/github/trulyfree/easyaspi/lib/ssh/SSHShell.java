@@ -0,0 +1,291 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.ssh;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.jcraft.jsch.ChannelExec;
+import com.jcraft.jsch.JSchException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * A long-lived remote shell which runs many commands over a single channel. Every command is
+ * followed by a marker line carrying its exit status, so the output of consecutive commands can be
+ * told apart. Batches of commands are written to the shell at once and their results read back in
+ * order, so a batch costs a single round-trip instead of one channel per command. The batch is
+ * written from its own thread while results are read, so a batch whose output outgrows the channel
+ * window cannot stall the shell.
+ *
+ * Commands are run with standard input closed. Standard error is captured apart from standard
+ * output, and split between commands by a marker line of its own. Commands which exit the shell
+ * will close it.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class SSHShell {
+
+    /**
+     * The channel the shell runs on.
+     */
+    private final ChannelExec channel;
+
+    /**
+     * The pool the channel was opened through, or null if it was not.
+     */
+    private final SessionPool pool;
+
+    /**
+     * The standard input of the shell.
+     */
+    private final OutputStream input;
+
+    /**
+     * The standard output of the shell.
+     */
+    private final InputStream output;
+
+    /**
+     * The standard error of the shell.
+     */
+    private final ErrorCapture error;
+
+    /**
+     * The marker which starts the line following the output of every command.
+     */
+    private final byte[] marker;
+
+    /**
+     * The line following the standard error of every command, including its leading newline.
+     */
+    private final byte[] errorMarker;
+
+    /**
+     * Standard constructor for SSHShell. The channel must be running <code>sh</code> (or another
+     * POSIX shell) and must not be connected yet.
+     *
+     * @param channel The channel to run the shell on.
+     * @param timeout The timeout for connecting the channel, in milliseconds.
+     * @throws JSchException If the channel could not be connected.
+     * @throws IOException If the streams of the channel could not be opened.
+     */
+    public SSHShell(@NonNull ChannelExec channel, int timeout) throws JSchException, IOException {
+        this(channel, timeout, null);
+    }
+
+    /**
+     * Constructor for SSHShells on a channel opened through a pool, to which the channel is
+     * released on close.
+     *
+     * @param channel The channel to run the shell on.
+     * @param timeout The timeout for connecting the channel, in milliseconds.
+     * @param pool The pool the channel was opened through, or null if it was not.
+     * @throws JSchException If the channel could not be connected.
+     * @throws IOException If the streams of the channel could not be opened.
+     */
+    SSHShell(@NonNull ChannelExec channel, int timeout, @Nullable SessionPool pool) throws JSchException, IOException {
+        this.channel = channel;
+        this.pool = pool;
+        this.marker = ("__EAP_" + UUID.randomUUID().toString().replace("-", "") + "__").getBytes("UTF-8");
+        this.errorMarker = ("\n" + new String(marker, "UTF-8") + "\n").getBytes("UTF-8");
+        this.output = new BufferedInputStream(channel.getInputStream());
+        this.input = channel.getOutputStream();
+        this.error = new ErrorCapture();
+        channel.setErrStream(error, false);
+        channel.connect(timeout);
+    }
+
+    /**
+     * Runs a single command.
+     *
+     * @param command The command to run.
+     * @return result The result of the command.
+     * @throws IOException If the shell was closed or communication failed.
+     */
+    public CommandResult exec(@NonNull String command) throws IOException {
+        return execBatch(command)[0];
+    }
+
+    /**
+     * Runs a batch of commands, in order. Every command is sent before any result is needed, and
+     * results are read while the batch is still being sent.
+     *
+     * @param commands The commands to run.
+     * @return results The results of the commands, in order.
+     * @throws IOException If the shell was closed or communication failed.
+     */
+    public synchronized CommandResult[] execBatch(@NonNull String... commands) throws IOException {
+        String markerString = new String(marker, "UTF-8");
+        StringBuilder script = new StringBuilder();
+        for (String command : commands) {
+            script.append("{ ");
+            script.append(command);
+            script.append("\n} </dev/null; printf '\\n%s %d\\n' '");
+            script.append(markerString);
+            script.append("' $?; printf '\\n%s\\n' '");
+            script.append(markerString);
+            script.append("' >&2\n");
+        }
+        BatchWriter writer = new BatchWriter(script.toString().getBytes("UTF-8"));
+        Thread writerThread = new Thread(writer, "SSHShell writer");
+        writerThread.start();
+
+        CommandResult[] results = new CommandResult[commands.length];
+        try {
+            for (int i = 0; i < commands.length; i++) {
+                results[i] = readResult(commands[i]);
+            }
+            writerThread.join();
+            // Standard error is split only once all output is read, as waiting for it sooner could
+            // leave the session blocked on output nobody reads.
+            for (int i = 0; i < commands.length; i++) {
+                results[i] = new CommandResult(commands[i],
+                        results[i].getExitStatus(),
+                        results[i].getOutput(),
+                        error.takeUntil(errorMarker));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            channel.disconnect();
+            throw new IOException("Interrupted while running a batch.");
+        } catch (IOException e) {
+            if (writer.failure != null) {
+                throw writer.failure;
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    /**
+     * Reads the output of a command up to and including its marker line.
+     *
+     * @param command The command whose output is read.
+     * @return result The result of the command, without its standard error.
+     * @throws IOException If the shell was closed or communication failed.
+     */
+    private CommandResult readResult(String command) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int current;
+        while ((current = output.read()) != -1) {
+            line.write(current);
+            if (current != '\n') {
+                continue;
+            }
+            byte[] bytes = line.toByteArray();
+            line.reset();
+            if (startsWithMarker(bytes)) {
+                String status = new String(bytes, marker.length, bytes.length - marker.length, "UTF-8").trim();
+                byte[] content = result.toByteArray();
+                // The newline printed before the marker is not part of the command's output.
+                return new CommandResult(command,
+                        Integer.parseInt(status),
+                        new String(content, 0, Math.max(content.length - 1, 0), "UTF-8"));
+            }
+            result.write(bytes);
+        }
+        throw new EOFException("Shell closed while running: " + command);
+    }
+
+    /**
+     * Checks whether a line starts with the marker of this shell.
+     *
+     * @param line The line to check.
+     * @return marked Whether the line starts with the marker.
+     */
+    private boolean startsWithMarker(byte[] line) {
+        if (line.length <= marker.length) {
+            return false;
+        }
+        for (int i = 0; i < marker.length; i++) {
+            if (line[i] != marker[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the shell is still running.
+     *
+     * @return open Whether the shell is still running.
+     */
+    public boolean isOpen() {
+        return channel.isConnected() && !channel.isClosed();
+    }
+
+    /**
+     * Closes the shell and its channel.
+     */
+    public void close() {
+        if (pool != null) {
+            pool.release(channel);
+        } else {
+            channel.disconnect();
+        }
+    }
+
+    /**
+     * Writes a batch to the shell. If writing fails the channel is closed, so the reader sees the
+     * end of the output instead of waiting for results which will never come.
+     */
+    private class BatchWriter implements Runnable {
+
+        /**
+         * The batch to write.
+         */
+        private final byte[] script;
+
+        /**
+         * The failure which stopped the write, if any.
+         */
+        private volatile IOException failure;
+
+        /**
+         * Standard constructor for BatchWriter.
+         *
+         * @param script The batch to write.
+         */
+        private BatchWriter(byte[] script) {
+            this.script = script;
+        }
+
+        @Override
+        public void run() {
+            try {
+                input.write(script);
+                input.flush();
+            } catch (IOException e) {
+                failure = e;
+                channel.disconnect();
+            }
+        }
+    }
+}
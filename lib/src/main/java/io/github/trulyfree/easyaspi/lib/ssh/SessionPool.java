@@ -0,0 +1,584 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.ssh;
+
+import android.support.annotation.NonNull;
+
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of authenticated JSch sessions, grouped by host. Channels are opened on the least loaded
+ * session of a host, and a new session is only connected once every existing one has reached its
+ * channel limit. Once the host limit is reached too, openers wait for a channel to be released.
+ * Every SSHHandler of the process leases from {@link #SHARED}, so warm sessions survive between
+ * launches of EAPDisplay.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class SessionPool {
+
+    /**
+     * The default maximum number of sessions connected to a single host.
+     */
+    public static final int DEFAULT_MAX_SESSIONS_PER_HOST = 2;
+
+    /**
+     * The default maximum number of open channels on a single session. OpenSSH allows 10 by default.
+     */
+    public static final int DEFAULT_MAX_CHANNELS_PER_SESSION = 8;
+
+    /**
+     * The default timeout for connecting sessions and channels, in milliseconds.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+
+    /**
+     * The default interval between keep-alive messages and health checks, in milliseconds.
+     */
+    public static final int DEFAULT_KEEP_ALIVE_INTERVAL = 15000;
+
+    /**
+     * The global instance for SessionPool.
+     */
+    public static final SessionPool SHARED = new SessionPool(new JSch(),
+            DEFAULT_MAX_SESSIONS_PER_HOST,
+            DEFAULT_MAX_CHANNELS_PER_SESSION,
+            DEFAULT_CONNECT_TIMEOUT,
+            DEFAULT_KEEP_ALIVE_INTERVAL);
+
+    /**
+     * The JSch instance sessions are created from.
+     */
+    private final JSch jsch;
+
+    /**
+     * The maximum number of sessions connected to a single host.
+     */
+    private final int maxSessionsPerHost;
+
+    /**
+     * The maximum number of open channels on a single session.
+     */
+    private final int maxChannelsPerSession;
+
+    /**
+     * The timeout for connecting sessions and channels, in milliseconds.
+     */
+    private final int connectTimeout;
+
+    /**
+     * The interval between keep-alive messages, in milliseconds.
+     */
+    private final int keepAliveInterval;
+
+    /**
+     * Pooled sessions by host.
+     */
+    private final Map<SSHHost, List<PooledSession>> sessions;
+
+    /**
+     * The number of sessions being connected by host. These count towards the host's limit.
+     */
+    private final Map<SSHHost, Integer> connecting;
+
+    /**
+     * Identity files already added to the JSch instance.
+     */
+    private final Set<String> identities;
+
+    /**
+     * The scheduler running the health checks of this pool, or null if they were not started.
+     */
+    private ScheduledExecutorService healthChecks;
+
+    /**
+     * Standard constructor for SessionPool.
+     *
+     * @param jsch The JSch instance sessions are created from.
+     * @param maxSessionsPerHost The maximum number of sessions connected to a single host.
+     * @param maxChannelsPerSession The maximum number of open channels on a single session.
+     * @param connectTimeout The timeout for connecting sessions and channels, in milliseconds.
+     * @param keepAliveInterval The interval between keep-alive messages, in milliseconds.
+     */
+    public SessionPool(@NonNull JSch jsch,
+                       int maxSessionsPerHost,
+                       int maxChannelsPerSession,
+                       int connectTimeout,
+                       int keepAliveInterval) {
+        this.jsch = jsch;
+        this.maxSessionsPerHost = maxSessionsPerHost;
+        this.maxChannelsPerSession = maxChannelsPerSession;
+        this.connectTimeout = connectTimeout;
+        this.keepAliveInterval = keepAliveInterval;
+        this.sessions = new HashMap<SSHHost, List<PooledSession>>();
+        this.connecting = new HashMap<SSHHost, Integer>();
+        this.identities = new HashSet<String>();
+    }
+
+    /**
+     * Opens a channel of the specified type on a pooled session. The channel is not connected.
+     *
+     * @param host The host to open the channel to.
+     * @param type The JSch channel type, such as "exec", "shell" or "sftp".
+     * @return channel The opened channel.
+     * @throws JSchException If no session could be connected or the channel could not be opened.
+     */
+    public Channel openChannel(@NonNull SSHHost host, @NonNull String type) throws JSchException {
+        PooledSession pooled = lease(host);
+        Channel channel;
+        try {
+            channel = pooled.session.openChannel(type);
+        } catch (JSchException e) {
+            synchronized (this) {
+                pooled.reserved--;
+                notifyAll();
+            }
+            if (!pooled.session.isConnected()) {
+                discard(host, pooled);
+            }
+            throw e;
+        }
+        synchronized (this) {
+            pooled.reserved--;
+            pooled.channels.put(channel, System.currentTimeMillis());
+        }
+        return channel;
+    }
+
+    /**
+     * Returns a connected session to the specified host. The session is shared with other users of
+     * the pool and must not be disconnected by the caller.
+     *
+     * @param host The host to connect to.
+     * @return session A connected session.
+     * @throws JSchException If no session could be connected.
+     */
+    public Session getSession(@NonNull SSHHost host) throws JSchException {
+        PooledSession pooled = lease(host);
+        synchronized (this) {
+            pooled.reserved--;
+            notifyAll();
+        }
+        return pooled.session;
+    }
+
+    /**
+     * Disconnects a channel opened through the pool and frees its slot, waking an opener waiting
+     * for one. Channels disconnected otherwise are only noticed when the pool next prunes them.
+     *
+     * @param channel The channel to release.
+     */
+    public void release(@NonNull Channel channel) {
+        channel.disconnect();
+        synchronized (this) {
+            for (List<PooledSession> hostSessions : sessions.values()) {
+                for (PooledSession pooled : hostSessions) {
+                    if (pooled.channels.remove(channel) != null) {
+                        notifyAll();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reserves a channel slot on the least loaded session of a host, connecting a new session if
+     * every session is full and the host limit has not been reached. Sessions still connecting
+     * count towards the limit. Once it is reached, this waits for a session to connect or for a
+     * channel to be released.
+     *
+     * @param host The host to reserve a slot on.
+     * @return session The session holding the reserved slot.
+     * @throws JSchException If a new session was needed and could not be connected, or the wait
+     *                       was interrupted.
+     */
+    private PooledSession lease(SSHHost host) throws JSchException {
+        synchronized (this) {
+            while (true) {
+                List<PooledSession> hostSessions = sessionsOf(host);
+                PooledSession best = null;
+                for (Iterator<PooledSession> iterator = hostSessions.iterator(); iterator.hasNext(); ) {
+                    PooledSession pooled = iterator.next();
+                    if (!pooled.session.isConnected()) {
+                        iterator.remove();
+                        continue;
+                    }
+                    pooled.prune(connectTimeout);
+                    if (best == null || pooled.load() < best.load()) {
+                        best = pooled;
+                    }
+                }
+                int pending = pendingOf(host);
+                boolean full = hostSessions.size() + pending >= maxSessionsPerHost;
+                if (best != null && best.load() < maxChannelsPerSession) {
+                    best.reserved++;
+                    best.lastUsed = System.currentTimeMillis();
+                    return best;
+                }
+                if (!full) {
+                    connecting.put(host, pending + 1);
+                    break;
+                }
+                // Every session is at its channel limit. The wait is bounded, as channels closed
+                // without being released, such as by the server, are only seen when pruned.
+                try {
+                    wait(connectTimeout);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new JSchException("Interrupted while waiting for a session to " + host.getHost(), e);
+                }
+            }
+        }
+        PooledSession created = null;
+        try {
+            created = new PooledSession(connect(host));
+        } finally {
+            synchronized (this) {
+                int pending = pendingOf(host) - 1;
+                if (pending == 0) {
+                    connecting.remove(host);
+                } else {
+                    connecting.put(host, pending);
+                }
+                if (created != null) {
+                    created.reserved++;
+                    sessionsOf(host).add(created);
+                }
+                notifyAll();
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Connects a new session to the specified host which is not shared through the pool. The
+     * caller owns the session and must disconnect it.
+     *
+     * @param host The host to connect to.
+     * @return session The connected session.
+     * @throws JSchException If the session could not be connected.
+     */
+    public Session connectDedicated(@NonNull SSHHost host) throws JSchException {
+        return connect(host);
+    }
+
+    /**
+     * Connects a new session to the specified host.
+     *
+     * @param host The host to connect to.
+     * @return session The connected session.
+     * @throws JSchException If the session could not be connected.
+     */
+    protected Session connect(@NonNull SSHHost host) throws JSchException {
+        if (host.getIdentityFile() != null) {
+            synchronized (identities) {
+                if (identities.add(host.getIdentityFile())) {
+                    jsch.addIdentity(host.getIdentityFile());
+                }
+            }
+        }
+        Session session = jsch.getSession(host.getUsername(), host.getHost(), host.getPort());
+        if (host.getPassword() != null) {
+            session.setPassword(host.getPassword());
+        }
+        // New hosts are trusted on first use; a host presenting a different key is refused.
+        session.setHostKeyRepository(new TrustOnFirstUseRepository(jsch.getHostKeyRepository()));
+        session.setConfig("StrictHostKeyChecking", "yes");
+        if (host.isCompressed()) {
+            session.setConfig("compression.s2c", "zlib@openssh.com,zlib,none");
+            session.setConfig("compression.c2s", "zlib@openssh.com,zlib,none");
+            session.setConfig("zlib", ZlibCompression.class.getName());
+            session.setConfig("zlib@openssh.com", ZlibCompression.class.getName());
+            session.setConfig("compression_level", Integer.toString(CompressionPolicy.COMPRESSION_LEVEL));
+        }
+        session.setServerAliveInterval(keepAliveInterval);
+        session.connect(connectTimeout);
+        return session;
+    }
+
+    /**
+     * Checks the health of every pooled session. Disconnected sessions are dropped, sessions idle
+     * for longer than the specified timeout are disconnected, and the rest are sent a keep-alive.
+     *
+     * @param idleTimeout The time after which an idle session is disconnected, in milliseconds.
+     */
+    public void checkHealth(long idleTimeout) {
+        List<PooledSession> toProbe = new ArrayList<PooledSession>();
+        List<PooledSession> toClose = new ArrayList<PooledSession>();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            for (Iterator<List<PooledSession>> hosts = sessions.values().iterator(); hosts.hasNext(); ) {
+                List<PooledSession> hostSessions = hosts.next();
+                for (Iterator<PooledSession> iterator = hostSessions.iterator(); iterator.hasNext(); ) {
+                    PooledSession pooled = iterator.next();
+                    pooled.prune(connectTimeout);
+                    if (!pooled.session.isConnected()) {
+                        iterator.remove();
+                    } else if (pooled.load() == 0 && now - pooled.lastUsed > idleTimeout) {
+                        iterator.remove();
+                        toClose.add(pooled);
+                    } else {
+                        toProbe.add(pooled);
+                    }
+                }
+                if (hostSessions.isEmpty()) {
+                    hosts.remove();
+                }
+            }
+            // Pruning may have freed slots.
+            notifyAll();
+        }
+        for (PooledSession pooled : toClose) {
+            pooled.session.disconnect();
+        }
+        for (PooledSession pooled : toProbe) {
+            try {
+                pooled.session.sendKeepAliveMsg();
+            } catch (Exception e) {
+                pooled.session.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Starts checking the health of this pool at the keep-alive interval, on a daemon thread. Does
+     * nothing if the checks are already running.
+     *
+     * @param idleTimeout The time after which an idle session is disconnected, in milliseconds.
+     */
+    public synchronized void startHealthChecks(final long idleTimeout) {
+        if (healthChecks != null || keepAliveInterval <= 0) {
+            return;
+        }
+        healthChecks = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "EAP-SSH-health");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        healthChecks.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkHealth(idleTimeout);
+            }
+        }, keepAliveInterval, keepAliveInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the health checks started by {@link #startHealthChecks(long)}.
+     */
+    public synchronized void stopHealthChecks() {
+        if (healthChecks != null) {
+            healthChecks.shutdownNow();
+            healthChecks = null;
+        }
+    }
+
+    /**
+     * Disconnects and forgets every session to the specified host.
+     *
+     * @param host The host to disconnect from.
+     */
+    public void close(@NonNull SSHHost host) {
+        List<PooledSession> removed;
+        synchronized (this) {
+            removed = sessions.remove(host);
+            notifyAll();
+        }
+        if (removed != null) {
+            for (PooledSession pooled : removed) {
+                pooled.session.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Disconnects and forgets every pooled session.
+     */
+    public void closeAll() {
+        List<PooledSession> removed = new ArrayList<PooledSession>();
+        synchronized (this) {
+            for (List<PooledSession> hostSessions : sessions.values()) {
+                removed.addAll(hostSessions);
+            }
+            sessions.clear();
+            notifyAll();
+        }
+        for (PooledSession pooled : removed) {
+            pooled.session.disconnect();
+        }
+    }
+
+    /**
+     * Returns the number of sessions currently pooled for a host.
+     *
+     * @param host The host to count sessions of.
+     * @return count The number of sessions pooled for the host.
+     */
+    public synchronized int getSessionCount(@NonNull SSHHost host) {
+        List<PooledSession> hostSessions = sessions.get(host);
+        return hostSessions == null ? 0 : hostSessions.size();
+    }
+
+    /**
+     * Returns the maximum number of open channels on a single session.
+     *
+     * @return maxChannelsPerSession The maximum number of open channels on a single session.
+     */
+    public int getMaxChannelsPerSession() {
+        return maxChannelsPerSession;
+    }
+
+    /**
+     * Returns the JSch instance sessions are created from.
+     *
+     * @return jsch The JSch instance sessions are created from.
+     */
+    public JSch getJSch() {
+        return jsch;
+    }
+
+    /**
+     * Drops a session from the pool and disconnects it.
+     *
+     * @param host The host of the session.
+     * @param pooled The session to drop.
+     */
+    private void discard(SSHHost host, PooledSession pooled) {
+        synchronized (this) {
+            List<PooledSession> hostSessions = sessions.get(host);
+            if (hostSessions != null) {
+                hostSessions.remove(pooled);
+            }
+            notifyAll();
+        }
+        pooled.session.disconnect();
+    }
+
+    /**
+     * Returns the number of sessions being connected to a host. Must hold the pool's lock.
+     *
+     * @param host The host.
+     * @return pending The number of sessions being connected to the host.
+     */
+    private int pendingOf(SSHHost host) {
+        Integer pending = connecting.get(host);
+        return pending == null ? 0 : pending;
+    }
+
+    /**
+     * Returns the list of sessions of a host, creating it if needed. Must hold the pool's lock.
+     *
+     * @param host The host.
+     * @return sessions The list of sessions of the host.
+     */
+    private List<PooledSession> sessionsOf(SSHHost host) {
+        List<PooledSession> hostSessions = sessions.get(host);
+        if (hostSessions == null) {
+            hostSessions = new ArrayList<PooledSession>();
+            sessions.put(host, hostSessions);
+        }
+        return hostSessions;
+    }
+
+    /**
+     * A session held by the pool, along with the channels opened on it.
+     */
+    private static class PooledSession {
+
+        /**
+         * The pooled session.
+         */
+        private final Session session;
+
+        /**
+         * Channels opened on the session which may still be open, mapped to the time they were
+         * opened at, in milliseconds.
+         */
+        private final Map<Channel, Long> channels;
+
+        /**
+         * Channel slots reserved but not yet opened.
+         */
+        private int reserved;
+
+        /**
+         * The last time a slot on the session was reserved, in milliseconds.
+         */
+        private long lastUsed;
+
+        /**
+         * Standard constructor for PooledSession.
+         *
+         * @param session The pooled session.
+         */
+        private PooledSession(Session session) {
+            this.session = session;
+            this.channels = new HashMap<Channel, Long>();
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        /**
+         * Forgets channels which have been closed, and channels which were never connected within
+         * the connect timeout.
+         *
+         * @param connectTimeout The timeout for connecting channels, in milliseconds.
+         */
+        private void prune(int connectTimeout) {
+            long now = System.currentTimeMillis();
+            for (Iterator<Map.Entry<Channel, Long>> iterator = channels.entrySet().iterator(); iterator.hasNext(); ) {
+                Map.Entry<Channel, Long> entry = iterator.next();
+                Channel channel = entry.getKey();
+                if (channel.isClosed() || (!channel.isConnected() && now - entry.getValue() > connectTimeout)) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        /**
+         * Returns the number of channels open or reserved on the session.
+         *
+         * @return load The number of channels open or reserved on the session.
+         */
+        private int load() {
+            return channels.size() + reserved;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.ssh;
+
+/**
+ * Summary of a directory synchronized by DeltaSync.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class SyncResult {
+
+    /**
+     * The number of files which were created or updated.
+     */
+    private final int filesSent;
+
+    /**
+     * The number of files which were already up to date.
+     */
+    private final int filesUnchanged;
+
+    /**
+     * The number of remote files which were deleted.
+     */
+    private final int filesDeleted;
+
+    /**
+     * The number of bytes sent as literal data.
+     */
+    private final long literalBytes;
+
+    /**
+     * The number of bytes reused from the remote copies of the files.
+     */
+    private final long matchedBytes;
+
+    /**
+     * Standard constructor for SyncResult.
+     *
+     * @param filesSent The number of files which were created or updated.
+     * @param filesUnchanged The number of files which were already up to date.
+     * @param filesDeleted The number of remote files which were deleted.
+     * @param literalBytes The number of bytes sent as literal data.
+     * @param matchedBytes The number of bytes reused from the remote copies of the files.
+     */
+    public SyncResult(int filesSent, int filesUnchanged, int filesDeleted, long literalBytes, long matchedBytes) {
+        this.filesSent = filesSent;
+        this.filesUnchanged = filesUnchanged;
+        this.filesDeleted = filesDeleted;
+        this.literalBytes = literalBytes;
+        this.matchedBytes = matchedBytes;
+    }
+
+    /**
+     * Returns the number of files which were created or updated.
+     *
+     * @return filesSent The number of files which were created or updated.
+     */
+    public int getFilesSent() {
+        return filesSent;
+    }
+
+    /**
+     * Returns the number of files which were already up to date.
+     *
+     * @return filesUnchanged The number of files which were already up to date.
+     */
+    public int getFilesUnchanged() {
+        return filesUnchanged;
+    }
+
+    /**
+     * Returns the number of remote files which were deleted.
+     *
+     * @return filesDeleted The number of remote files which were deleted.
+     */
+    public int getFilesDeleted() {
+        return filesDeleted;
+    }
+
+    /**
+     * Returns the number of bytes sent as literal data.
+     *
+     * @return literalBytes The number of bytes sent as literal data.
+     */
+    public long getLiteralBytes() {
+        return literalBytes;
+    }
+
+    /**
+     * Returns the number of bytes reused from the remote copies of the files.
+     *
+     * @return matchedBytes The number of bytes reused from the remote copies of the files.
+     */
+    public long getMatchedBytes() {
+        return matchedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncResult{sent=" + filesSent +
+                ", unchanged=" + filesUnchanged +
+                ", deleted=" + filesDeleted +
+                ", literal=" + literalBytes +
+                ", matched=" + matchedBytes + '}';
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.ssh;
+
+import android.support.annotation.NonNull;
+
+import com.jcraft.jsch.HostKey;
+import com.jcraft.jsch.HostKeyRepository;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.UserInfo;
+
+/**
+ * Host key repository which trusts the key a host presents the first time it is seen, and rejects
+ * any different key that host presents afterwards. Keys are stored in the wrapped repository, so
+ * they persist in its known hosts file. Sessions using this repository must enable strict host key
+ * checking, so that a changed key fails the connection with a JSchException.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class TrustOnFirstUseRepository implements HostKeyRepository {
+
+    /**
+     * The repository keys are checked against and stored in.
+     */
+    private final HostKeyRepository delegate;
+
+    /**
+     * Standard constructor for TrustOnFirstUseRepository.
+     *
+     * @param delegate The repository keys are checked against and stored in.
+     */
+    public TrustOnFirstUseRepository(@NonNull HostKeyRepository delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public int check(String host, byte[] key) {
+        // Two sessions seeing a new host at once must not both store its key.
+        synchronized (delegate) {
+            int result = delegate.check(host, key);
+            if (result != NOT_INCLUDED) {
+                return result;
+            }
+            try {
+                delegate.add(new HostKey(host, key), null);
+            } catch (JSchException e) {
+                e.printStackTrace();
+                return NOT_INCLUDED;
+            }
+            return OK;
+        }
+    }
+
+    @Override
+    public void add(HostKey hostkey, UserInfo ui) {
+        synchronized (delegate) {
+            delegate.add(hostkey, ui);
+        }
+    }
+
+    @Override
+    public void remove(String host, String type) {
+        synchronized (delegate) {
+            delegate.remove(host, type);
+        }
+    }
+
+    @Override
+    public void remove(String host, String type, byte[] key) {
+        synchronized (delegate) {
+            delegate.remove(host, type, key);
+        }
+    }
+
+    @Override
+    public String getKnownHostsRepositoryID() {
+        return delegate.getKnownHostsRepositoryID();
+    }
+
+    @Override
+    public HostKey[] getHostKey() {
+        synchronized (delegate) {
+            return delegate.getHostKey();
+        }
+    }
+
+    @Override
+    public HostKey[] getHostKey(String host, String type) {
+        synchronized (delegate) {
+            return delegate.getHostKey(host, type);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.ssh;
+
+import com.jcraft.jsch.Compression;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * SSH packet compression backed by the platform zlib. JSch only ships an adapter for JZlib, a pure
+ * Java port which is not on the classpath and is much slower than the native library. This class
+ * is registered for the "zlib" and "zlib@openssh.com" methods of compressed sessions.
+ *
+ * JSch instantiates compression by reflection, one instance per direction of each session, so the
+ * counters are process-wide. They give the CPU cost of compression in nanoseconds, so it can be
+ * weighed against the throughput of the link.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class ZlibCompression implements Compression {
+
+    /**
+     * Room left past the end of compressed packets for padding and the MAC.
+     */
+    private static final int BUFFER_MARGIN = 128;
+
+    /**
+     * Total bytes passed to deflaters.
+     */
+    private static final AtomicLong DEFLATE_INPUT = new AtomicLong();
+
+    /**
+     * Total bytes produced by deflaters.
+     */
+    private static final AtomicLong DEFLATE_OUTPUT = new AtomicLong();
+
+    /**
+     * Total time spent deflating, in nanoseconds.
+     */
+    private static final AtomicLong DEFLATE_NANOS = new AtomicLong();
+
+    /**
+     * Total bytes passed to inflaters.
+     */
+    private static final AtomicLong INFLATE_INPUT = new AtomicLong();
+
+    /**
+     * Total bytes produced by inflaters.
+     */
+    private static final AtomicLong INFLATE_OUTPUT = new AtomicLong();
+
+    /**
+     * Total time spent inflating, in nanoseconds.
+     */
+    private static final AtomicLong INFLATE_NANOS = new AtomicLong();
+
+    /**
+     * The deflater, if this instance compresses.
+     */
+    private Deflater deflater;
+
+    /**
+     * The inflater, if this instance decompresses.
+     */
+    private Inflater inflater;
+
+    /**
+     * Reused buffer for packet payloads and output.
+     */
+    private byte[] scratch = new byte[32 * 1024];
+
+    @Override
+    public void init(int type, int level) {
+        if (type == DEFLATER) {
+            deflater = new Deflater(level);
+        } else {
+            inflater = new Inflater();
+        }
+    }
+
+    @Override
+    public byte[] compress(byte[] buffer, int start, int[] length) {
+        long begin = System.nanoTime();
+        int inputLength = length[0] - start;
+        // The output overwrites the input in place, so the input is copied out first.
+        byte[] input = new byte[inputLength];
+        System.arraycopy(buffer, start, input, 0, inputLength);
+        deflater.setInput(input, 0, inputLength);
+
+        byte[] output = buffer;
+        int end = start;
+        int count;
+        do {
+            count = deflater.deflate(scratch, 0, scratch.length, Deflater.SYNC_FLUSH);
+            if (output.length < end + count + BUFFER_MARGIN) {
+                byte[] grown = new byte[(end + count + BUFFER_MARGIN) * 2];
+                System.arraycopy(output, 0, grown, 0, end);
+                output = grown;
+            }
+            System.arraycopy(scratch, 0, output, end, count);
+            end += count;
+        } while (count == scratch.length);
+
+        length[0] = end;
+        DEFLATE_INPUT.addAndGet(inputLength);
+        DEFLATE_OUTPUT.addAndGet(end - start);
+        DEFLATE_NANOS.addAndGet(System.nanoTime() - begin);
+        return output;
+    }
+
+    @Override
+    public byte[] uncompress(byte[] buffer, int start, int[] length) {
+        long begin = System.nanoTime();
+        int inputLength = length[0];
+        inflater.setInput(buffer, start, inputLength);
+
+        int end = 0;
+        try {
+            int count;
+            do {
+                if (scratch.length - end < 4096) {
+                    byte[] grown = new byte[scratch.length * 2];
+                    System.arraycopy(scratch, 0, grown, 0, end);
+                    scratch = grown;
+                }
+                count = inflater.inflate(scratch, end, scratch.length - end);
+                end += count;
+            } while (count > 0);
+        } catch (DataFormatException e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        byte[] output = buffer;
+        if (output.length < start + end) {
+            output = new byte[start + end];
+            System.arraycopy(buffer, 0, output, 0, start);
+        }
+        System.arraycopy(scratch, 0, output, start, end);
+        length[0] = end;
+        INFLATE_INPUT.addAndGet(inputLength);
+        INFLATE_OUTPUT.addAndGet(end);
+        INFLATE_NANOS.addAndGet(System.nanoTime() - begin);
+        return output;
+    }
+
+    /**
+     * Returns the total number of bytes compressed.
+     *
+     * @return deflateInput The total number of bytes passed to deflaters.
+     */
+    public static long getDeflateInput() {
+        return DEFLATE_INPUT.get();
+    }
+
+    /**
+     * Returns the total number of compressed bytes produced.
+     *
+     * @return deflateOutput The total number of bytes produced by deflaters.
+     */
+    public static long getDeflateOutput() {
+        return DEFLATE_OUTPUT.get();
+    }
+
+    /**
+     * Returns the total time spent compressing.
+     *
+     * @return deflateNanos The total time spent deflating, in nanoseconds.
+     */
+    public static long getDeflateNanos() {
+        return DEFLATE_NANOS.get();
+    }
+
+    /**
+     * Returns the total number of compressed bytes received.
+     *
+     * @return inflateInput The total number of bytes passed to inflaters.
+     */
+    public static long getInflateInput() {
+        return INFLATE_INPUT.get();
+    }
+
+    /**
+     * Returns the total number of bytes decompressed.
+     *
+     * @return inflateOutput The total number of bytes produced by inflaters.
+     */
+    public static long getInflateOutput() {
+        return INFLATE_OUTPUT.get();
+    }
+
+    /**
+     * Returns the total time spent decompressing.
+     *
+     * @return inflateNanos The total time spent inflating, in nanoseconds.
+     */
+    public static long getInflateNanos() {
+        return INFLATE_NANOS.get();
+    }
+}
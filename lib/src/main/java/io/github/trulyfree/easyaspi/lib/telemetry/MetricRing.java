@@ -0,0 +1,202 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.telemetry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-capacity ring of timestamped samples of a single metric. Timestamps and values are held in
+ * preallocated primitive arrays, so recording and reading allocate nothing.
+ *
+ * A ring has exactly one writer, but any number of readers. The writer fills a slot and then
+ * publishes it by advancing the sequence with an ordered store, so it never waits on readers.
+ * Readers work on the slots in place and check the sequence again once done; if the writer lapped
+ * them meanwhile, the overwritten samples are discarded and the read is retried.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class MetricRing {
+
+    /**
+     * The number of times a reader retries after being lapped by the writer.
+     */
+    private static final int MAX_RETRIES = 4;
+
+    /**
+     * The name of the metric.
+     */
+    private final String name;
+
+    /**
+     * The timestamps of the samples, from <code>System.nanoTime</code>.
+     */
+    private final long[] times;
+
+    /**
+     * The values of the samples.
+     */
+    private final double[] values;
+
+    /**
+     * Mask mapping sequence numbers to slots.
+     */
+    private final int mask;
+
+    /**
+     * The number of samples ever published.
+     */
+    private final AtomicLong published;
+
+    /**
+     * Standard constructor for MetricRing.
+     *
+     * @param name The name of the metric.
+     * @param capacity The number of samples retained. Rounded up to a power of two.
+     */
+    public MetricRing(String name, int capacity) {
+        int size = roundCapacity(capacity);
+        this.name = name;
+        this.times = new long[size];
+        this.values = new double[size];
+        this.mask = size - 1;
+        this.published = new AtomicLong();
+    }
+
+    /**
+     * Rounds a capacity up to the capacity a ring actually allocates.
+     *
+     * @param capacity The requested capacity.
+     * @return capacity The smallest power of two no less than the requested capacity.
+     */
+    public static int roundCapacity(int capacity) {
+        return Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+    }
+
+    /**
+     * Records a sample taken now. Must only be called by the single writer of this ring.
+     *
+     * @param value The value of the sample.
+     */
+    public void record(double value) {
+        record(System.nanoTime(), value);
+    }
+
+    /**
+     * Records a sample. Must only be called by the single writer of this ring.
+     *
+     * @param time The time of the sample, from <code>System.nanoTime</code>.
+     * @param value The value of the sample.
+     */
+    public void record(long time, double value) {
+        long sequence = published.get();
+        int slot = (int) (sequence & mask);
+        times[slot] = time;
+        values[slot] = value;
+        published.lazySet(sequence + 1);
+    }
+
+    /**
+     * Computes aggregates of the samples taken within a window ending now. At most one sample
+     * fewer than the capacity is aggregated, as the writer may be filling the remaining slot.
+     *
+     * @param stats The holder to fill. Its capacity should be at least that of this ring.
+     * @param windowMillis The length of the window, in milliseconds.
+     * @return stats The filled holder.
+     */
+    public WindowStats aggregate(WindowStats stats, long windowMillis) {
+        long now = System.nanoTime();
+        long since = now - windowMillis * 1000000L;
+        for (int attempt = 0; ; attempt++) {
+            long end = published.get();
+            // The slot of sequence end - length is the one the writer fills next, so it is skipped.
+            long start = Math.max(0, end - times.length + 1);
+            stats.reset();
+            long oldest = end;
+            for (long sequence = end - 1; sequence >= start; sequence--) {
+                int slot = (int) (sequence & mask);
+                long time = times[slot];
+                if (time - since < 0 || !stats.add(values[slot])) {
+                    break;
+                }
+                oldest = sequence;
+            }
+            // The writer may be filling the slot of sequence published, which held sequence
+            // published - length, so every sequence up to that one may be overwritten.
+            long lapped = published.get() - times.length + 1;
+            if (oldest >= lapped) {
+                return stats;
+            }
+            if (attempt == MAX_RETRIES) {
+                // Still being lapped; drop the samples which may have been overwritten.
+                stats.truncate((int) (lapped - oldest));
+                return stats;
+            }
+        }
+    }
+
+    /**
+     * Returns the most recent value.
+     *
+     * @return latest The most recent value, or NaN if nothing was recorded.
+     */
+    public double getLatest() {
+        long end = published.get();
+        return end == 0 ? Double.NaN : values[(int) ((end - 1) & mask)];
+    }
+
+    /**
+     * Returns the time of the most recent sample.
+     *
+     * @return latestTime The time of the most recent sample, or 0 if nothing was recorded.
+     */
+    public long getLatestTime() {
+        long end = published.get();
+        return end == 0 ? 0 : times[(int) ((end - 1) & mask)];
+    }
+
+    /**
+     * Returns the number of samples ever recorded. Readers may poll this to detect new samples.
+     *
+     * @return count The number of samples ever recorded.
+     */
+    public long getCount() {
+        return published.get();
+    }
+
+    /**
+     * Returns the number of samples retained.
+     *
+     * @return capacity The number of samples retained.
+     */
+    public int getCapacity() {
+        return times.length;
+    }
+
+    /**
+     * Returns the name of the metric.
+     *
+     * @return name The name of the metric.
+     */
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.telemetry;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shared store of telemetry samples, such as CPU temperature or load read from the Pi. Each metric
+ * has its own MetricRing; one module polls and records, and any number of displayable modules read
+ * the same rings through their own WindowStats.
+ *
+ * Samples outlive activities, so the shared instance should be used.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class TelemetryService {
+
+    /**
+     * The default number of samples retained per metric. About 13 minutes at 5 samples a second.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * The service shared by every activity in the process.
+     */
+    public static final TelemetryService SHARED = new TelemetryService(DEFAULT_CAPACITY);
+
+    /**
+     * The number of samples retained per metric.
+     */
+    private final int capacity;
+
+    /**
+     * Rings by metric name.
+     */
+    private final ConcurrentMap<String, MetricRing> rings;
+
+    /**
+     * Standard constructor for TelemetryService.
+     *
+     * @param capacity The number of samples retained per metric.
+     */
+    public TelemetryService(int capacity) {
+        this.capacity = capacity;
+        this.rings = new ConcurrentHashMap<String, MetricRing>();
+    }
+
+    /**
+     * Returns the ring of a metric, creating it if needed. Writers should keep the ring rather
+     * than look it up per sample.
+     *
+     * @param metric The name of the metric.
+     * @return ring The ring of the metric.
+     */
+    public MetricRing getRing(@NonNull String metric) {
+        MetricRing ring = rings.get(metric);
+        if (ring == null) {
+            MetricRing created = new MetricRing(metric, capacity);
+            ring = rings.putIfAbsent(metric, created);
+            if (ring == null) {
+                ring = created;
+            }
+        }
+        return ring;
+    }
+
+    /**
+     * Records a sample of a metric taken now. Every metric must only be recorded from one thread.
+     *
+     * @param metric The name of the metric.
+     * @param value The value of the sample.
+     */
+    public void record(@NonNull String metric, double value) {
+        getRing(metric).record(value);
+    }
+
+    /**
+     * Creates a holder able to aggregate a full ring of this service.
+     *
+     * @return stats A new, reusable holder.
+     */
+    public WindowStats newWindowStats() {
+        return new WindowStats(MetricRing.roundCapacity(capacity));
+    }
+
+    /**
+     * Returns the names of every metric recorded so far.
+     *
+     * @return metrics The names of every metric.
+     */
+    public Set<String> getMetrics() {
+        return Collections.unmodifiableSet(rings.keySet());
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.telemetry;
+
+import java.util.Arrays;
+
+/**
+ * Reusable holder for aggregates over a window of a MetricRing. Each reader keeps its own holder
+ * and refills it on every refresh, so reading allocates nothing. Values are collected newest
+ * first into a preallocated array, which is sorted in place the first time a percentile is asked
+ * for.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class WindowStats {
+
+    /**
+     * The values in the window.
+     */
+    private final double[] window;
+
+    /**
+     * The number of values in the window.
+     */
+    private int count;
+
+    /**
+     * Whether the values are sorted.
+     */
+    private boolean sorted;
+
+    /**
+     * The smallest value in the window.
+     */
+    private double min;
+
+    /**
+     * The largest value in the window.
+     */
+    private double max;
+
+    /**
+     * The sum of the values in the window.
+     */
+    private double sum;
+
+    /**
+     * Standard constructor for WindowStats.
+     *
+     * @param capacity The maximum number of values held, normally the capacity of the ring read.
+     */
+    public WindowStats(int capacity) {
+        this.window = new double[capacity];
+        reset();
+    }
+
+    /**
+     * Empties the window.
+     */
+    void reset() {
+        count = 0;
+        sorted = false;
+        min = Double.NaN;
+        max = Double.NaN;
+        sum = 0;
+    }
+
+    /**
+     * Adds a value to the window.
+     *
+     * @param value The value to add.
+     * @return added Whether there was room for the value.
+     */
+    boolean add(double value) {
+        if (count == window.length) {
+            return false;
+        }
+        window[count++] = value;
+        if (count == 1 || value < min) {
+            min = value;
+        }
+        if (count == 1 || value > max) {
+            max = value;
+        }
+        sum += value;
+        return true;
+    }
+
+    /**
+     * Drops the oldest values from the window and recomputes the aggregates.
+     *
+     * @param dropped The number of values to drop.
+     */
+    void truncate(int dropped) {
+        int kept = Math.max(0, count - dropped);
+        reset();
+        for (int i = 0; i < kept; i++) {
+            add(window[i]);
+        }
+    }
+
+    /**
+     * Returns the number of values in the window.
+     *
+     * @return count The number of values in the window.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the smallest value in the window.
+     *
+     * @return min The smallest value, or NaN if the window is empty.
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * Returns the largest value in the window.
+     *
+     * @return max The largest value, or NaN if the window is empty.
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the mean of the values in the window.
+     *
+     * @return mean The mean, or NaN if the window is empty.
+     */
+    public double getMean() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    /**
+     * Returns a percentile of the values in the window, using the nearest-rank method.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return value The value at the percentile, or NaN if the window is empty.
+     */
+    public double getPercentile(double percentile) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (!sorted) {
+            Arrays.sort(window, 0, count);
+            sorted = true;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * count);
+        return window[Math.min(count - 1, Math.max(0, rank - 1))];
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.trace;
+
+import android.os.Trace;
+import android.support.annotation.NonNull;
+
+import com.google.gson.Gson;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records nanosecond spans of the phases of start-up, such as loading the dex or building the
+ * views of a module. Spans are written to preallocated arrays, so recording one costs two reads of
+ * the clock and a few array stores; once the arrays are full, further spans are dropped until the
+ * tracer is reset, which is done at every launch.
+ *
+ * Recorded spans can be written out as Chrome trace JSON, to be opened in chrome://tracing or
+ * Perfetto. Spans begun with <code>begin</code> can also be forwarded to android.os.Trace, so they
+ * show up as sections in systrace; such spans must end on the thread which began them. Whether a span
+ * was forwarded is carried by its handle, so its section is ended even if the span was dropped by
+ * a reset in between. Spans which
+ * cross threads, like time-to-interactive, are begun with <code>beginAsync</code> instead.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class Tracer {
+
+    /**
+     * The tracer shared by every activity in the process.
+     */
+    public static final Tracer SHARED = new Tracer(4096);
+
+    /**
+     * Span index returned when a span is not recorded.
+     */
+    public static final int NOT_RECORDED = -1;
+
+    /**
+     * The longest section name accepted by android.os.Trace.
+     */
+    private static final int MAX_SECTION_NAME = 127;
+
+    /**
+     * The names of the spans.
+     */
+    private final String[] names;
+
+    /**
+     * The start times of the spans, from <code>System.nanoTime</code>.
+     */
+    private final long[] starts;
+
+    /**
+     * The end times of the spans, or 0 while a span is open or for instants.
+     */
+    private final long[] ends;
+
+    /**
+     * The ids of the threads which began the spans.
+     */
+    private final long[] threads;
+
+    /**
+     * Whether each span is an instant.
+     */
+    private final boolean[] instants;
+
+    /**
+     * The sequence number of the next span. Span handles are sequence numbers, so a span begun
+     * before a reset is recognized and ignored when it ends.
+     */
+    private final AtomicInteger next;
+
+    /**
+     * The sequence number of the first span since the last reset, which is stored at index 0.
+     */
+    private volatile int base;
+
+    /**
+     * The time all spans are relative to, from <code>System.nanoTime</code>.
+     */
+    private volatile long origin;
+
+    /**
+     * Whether spans are recorded.
+     */
+    private volatile boolean enabled;
+
+    /**
+     * Whether synchronous spans are forwarded to android.os.Trace.
+     */
+    private volatile boolean systraceEnabled;
+
+    /**
+     * Standard constructor for Tracer.
+     *
+     * @param capacity The maximum number of spans recorded.
+     */
+    public Tracer(int capacity) {
+        this.names = new String[capacity];
+        this.starts = new long[capacity];
+        this.ends = new long[capacity];
+        this.threads = new long[capacity];
+        this.instants = new boolean[capacity];
+        this.next = new AtomicInteger();
+        this.origin = System.nanoTime();
+        this.enabled = true;
+    }
+
+    /**
+     * Begins a span which ends on the same thread.
+     *
+     * @param name The name of the span. Should be a constant, so recording allocates nothing.
+     * @return span The handle of the span, to be passed to <code>end</code>.
+     */
+    public int begin(@NonNull String name) {
+        int span = record(name, false);
+        if (span == NOT_RECORDED || !systraceEnabled) {
+            return span;
+        }
+        Trace.beginSection(name.length() > MAX_SECTION_NAME ? name.substring(0, MAX_SECTION_NAME) : name);
+        return forwardedHandle(span);
+    }
+
+    /**
+     * Ends a span begun with <code>begin</code>.
+     *
+     * @param span The handle of the span.
+     */
+    public void end(int span) {
+        boolean forwarded = span < NOT_RECORDED;
+        int index = indexOf(forwarded ? forwardedHandle(span) : span);
+        if (index != NOT_RECORDED) {
+            ends[index] = System.nanoTime();
+        }
+        if (forwarded) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Converts the sequence number of a span forwarded to android.os.Trace to its handle, and back.
+     * Such handles are below NOT_RECORDED, so they never collide with other handles.
+     *
+     * @param span The sequence number or handle.
+     * @return handle The handle or sequence number.
+     */
+    private static int forwardedHandle(int span) {
+        return NOT_RECORDED - 1 - span;
+    }
+
+    /**
+     * Begins a span which may end on another thread. Such spans are never forwarded to systrace.
+     *
+     * @param name The name of the span.
+     * @return span The handle of the span, to be passed to <code>endAsync</code>.
+     */
+    public int beginAsync(@NonNull String name) {
+        return record(name, false);
+    }
+
+    /**
+     * Ends a span begun with <code>beginAsync</code>.
+     *
+     * @param span The handle of the span.
+     * @return duration The duration of the span in nanoseconds, or -1 if it was not recorded.
+     */
+    public long endAsync(int span) {
+        int index = indexOf(span);
+        if (index == NOT_RECORDED) {
+            return -1;
+        }
+        ends[index] = System.nanoTime();
+        return ends[index] - starts[index];
+    }
+
+    /**
+     * Records an instant, such as a module becoming interactive.
+     *
+     * @param name The name of the instant.
+     */
+    public void mark(@NonNull String name) {
+        record(name, true);
+    }
+
+    /**
+     * Claims and fills the next slot.
+     *
+     * @param name The name of the span.
+     * @param instant Whether the span is an instant.
+     * @return span The handle of the span, or NOT_RECORDED.
+     */
+    private int record(String name, boolean instant) {
+        if (!enabled) {
+            return NOT_RECORDED;
+        }
+        int span = next.getAndIncrement();
+        int index = indexOf(span);
+        if (index == NOT_RECORDED) {
+            return NOT_RECORDED;
+        }
+        names[index] = name;
+        threads[index] = Thread.currentThread().getId();
+        instants[index] = instant;
+        ends[index] = 0;
+        starts[index] = System.nanoTime();
+        return span;
+    }
+
+    /**
+     * Returns the index of a span in the arrays.
+     *
+     * @param span The handle of the span.
+     * @return index The index of the span, or NOT_RECORDED if it was not recorded or was begun
+     *               before the last reset.
+     */
+    private int indexOf(int span) {
+        if (span == NOT_RECORDED) {
+            return NOT_RECORDED;
+        }
+        int index = span - base;
+        return index < 0 || index >= names.length ? NOT_RECORDED : index;
+    }
+
+    /**
+     * Forgets every recorded span, so that spans are recorded again once the arrays were full,
+     * and makes the time of the reset the origin of the trace. Spans still open are dropped.
+     */
+    public void reset() {
+        origin = System.nanoTime();
+        base = next.get();
+    }
+
+    /**
+     * Writes every complete span and instant as Chrome trace JSON.
+     *
+     * @param writer The writer to write to. It is not closed.
+     * @throws IOException If writing fails.
+     */
+    public void writeChromeTrace(@NonNull Writer writer) throws IOException {
+        Gson gson = new Gson();
+        int count = getCount();
+        long origin = this.origin;
+        writer.write("{\"displayTimeUnit\":\"ns\",\"traceEvents\":[");
+        boolean first = true;
+        for (int index = 0; index < count; index++) {
+            String name = names[index];
+            long end = ends[index];
+            if (name == null || (!instants[index] && end == 0)) {
+                continue;
+            }
+            if (!first) {
+                writer.write(',');
+            }
+            first = false;
+            writer.write("\n{\"name\":");
+            writer.write(gson.toJson(name));
+            writer.write(",\"cat\":\"eap\",\"pid\":1,\"tid\":");
+            writer.write(Long.toString(threads[index]));
+            writer.write(",\"ts\":");
+            writer.write(micros(starts[index] - origin));
+            if (instants[index]) {
+                writer.write(",\"ph\":\"i\",\"s\":\"p\"}");
+            } else {
+                writer.write(",\"ph\":\"X\",\"dur\":");
+                writer.write(micros(end - starts[index]));
+                writer.write('}');
+            }
+        }
+        writer.write("\n]}\n");
+    }
+
+    /**
+     * Writes every complete span and instant as Chrome trace JSON to a file.
+     *
+     * @param file The file to write to.
+     * @throws IOException If writing fails.
+     */
+    public void writeChromeTrace(@NonNull File file) throws IOException {
+        file.getParentFile().mkdirs();
+        Writer writer = new BufferedWriter(new FileWriter(file));
+        try {
+            writeChromeTrace(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Formats nanoseconds as the fractional microseconds used by Chrome traces.
+     *
+     * @param nanos The nanoseconds to format.
+     * @return micros The formatted microseconds.
+     */
+    private static String micros(long nanos) {
+        long fraction = nanos % 1000;
+        return (nanos / 1000) + "." + (fraction < 10 ? "00" : fraction < 100 ? "0" : "") + fraction;
+    }
+
+    /**
+     * Sets whether spans are recorded.
+     *
+     * @param enabled Whether spans are recorded.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Sets whether synchronous spans are also forwarded to android.os.Trace.
+     *
+     * @param systraceEnabled Whether synchronous spans are forwarded to android.os.Trace.
+     */
+    public void setSystraceEnabled(boolean systraceEnabled) {
+        this.systraceEnabled = systraceEnabled;
+    }
+
+    /**
+     * Returns the number of spans recorded so far.
+     *
+     * @return count The number of spans recorded.
+     */
+    public int getCount() {
+        return Math.max(0, Math.min(next.get() - base, names.length));
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.lib.util;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+import io.github.trulyfree.easyaspi.lib.callback.ChunkCallback;
+
+/**
+ * Bounded byte buffer between a single producer and a single consumer. The producer blocks while
+ * the buffer is full, which pushes back on whatever feeds it. The consumer is handed chunks as
+ * slices of the buffer itself, so nothing is copied or allocated on the way out.
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public class ByteRingBuffer {
+
+    /**
+     * The backing array.
+     */
+    private final byte[] buffer;
+
+    /**
+     * The position of the first unread byte.
+     */
+    private int head;
+
+    /**
+     * The number of unread bytes.
+     */
+    private int count;
+
+    /**
+     * Whether the producer has finished writing.
+     */
+    private boolean closed;
+
+    /**
+     * Whether the buffer has been aborted, discarding unread bytes.
+     */
+    private boolean aborted;
+
+    /**
+     * Standard constructor for ByteRingBuffer.
+     *
+     * @param capacity The capacity of the buffer, in bytes.
+     */
+    public ByteRingBuffer(int capacity) {
+        this.buffer = new byte[capacity];
+    }
+
+    /**
+     * Writes bytes to the buffer, blocking while it is full.
+     *
+     * @param data The buffer holding the bytes.
+     * @param offset The offset of the bytes.
+     * @param length The number of bytes.
+     * @throws IOException If the buffer was closed or aborted, or the thread was interrupted.
+     */
+    public synchronized void write(@NonNull byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            while (count == buffer.length && !closed && !aborted) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while writing.");
+                }
+            }
+            if (closed || aborted) {
+                throw new IOException("Buffer closed.");
+            }
+            int tail = (head + count) % buffer.length;
+            int written = Math.min(length, Math.min(buffer.length - count, buffer.length - tail));
+            System.arraycopy(data, offset, buffer, tail, written);
+            count += written;
+            offset += written;
+            length -= written;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Hands the next contiguous run of unread bytes to a callback, blocking until some are
+     * available. The callback is invoked without holding the buffer's lock, so the producer may
+     * keep writing to the free part of the buffer meanwhile.
+     *
+     * @param callback The callback to hand the bytes to.
+     * @return count The number of bytes handed over, or -1 if the buffer is closed and empty.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    public int drain(@NonNull ChunkCallback callback) throws InterruptedException {
+        int start, available;
+        synchronized (this) {
+            while (count == 0 && !closed && !aborted) {
+                wait();
+            }
+            if (aborted || count == 0) {
+                return -1;
+            }
+            start = head;
+            available = Math.min(count, buffer.length - head);
+        }
+        callback.onChunk(buffer, start, available);
+        synchronized (this) {
+            if (!aborted) {
+                head = (head + available) % buffer.length;
+                count -= available;
+            }
+            notifyAll();
+        }
+        return available;
+    }
+
+    /**
+     * Marks the end of the data. Bytes already written may still be drained.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Discards all unread bytes and stops both the producer and the consumer.
+     */
+    public synchronized void abort() {
+        aborted = true;
+        count = 0;
+        notifyAll();
+    }
+
+    /**
+     * Returns the capacity of the buffer.
+     *
+     * @return capacity The capacity of the buffer, in bytes.
+     */
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Returns an OutputStream which writes to this buffer and closes it when closed.
+     *
+     * @return output An OutputStream writing to this buffer.
+     */
+    public OutputStream asOutputStream() {
+        return new OutputStream() {
+            private final byte[] single = new byte[1];
+
+            @Override
+            public void write(int data) throws IOException {
+                single[0] = (byte) data;
+                ByteRingBuffer.this.write(single, 0, 1);
+            }
+
+            @Override
+            public void write(@NonNull byte[] data, int offset, int length) throws IOException {
+                ByteRingBuffer.this.write(data, offset, length);
+            }
+
+            @Override
+            public void close() {
+                ByteRingBuffer.this.close();
+            }
+        };
+    }
+}
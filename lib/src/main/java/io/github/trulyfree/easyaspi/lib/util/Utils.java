@@ -40,6 +40,26 @@ public class Utils {
         throw new UnsupportedOperationException("Instantiation not permitted.");
     }
 
+    /**
+     * Hexadecimal digits, by value.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Converts bytes, such as a digest, to a lowercase hexadecimal String.
+     *
+     * @param bytes The bytes to convert.
+     * @return hex The hexadecimal representation of the bytes.
+     */
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
     /**
      * Generates an OnClickListener from a given FutureCallback.
      *
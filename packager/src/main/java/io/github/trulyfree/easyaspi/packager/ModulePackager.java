@@ -0,0 +1,282 @@
+/*
+ * EasyAsPi: A phone-based interface for the Raspberry Pi.
+ * Copyright (C) 2017  vtcakavsmoace
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Raspberry Pi is a trademark of the Raspberry Pi Foundation.
+ */
+
+package io.github.trulyfree.easyaspi.packager;
+
+import com.android.dx.command.dexer.Main;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.github.trulyfree.easyaspi.lib.dl.VerifyingInputStream;
+import io.github.trulyfree.easyaspi.lib.module.ModuleBundle;
+import io.github.trulyfree.easyaspi.lib.module.conf.Config;
+import io.github.trulyfree.easyaspi.lib.module.conf.ModuleConfig;
+
+/**
+ * Packages a module for publishing. Every jar of the module and its dependencies found in the jar
+ * directory is copied to the output directory and dexed with dx, and the config is rewritten to
+ * point at both, with their digests, so that devices load the dex as is rather than dexing the
+ * jar themselves. Jars not found are left to their existing config. The output directory is laid
+ * out as follows, and must be served at the base URL:
+ *
+ * <pre>
+ * NAME.json          the rewritten config of the module
+ * jars/NAME.jar      the jar of the module or dependency NAME
+ * dex/NAME.dex       the dex of that jar
+ * bundles/NAME.zip   the bundle of the module, if asked for
+ * </pre>
+ *
+ * Options are given as <code>key=value</code> arguments:
+ * <ul>
+ *     <li><code>config</code>: the config of the module.</li>
+ *     <li><code>jars</code>: the directory holding NAME.jar for the module and its dependencies.</li>
+ *     <li><code>out</code>: the output directory.</li>
+ *     <li><code>url</code>: the URL the output directory is served at.</li>
+ *     <li><code>dex</code> (true): whether to build dex.</li>
+ *     <li><code>bundle</code> (false): whether to build a bundle.</li>
+ * </ul>
+ *
+ * @author vtcakavsmoace
+ * @since v0.0.3-alpha
+ */
+public final class ModulePackager {
+
+    /**
+     * The output directory.
+     */
+    private final File outDir;
+
+    /**
+     * The URL the output directory is served at, ending with a slash.
+     */
+    private final String baseUrl;
+
+    /**
+     * Whether to build dex.
+     */
+    private final boolean dex;
+
+    /**
+     * Standard constructor for ModulePackager.
+     *
+     * @param outDir The output directory.
+     * @param baseUrl The URL the output directory is served at.
+     * @param dex Whether to build dex.
+     */
+    public ModulePackager(File outDir, String baseUrl, boolean dex) {
+        this.outDir = outDir;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        this.dex = dex;
+    }
+
+    /**
+     * Runs the packager.
+     *
+     * @param args The options, as <code>key=value</code>.
+     * @throws IOException If the module could not be packaged.
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (split == -1) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            options.put(arg.substring(0, split), arg.substring(split + 1));
+        }
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        ModuleConfig config;
+        Reader reader = new FileReader(requiredOption(options, "config"));
+        try {
+            config = gson.fromJson(reader, ModuleConfig.class);
+        } finally {
+            reader.close();
+        }
+        ModulePackager packager = new ModulePackager(new File(requiredOption(options, "out")),
+                requiredOption(options, "url"),
+                Boolean.parseBoolean(option(options, "dex", "true")));
+        File configFile = packager.pack(config,
+                new File(requiredOption(options, "jars")),
+                Boolean.parseBoolean(option(options, "bundle", "false")),
+                gson);
+        System.out.println("Wrote " + configFile);
+    }
+
+    /**
+     * Packages a module, rewriting its config.
+     *
+     * @param config The config of the module, which is rewritten.
+     * @param jarDir The directory holding the jars of the module and its dependencies.
+     * @param bundle Whether to build a bundle.
+     * @param gson The Gson instance to write configs with.
+     * @return configFile The rewritten config.
+     * @throws IOException If the module could not be packaged.
+     */
+    public File pack(ModuleConfig config, File jarDir, boolean bundle, Gson gson) throws IOException {
+        List<Config> packed = new ArrayList<Config>();
+        if (packItem(config, jarDir)) {
+            packed.add(config);
+        }
+        for (Config dependency : config.getDependencies()) {
+            if (packItem(dependency, jarDir)) {
+                packed.add(dependency);
+            }
+        }
+        if (bundle) {
+            String path = "bundles/" + config.getName() + ".zip";
+            config.setBundleUrl(baseUrl + path);
+            File bundleFile = output(path);
+            ModuleBundle.Writer writer = new ModuleBundle.Writer(new FileOutputStream(bundleFile), config, gson);
+            try {
+                for (Config item : packed) {
+                    writer.putJar(item.getName(), new FileInputStream(output("jars/" + item.getName() + ".jar")));
+                    File dexFile = output("dex/" + item.getName() + ".dex");
+                    if (dexFile.exists()) {
+                        writer.putDex(item.getName(), new FileInputStream(dexFile));
+                    }
+                }
+            } finally {
+                writer.close();
+            }
+        }
+        File configFile = output(config.getName() + ".json");
+        Writer writer = new FileWriter(configFile);
+        try {
+            gson.toJson(config, writer);
+        } finally {
+            writer.close();
+        }
+        return configFile;
+    }
+
+    /**
+     * Copies and dexes the jar of a config, pointing the config at both.
+     *
+     * @param item The config of the jar, which is rewritten.
+     * @param jarDir The directory holding the jar.
+     * @return packed Whether the jar was found.
+     * @throws IOException If the jar could not be copied or dexed.
+     */
+    private boolean packItem(Config item, File jarDir) throws IOException {
+        File jar = new File(jarDir, item.getName() + ".jar");
+        if (!jar.isFile()) {
+            System.err.println("No jar for " + item.getName() + "; its config is left as is.");
+            return false;
+        }
+        String jarPath = "jars/" + item.getName() + ".jar";
+        File copied = output(jarPath);
+        copy(new FileInputStream(jar), new FileOutputStream(copied));
+        item.setJarUrl(baseUrl + jarPath);
+        item.setSha256(VerifyingInputStream.digest(copied));
+        item.setSize(copied.length());
+
+        if (dex) {
+            String dexPath = "dex/" + item.getName() + ".dex";
+            File dexFile = output(dexPath);
+            dexFile.delete();
+            // The same dx the device runs, so the dex is what the device would have built.
+            Main.main(new String[]{
+                    "--output=" + dexFile.getAbsolutePath(),
+                    copied.getAbsolutePath()
+            });
+            if (!dexFile.exists()) {
+                throw new IOException("dx did not produce " + dexFile);
+            }
+            item.setDexUrl(baseUrl + dexPath);
+            item.setDexSha256(VerifyingInputStream.digest(dexFile));
+        }
+        return true;
+    }
+
+    /**
+     * Returns a file of the output directory, creating its parent directory.
+     *
+     * @param path The path of the file beneath the output directory.
+     * @return file The file.
+     */
+    private File output(String path) {
+        File file = new File(outDir, path);
+        file.getParentFile().mkdirs();
+        return file;
+    }
+
+    /**
+     * Copies a stream, closing both streams.
+     *
+     * @param input The stream to copy.
+     * @param output The stream to copy to.
+     * @throws IOException If the copy fails.
+     */
+    private static void copy(InputStream input, OutputStream output) throws IOException {
+        try {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+        } finally {
+            input.close();
+            output.close();
+        }
+    }
+
+    /**
+     * Returns an option.
+     *
+     * @param options The options.
+     * @param key The key of the option.
+     * @param fallback The value if the option was not given.
+     * @return value The value of the option.
+     */
+    private static String option(Map<String, String> options, String key, String fallback) {
+        String value = options.get(key);
+        return value == null ? fallback : value;
+    }
+
+    /**
+     * Returns an option which must be given.
+     *
+     * @param options The options.
+     * @param key The key of the option.
+     * @return value The value of the option.
+     */
+    private static String requiredOption(Map<String, String> options, String key) {
+        String value = options.get(key);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing option " + key + "=...");
+        }
+        return value;
+    }
+}